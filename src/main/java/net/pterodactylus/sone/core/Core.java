@@ -25,10 +25,14 @@ import java.util.Collections;
 import java.util.Comparator;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CopyOnWriteArrayList;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -86,6 +90,24 @@ public class Core extends AbstractService {
 		downloading,
 	}
 
+	/**
+	 * Enumeration for the priorities with which remote {@link Sone}s are
+	 * watched for updates and fetched, highest priority first.
+	 *
+	 * @author <a href="mailto:bombe@pterodactylus.net">David ‘Bombe’ Roden</a>
+	 */
+	public enum SonePriority {
+
+		/** The Sone is a local Sone or followed by a local Sone. */
+		friend,
+
+		/** A local Sone replied to or liked something of the Sone. */
+		interacted,
+
+		/** The Sone is only known. */
+		other,
+	}
+
 	/** The logger. */
 	private static final Logger logger = Logging.getLogger(Core.class);
 
@@ -101,28 +123,73 @@ public class Core extends AbstractService {
 	/** The Sone downloader. */
 	private SoneDownloader soneDownloader;
 
+	/** The Sone inserter. */
+	private SoneInserter soneInserter;
+
+	/** The store for downloaded Sones. */
+	private SoneStore soneStore;
+
+	/** The journal of changes to local Sones. */
+	private SoneJournal soneJournal;
+
 	/** The Sone blacklist. */
 	private final Set<Sone> blacklistedSones = Collections.synchronizedSet(new HashSet<Sone>());
 
 	/** The local Sones. */
 	private final Set<Sone> localSones = Collections.synchronizedSet(new HashSet<Sone>());
 
-	/** Sone inserters. */
-	private final Map<Sone, SoneInserter> soneInserters = Collections.synchronizedMap(new HashMap<Sone, SoneInserter>());
+	/** The timelines of the local Sones. */
+	private final Map<Sone, Timeline> timelines = Collections.synchronizedMap(new HashMap<Sone, Timeline>());
 
 	/** The Sones’ statuses. */
 	private final Map<Sone, SoneStatus> soneStatuses = Collections.synchronizedMap(new HashMap<Sone, SoneStatus>());
 
 	/* various caches follow here. */
 
+	/** The known Sones that were loaded from the configuration. */
+	private final Set<Sone> configuredSones = Collections.synchronizedSet(new HashSet<Sone>());
+
 	/** Cache for all known Sones. */
-	private final Map<String, Sone> soneCache = Collections.synchronizedMap(new HashMap<String, Sone>());
+	private final ConcurrentMap<String, Sone> soneCache = new ConcurrentHashMap<String, Sone>();
 
 	/** Cache for all known posts. */
-	private final Map<String, Post> postCache = Collections.synchronizedMap(new HashMap<String, Post>());
+	private final ConcurrentMap<String, Post> postCache = new ConcurrentHashMap<String, Post>();
 
 	/** Cache for all known replies. */
-	private final Map<String, Reply> replyCache = Collections.synchronizedMap(new HashMap<String, Reply>());
+	private final ConcurrentMap<String, Reply> replyCache = new ConcurrentHashMap<String, Reply>();
+
+	/** The replies of all posts, sorted by time, indexed by post ID. */
+	private final Map<String, List<Reply>> postReplies = new HashMap<String, List<Reply>>();
+
+	/** The IDs of the posts replies have been indexed under. */
+	private final Map<String, String> replyPostIds = new HashMap<String, String>();
+
+	/** The Sones that like a post, indexed by post ID. */
+	private final Map<String, Set<Sone>> postLikes = new ConcurrentHashMap<String, Set<Sone>>();
+
+	/** The Sones that like a reply, indexed by reply ID. */
+	private final Map<String, Set<Sone>> replyLikes = new ConcurrentHashMap<String, Set<Sone>>();
+
+	/** The cache sweeper. */
+	private final CacheSweeper cacheSweeper = new CacheSweeper();
+
+	/** The journal checkpointer. */
+	private final JournalCheckpointer journalCheckpointer = new JournalCheckpointer();
+
+	/** The core listeners. */
+	private final List<CoreListener> coreListeners = new CopyOnWriteArrayList<CoreListener>();
+
+	/** Comparator that sorts replies by time, oldest first. */
+	private static final Comparator<Reply> replyTimeComparator = new Comparator<Reply>() {
+
+		/**
+		 * {@inheritDoc}
+		 */
+		@Override
+		public int compare(Reply leftReply, Reply rightReply) {
+			return (int) Math.max(Integer.MIN_VALUE, Math.min(Integer.MAX_VALUE, leftReply.getTime() - rightReply.getTime()));
+		}
+	};
 
 	/**
 	 * Creates a new core.
@@ -131,6 +198,30 @@ public class Core extends AbstractService {
 		super("Sone Core", false);
 	}
 
+	//
+	// LISTENER MANAGEMENT
+	//
+
+	/**
+	 * Adds a new core listener.
+	 *
+	 * @param coreListener
+	 *            The listener to add
+	 */
+	public void addCoreListener(CoreListener coreListener) {
+		coreListeners.add(coreListener);
+	}
+
+	/**
+	 * Removes a core listener.
+	 *
+	 * @param coreListener
+	 *            The listener to remove
+	 */
+	public void removeCoreListener(CoreListener coreListener) {
+		coreListeners.remove(coreListener);
+	}
+
 	//
 	// ACCESSORS
 	//
@@ -144,6 +235,24 @@ public class Core extends AbstractService {
 		return options;
 	}
 
+	/**
+	 * Returns the Sone inserter.
+	 *
+	 * @return The Sone inserter
+	 */
+	public SoneInserter getSoneInserter() {
+		return soneInserter;
+	}
+
+	/**
+	 * Returns the Sone downloader.
+	 *
+	 * @return The Sone downloader
+	 */
+	public SoneDownloader getSoneDownloader() {
+		return soneDownloader;
+	}
+
 	/**
 	 * Sets the configuration of the core.
 	 *
@@ -167,6 +276,33 @@ public class Core extends AbstractService {
 		this.freenetInterface = freenetInterface;
 		soneDownloader = new SoneDownloader(this, freenetInterface);
 		soneDownloader.start();
+		soneInserter = new SoneInserter(this, freenetInterface);
+		soneInserter.start();
+		return this;
+	}
+
+	/**
+	 * Sets the store that downloaded Sones are stored in so that they can be
+	 * restored quickly after a restart.
+	 *
+	 * @param soneStore
+	 *            The store for downloaded Sones
+	 * @return This core (for method chaining)
+	 */
+	public Core soneStore(SoneStore soneStore) {
+		this.soneStore = soneStore;
+		return this;
+	}
+
+	/**
+	 * Sets the journal that changes to local Sones are recorded in.
+	 *
+	 * @param soneJournal
+	 *            The journal for local Sones
+	 * @return This core (for method chaining)
+	 */
+	public Core soneJournal(SoneJournal soneJournal) {
+		this.soneJournal = soneJournal;
 		return this;
 	}
 
@@ -191,19 +327,35 @@ public class Core extends AbstractService {
 
 	/**
 	 * Returns the Sone with the given ID, or an empty Sone that has been
-	 * initialized with the given ID.
+	 * initialized with the given ID. Concurrent callers always get the same
+	 * Sone for the same ID.
 	 *
 	 * @param soneId
 	 *            The ID of the Sone
 	 * @return The Sone
 	 */
 	public Sone getSone(String soneId) {
-		if (!soneCache.containsKey(soneId)) {
-			Sone sone = new Sone(soneId);
-			soneCache.put(soneId, sone);
-			setSoneStatus(sone, SoneStatus.unknown);
+		Sone sone = soneCache.get(soneId);
+		if (sone == null) {
+			Sone newSone = new Sone(soneId);
+			sone = soneCache.putIfAbsent(soneId, newSone);
+			if (sone == null) {
+				sone = newSone;
+				setSoneStatus(sone, SoneStatus.unknown);
+			}
 		}
-		return soneCache.get(soneId);
+		return sone;
+	}
+
+	/**
+	 * Returns whether a Sone with the given ID is known, without creating it.
+	 *
+	 * @param soneId
+	 *            The ID of the Sone
+	 * @return {@code true} if the Sone is known, {@code false} otherwise
+	 */
+	public boolean hasSone(String soneId) {
+		return soneCache.containsKey(soneId);
 	}
 
 	/**
@@ -284,6 +436,44 @@ public class Core extends AbstractService {
 		soneStatuses.put(sone, soneStatus);
 	}
 
+	/**
+	 * Returns the priority of the given Sone, determined by its relationship
+	 * to the local Sones.
+	 *
+	 * @param sone
+	 *            The Sone to get the priority for
+	 * @return The priority of the Sone
+	 */
+	public SonePriority getSonePriority(Sone sone) {
+		List<Sone> localSones = new ArrayList<Sone>(this.localSones);
+		for (Sone localSone : localSones) {
+			if (localSone.equals(sone) || localSone.hasFriend(sone)) {
+				return SonePriority.friend;
+			}
+		}
+		if (hasInteracted(localSones, sone)) {
+			return SonePriority.interacted;
+		}
+		return SonePriority.other;
+	}
+
+	/**
+	 * Returns the posts of the given local Sone and all its friends, sorted by
+	 * time, newest first.
+	 *
+	 * @param sone
+	 *            The local Sone to get the timeline for
+	 * @return The posts of the Sone and its friends, or an empty list if the
+	 *         given Sone is not a local Sone
+	 */
+	public List<Post> getTimeline(Sone sone) {
+		Timeline timeline = timelines.get(sone);
+		if (timeline == null) {
+			return Collections.emptyList();
+		}
+		return timeline.getPosts();
+	}
+
 	/**
 	 * Creates a new post and adds it to the given Sone.
 	 *
@@ -309,11 +499,84 @@ public class Core extends AbstractService {
 	 * @return The created post
 	 */
 	public Post createPost(Sone sone, long time, String text) {
-		Post post = getPost(UUID.randomUUID().toString()).setSone(sone).setTime(time).setText(text);
-		sone.addPost(post);
+		Post post = addPost(sone, UUID.randomUUID().toString(), time, text);
+		localSoneModified(SoneJournal.Type.POST_CREATED, sone, time, post.getId(), text);
 		return post;
 	}
 
+	/**
+	 * Deletes the given post. It is removed from its Sone, from all timelines,
+	 * and from the post cache.
+	 *
+	 * @param post
+	 *            The post to delete
+	 */
+	public void deletePost(Post post) {
+		removePost(post);
+		localSoneModified(SoneJournal.Type.POST_DELETED, post.getSone(), System.currentTimeMillis(), post.getId());
+	}
+
+	/**
+	 * Replaces all posts of the given Sone with the given posts, keeping the
+	 * timelines of all local Sones up-to-date. The caller needs to synchronize
+	 * on the Sone.
+	 *
+	 * @param sone
+	 *            The Sone whose posts to replace
+	 * @param posts
+	 *            The new (and only) posts of the Sone
+	 */
+	public void setPosts(Sone sone, Collection<Post> posts) {
+		setPosts(sone, posts, Collections.<Post> emptySet());
+	}
+
+	/**
+	 * Replaces all posts of the given Sone with the given posts. Only the
+	 * differences to the current posts of the Sone are applied to the
+	 * timelines; posts that are no longer contained in the Sone are removed
+	 * from the post cache. The caller needs to synchronize on the Sone.
+	 *
+	 * @param sone
+	 *            The Sone whose posts to replace
+	 * @param posts
+	 *            The new (and only) posts of the Sone
+	 * @param changedPosts
+	 *            The posts that were already contained in the Sone but whose
+	 *            time or text has changed
+	 */
+	public void setPosts(Sone sone, Collection<Post> posts, Collection<Post> changedPosts) {
+		Set<Post> oldPosts = new HashSet<Post>(sone.getPosts());
+		Set<Post> newPosts = new HashSet<Post>(posts);
+		Set<Post> removedPosts = new HashSet<Post>(oldPosts);
+		removedPosts.removeAll(newPosts);
+		Set<Post> addedPosts = newPosts;
+		addedPosts.removeAll(oldPosts);
+		if (addedPosts.isEmpty() && removedPosts.isEmpty() && changedPosts.isEmpty()) {
+			return;
+		}
+		sone.setPosts(posts);
+
+		/* changed posts are re-sorted into the timelines. */
+		Set<Post> timelineRemovedPosts = new HashSet<Post>(removedPosts);
+		timelineRemovedPosts.addAll(changedPosts);
+		Set<Post> timelineAddedPosts = new HashSet<Post>(addedPosts);
+		timelineAddedPosts.addAll(changedPosts);
+		updateTimelines(sone, timelineAddedPosts, timelineRemovedPosts);
+
+		for (Post removedPost : removedPosts) {
+			if (sone.equals(removedPost.getSone())) {
+				postCache.remove(removedPost.getId(), removedPost);
+			}
+			firePostRemoved(removedPost);
+		}
+		for (Post changedPost : changedPosts) {
+			firePostChanged(changedPost);
+		}
+		for (Post addedPost : addedPosts) {
+			firePostAdded(addedPost);
+		}
+	}
+
 	/**
 	 * Creates a reply.
 	 *
@@ -343,8 +606,9 @@ public class Core extends AbstractService {
 	 * @return The created reply
 	 */
 	public Reply createReply(Sone sone, Post post, long time, String text) {
-		Reply reply = getReply(UUID.randomUUID().toString()).setSone(sone).setPost(post).setTime(time).setText(text);
-		sone.addReply(reply);
+		Reply reply = addReply(sone, UUID.randomUUID().toString(), post, time, text);
+		localSoneModified(SoneJournal.Type.REPLY_CREATED, sone, time, reply.getId(), post.getId(), text);
+		updatePriority(post.getSone());
 		return reply;
 	}
 
@@ -375,9 +639,16 @@ public class Core extends AbstractService {
 	public void addLocalSone(Sone sone) {
 		if (localSones.add(sone)) {
 			setSoneStatus(sone, SoneStatus.idle);
-			SoneInserter soneInserter = new SoneInserter(this, freenetInterface, sone);
-			soneInserter.start();
-			soneInserters.put(sone, soneInserter);
+			Timeline timeline = new Timeline();
+			timeline.addPosts(sone.getPosts());
+			for (Sone friendSone : sone.getFriends()) {
+				timeline.addPosts(friendSone.getPosts());
+			}
+			timelines.put(sone, timeline);
+			soneInserter.addSone(sone);
+			for (Sone friendSone : sone.getFriends()) {
+				updatePriority(friendSone);
+			}
 		}
 	}
 
@@ -389,10 +660,11 @@ public class Core extends AbstractService {
 	 */
 	public void blacklistSone(Sone sone) {
 		if (blacklistedSones.add(sone)) {
+			removeLikesFromIndex(sone);
 			soneDownloader.removeSone(sone);
 			if (localSones.remove(sone)) {
-				SoneInserter soneInserter = soneInserters.remove(sone);
-				soneInserter.stop();
+				timelines.remove(sone);
+				soneInserter.removeSone(sone);
 			}
 		}
 	}
@@ -405,6 +677,7 @@ public class Core extends AbstractService {
 	 */
 	public void unblacklistSone(Sone sone) {
 		if (blacklistedSones.remove(sone)) {
+			addLikesToIndex(sone);
 			if (sone.getInsertUri() != null) {
 				addLocalSone(sone);
 			} else {
@@ -413,6 +686,73 @@ public class Core extends AbstractService {
 		}
 	}
 
+	/**
+	 * Lets the given local Sone follow the given Sone.
+	 *
+	 * @param sone
+	 *            The local Sone that follows
+	 * @param friendSone
+	 *            The Sone to follow
+	 */
+	public void followSone(Sone sone, Sone friendSone) {
+		if (addFriend(sone, friendSone)) {
+			localSoneModified(SoneJournal.Type.SONE_FOLLOWED, sone, System.currentTimeMillis(), friendSone.getId(), (friendSone.getRequestUri() != null) ? friendSone.getRequestUri().toString() : null, friendSone.getName());
+		}
+	}
+
+	/**
+	 * Lets the given local Sone stop following the given Sone.
+	 *
+	 * @param sone
+	 *            The local Sone that unfollows
+	 * @param friendSone
+	 *            The Sone to unfollow
+	 */
+	public void unfollowSone(Sone sone, Sone friendSone) {
+		if (removeFriend(sone, friendSone)) {
+			localSoneModified(SoneJournal.Type.SONE_UNFOLLOWED, sone, System.currentTimeMillis(), friendSone.getId());
+		}
+	}
+
+	/**
+	 * Lets the given local Sone block the Sone with the given ID.
+	 *
+	 * @param sone
+	 *            The local Sone that blocks
+	 * @param blockedSoneId
+	 *            The ID of the Sone to block
+	 */
+	public void blockSone(Sone sone, String blockedSoneId) {
+		sone.addBlockedSoneId(blockedSoneId);
+		localSoneModified(SoneJournal.Type.SONE_BLOCKED, sone, System.currentTimeMillis(), blockedSoneId);
+	}
+
+	/**
+	 * Lets the given local Sone unblock the Sone with the given ID.
+	 *
+	 * @param sone
+	 *            The local Sone that unblocks
+	 * @param blockedSoneId
+	 *            The ID of the Sone to unblock
+	 */
+	public void unblockSone(Sone sone, String blockedSoneId) {
+		sone.removeBlockedSoneId(blockedSoneId);
+		localSoneModified(SoneJournal.Type.SONE_UNBLOCKED, sone, System.currentTimeMillis(), blockedSoneId);
+	}
+
+	/**
+	 * Sets the profile of the given local Sone.
+	 *
+	 * @param sone
+	 *            The local Sone whose profile to set
+	 * @param profile
+	 *            The new profile of the Sone
+	 */
+	public void setProfile(Sone sone, Profile profile) {
+		sone.setProfile(profile);
+		localSoneModified(SoneJournal.Type.PROFILE_CHANGED, sone, System.currentTimeMillis(), profile.getFirstName(), profile.getMiddleName(), profile.getLastName(), formatInteger(profile.getBirthDay()), formatInteger(profile.getBirthMonth()), formatInteger(profile.getBirthYear()));
+	}
+
 	/**
 	 * Creates a new Sone at a random location.
 	 *
@@ -467,6 +807,7 @@ public class Core extends AbstractService {
 			/* set modification counter to 1 so it is inserted immediately. */
 			sone.setModificationCounter(1);
 			addLocalSone(sone);
+			localSoneModified(SoneJournal.Type.SONE_ADDED, sone, System.currentTimeMillis(), SoneSnapshot.createSnapshot(sone));
 		} catch (MalformedURLException mue1) {
 			throw new SoneException(Type.INVALID_URI);
 		}
@@ -475,7 +816,7 @@ public class Core extends AbstractService {
 
 	/**
 	 * Loads the Sone from the given request URI. The fetching of the data is
-	 * performed in a new thread so this method returns immediately.
+	 * performed by the Sone downloader so this method returns immediately.
 	 *
 	 * @param requestUri
 	 *            The request URI to load the Sone from
@@ -486,7 +827,7 @@ public class Core extends AbstractService {
 
 	/**
 	 * Loads the Sone from the given request URI. The fetching of the data is
-	 * performed in a new thread so this method returns immediately. If
+	 * performed by the Sone downloader so this method returns immediately. If
 	 * {@code insertUri} is not {@code null} the loaded Sone is converted into a
 	 * local Sone and available using as any other local Sone.
 	 *
@@ -496,13 +837,17 @@ public class Core extends AbstractService {
 	 *            The insert URI of the Sone
 	 */
 	public void loadSone(final String requestUri, final String insertUri) {
-		new Thread(new Runnable() {
+		soneDownloader.execute(new Runnable() {
 
 			@Override
 			@SuppressWarnings("synthetic-access")
 			public void run() {
 				try {
 					FreenetURI realRequestUri = new FreenetURI(requestUri).setMetaString(new String[] { "sone.xml" });
+					if (soneDownloader.isBadEdition(realRequestUri)) {
+						logger.log(Level.INFO, "Not loading bad edition %d of Sone from %s.", new Object[] { realRequestUri.getEdition(), requestUri });
+						return;
+					}
 					FetchResult fetchResult = freenetInterface.fetchUri(realRequestUri);
 					if (fetchResult == null) {
 						return;
@@ -512,7 +857,10 @@ public class Core extends AbstractService {
 						if (insertUri != null) {
 							parsedSone.setInsertUri(new FreenetURI(insertUri));
 							addLocalSone(parsedSone);
+							localSoneModified(SoneJournal.Type.SONE_ADDED, parsedSone, System.currentTimeMillis(), SoneSnapshot.createSnapshot(parsedSone));
 						} else {
+							/* Sones added by the user are as close as friends. */
+							soneDownloader.setDistance(parsedSone, 1);
 							addSone(parsedSone);
 						}
 						setSoneStatus(parsedSone, SoneStatus.idle);
@@ -521,7 +869,7 @@ public class Core extends AbstractService {
 					logger.log(Level.INFO, "Could not create URI from “" + requestUri + "”.", mue1);
 				}
 			}
-		}, "Sone Downloader").start();
+		});
 	}
 
 	/**
@@ -538,6 +886,7 @@ public class Core extends AbstractService {
 		}
 		if (parsedSone.getInsertUri() != null) {
 			addLocalSone(parsedSone);
+			localSoneModified(SoneJournal.Type.SONE_ADDED, parsedSone, System.currentTimeMillis(), SoneSnapshot.createSnapshot(parsedSone));
 		} else {
 			addSone(parsedSone);
 		}
@@ -545,34 +894,14 @@ public class Core extends AbstractService {
 	}
 
 	/**
-	 * Loads and updates the given Sone.
+	 * Loads and updates the given Sone. The fetching of the data is performed
+	 * by the Sone downloader so this method returns immediately.
 	 *
 	 * @param sone
 	 *            The Sone to load
 	 */
-	public void loadSone(final Sone sone) {
-		new Thread(new Runnable() {
-
-			@Override
-			@SuppressWarnings("synthetic-access")
-			public void run() {
-				FreenetURI realRequestUri = sone.getRequestUri().setMetaString(new String[] { "sone.xml" });
-				setSoneStatus(sone, SoneStatus.downloading);
-				try {
-					FetchResult fetchResult = freenetInterface.fetchUri(realRequestUri);
-					if (fetchResult == null) {
-						/* TODO - mark Sone as bad. */
-						return;
-					}
-					Sone parsedSone = soneDownloader.parseSone(sone, fetchResult, realRequestUri);
-					if (parsedSone != null) {
-						addSone(parsedSone);
-					}
-				} finally {
-					setSoneStatus(sone, (sone.getTime() == 0) ? SoneStatus.unknown : SoneStatus.idle);
-				}
-			}
-		}, "Sone Downloader").start();
+	public void loadSone(Sone sone) {
+		soneDownloader.fetchSone(sone);
 	}
 
 	/**
@@ -582,41 +911,85 @@ public class Core extends AbstractService {
 	 *            The sone to delete
 	 */
 	public void deleteSone(Sone sone) {
-		SoneInserter soneInserter = soneInserters.remove(sone);
-		soneInserter.stop();
-		localSones.remove(sone);
-		soneStatuses.remove(sone);
-		soneCache.remove(sone.getId());
+		if (removeSone(sone) && (soneJournal != null)) {
+			soneJournal.append(new SoneJournal.Entry(SoneJournal.Type.SONE_REMOVED, sone.getId(), System.currentTimeMillis()));
+		}
 	}
 
 	/**
 	 * Returns the post with the given ID. If no post exists yet with the given
-	 * ID, a new post is returned.
+	 * ID, a new post is returned. Concurrent callers always get the same post
+	 * for the same ID.
 	 *
 	 * @param postId
 	 *            The ID of the post
 	 * @return The post
 	 */
 	public Post getPost(String postId) {
-		if (!postCache.containsKey(postId)) {
-			postCache.put(postId, new Post(postId));
+		return getPost(postId, true);
+	}
+
+	/**
+	 * Returns the post with the given ID, optionally creating it if it does
+	 * not exist yet. A post that is created but not (yet) added to a Sone is
+	 * a placeholder, e.g. for a post that a downloaded reply refers to; it is
+	 * removed from the cache again once no reply refers to it anymore.
+	 *
+	 * @param postId
+	 *            The ID of the post
+	 * @param create
+	 *            {@code true} to create a new post if no post with the given
+	 *            ID exists, {@code false} to return {@code null} instead
+	 * @return The post, or {@code null} if there is no such post and
+	 *         {@code create} is {@code false}
+	 */
+	public Post getPost(String postId, boolean create) {
+		Post post = postCache.get(postId);
+		if ((post == null) && create) {
+			Post newPost = new Post(postId);
+			post = postCache.putIfAbsent(postId, newPost);
+			if (post == null) {
+				post = newPost;
+			}
 		}
-		return postCache.get(postId);
+		return post;
 	}
 
 	/**
 	 * Returns the reply with the given ID. If no reply exists yet with the
-	 * given ID, a new reply is returned.
+	 * given ID, a new reply is returned. Concurrent callers always get the
+	 * same reply for the same ID.
 	 *
 	 * @param replyId
 	 *            The ID of the reply
 	 * @return The reply
 	 */
 	public Reply getReply(String replyId) {
-		if (!replyCache.containsKey(replyId)) {
-			replyCache.put(replyId, new Reply(replyId));
+		return getReply(replyId, true);
+	}
+
+	/**
+	 * Returns the reply with the given ID, optionally creating it if it does
+	 * not exist yet.
+	 *
+	 * @param replyId
+	 *            The ID of the reply
+	 * @param create
+	 *            {@code true} to create a new reply if no reply with the given
+	 *            ID exists, {@code false} to return {@code null} instead
+	 * @return The reply, or {@code null} if there is no such reply and
+	 *         {@code create} is {@code false}
+	 */
+	public Reply getReply(String replyId, boolean create) {
+		Reply reply = replyCache.get(replyId);
+		if ((reply == null) && create) {
+			Reply newReply = new Reply(replyId);
+			reply = replyCache.putIfAbsent(replyId, newReply);
+			if (reply == null) {
+				reply = newReply;
+			}
 		}
-		return replyCache.get(replyId);
+		return reply;
 	}
 
 	/**
@@ -627,23 +1000,77 @@ public class Core extends AbstractService {
 	 * @return The sorted list of replies for the post
 	 */
 	public List<Reply> getReplies(Post post) {
-		List<Reply> replies = new ArrayList<Reply>();
-		for (Reply reply : replyCache.values()) {
-			if (reply.getPost().equals(post)) {
-				replies.add(reply);
+		synchronized (postReplies) {
+			List<Reply> replies = postReplies.get(post.getId());
+			if (replies == null) {
+				return new ArrayList<Reply>();
 			}
+			return new ArrayList<Reply>(replies);
 		}
-		Collections.sort(replies, new Comparator<Reply>() {
+	}
 
-			/**
-			 * {@inheritDoc}
-			 */
-			@Override
-			public int compare(Reply leftReply, Reply rightReply) {
-				return (int) Math.max(Integer.MIN_VALUE, Math.min(Integer.MAX_VALUE, leftReply.getTime() - rightReply.getTime()));
+	/**
+	 * Replaces all replies of the given Sone with the given replies, keeping
+	 * the reply index up-to-date. The caller needs to synchronize on the Sone.
+	 *
+	 * @param sone
+	 *            The Sone whose replies to replace
+	 * @param replies
+	 *            The new (and only) replies of the Sone
+	 */
+	public void setReplies(Sone sone, Collection<Reply> replies) {
+		setReplies(sone, replies, Collections.<Reply> emptySet());
+	}
+
+	/**
+	 * Replaces all replies of the given Sone with the given replies. Only the
+	 * differences to the current replies of the Sone are applied to the reply
+	 * index; replies that are no longer contained in the Sone are removed from
+	 * the reply cache. The caller needs to synchronize on the Sone.
+	 *
+	 * @param sone
+	 *            The Sone whose replies to replace
+	 * @param replies
+	 *            The new (and only) replies of the Sone
+	 * @param changedReplies
+	 *            The replies that were already contained in the Sone but
+	 *            whose time, text, or post has changed
+	 */
+	public void setReplies(Sone sone, Collection<Reply> replies, Collection<Reply> changedReplies) {
+		Set<Reply> oldReplies = new HashSet<Reply>(sone.getReplies());
+		Set<Reply> newReplies = new HashSet<Reply>(replies);
+		Set<Reply> removedReplies = new HashSet<Reply>(oldReplies);
+		removedReplies.removeAll(newReplies);
+		Set<Reply> addedReplies = newReplies;
+		addedReplies.removeAll(oldReplies);
+		if (addedReplies.isEmpty() && removedReplies.isEmpty() && changedReplies.isEmpty()) {
+			return;
+		}
+		sone.setReplies(replies);
+
+		/* changed replies are re-sorted into the index. */
+		for (Reply removedReply : removedReplies) {
+			removeReplyFromIndex(removedReply);
+		}
+		for (Reply changedReply : changedReplies) {
+			addReplyToIndex(changedReply);
+		}
+		for (Reply addedReply : addedReplies) {
+			addReplyToIndex(addedReply);
+		}
+
+		for (Reply removedReply : removedReplies) {
+			if (sone.equals(removedReply.getSone())) {
+				replyCache.remove(removedReply.getId(), removedReply);
 			}
-		});
-		return replies;
+			fireReplyRemoved(removedReply);
+		}
+		for (Reply changedReply : changedReplies) {
+			fireReplyChanged(changedReply);
+		}
+		for (Reply addedReply : addedReplies) {
+			fireReplyAdded(addedReply);
+		}
 	}
 
 	/**
@@ -653,14 +1080,8 @@ public class Core extends AbstractService {
 	 *            The post to check for
 	 * @return All Sones that like the post
 	 */
-	public Collection<Sone> getLikes(final Post post) {
-		return Filters.filteredCollection(getKnownSones(), new Filter<Sone>() {
-
-			@Override
-			public boolean filterObject(Sone sone) {
-				return sone.isLikedPostId(post.getId());
-			}
-		});
+	public Collection<Sone> getLikes(Post post) {
+		return getLikes(postLikes, post.getId());
 	}
 
 	/**
@@ -670,59 +1091,646 @@ public class Core extends AbstractService {
 	 *            The reply to check for
 	 * @return All Sones that like the reply
 	 */
-	public Collection<Sone> getLikes(final Reply reply) {
-		return Filters.filteredCollection(getKnownSones(), new Filter<Sone>() {
-
-			@Override
-			public boolean filterObject(Sone sone) {
-				return sone.isLikedReplyId(reply.getId());
-			}
-		});
+	public Collection<Sone> getLikes(Reply reply) {
+		return getLikes(replyLikes, reply.getId());
 	}
 
 	/**
-	 * Deletes the given reply. It is removed from its Sone and from the reply
-	 * cache.
+	 * Marks the post with the given ID as liked by the given Sone.
 	 *
-	 * @param reply
-	 *            The reply to remove
+	 * @param sone
+	 *            The Sone that likes the post
+	 * @param postId
+	 *            The ID of the liked post
 	 */
-	public void deleteReply(Reply reply) {
-		reply.getSone().removeReply(reply);
-		replyCache.remove(reply.getId());
+	public void likePost(Sone sone, String postId) {
+		sone.addLikedPostId(postId);
+		addLike(postLikes, postId, sone);
+		localSoneModified(SoneJournal.Type.POST_LIKED, sone, System.currentTimeMillis(), postId);
+		Post post = getPost(postId, false);
+		if (post != null) {
+			updatePriority(post.getSone());
+		}
 	}
 
-	//
-	// SERVICE METHODS
-	//
-
 	/**
-	 * {@inheritDoc}
+	 * Removes the like of the given Sone from the post with the given ID.
+	 *
+	 * @param sone
+	 *            The Sone that does not like the post anymore
+	 * @param postId
+	 *            The ID of the post
 	 */
-	@Override
-	protected void serviceStart() {
-		loadConfiguration();
+	public void unlikePost(Sone sone, String postId) {
+		sone.removeLikedPostId(postId);
+		removeLike(postLikes, postId, sone);
+		localSoneModified(SoneJournal.Type.POST_UNLIKED, sone, System.currentTimeMillis(), postId);
+		Post post = getPost(postId, false);
+		if (post != null) {
+			updatePriority(post.getSone());
+		}
 	}
 
 	/**
-	 * {@inheritDoc}
+	 * Marks the reply with the given ID as liked by the given Sone.
+	 *
+	 * @param sone
+	 *            The Sone that likes the reply
+	 * @param replyId
+	 *            The ID of the liked reply
 	 */
-	@Override
-	protected void serviceStop() {
-		soneDownloader.stop();
-		/* stop all Sone inserters. */
-		for (SoneInserter soneInserter : soneInserters.values()) {
-			soneInserter.stop();
+	public void likeReply(Sone sone, String replyId) {
+		sone.addLikedReplyId(replyId);
+		addLike(replyLikes, replyId, sone);
+		localSoneModified(SoneJournal.Type.REPLY_LIKED, sone, System.currentTimeMillis(), replyId);
+		Reply reply = getReply(replyId, false);
+		if (reply != null) {
+			updatePriority(reply.getSone());
 		}
-		saveConfiguration();
 	}
 
-	//
-	// PRIVATE METHODS
-	//
-
 	/**
-	 * Adds some default Sones.
+	 * Removes the like of the given Sone from the reply with the given ID.
+	 *
+	 * @param sone
+	 *            The Sone that does not like the reply anymore
+	 * @param replyId
+	 *            The ID of the reply
+	 */
+	public void unlikeReply(Sone sone, String replyId) {
+		sone.removeLikedReplyId(replyId);
+		removeLike(replyLikes, replyId, sone);
+		localSoneModified(SoneJournal.Type.REPLY_UNLIKED, sone, System.currentTimeMillis(), replyId);
+		Reply reply = getReply(replyId, false);
+		if (reply != null) {
+			updatePriority(reply.getSone());
+		}
+	}
+
+	/**
+	 * Replaces the IDs of all posts and replies the given Sone likes, keeping
+	 * the like index up-to-date. The caller needs to synchronize on the Sone.
+	 *
+	 * @param sone
+	 *            The Sone whose likes to replace
+	 * @param likedPostIds
+	 *            The IDs of all liked posts
+	 * @param likedReplyIds
+	 *            The IDs of all liked replies
+	 */
+	public void setLikes(Sone sone, Set<String> likedPostIds, Set<String> likedReplyIds) {
+		boolean indexed = !blacklistedSones.contains(sone);
+		if (indexed) {
+			removeLikesFromIndex(sone);
+		}
+		sone.setLikePostIds(likedPostIds);
+		sone.setLikeReplyIds(likedReplyIds);
+		if (indexed) {
+			addLikesToIndex(sone);
+		}
+	}
+
+	/**
+	 * Deletes the given reply. It is removed from its Sone and from the reply
+	 * cache.
+	 *
+	 * @param reply
+	 *            The reply to remove
+	 */
+	public void deleteReply(Reply reply) {
+		removeReply(reply);
+		localSoneModified(SoneJournal.Type.REPLY_DELETED, reply.getSone(), System.currentTimeMillis(), reply.getId());
+	}
+
+	//
+	// SERVICE METHODS
+	//
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	protected void serviceStart() {
+		soneDownloader.setSoneStore(soneStore);
+		loadConfiguration();
+		if (soneJournal != null) {
+			soneJournal.open();
+		}
+		journalCheckpointer.start();
+		cacheSweeper.start();
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	protected void serviceStop() {
+		cacheSweeper.stop();
+		journalCheckpointer.stop();
+		soneDownloader.stop();
+		soneInserter.stop();
+		saveConfiguration();
+		if (soneJournal != null) {
+			checkpointJournal();
+			soneJournal.close();
+		}
+	}
+
+	//
+	// PRIVATE METHODS
+	//
+
+	/**
+	 * Adds a new post with the given ID to the given Sone.
+	 *
+	 * @param sone
+	 *            The Sone that creates the post
+	 * @param postId
+	 *            The ID of the post
+	 * @param time
+	 *            The time of the post
+	 * @param text
+	 *            The text of the post
+	 * @return The added post
+	 */
+	private Post addPost(Sone sone, String postId, long time, String text) {
+		Post post = getPost(postId).setSone(sone).setTime(time).setText(text);
+		sone.addPost(post);
+		updateTimelines(sone, Collections.singleton(post), Collections.<Post> emptySet());
+		firePostAdded(post);
+		return post;
+	}
+
+	/**
+	 * Adds a new reply with the given ID to the given Sone.
+	 *
+	 * @param sone
+	 *            The Sone that posts the reply
+	 * @param replyId
+	 *            The ID of the reply
+	 * @param post
+	 *            The post the reply refers to
+	 * @param time
+	 *            The time of the reply
+	 * @param text
+	 *            The text of the reply
+	 * @return The added reply
+	 */
+	private Reply addReply(Sone sone, String replyId, Post post, long time, String text) {
+		Reply reply = getReply(replyId).setSone(sone).setPost(post).setTime(time).setText(text);
+		sone.addReply(reply);
+		addReplyToIndex(reply);
+		fireReplyAdded(reply);
+		return reply;
+	}
+
+	/**
+	 * Removes the given post from its Sone.
+	 *
+	 * @param post
+	 *            The post to remove
+	 */
+	private void removePost(Post post) {
+		post.getSone().removePost(post);
+		updateTimelines(post.getSone(), Collections.<Post> emptySet(), Collections.singleton(post));
+		postCache.remove(post.getId(), post);
+		firePostRemoved(post);
+	}
+
+	/**
+	 * Removes the given reply from its Sone.
+	 *
+	 * @param reply
+	 *            The reply to remove
+	 */
+	private void removeReply(Reply reply) {
+		reply.getSone().removeReply(reply);
+		removeReplyFromIndex(reply);
+		replyCache.remove(reply.getId(), reply);
+		fireReplyRemoved(reply);
+	}
+
+	/**
+	 * Adds the given friend Sone to the friends of the given local Sone.
+	 *
+	 * @param sone
+	 *            The local Sone
+	 * @param friendSone
+	 *            The Sone to add as friend
+	 * @return {@code true} if the friend was added, {@code false} if it
+	 *         already was a friend
+	 */
+	private boolean addFriend(Sone sone, Sone friendSone) {
+		if (sone.equals(friendSone) || sone.hasFriend(friendSone)) {
+			return false;
+		}
+		sone.addFriend(friendSone);
+		Timeline timeline = timelines.get(sone);
+		if (timeline != null) {
+			timeline.addPosts(friendSone.getPosts());
+		}
+		updatePriority(friendSone);
+		return true;
+	}
+
+	/**
+	 * Removes the given friend Sone from the friends of the given local Sone.
+	 *
+	 * @param sone
+	 *            The local Sone
+	 * @param friendSone
+	 *            The Sone to remove from the friends
+	 * @return {@code true} if the friend was removed, {@code false} if it was
+	 *         not a friend
+	 */
+	private boolean removeFriend(Sone sone, Sone friendSone) {
+		if (!sone.hasFriend(friendSone)) {
+			return false;
+		}
+		sone.removeFriend(friendSone);
+		Timeline timeline = timelines.get(sone);
+		if (timeline != null) {
+			timeline.removePosts(friendSone.getPosts());
+		}
+		updatePriority(friendSone);
+		return true;
+	}
+
+	/**
+	 * Removes the given Sone, its posts, and its replies from this core.
+	 *
+	 * @param sone
+	 *            The Sone to remove
+	 * @return {@code true} if the Sone was a local Sone, {@code false}
+	 *         otherwise
+	 */
+	private boolean removeSone(Sone sone) {
+		soneInserter.removeSone(sone);
+		boolean localSone = localSones.remove(sone);
+		timelines.remove(sone);
+		soneStatuses.remove(sone);
+		configuredSones.remove(sone);
+		removeLikesFromIndex(sone);
+		soneCache.remove(sone.getId());
+		updateTimelines(sone, Collections.<Post> emptySet(), sone.getPosts());
+		for (Post post : sone.getPosts()) {
+			postCache.remove(post.getId(), post);
+		}
+		for (Reply reply : sone.getReplies()) {
+			removeReplyFromIndex(reply);
+			replyCache.remove(reply.getId(), reply);
+		}
+		return localSone;
+	}
+
+	/**
+	 * Records a modification of the given Sone if it is a local Sone. The
+	 * modification is appended to the journal, and an insert of the Sone is
+	 * scheduled.
+	 *
+	 * @param type
+	 *            The type of the modification
+	 * @param sone
+	 *            The Sone that was modified
+	 * @param time
+	 *            The time of the modification
+	 * @param values
+	 *            The values of the modification
+	 */
+	private void localSoneModified(SoneJournal.Type type, Sone sone, long time, String... values) {
+		if ((sone == null) || !localSones.contains(sone)) {
+			return;
+		}
+		if (soneJournal != null) {
+			soneJournal.append(new SoneJournal.Entry(type, sone.getId(), time, values));
+		}
+		soneInserter.scheduleInsert(sone);
+	}
+
+	/**
+	 * Updates the priority with which the given Sone is watched for updates
+	 * after the relationship of a local Sone to it changed.
+	 *
+	 * @param sone
+	 *            The Sone to update the priority for (may be {@code null})
+	 */
+	private void updatePriority(Sone sone) {
+		if (sone != null) {
+			soneDownloader.updatePriority(sone);
+		}
+	}
+
+	/**
+	 * Returns whether one of the given local Sones replied to a post of the
+	 * given Sone, or liked a post or a reply of it. Only the posts and replies
+	 * of the given Sone are looked up in the reply and like indexes, so the
+	 * time this takes does not depend on the activity of the local Sones.
+	 *
+	 * @param localSones
+	 *            The local Sones
+	 * @param sone
+	 *            The Sone to check
+	 * @return {@code true} if one of the local Sones interacted with the
+	 *         Sone, {@code false} otherwise
+	 */
+	private boolean hasInteracted(Collection<Sone> localSones, Sone sone) {
+		for (Post post : sone.getPosts()) {
+			if (containsAny(postLikes.get(post.getId()), localSones)) {
+				return true;
+			}
+			synchronized (postReplies) {
+				List<Reply> replies = postReplies.get(post.getId());
+				if (replies != null) {
+					for (Reply reply : replies) {
+						if (localSones.contains(reply.getSone())) {
+							return true;
+						}
+					}
+				}
+			}
+		}
+		for (Reply reply : new ArrayList<Reply>(sone.getReplies())) {
+			if (containsAny(replyLikes.get(reply.getId()), localSones)) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Returns whether the given Sones of the like index contain one of the
+	 * given local Sones.
+	 *
+	 * @param likingSones
+	 *            The Sones that like a post or reply (may be {@code null})
+	 * @param localSones
+	 *            The local Sones
+	 * @return {@code true} if one of the local Sones is contained in the
+	 *         liking Sones, {@code false} otherwise
+	 */
+	private static boolean containsAny(Set<Sone> likingSones, Collection<Sone> localSones) {
+		if (likingSones == null) {
+			return false;
+		}
+		for (Sone localSone : localSones) {
+			if (likingSones.contains(localSone)) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Restores a local Sone from the given snapshot, adds its replies and
+	 * likes to the indexes, and adds it as a local Sone.
+	 *
+	 * @param snapshot
+	 *            The snapshot of the Sone
+	 * @return The restored Sone, or {@code null} if the Sone could not be
+	 *         restored
+	 */
+	private Sone restoreLocalSone(String snapshot) {
+		Sone sone = SoneSnapshot.restoreSnapshot(this, snapshot);
+		if (sone == null) {
+			return null;
+		}
+		for (Reply reply : sone.getReplies()) {
+			addReplyToIndex(reply);
+		}
+		addLikesToIndex(sone);
+		addLocalSone(sone);
+		return sone;
+	}
+
+	/**
+	 * Replays the given journal entries. Entries for Sones that are not local
+	 * Sones are ignored, as are entries whose change is already contained in
+	 * the local Sones. The entries are applied without being journaled again
+	 * and without scheduling an insert for every entry; instead, one insert is
+	 * scheduled for every Sone that was changed by the replay.
+	 *
+	 * @param entries
+	 *            The entries to replay
+	 */
+	private void replayJournal(List<SoneJournal.Entry> entries) {
+		Set<Sone> changedSones = new HashSet<Sone>();
+		for (SoneJournal.Entry entry : entries) {
+			if (entry.getType() == SoneJournal.Type.SONE_ADDED) {
+				Sone sone = soneCache.get(entry.getSoneId());
+				if ((sone == null) || !localSones.contains(sone)) {
+					changedSones.add(restoreLocalSone(entry.getValue(0)));
+				}
+				continue;
+			}
+			Sone sone = soneCache.get(entry.getSoneId());
+			if ((sone == null) || !localSones.contains(sone)) {
+				continue;
+			}
+			changedSones.add(sone);
+			switch (entry.getType()) {
+			case SONE_REMOVED:
+				removeSone(sone);
+				changedSones.remove(sone);
+				break;
+			case POST_CREATED:
+				Post post = getPost(entry.getValue(0), false);
+				if ((post == null) || !sone.hasPost(post)) {
+					addPost(sone, entry.getValue(0), entry.getTime(), entry.getValue(1));
+				}
+				break;
+			case POST_DELETED:
+				Post deletedPost = getPost(entry.getValue(0), false);
+				if ((deletedPost != null) && sone.hasPost(deletedPost)) {
+					removePost(deletedPost);
+				}
+				break;
+			case REPLY_CREATED:
+				Reply reply = getReply(entry.getValue(0), false);
+				if ((reply == null) || !sone.hasReply(reply)) {
+					addReply(sone, entry.getValue(0), getPost(entry.getValue(1)), entry.getTime(), entry.getValue(2));
+				}
+				break;
+			case REPLY_DELETED:
+				Reply deletedReply = getReply(entry.getValue(0), false);
+				if ((deletedReply != null) && sone.hasReply(deletedReply)) {
+					removeReply(deletedReply);
+				}
+				break;
+			case POST_LIKED:
+				sone.addLikedPostId(entry.getValue(0));
+				addLike(postLikes, entry.getValue(0), sone);
+				break;
+			case POST_UNLIKED:
+				sone.removeLikedPostId(entry.getValue(0));
+				removeLike(postLikes, entry.getValue(0), sone);
+				break;
+			case REPLY_LIKED:
+				sone.addLikedReplyId(entry.getValue(0));
+				addLike(replyLikes, entry.getValue(0), sone);
+				break;
+			case REPLY_UNLIKED:
+				sone.removeLikedReplyId(entry.getValue(0));
+				removeLike(replyLikes, entry.getValue(0), sone);
+				break;
+			case SONE_FOLLOWED:
+				Sone friendSone = getSone(entry.getValue(0));
+				if ((friendSone.getRequestUri() == null) && (entry.getValue(1) != null)) {
+					try {
+						friendSone.setRequestUri(new FreenetURI(entry.getValue(1))).setName(entry.getValue(2));
+					} catch (MalformedURLException mue1) {
+						logger.log(Level.WARNING, "Could not create Sone from requestUri (“" + entry.getValue(1) + "”)!", mue1);
+					}
+				}
+				addFriend(sone, friendSone);
+				break;
+			case SONE_UNFOLLOWED:
+				removeFriend(sone, getSone(entry.getValue(0)));
+				break;
+			case SONE_BLOCKED:
+				sone.addBlockedSoneId(entry.getValue(0));
+				break;
+			case SONE_UNBLOCKED:
+				sone.removeBlockedSoneId(entry.getValue(0));
+				break;
+			case PROFILE_CHANGED:
+				Profile profile = new Profile();
+				profile.setFirstName(entry.getValue(0));
+				profile.setMiddleName(entry.getValue(1));
+				profile.setLastName(entry.getValue(2));
+				profile.setBirthDay(parseInteger(entry.getValue(3))).setBirthMonth(parseInteger(entry.getValue(4))).setBirthYear(parseInteger(entry.getValue(5)));
+				sone.setProfile(profile);
+				break;
+			}
+		}
+		changedSones.remove(null);
+		for (Sone changedSone : changedSones) {
+			soneInserter.scheduleInsert(changedSone);
+		}
+		logger.log(Level.INFO, "Replayed %d journal entries.", new Object[] { entries.size() });
+	}
+
+	/**
+	 * Writes snapshots of all local Sones as a new checkpoint of the journal
+	 * and truncates the journal.
+	 */
+	private void checkpointJournal() {
+		if (soneJournal == null) {
+			return;
+		}
+		synchronized (soneJournal) {
+			List<String> snapshots = new ArrayList<String>();
+			for (Sone sone : new ArrayList<Sone>(localSones)) {
+				snapshots.add(SoneSnapshot.createSnapshot(sone));
+			}
+			soneJournal.checkpoint(snapshots);
+		}
+	}
+
+	/**
+	 * Formats the given integer.
+	 *
+	 * @param integer
+	 *            The integer to format (may be {@code null})
+	 * @return The formatted integer, or {@code null} if {@code integer} is
+	 *         {@code null}
+	 */
+	private static String formatInteger(Integer integer) {
+		return (integer == null) ? null : String.valueOf(integer);
+	}
+
+	/**
+	 * Parses the given string into an integer.
+	 *
+	 * @param string
+	 *            The string to parse (may be {@code null})
+	 * @return The parsed integer, or {@code null} if the string is
+	 *         {@code null} or not a valid integer
+	 */
+	private static Integer parseInteger(String string) {
+		if (string == null) {
+			return null;
+		}
+		try {
+			return Integer.valueOf(string);
+		} catch (NumberFormatException nfe1) {
+			return null;
+		}
+	}
+
+	/**
+	 * Notifies all listeners that a new post has been added.
+	 *
+	 * @param post
+	 *            The new post
+	 */
+	private void firePostAdded(Post post) {
+		for (CoreListener coreListener : coreListeners) {
+			coreListener.postAdded(post);
+		}
+	}
+
+	/**
+	 * Notifies all listeners that a post has changed.
+	 *
+	 * @param post
+	 *            The changed post
+	 */
+	private void firePostChanged(Post post) {
+		for (CoreListener coreListener : coreListeners) {
+			coreListener.postChanged(post);
+		}
+	}
+
+	/**
+	 * Notifies all listeners that a post has been removed.
+	 *
+	 * @param post
+	 *            The removed post
+	 */
+	private void firePostRemoved(Post post) {
+		for (CoreListener coreListener : coreListeners) {
+			coreListener.postRemoved(post);
+		}
+	}
+
+	/**
+	 * Notifies all listeners that a new reply has been added.
+	 *
+	 * @param reply
+	 *            The new reply
+	 */
+	private void fireReplyAdded(Reply reply) {
+		for (CoreListener coreListener : coreListeners) {
+			coreListener.replyAdded(reply);
+		}
+	}
+
+	/**
+	 * Notifies all listeners that a reply has changed.
+	 *
+	 * @param reply
+	 *            The changed reply
+	 */
+	private void fireReplyChanged(Reply reply) {
+		for (CoreListener coreListener : coreListeners) {
+			coreListener.replyChanged(reply);
+		}
+	}
+
+	/**
+	 * Notifies all listeners that a reply has been removed.
+	 *
+	 * @param reply
+	 *            The removed reply
+	 */
+	private void fireReplyRemoved(Reply reply) {
+		for (CoreListener coreListener : coreListeners) {
+			coreListener.replyRemoved(reply);
+		}
+	}
+
+	/**
+	 * Adds some default Sones.
 	 */
 	private void addDefaultSones() {
 		for (String soneUri : defaultSones) {
@@ -730,29 +1738,387 @@ public class Core extends AbstractService {
 		}
 	}
 
-	/**
-	 * Loads the configuration.
-	 */
-	@SuppressWarnings("unchecked")
-	private void loadConfiguration() {
-		logger.entering(Core.class.getName(), "loadConfiguration()");
+	/**
+	 * Adds the given reply to the reply index. If the reply is already indexed
+	 * it is removed from its previous position first.
+	 *
+	 * @param reply
+	 *            The reply to index
+	 */
+	private void addReplyToIndex(Reply reply) {
+		synchronized (postReplies) {
+			removeReplyFromIndex(reply);
+			String postId = reply.getPost().getId();
+			List<Reply> replies = postReplies.get(postId);
+			if (replies == null) {
+				replies = new ArrayList<Reply>();
+				postReplies.put(postId, replies);
+			}
+			int index = Collections.binarySearch(replies, reply, replyTimeComparator);
+			if (index < 0) {
+				index = -index - 1;
+			}
+			/* insert after all replies with the same time. */
+			while ((index < replies.size()) && (replyTimeComparator.compare(replies.get(index), reply) == 0)) {
+				++index;
+			}
+			replies.add(index, reply);
+			replyPostIds.put(reply.getId(), postId);
+		}
+	}
+
+	/**
+	 * Removes the given reply from the reply index. The reply is removed from
+	 * the post it was indexed under which is not necessarily the post it
+	 * currently refers to.
+	 *
+	 * @param reply
+	 *            The reply to remove from the index
+	 */
+	private void removeReplyFromIndex(Reply reply) {
+		synchronized (postReplies) {
+			String postId = replyPostIds.remove(reply.getId());
+			if (postId == null) {
+				return;
+			}
+			List<Reply> replies = postReplies.get(postId);
+			if (replies == null) {
+				return;
+			}
+			replies.remove(reply);
+			if (replies.isEmpty()) {
+				postReplies.remove(postId);
+
+				/* reclaim placeholder posts nobody refers to anymore. */
+				Post post = postCache.get(postId);
+				if ((post != null) && (post.getSone() == null)) {
+					postCache.remove(postId, post);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Updates the timelines of all local Sones that contain the posts of the
+	 * given Sone.
+	 *
+	 * @param sone
+	 *            The Sone whose posts have changed
+	 * @param addedPosts
+	 *            The posts that were added to the Sone
+	 * @param removedPosts
+	 *            The posts that were removed from the Sone
+	 */
+	private void updateTimelines(Sone sone, Collection<Post> addedPosts, Collection<Post> removedPosts) {
+		if (addedPosts.isEmpty() && removedPosts.isEmpty()) {
+			return;
+		}
+		synchronized (timelines) {
+			for (Map.Entry<Sone, Timeline> timelineEntry : timelines.entrySet()) {
+				Sone localSone = timelineEntry.getKey();
+				if (!localSone.equals(sone) && !localSone.hasFriend(sone)) {
+					continue;
+				}
+				Timeline timeline = timelineEntry.getValue();
+				timeline.removePosts(removedPosts);
+				timeline.addPosts(addedPosts);
+			}
+		}
+	}
+
+	/**
+	 * Returns the Sones stored under the given ID in the given like index.
+	 *
+	 * @param likes
+	 *            The like index
+	 * @param id
+	 *            The ID of the post or reply
+	 * @return The Sones that like the post or reply
+	 */
+	private Collection<Sone> getLikes(Map<String, Set<Sone>> likes, String id) {
+		Set<Sone> sones = likes.get(id);
+		if (sones == null) {
+			return Collections.emptySet();
+		}
+		return Collections.unmodifiableSet(sones);
+	}
+
+	/**
+	 * Adds the given Sone to the Sones that like the post or reply with the
+	 * given ID.
+	 *
+	 * @param likes
+	 *            The like index
+	 * @param id
+	 *            The ID of the post or reply
+	 * @param sone
+	 *            The Sone that likes the post or reply
+	 */
+	private void addLike(Map<String, Set<Sone>> likes, String id, Sone sone) {
+		if (blacklistedSones.contains(sone)) {
+			return;
+		}
+		synchronized (likes) {
+			Set<Sone> sones = likes.get(id);
+			if (sones == null) {
+				sones = Collections.newSetFromMap(new ConcurrentHashMap<Sone, Boolean>());
+				likes.put(id, sones);
+			}
+			sones.add(sone);
+		}
+	}
+
+	/**
+	 * Removes the given Sone from the Sones that like the post or reply with
+	 * the given ID.
+	 *
+	 * @param likes
+	 *            The like index
+	 * @param id
+	 *            The ID of the post or reply
+	 * @param sone
+	 *            The Sone that does not like the post or reply anymore
+	 */
+	private void removeLike(Map<String, Set<Sone>> likes, String id, Sone sone) {
+		synchronized (likes) {
+			Set<Sone> sones = likes.get(id);
+			if (sones == null) {
+				return;
+			}
+			sones.remove(sone);
+			if (sones.isEmpty()) {
+				likes.remove(id);
+			}
+		}
+	}
+
+	/**
+	 * Adds all likes of the given Sone to the like index.
+	 *
+	 * @param sone
+	 *            The Sone whose likes to add
+	 */
+	private void addLikesToIndex(Sone sone) {
+		for (String likedPostId : sone.getLikedPostIds()) {
+			addLike(postLikes, likedPostId, sone);
+		}
+		for (String likedReplyId : sone.getLikedReplyIds()) {
+			addLike(replyLikes, likedReplyId, sone);
+		}
+	}
+
+	/**
+	 * Removes all likes of the given Sone from the like index.
+	 *
+	 * @param sone
+	 *            The Sone whose likes to remove
+	 */
+	private void removeLikesFromIndex(Sone sone) {
+		for (String likedPostId : sone.getLikedPostIds()) {
+			removeLike(postLikes, likedPostId, sone);
+		}
+		for (String likedReplyId : sone.getLikedReplyIds()) {
+			removeLike(replyLikes, likedReplyId, sone);
+		}
+	}
+
+	/**
+	 * Loads the configuration.
+	 */
+	@SuppressWarnings("unchecked")
+	private void loadConfiguration() {
+		logger.entering(Core.class.getName(), "loadConfiguration()");
+
+		boolean firstStart = configuration.getBooleanValue("FirstStart").getValue(true);
+		if (firstStart) {
+			logger.log(Level.INFO, "First start of Sone, adding a couple of default Sones…");
+			if (soneJournal != null) {
+				soneJournal.clear();
+			}
+			addDefaultSones();
+			try {
+				configuration.getBooleanValue("FirstStart").setValue(false);
+			} catch (ConfigurationException ce1) {
+				logger.log(Level.WARNING, "Could not clear “first start” flag!");
+			}
+		}
+
+		options.addIntegerOption("InsertionDelay", new DefaultOption<Integer>(20, new OptionWatcher<Integer>() {
+
+			@Override
+			@SuppressWarnings("synthetic-access")
+			public void optionChanged(Option<Integer> option, Integer oldValue, Integer newValue) {
+				soneInserter.setInsertionDelay(newValue);
+			}
+
+		}));
+
+		options.addIntegerOption("MaxInsertionDelay", new DefaultOption<Integer>(600, new OptionWatcher<Integer>() {
+
+			@Override
+			@SuppressWarnings("synthetic-access")
+			public void optionChanged(Option<Integer> option, Integer oldValue, Integer newValue) {
+				soneInserter.setMaximumInsertionDelay(newValue);
+			}
+
+		}));
+
+		options.addIntegerOption("MinInsertInterval", new DefaultOption<Integer>(120, new OptionWatcher<Integer>() {
+
+			@Override
+			@SuppressWarnings("synthetic-access")
+			public void optionChanged(Option<Integer> option, Integer oldValue, Integer newValue) {
+				soneInserter.setMinimumInsertInterval(newValue);
+			}
 
-		boolean firstStart = configuration.getBooleanValue("FirstStart").getValue(true);
-		if (firstStart) {
-			logger.log(Level.INFO, "First start of Sone, adding a couple of default Sones…");
-			addDefaultSones();
-			try {
-				configuration.getBooleanValue("FirstStart").setValue(false);
-			} catch (ConfigurationException ce1) {
-				logger.log(Level.WARNING, "Could not clear “first start” flag!");
+		}));
+
+		options.addIntegerOption("ConcurrentInserts", new DefaultOption<Integer>(2, new OptionWatcher<Integer>() {
+
+			@Override
+			@SuppressWarnings("synthetic-access")
+			public void optionChanged(Option<Integer> option, Integer oldValue, Integer newValue) {
+				soneInserter.setConcurrentInserts(newValue);
 			}
-		}
 
-		options.addIntegerOption("InsertionDelay", new DefaultOption<Integer>(60, new OptionWatcher<Integer>() {
+		}));
+
+		options.addBooleanOption("UseArchives", new DefaultOption<Boolean>(false, new OptionWatcher<Boolean>() {
+
+			@Override
+			@SuppressWarnings("synthetic-access")
+			public void optionChanged(Option<Boolean> option, Boolean oldValue, Boolean newValue) {
+				soneInserter.setUseArchives(newValue);
+			}
+
+		}));
+
+		options.addIntegerOption("MaxInsertedKnownSones", new DefaultOption<Integer>(100, new OptionWatcher<Integer>() {
+
+			@Override
+			@SuppressWarnings("synthetic-access")
+			public void optionChanged(Option<Integer> option, Integer oldValue, Integer newValue) {
+				soneInserter.setMaximumKnownSones(newValue);
+			}
+
+		}));
+
+		options.addIntegerOption("ConcurrentDownloads", new DefaultOption<Integer>(4, new OptionWatcher<Integer>() {
+
+			@Override
+			@SuppressWarnings("synthetic-access")
+			public void optionChanged(Option<Integer> option, Integer oldValue, Integer newValue) {
+				soneDownloader.setConcurrentDownloads(newValue);
+			}
+
+		}));
+
+		options.addBooleanOption("UseStreamingParser", new DefaultOption<Boolean>(true, new OptionWatcher<Boolean>() {
+
+			@Override
+			@SuppressWarnings("synthetic-access")
+			public void optionChanged(Option<Boolean> option, Boolean oldValue, Boolean newValue) {
+				soneDownloader.setUseStreamingParser(newValue);
+			}
+
+		}));
+
+		options.addIntegerOption("MaxSoneSize", new DefaultOption<Integer>(4096, new OptionWatcher<Integer>() {
+
+			@Override
+			@SuppressWarnings("synthetic-access")
+			public void optionChanged(Option<Integer> option, Integer oldValue, Integer newValue) {
+				soneDownloader.setMaximumSoneSize(newValue * 1024L);
+			}
+
+		}));
+
+		options.addIntegerOption("MaxPostsPerSone", new DefaultOption<Integer>(5000, new OptionWatcher<Integer>() {
+
+			@Override
+			@SuppressWarnings("synthetic-access")
+			public void optionChanged(Option<Integer> option, Integer oldValue, Integer newValue) {
+				soneDownloader.setMaximumPosts(newValue);
+			}
+
+		}));
+
+		options.addIntegerOption("MaxRepliesPerSone", new DefaultOption<Integer>(10000, new OptionWatcher<Integer>() {
+
+			@Override
+			@SuppressWarnings("synthetic-access")
+			public void optionChanged(Option<Integer> option, Integer oldValue, Integer newValue) {
+				soneDownloader.setMaximumReplies(newValue);
+			}
+
+		}));
+
+		options.addIntegerOption("MaxTextLength", new DefaultOption<Integer>(65536, new OptionWatcher<Integer>() {
+
+			@Override
+			@SuppressWarnings("synthetic-access")
+			public void optionChanged(Option<Integer> option, Integer oldValue, Integer newValue) {
+				soneDownloader.setMaximumTextLength(newValue);
+			}
+
+		}));
+
+		options.addIntegerOption("MaxKnownSones", new DefaultOption<Integer>(10000, new OptionWatcher<Integer>() {
+
+			@Override
+			@SuppressWarnings("synthetic-access")
+			public void optionChanged(Option<Integer> option, Integer oldValue, Integer newValue) {
+				soneDownloader.setMaximumKnownSones(newValue);
+			}
+
+		}));
+
+		options.addIntegerOption("DormancyPeriod", new DefaultOption<Integer>(30, new OptionWatcher<Integer>() {
+
+			@Override
+			@SuppressWarnings("synthetic-access")
+			public void optionChanged(Option<Integer> option, Integer oldValue, Integer newValue) {
+				soneDownloader.setDormancyPeriod(newValue * 24L * 60 * 60 * 1000);
+			}
+
+		}));
+
+		options.addIntegerOption("MaxSubscriptions", new DefaultOption<Integer>(1000, new OptionWatcher<Integer>() {
+
+			@Override
+			@SuppressWarnings("synthetic-access")
+			public void optionChanged(Option<Integer> option, Integer oldValue, Integer newValue) {
+				soneDownloader.setMaximumSubscriptions(newValue);
+			}
+
+		}));
+
+		options.addIntegerOption("DormantRecheckInterval", new DefaultOption<Integer>(24, new OptionWatcher<Integer>() {
+
+			@Override
+			@SuppressWarnings("synthetic-access")
+			public void optionChanged(Option<Integer> option, Integer oldValue, Integer newValue) {
+				soneDownloader.setRecheckInterval(newValue * 60L * 60 * 1000);
+			}
+
+		}));
+
+		options.addIntegerOption("MaxDiscoveryDistance", new DefaultOption<Integer>(2, new OptionWatcher<Integer>() {
+
+			@Override
+			@SuppressWarnings("synthetic-access")
+			public void optionChanged(Option<Integer> option, Integer oldValue, Integer newValue) {
+				soneDownloader.setMaximumDistance(newValue);
+			}
+
+		}));
+
+		options.addIntegerOption("DiscoveryRate", new DefaultOption<Integer>(60, new OptionWatcher<Integer>() {
 
 			@Override
+			@SuppressWarnings("synthetic-access")
 			public void optionChanged(Option<Integer> option, Integer oldValue, Integer newValue) {
-				SoneInserter.setInsertionDelay(newValue);
+				soneDownloader.setDiscoveryRate(newValue);
 			}
 
 		}));
@@ -771,120 +2137,72 @@ public class Core extends AbstractService {
 		options.getBooleanOption("ReallyClearOnNextRestart").set(null);
 		if (clearConfiguration) {
 			/* stop loading the configuration. */
+			if (soneJournal != null) {
+				soneJournal.clear();
+			}
 			addDefaultSones();
 			return;
 		}
 
 		options.getIntegerOption("InsertionDelay").set(configuration.getIntValue("Option/InsertionDelay").getValue(null));
+		options.getIntegerOption("MaxInsertionDelay").set(configuration.getIntValue("Option/MaxInsertionDelay").getValue(null));
+		options.getIntegerOption("MinInsertInterval").set(configuration.getIntValue("Option/MinInsertInterval").getValue(null));
+		options.getIntegerOption("ConcurrentInserts").set(configuration.getIntValue("Option/ConcurrentInserts").getValue(null));
+		options.getBooleanOption("UseArchives").set(configuration.getBooleanValue("Option/UseArchives").getValue(null));
+		options.getIntegerOption("MaxInsertedKnownSones").set(configuration.getIntValue("Option/MaxInsertedKnownSones").getValue(null));
+		options.getIntegerOption("ConcurrentDownloads").set(configuration.getIntValue("Option/ConcurrentDownloads").getValue(null));
+		options.getBooleanOption("UseStreamingParser").set(configuration.getBooleanValue("Option/UseStreamingParser").getValue(null));
+		options.getIntegerOption("MaxSoneSize").set(configuration.getIntValue("Option/MaxSoneSize").getValue(null));
+		options.getIntegerOption("MaxPostsPerSone").set(configuration.getIntValue("Option/MaxPostsPerSone").getValue(null));
+		options.getIntegerOption("MaxRepliesPerSone").set(configuration.getIntValue("Option/MaxRepliesPerSone").getValue(null));
+		options.getIntegerOption("MaxTextLength").set(configuration.getIntValue("Option/MaxTextLength").getValue(null));
+		options.getIntegerOption("MaxKnownSones").set(configuration.getIntValue("Option/MaxKnownSones").getValue(null));
+		options.getIntegerOption("DormancyPeriod").set(configuration.getIntValue("Option/DormancyPeriod").getValue(null));
+		options.getIntegerOption("MaxSubscriptions").set(configuration.getIntValue("Option/MaxSubscriptions").getValue(null));
+		options.getIntegerOption("DormantRecheckInterval").set(configuration.getIntValue("Option/DormantRecheckInterval").getValue(null));
+		options.getIntegerOption("MaxDiscoveryDistance").set(configuration.getIntValue("Option/MaxDiscoveryDistance").getValue(null));
+		options.getIntegerOption("DiscoveryRate").set(configuration.getIntValue("Option/DiscoveryRate").getValue(null));
 
 		/* parse local Sones. */
 		logger.log(Level.INFO, "Loading Sones…");
-		int soneId = 0;
-		do {
-			String sonePrefix = "Sone/Sone." + soneId++;
-			String id = configuration.getStringValue(sonePrefix + "/ID").getValue(null);
-			if (id == null) {
-				break;
-			}
-			String name = configuration.getStringValue(sonePrefix + "/Name").getValue(null);
-			long time = configuration.getLongValue(sonePrefix + "/Time").getValue((long) 0);
-			String insertUri = configuration.getStringValue(sonePrefix + "/InsertURI").getValue(null);
-			String requestUri = configuration.getStringValue(sonePrefix + "/RequestURI").getValue(null);
-			long modificationCounter = configuration.getLongValue(sonePrefix + "/ModificationCounter").getValue((long) 0);
-			String firstName = configuration.getStringValue(sonePrefix + "/Profile/FirstName").getValue(null);
-			String middleName = configuration.getStringValue(sonePrefix + "/Profile/MiddleName").getValue(null);
-			String lastName = configuration.getStringValue(sonePrefix + "/Profile/LastName").getValue(null);
-			Integer birthDay = configuration.getIntValue(sonePrefix + "/Profile/BirthDay").getValue(null);
-			Integer birthMonth = configuration.getIntValue(sonePrefix + "/Profile/BirthMonth").getValue(null);
-			Integer birthYear = configuration.getIntValue(sonePrefix + "/Profile/BirthYear").getValue(null);
-			try {
-				Profile profile = new Profile();
-				profile.setFirstName(firstName);
-				profile.setMiddleName(middleName);
-				profile.setLastName(lastName);
-				profile.setBirthDay(birthDay).setBirthMonth(birthMonth).setBirthYear(birthYear);
-				Sone sone = getSone(id).setName(name).setTime(time).setRequestUri(new FreenetURI(requestUri)).setInsertUri(new FreenetURI(insertUri));
-				sone.setProfile(profile);
-				int postId = 0;
-				do {
-					String postPrefix = sonePrefix + "/Post." + postId++;
-					id = configuration.getStringValue(postPrefix + "/ID").getValue(null);
-					if (id == null) {
-						break;
-					}
-					time = configuration.getLongValue(postPrefix + "/Time").getValue((long) 0);
-					String text = configuration.getStringValue(postPrefix + "/Text").getValue(null);
-					Post post = getPost(id).setSone(sone).setTime(time).setText(text);
-					sone.addPost(post);
-				} while (true);
-				int replyCounter = 0;
-				do {
-					String replyPrefix = sonePrefix + "/Reply." + replyCounter++;
-					String replyId = configuration.getStringValue(replyPrefix + "/ID").getValue(null);
-					if (replyId == null) {
-						break;
-					}
-					Post replyPost = getPost(configuration.getStringValue(replyPrefix + "/Post").getValue(null));
-					long replyTime = configuration.getLongValue(replyPrefix + "/Time").getValue(null);
-					String replyText = configuration.getStringValue(replyPrefix + "/Text").getValue(null);
-					Reply reply = getReply(replyId).setSone(sone).setPost(replyPost).setTime(replyTime).setText(replyText);
-					sone.addReply(reply);
-				} while (true);
-
-				/* load friends. */
-				int friendCounter = 0;
-				while (true) {
-					String friendPrefix = sonePrefix + "/Friend." + friendCounter++;
-					String friendId = configuration.getStringValue(friendPrefix + "/ID").getValue(null);
-					if (friendId == null) {
-						break;
-					}
-					Sone friendSone = getSone(friendId);
-					String friendKey = configuration.getStringValue(friendPrefix + "/Key").getValue(null);
-					String friendName = configuration.getStringValue(friendPrefix + "/Name").getValue(null);
-					friendSone.setRequestUri(new FreenetURI(friendKey)).setName(friendName);
-					sone.addFriend(friendSone);
+		List<String> checkpointSnapshots = (soneJournal != null) ? soneJournal.readCheckpoint() : null;
+		if (checkpointSnapshots != null) {
+			/* the checkpoint is newer than the configuration. */
+			for (String snapshot : checkpointSnapshots) {
+				if (restoreLocalSone(snapshot) == null) {
+					logger.log(Level.WARNING, "Could not restore Sone from checkpoint!");
 				}
-
-				/* load blocked Sone IDs. */
-				int blockedSoneCounter = 0;
-				while (true) {
-					String blockedSonePrefix = sonePrefix + "/BlockedSone." + blockedSoneCounter++;
-					String blockedSoneId = configuration.getStringValue(blockedSonePrefix + "/ID").getValue(null);
-					if (blockedSoneId == null) {
-						break;
-					}
-					sone.addBlockedSoneId(blockedSoneId);
+			}
+		} else {
+			int soneId = 0;
+			do {
+				String sonePrefix = "Sone/Sone." + soneId++;
+				String id = configuration.getStringValue(sonePrefix + "/ID").getValue(null);
+				if (id == null) {
+					break;
 				}
-
-				/* load liked post IDs. */
-				int likedPostIdCounter = 0;
-				while (true) {
-					String likedPostIdPrefix = sonePrefix + "/LikedPostId." + likedPostIdCounter++;
-					String likedPostId = configuration.getStringValue(likedPostIdPrefix + "/ID").getValue(null);
-					if (likedPostId == null) {
-						break;
+				String snapshot = configuration.getStringValue(sonePrefix + "/Snapshot").getValue(null);
+				if (snapshot != null) {
+					if (restoreLocalSone(snapshot) == null) {
+						logger.log(Level.WARNING, "Could not restore Sone “%s” from snapshot!", new Object[] { id });
 					}
-					sone.addLikedPostId(likedPostId);
+					continue;
 				}
-
-				/* load liked reply IDs. */
-				int likedReplyIdCounter = 0;
-				while (true) {
-					String likedReplyIdPrefix = sonePrefix + "/LikedReplyId." + likedReplyIdCounter++;
-					String likedReplyId = configuration.getStringValue(likedReplyIdPrefix + "/ID").getValue(null);
-					if (likedReplyId == null) {
-						break;
-					}
-					sone.addLikedReplyId(likedReplyId);
+				Sone sone = loadLegacySone(sonePrefix, id);
+				if (sone != null) {
+					addLocalSone(sone);
 				}
+			} while (true);
+		}
 
-				sone.setModificationCounter(modificationCounter);
-				addLocalSone(sone);
-			} catch (MalformedURLException mue1) {
-				logger.log(Level.WARNING, "Could not create Sone from requestUri (“" + requestUri + "”) and insertUri (“" + insertUri + "”)!", mue1);
+		/* replay the changes since the last checkpoint. */
+		if (soneJournal != null) {
+			List<SoneJournal.Entry> journalEntries = soneJournal.readEntries();
+			if (!journalEntries.isEmpty()) {
+				replayJournal(journalEntries);
+				checkpointJournal();
 			}
-		} while (true);
+		}
 		logger.log(Level.INFO, "Loaded %d Sones.", getSones().size());
 
 		/* load all known Sones. */
@@ -897,13 +2215,35 @@ public class Core extends AbstractService {
 			}
 			String knownSoneName = configuration.getStringValue(knownSonePrefix + "/Name").getValue(null);
 			String knownSoneKey = configuration.getStringValue(knownSonePrefix + "/Key").getValue(null);
+			Integer knownSoneDistance = configuration.getIntValue(knownSonePrefix + "/Distance").getValue(null);
 			try {
-				getSone(knownSoneId).setName(knownSoneName).setRequestUri(new FreenetURI(knownSoneKey));
+				Sone knownSone = getSone(knownSoneId).setName(knownSoneName).setRequestUri(new FreenetURI(knownSoneKey));
+				configuredSones.add(knownSone);
+				if (knownSoneDistance != null) {
+					soneDownloader.setDistance(knownSone, knownSoneDistance);
+				}
 			} catch (MalformedURLException mue1) {
 				logger.log(Level.WARNING, "Could not create Sone from requestUri (“" + knownSoneKey + "”)!", mue1);
 			}
 		}
 
+		/* load the keys of all inserted archives. */
+		int archivesCounter = 0;
+		while (true) {
+			String archivePrefix = "Archive." + archivesCounter++;
+			String archiveSoneId = configuration.getStringValue(archivePrefix + "/Sone").getValue(null);
+			if (archiveSoneId == null) {
+				break;
+			}
+			String archiveDigest = configuration.getStringValue(archivePrefix + "/Digest").getValue(null);
+			String archiveKey = configuration.getStringValue(archivePrefix + "/Key").getValue(null);
+			try {
+				soneInserter.addArchiveKey(archiveSoneId, archiveDigest, new FreenetURI(archiveKey));
+			} catch (MalformedURLException mue1) {
+				logger.log(Level.WARNING, "Could not parse key of archive (“" + archiveKey + "”)!", mue1);
+			}
+		}
+
 		/* load all blacklisted Sones. */
 		int blacklistedSonesCounter = 0;
 		while (true) {
@@ -922,14 +2262,140 @@ public class Core extends AbstractService {
 			}
 		}
 
-		/* load all remote Sones. */
-		for (Sone remoteSone : getRemoteSones()) {
-			loadSone(remoteSone);
+		/* restore all remote Sones from the store, or fetch them. */
+		int restoredSones = 0;
+		for (Sone remoteSone : new ArrayList<Sone>(getRemoteSones())) {
+			if (soneDownloader.restoreSone(remoteSone)) {
+				addSone(remoteSone);
+				++restoredSones;
+			} else {
+				loadSone(remoteSone);
+			}
 		}
+		logger.log(Level.INFO, "Restored %d Sones from the store.", restoredSones);
 
 		logger.exiting(Core.class.getName(), "loadConfiguration()");
 	}
 
+	/**
+	 * Loads a local Sone from the configuration layout that stores every
+	 * post, reply, friend, blocked Sone, and like under its own key. This
+	 * layout is only read to migrate Sones that have not been stored as a
+	 * {@link SoneSnapshot snapshot} yet.
+	 *
+	 * @param sonePrefix
+	 *            The configuration prefix of the Sone
+	 * @param soneId
+	 *            The ID of the Sone
+	 * @return The loaded Sone, or {@code null} if the Sone could not be loaded
+	 */
+	private Sone loadLegacySone(String sonePrefix, String soneId) {
+		String name = configuration.getStringValue(sonePrefix + "/Name").getValue(null);
+		long time = configuration.getLongValue(sonePrefix + "/Time").getValue((long) 0);
+		String insertUri = configuration.getStringValue(sonePrefix + "/InsertURI").getValue(null);
+		String requestUri = configuration.getStringValue(sonePrefix + "/RequestURI").getValue(null);
+		long modificationCounter = configuration.getLongValue(sonePrefix + "/ModificationCounter").getValue((long) 0);
+		String firstName = configuration.getStringValue(sonePrefix + "/Profile/FirstName").getValue(null);
+		String middleName = configuration.getStringValue(sonePrefix + "/Profile/MiddleName").getValue(null);
+		String lastName = configuration.getStringValue(sonePrefix + "/Profile/LastName").getValue(null);
+		Integer birthDay = configuration.getIntValue(sonePrefix + "/Profile/BirthDay").getValue(null);
+		Integer birthMonth = configuration.getIntValue(sonePrefix + "/Profile/BirthMonth").getValue(null);
+		Integer birthYear = configuration.getIntValue(sonePrefix + "/Profile/BirthYear").getValue(null);
+		try {
+			Profile profile = new Profile();
+			profile.setFirstName(firstName);
+			profile.setMiddleName(middleName);
+			profile.setLastName(lastName);
+			profile.setBirthDay(birthDay).setBirthMonth(birthMonth).setBirthYear(birthYear);
+			Sone sone = getSone(soneId).setName(name).setTime(time).setRequestUri(new FreenetURI(requestUri)).setInsertUri(new FreenetURI(insertUri));
+			sone.setProfile(profile);
+			int postCounter = 0;
+			do {
+				String postPrefix = sonePrefix + "/Post." + postCounter++;
+				String postId = configuration.getStringValue(postPrefix + "/ID").getValue(null);
+				if (postId == null) {
+					break;
+				}
+				long postTime = configuration.getLongValue(postPrefix + "/Time").getValue((long) 0);
+				String postText = configuration.getStringValue(postPrefix + "/Text").getValue(null);
+				Post post = getPost(postId).setSone(sone).setTime(postTime).setText(postText);
+				sone.addPost(post);
+			} while (true);
+			int replyCounter = 0;
+			do {
+				String replyPrefix = sonePrefix + "/Reply." + replyCounter++;
+				String replyId = configuration.getStringValue(replyPrefix + "/ID").getValue(null);
+				if (replyId == null) {
+					break;
+				}
+				String replyPostId = configuration.getStringValue(replyPrefix + "/Post").getValue(null);
+				Long replyTime = configuration.getLongValue(replyPrefix + "/Time").getValue(null);
+				String replyText = configuration.getStringValue(replyPrefix + "/Text").getValue(null);
+				if ((replyPostId == null) || (replyTime == null)) {
+					logger.log(Level.WARNING, "Skipping reply %s of Sone %s with missing data! Post: %s, Time: %s", new Object[] { replyId, soneId, replyPostId, replyTime });
+					continue;
+				}
+				Reply reply = getReply(replyId).setSone(sone).setPost(getPost(replyPostId)).setTime(replyTime).setText(replyText);
+				sone.addReply(reply);
+				addReplyToIndex(reply);
+			} while (true);
+
+			/* load friends. */
+			int friendCounter = 0;
+			while (true) {
+				String friendPrefix = sonePrefix + "/Friend." + friendCounter++;
+				String friendId = configuration.getStringValue(friendPrefix + "/ID").getValue(null);
+				if (friendId == null) {
+					break;
+				}
+				Sone friendSone = getSone(friendId);
+				String friendKey = configuration.getStringValue(friendPrefix + "/Key").getValue(null);
+				String friendName = configuration.getStringValue(friendPrefix + "/Name").getValue(null);
+				friendSone.setRequestUri(new FreenetURI(friendKey)).setName(friendName);
+				sone.addFriend(friendSone);
+			}
+
+			/* load blocked Sone IDs. */
+			int blockedSoneCounter = 0;
+			while (true) {
+				String blockedSonePrefix = sonePrefix + "/BlockedSone." + blockedSoneCounter++;
+				String blockedSoneId = configuration.getStringValue(blockedSonePrefix + "/ID").getValue(null);
+				if (blockedSoneId == null) {
+					break;
+				}
+				sone.addBlockedSoneId(blockedSoneId);
+			}
+
+			/* load liked post IDs. */
+			int likedPostIdCounter = 0;
+			while (true) {
+				String likedPostIdPrefix = sonePrefix + "/LikedPostId." + likedPostIdCounter++;
+				String likedPostId = configuration.getStringValue(likedPostIdPrefix + "/ID").getValue(null);
+				if (likedPostId == null) {
+					break;
+				}
+				likePost(sone, likedPostId);
+			}
+
+			/* load liked reply IDs. */
+			int likedReplyIdCounter = 0;
+			while (true) {
+				String likedReplyIdPrefix = sonePrefix + "/LikedReplyId." + likedReplyIdCounter++;
+				String likedReplyId = configuration.getStringValue(likedReplyIdPrefix + "/ID").getValue(null);
+				if (likedReplyId == null) {
+					break;
+				}
+				likeReply(sone, likedReplyId);
+			}
+
+			sone.setModificationCounter(modificationCounter);
+			return sone;
+		} catch (MalformedURLException mue1) {
+			logger.log(Level.WARNING, "Could not create Sone from requestUri (“" + requestUri + "”) and insertUri (“" + insertUri + "”)!", mue1);
+		}
+		return null;
+	}
+
 	/**
 	 * Saves the configuraiton.
 	 */
@@ -940,6 +2406,23 @@ public class Core extends AbstractService {
 		try {
 			/* store the options first. */
 			configuration.getIntValue("Option/InsertionDelay").setValue(options.getIntegerOption("InsertionDelay").getReal());
+			configuration.getIntValue("Option/MaxInsertionDelay").setValue(options.getIntegerOption("MaxInsertionDelay").getReal());
+			configuration.getIntValue("Option/MinInsertInterval").setValue(options.getIntegerOption("MinInsertInterval").getReal());
+			configuration.getIntValue("Option/ConcurrentInserts").setValue(options.getIntegerOption("ConcurrentInserts").getReal());
+			configuration.getBooleanValue("Option/UseArchives").setValue(options.getBooleanOption("UseArchives").getReal());
+			configuration.getIntValue("Option/MaxInsertedKnownSones").setValue(options.getIntegerOption("MaxInsertedKnownSones").getReal());
+			configuration.getIntValue("Option/ConcurrentDownloads").setValue(options.getIntegerOption("ConcurrentDownloads").getReal());
+			configuration.getBooleanValue("Option/UseStreamingParser").setValue(options.getBooleanOption("UseStreamingParser").getReal());
+			configuration.getIntValue("Option/MaxSoneSize").setValue(options.getIntegerOption("MaxSoneSize").getReal());
+			configuration.getIntValue("Option/MaxPostsPerSone").setValue(options.getIntegerOption("MaxPostsPerSone").getReal());
+			configuration.getIntValue("Option/MaxRepliesPerSone").setValue(options.getIntegerOption("MaxRepliesPerSone").getReal());
+			configuration.getIntValue("Option/MaxTextLength").setValue(options.getIntegerOption("MaxTextLength").getReal());
+			configuration.getIntValue("Option/MaxKnownSones").setValue(options.getIntegerOption("MaxKnownSones").getReal());
+			configuration.getIntValue("Option/DormancyPeriod").setValue(options.getIntegerOption("DormancyPeriod").getReal());
+			configuration.getIntValue("Option/MaxSubscriptions").setValue(options.getIntegerOption("MaxSubscriptions").getReal());
+			configuration.getIntValue("Option/DormantRecheckInterval").setValue(options.getIntegerOption("DormantRecheckInterval").getReal());
+			configuration.getIntValue("Option/MaxDiscoveryDistance").setValue(options.getIntegerOption("MaxDiscoveryDistance").getReal());
+			configuration.getIntValue("Option/DiscoveryRate").setValue(options.getIntegerOption("DiscoveryRate").getReal());
 			configuration.getBooleanValue("Option/ClearOnNextRestart").setValue(options.getBooleanOption("ClearOnNextRestart").getReal());
 			configuration.getBooleanValue("Option/ReallyClearOnNextRestart").setValue(options.getBooleanOption("ReallyClearOnNextRestart").getReal());
 
@@ -948,73 +2431,15 @@ public class Core extends AbstractService {
 			for (Sone sone : localSones) {
 				String sonePrefix = "Sone/Sone." + soneId++;
 				configuration.getStringValue(sonePrefix + "/ID").setValue(sone.getId());
-				configuration.getStringValue(sonePrefix + "/Name").setValue(sone.getName());
-				configuration.getLongValue(sonePrefix + "/Time").setValue(sone.getTime());
-				configuration.getStringValue(sonePrefix + "/RequestURI").setValue(sone.getRequestUri().toString());
-				configuration.getStringValue(sonePrefix + "/InsertURI").setValue(sone.getInsertUri().toString());
-				configuration.getLongValue(sonePrefix + "/ModificationCounter").setValue(sone.getModificationCounter());
-				Profile profile = sone.getProfile();
-				configuration.getStringValue(sonePrefix + "/Profile/FirstName").setValue(profile.getFirstName());
-				configuration.getStringValue(sonePrefix + "/Profile/MiddleName").setValue(profile.getMiddleName());
-				configuration.getStringValue(sonePrefix + "/Profile/LastName").setValue(profile.getLastName());
-				configuration.getIntValue(sonePrefix + "/Profile/BirthDay").setValue(profile.getBirthDay());
-				configuration.getIntValue(sonePrefix + "/Profile/BirthMonth").setValue(profile.getBirthMonth());
-				configuration.getIntValue(sonePrefix + "/Profile/BirthYear").setValue(profile.getBirthYear());
-				int postId = 0;
-				for (Post post : sone.getPosts()) {
-					String postPrefix = sonePrefix + "/Post." + postId++;
-					configuration.getStringValue(postPrefix + "/ID").setValue(post.getId());
-					configuration.getLongValue(postPrefix + "/Time").setValue(post.getTime());
-					configuration.getStringValue(postPrefix + "/Text").setValue(post.getText());
-				}
-				/* write null ID as terminator. */
-				configuration.getStringValue(sonePrefix + "/Post." + postId + "/ID").setValue(null);
-
-				int replyId = 0;
-				for (Reply reply : sone.getReplies()) {
-					String replyPrefix = sonePrefix + "/Reply." + replyId++;
-					configuration.getStringValue(replyPrefix + "/ID").setValue(reply.getId());
-					configuration.getStringValue(replyPrefix + "/Post").setValue(reply.getPost().getId());
-					configuration.getLongValue(replyPrefix + "/Time").setValue(reply.getTime());
-					configuration.getStringValue(replyPrefix + "/Text").setValue(reply.getText());
-				}
-				/* write null ID as terminator. */
-				configuration.getStringValue(sonePrefix + "/Reply." + replyId + "/ID").setValue(null);
-
-				int friendId = 0;
-				for (Sone friend : sone.getFriends()) {
-					String friendPrefix = sonePrefix + "/Friend." + friendId++;
-					configuration.getStringValue(friendPrefix + "/ID").setValue(friend.getId());
-					configuration.getStringValue(friendPrefix + "/Key").setValue(friend.getRequestUri().toString());
-					configuration.getStringValue(friendPrefix + "/Name").setValue(friend.getName());
-				}
-				/* write null ID as terminator. */
-				configuration.getStringValue(sonePrefix + "/Friend." + friendId + "/ID").setValue(null);
-
-				/* write all blocked Sones. */
-				int blockedSoneCounter = 0;
-				for (String blockedSoneId : sone.getBlockedSoneIds()) {
-					String blockedSonePrefix = sonePrefix + "/BlockedSone." + blockedSoneCounter++;
-					configuration.getStringValue(blockedSonePrefix + "/ID").setValue(blockedSoneId);
-				}
-				configuration.getStringValue(sonePrefix + "/BlockedSone." + blockedSoneCounter + "/ID").setValue(null);
-
-				/* write all liked posts. */
-				int likedPostIdCounter = 0;
-				for (String soneLikedPostId : sone.getLikedPostIds()) {
-					String likedPostIdPrefix = sonePrefix + "/LikedPostId." + likedPostIdCounter++;
-					configuration.getStringValue(likedPostIdPrefix + "/ID").setValue(soneLikedPostId);
-				}
-				configuration.getStringValue(sonePrefix + "/LikedPostId." + likedPostIdCounter + "/ID").setValue(null);
-
-				/* write all liked replies. */
-				int likedReplyIdCounter = 0;
-				for (String soneLikedReplyId : sone.getLikedReplyIds()) {
-					String likedReplyIdPrefix = sonePrefix + "/LikedReplyId." + likedReplyIdCounter++;
-					configuration.getStringValue(likedReplyIdPrefix + "/ID").setValue(soneLikedReplyId);
-				}
-				configuration.getStringValue(sonePrefix + "/LikedReplyId." + likedReplyIdCounter + "/ID").setValue(null);
-
+				configuration.getStringValue(sonePrefix + "/Snapshot").setValue(SoneSnapshot.createSnapshot(sone));
+
+				/* cut off the lists of the old layout. */
+				configuration.getStringValue(sonePrefix + "/Post.0/ID").setValue(null);
+				configuration.getStringValue(sonePrefix + "/Reply.0/ID").setValue(null);
+				configuration.getStringValue(sonePrefix + "/Friend.0/ID").setValue(null);
+				configuration.getStringValue(sonePrefix + "/BlockedSone.0/ID").setValue(null);
+				configuration.getStringValue(sonePrefix + "/LikedPostId.0/ID").setValue(null);
+				configuration.getStringValue(sonePrefix + "/LikedReplyId.0/ID").setValue(null);
 			}
 			/* write null ID as terminator. */
 			configuration.getStringValue("Sone/Sone." + soneId + "/ID").setValue(null);
@@ -1026,10 +2451,21 @@ public class Core extends AbstractService {
 				configuration.getStringValue(knownSonePrefix + "/ID").setValue(knownSone.getId());
 				configuration.getStringValue(knownSonePrefix + "/Name").setValue(knownSone.getName());
 				configuration.getStringValue(knownSonePrefix + "/Key").setValue(knownSone.getRequestUri().toString());
+				configuration.getIntValue(knownSonePrefix + "/Distance").setValue(soneDownloader.getDistance(knownSone));
 				/* TODO - store all known stuff? */
 			}
 			configuration.getStringValue("KnownSone." + knownSonesCounter + "/ID").setValue(null);
 
+			/* write the keys of all inserted archives. */
+			int archivesCounter = 0;
+			for (String[] archive : soneInserter.getArchiveKeys()) {
+				String archivePrefix = "Archive." + archivesCounter++;
+				configuration.getStringValue(archivePrefix + "/Sone").setValue(archive[0]);
+				configuration.getStringValue(archivePrefix + "/Digest").setValue(archive[1]);
+				configuration.getStringValue(archivePrefix + "/Key").setValue(archive[2]);
+			}
+			configuration.getStringValue("Archive." + archivesCounter + "/Sone").setValue(null);
+
 			/* write all blacklisted Sones. */
 			int blacklistedSonesCounter = 0;
 			for (Sone blacklistedSone : getBlacklistedSones()) {
@@ -1047,4 +2483,242 @@ public class Core extends AbstractService {
 		}
 	}
 
+	/**
+	 * Background service that compacts the journal into a checkpoint. A
+	 * checkpoint is written once the journal contains a certain number of
+	 * entries, or when the journal contains any entries and the last
+	 * checkpoint is older than a certain time.
+	 *
+	 * @author <a href="mailto:bombe@pterodactylus.net">David ‘Bombe’ Roden</a>
+	 */
+	private class JournalCheckpointer extends AbstractService {
+
+		/** The delay between two checks of the journal (in milliseconds). */
+		private static final long CHECK_DELAY = 60 * 1000;
+
+		/** The maximum time between two checkpoints (in milliseconds). */
+		private static final long CHECKPOINT_DELAY = 10 * 60 * 1000;
+
+		/** The number of entries that trigger a checkpoint. */
+		private static final int MAXIMUM_ENTRIES = 1000;
+
+		/**
+		 * Creates a new journal checkpointer.
+		 */
+		public JournalCheckpointer() {
+			super("Sone Journal Checkpointer", false);
+		}
+
+		//
+		// SERVICE METHODS
+		//
+
+		/**
+		 * {@inheritDoc}
+		 */
+		@Override
+		@SuppressWarnings("synthetic-access")
+		protected void serviceRun() {
+			long lastCheckpoint = System.currentTimeMillis();
+			while (!shouldStop()) {
+				sleep(CHECK_DELAY);
+				if (shouldStop() || (soneJournal == null)) {
+					break;
+				}
+				int entryCount = soneJournal.getEntryCount();
+				if ((entryCount >= MAXIMUM_ENTRIES) || ((entryCount > 0) && ((System.currentTimeMillis() - lastCheckpoint) >= CHECKPOINT_DELAY))) {
+					long startTime = System.currentTimeMillis();
+					checkpointJournal();
+					lastCheckpoint = System.currentTimeMillis();
+					logger.log(Level.FINE, "Compacted %d journal entries in %d ms.", new Object[] { entryCount, lastCheckpoint - startTime });
+				}
+			}
+		}
+
+	}
+
+	/**
+	 * Background service that removes Sones, posts, and replies from the
+	 * caches once nothing refers to them anymore. The caches are walked in
+	 * short slices so that the sweeper never competes with other threads for
+	 * long; an object is only removed if it has been found unreferenced in
+	 * two consecutive sweeps, so objects that are currently being set up
+	 * (e.g. by the Sone downloader) are not removed.
+	 *
+	 * @author <a href="mailto:bombe@pterodactylus.net">David ‘Bombe’ Roden</a>
+	 */
+	private class CacheSweeper extends AbstractService {
+
+		/** The delay between two sweeps (in milliseconds). */
+		private static final long SWEEP_DELAY = 5 * 60 * 1000;
+
+		/** The maximum duration of a single slice (in milliseconds). */
+		private static final long SLICE_DURATION = 20;
+
+		/** The pause between two slices (in milliseconds). */
+		private static final long SLICE_PAUSE = 100;
+
+		/** The objects that were found unreferenced in the last sweep. */
+		private Set<Object> unreferencedObjects = new HashSet<Object>();
+
+		/** The end of the current slice. */
+		private long sliceEnd;
+
+		/**
+		 * Creates a new cache sweeper.
+		 */
+		public CacheSweeper() {
+			super("Sone Cache Sweeper", false);
+		}
+
+		//
+		// SERVICE METHODS
+		//
+
+		/**
+		 * {@inheritDoc}
+		 */
+		@Override
+		@SuppressWarnings("synthetic-access")
+		protected void serviceRun() {
+			while (!shouldStop()) {
+				sleep(SWEEP_DELAY);
+				if (shouldStop()) {
+					break;
+				}
+				long startTime = System.currentTimeMillis();
+				Set<Object> newUnreferencedObjects = new HashSet<Object>();
+				sliceEnd = startTime + SLICE_DURATION;
+				int reclaimedSones = sweep(soneCache.values().iterator(), newUnreferencedObjects);
+				int reclaimedPosts = sweep(postCache.values().iterator(), newUnreferencedObjects);
+				int reclaimedReplies = sweep(replyCache.values().iterator(), newUnreferencedObjects);
+				unreferencedObjects = newUnreferencedObjects;
+				logger.log(((reclaimedSones + reclaimedPosts + reclaimedReplies) > 0) ? Level.INFO : Level.FINE, "Reclaimed %d Sones, %d posts, and %d replies in %d ms.", new Object[] { reclaimedSones, reclaimedPosts, reclaimedReplies, System.currentTimeMillis() - startTime });
+			}
+		}
+
+		//
+		// PRIVATE METHODS
+		//
+
+		/**
+		 * Walks over the objects of the given iterator, pausing whenever the
+		 * current slice is over. Objects that were already found unreferenced
+		 * in the last sweep and are still unreferenced are removed; objects
+		 * that are unreferenced for the first time are added to the given
+		 * set.
+		 *
+		 * @param objects
+		 *            The objects to sweep
+		 * @param newUnreferencedObjects
+		 *            The set of objects that were found unreferenced in this
+		 *            sweep
+		 * @return The number of removed objects
+		 */
+		private int sweep(Iterator<?> objects, Set<Object> newUnreferencedObjects) {
+			int reclaimedObjects = 0;
+			while (objects.hasNext() && !shouldStop()) {
+				if (System.currentTimeMillis() > sliceEnd) {
+					sleep(SLICE_PAUSE);
+					sliceEnd = System.currentTimeMillis() + SLICE_DURATION;
+				}
+				Object object = objects.next();
+				if (isReferenced(object)) {
+					continue;
+				}
+				if (!unreferencedObjects.contains(object)) {
+					newUnreferencedObjects.add(object);
+					continue;
+				}
+				if (reclaim(object)) {
+					++reclaimedObjects;
+				}
+			}
+			return reclaimedObjects;
+		}
+
+		/**
+		 * Checks whether the given Sone, post, or reply is still referenced.
+		 * A Sone is referenced if it is a local Sone, if it is blacklisted, if
+		 * it is watched for updates, if it is the friend of a local Sone, if
+		 * it was loaded from the configuration, or if it has a request URI
+		 * but has not been fetched yet. A
+		 * post or a reply is referenced if it belongs to a Sone that is still
+		 * contained in the Sone cache; a post that does not belong to any Sone
+		 * yet is referenced as long as there are replies to it.
+		 *
+		 * @param object
+		 *            The Sone, post, or reply to check
+		 * @return {@code true} if the object is referenced, {@code false}
+		 *         otherwise
+		 */
+		@SuppressWarnings("synthetic-access")
+		private boolean isReferenced(Object object) {
+			if (object instanceof Sone) {
+				Sone sone = (Sone) object;
+				if (localSones.contains(sone) || blacklistedSones.contains(sone) || soneDownloader.hasSone(sone) || configuredSones.contains(sone)) {
+					return true;
+				}
+				if ((sone.getTime() == 0) && (sone.getRequestUri() != null)) {
+					return true;
+				}
+				for (Sone localSone : new ArrayList<Sone>(localSones)) {
+					if (localSone.hasFriend(sone)) {
+						return true;
+					}
+				}
+				return false;
+			}
+			if (object instanceof Post) {
+				Post post = (Post) object;
+				Sone sone = post.getSone();
+				if (sone == null) {
+					synchronized (postReplies) {
+						return postReplies.containsKey(post.getId());
+					}
+				}
+				return (soneCache.get(sone.getId()) == sone) && sone.hasPost(post);
+			}
+			if (object instanceof Reply) {
+				Reply reply = (Reply) object;
+				Sone sone = reply.getSone();
+				return (sone != null) && (soneCache.get(sone.getId()) == sone) && sone.hasReply(reply);
+			}
+			return true;
+		}
+
+		/**
+		 * Removes the given Sone, post, or reply from its cache. For a Sone,
+		 * its likes are removed from the like index, and everything the Sone
+		 * downloader kept for it (section digests, archives, and the stored
+		 * Sone) is removed as well.
+		 *
+		 * @param object
+		 *            The Sone, post, or reply to remove
+		 * @return {@code true} if the object was removed, {@code false}
+		 *         otherwise
+		 */
+		@SuppressWarnings("synthetic-access")
+		private boolean reclaim(Object object) {
+			if (object instanceof Sone) {
+				Sone sone = (Sone) object;
+				if (soneCache.remove(sone.getId(), sone)) {
+					soneStatuses.remove(sone);
+					removeLikesFromIndex(sone);
+					soneDownloader.removeSone(sone);
+					return true;
+				}
+			} else if (object instanceof Post) {
+				Post post = (Post) object;
+				return postCache.remove(post.getId(), post);
+			} else if (object instanceof Reply) {
+				Reply reply = (Reply) object;
+				removeReplyFromIndex(reply);
+				return replyCache.remove(reply.getId(), reply);
+			}
+			return false;
+		}
+
+	}
+
 }
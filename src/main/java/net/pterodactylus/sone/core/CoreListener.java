@@ -0,0 +1,83 @@
+/*
+ * Sone - CoreListener.java - Copyright © 2010 David Roden
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package net.pterodactylus.sone.core;
+
+import java.util.EventListener;
+
+import net.pterodactylus.sone.data.Post;
+import net.pterodactylus.sone.data.Reply;
+
+/**
+ * Listener interface for objects that want to be notified on certain
+ * {@link Core} events, such as posts and replies being added, changed, or
+ * removed.
+ *
+ * @author <a href="mailto:bombe@pterodactylus.net">David ‘Bombe’ Roden</a>
+ */
+public interface CoreListener extends EventListener {
+
+	/**
+	 * Notifies a listener that a new post has been added to a Sone.
+	 *
+	 * @param post
+	 *            The new post
+	 */
+	public void postAdded(Post post);
+
+	/**
+	 * Notifies a listener that the time or the text of a post has changed.
+	 *
+	 * @param post
+	 *            The changed post
+	 */
+	public void postChanged(Post post);
+
+	/**
+	 * Notifies a listener that a post has been removed from its Sone.
+	 *
+	 * @param post
+	 *            The removed post
+	 */
+	public void postRemoved(Post post);
+
+	/**
+	 * Notifies a listener that a new reply has been added to a Sone.
+	 *
+	 * @param reply
+	 *            The new reply
+	 */
+	public void replyAdded(Reply reply);
+
+	/**
+	 * Notifies a listener that the time, the text, or the post of a reply has
+	 * changed.
+	 *
+	 * @param reply
+	 *            The changed reply
+	 */
+	public void replyChanged(Reply reply);
+
+	/**
+	 * Notifies a listener that a reply has been removed from its Sone.
+	 *
+	 * @param reply
+	 *            The removed reply
+	 */
+	public void replyRemoved(Reply reply);
+
+}
@@ -18,20 +18,24 @@
 package net.pterodactylus.sone.core;
 
 import java.net.MalformedURLException;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.Map;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
+import net.pterodactylus.sone.core.Core.SonePriority;
 import net.pterodactylus.sone.data.Sone;
 import net.pterodactylus.util.logging.Logging;
 
 import com.db4o.ObjectContainer;
 
+import freenet.client.ClientMetadata;
 import freenet.client.FetchException;
 import freenet.client.FetchResult;
 import freenet.client.HighLevelSimpleClient;
 import freenet.client.HighLevelSimpleClientImpl;
+import freenet.client.InsertBlock;
 import freenet.client.InsertException;
 import freenet.client.async.ClientContext;
 import freenet.client.async.USKCallback;
@@ -39,6 +43,7 @@ import freenet.keys.FreenetURI;
 import freenet.keys.USK;
 import freenet.node.Node;
 import freenet.node.RequestStarter;
+import freenet.support.api.Bucket;
 
 /**
  * Contains all necessary functionality for interacting with the Freenet node.
@@ -57,7 +62,7 @@ public class FreenetInterface {
 	private final HighLevelSimpleClient client;
 
 	/** The USK callbacks. */
-	private final Map<String, USKCallback> soneUskCallbacks = new HashMap<String, USKCallback>();
+	private final Map<String, USKCallback> soneUskCallbacks = Collections.synchronizedMap(new HashMap<String, USKCallback>());
 
 	/**
 	 * Creates a new Freenet interface.
@@ -132,18 +137,55 @@ public class FreenetInterface {
 		}
 	}
 
+	/**
+	 * Inserts the given data as a CHK. Because the key of the data depends
+	 * only on the data, inserting the same data again results in the same key.
+	 *
+	 * @param data
+	 *            The data to insert
+	 * @param contentType
+	 *            The content type of the data
+	 * @return The generated URI
+	 * @throws SoneException
+	 *             if an insert error occurs
+	 */
+	public FreenetURI insertData(Bucket data, String contentType) throws SoneException {
+		try {
+			return client.insert(new InsertBlock(data, new ClientMetadata(contentType), FreenetURI.EMPTY_CHK_URI), false, null);
+		} catch (InsertException ie1) {
+			throw new SoneException(null, ie1);
+		}
+	}
+
 	/**
 	 * Registers the USK for the given Sone and notifies the given
-	 * {@link SoneDownloader} if an update was found.
+	 * {@link SoneDownloader} if an update was found. The priority determines
+	 * how eagerly the node polls for new editions: friends are polled at
+	 * interactive priority, Sones a local Sone interacted with at update
+	 * priority, and all other Sones only at background priority.
 	 *
 	 * @param sone
 	 *            The Sone to watch
+	 * @param priority
+	 *            The priority of the Sone
 	 * @param soneDownloader
 	 *            The Sone download to notify on updates
 	 */
-	public void registerUsk(final Sone sone, final SoneDownloader soneDownloader) {
+	public void registerUsk(final Sone sone, SonePriority priority, final SoneDownloader soneDownloader) {
+		final short progressPriority;
+		final short normalPriority;
+		if (priority == SonePriority.friend) {
+			progressPriority = RequestStarter.INTERACTIVE_PRIORITY_CLASS;
+			normalPriority = RequestStarter.INTERACTIVE_PRIORITY_CLASS;
+		} else if (priority == SonePriority.interacted) {
+			progressPriority = RequestStarter.UPDATE_PRIORITY_CLASS;
+			normalPriority = RequestStarter.UPDATE_PRIORITY_CLASS;
+		} else {
+			progressPriority = RequestStarter.BULK_SPLITFILE_PRIORITY_CLASS;
+			normalPriority = RequestStarter.PREFETCH_PRIORITY_CLASS;
+		}
 		try {
-			logger.log(Level.FINE, "Registering Sone “%s” for USK updates at %s…", new Object[] { sone, sone.getRequestUri().setMetaString(new String[] { "sone.xml" }) });
+			logger.log(Level.FINE, "Registering Sone “%s” (%s) for USK updates at %s…", new Object[] { sone, priority, sone.getRequestUri().setMetaString(new String[] { "sone.xml" }) });
 			USKCallback uskCallback = new USKCallback() {
 
 				@Override
@@ -158,12 +200,12 @@ public class FreenetInterface {
 
 				@Override
 				public short getPollingPriorityProgress() {
-					return RequestStarter.INTERACTIVE_PRIORITY_CLASS;
+					return progressPriority;
 				}
 
 				@Override
 				public short getPollingPriorityNormal() {
-					return RequestStarter.INTERACTIVE_PRIORITY_CLASS;
+					return normalPriority;
 				}
 			};
 			soneUskCallbacks.put(sone.getId(), uskCallback);
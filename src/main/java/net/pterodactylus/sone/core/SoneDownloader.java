@@ -17,15 +17,44 @@
 
 package net.pterodactylus.sone.core;
 
+import java.io.FilterInputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.UnsupportedEncodingException;
 import java.net.MalformedURLException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
 import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
 import java.util.Set;
+import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
+import javax.xml.parsers.DocumentBuilder;
+import javax.xml.parsers.DocumentBuilderFactory;
+import javax.xml.parsers.ParserConfigurationException;
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+
+import net.pterodactylus.sone.core.Core.SonePriority;
 import net.pterodactylus.sone.core.Core.SoneStatus;
+import net.pterodactylus.sone.core.SoneException.Type;
 import net.pterodactylus.sone.data.Post;
 import net.pterodactylus.sone.data.Profile;
 import net.pterodactylus.sone.data.Reply;
@@ -35,9 +64,9 @@ import net.pterodactylus.util.logging.Logging;
 import net.pterodactylus.util.number.Numbers;
 import net.pterodactylus.util.service.AbstractService;
 import net.pterodactylus.util.xml.SimpleXML;
-import net.pterodactylus.util.xml.XML;
 
 import org.w3c.dom.Document;
+import org.xml.sax.SAXException;
 
 import freenet.client.FetchResult;
 import freenet.keys.FreenetURI;
@@ -45,6 +74,39 @@ import freenet.support.api.Bucket;
 
 /**
  * The Sone downloader is responsible for download Sones as they are updated.
+ * <p>
+ * Fetches are executed by a bounded pool of worker threads. A Sone is only
+ * queued once, no matter how many updates for it are found before the fetch
+ * starts; because the fetch always uses the latest known edition, a Sone with
+ * several new editions is only fetched once.
+ * <p>
+ * Older posts and replies of a Sone may be stored in archives that are
+ * referenced from the Sone document. Archives never change, so an archive is
+ * only fetched if it was not part of the last imported edition of the Sone.
+ * <p>
+ * Every Sone has a {@link SonePriority} depending on its relationship to the
+ * local Sones. The priority determines how eagerly its USK is polled, and
+ * queued fetches are started in order of priority so that updates of friends
+ * never wait behind updates of Sones that are merely known. Fetches of Sones
+ * that are not friends never occupy all workers, so that there is always a
+ * worker left for friends, even if all other fetches are slow.
+ * <p>
+ * The downloader periodically checks the subscriptions of all Sones. Sones
+ * that are not followed by a local Sone and have not been updated for a
+ * certain time are considered dormant and “parked”: their USKs are
+ * unsubscribed, and they are only subscribed again for a short time every
+ * now and then to check for updates. A parked Sone that turns out to be
+ * updated is subscribed permanently again. The number of subscriptions is
+ * limited; if there are more Sones than subscriptions, friends, then Sones
+ * that a local Sone interacted with, and then the most recently updated Sones
+ * are kept subscribed.
+ * <p>
+ * Sones that are listed as known Sones by a downloaded Sone are not watched
+ * right away. They are only recorded together with their distance from the
+ * local Sones (friends and Sones added by the user have a distance of 1, the
+ * Sones they list a distance of 2, and so on), and Sones up to a maximum
+ * distance are then added at a limited rate, closest Sones first. The
+ * distances are stored in the configuration together with the Sones.
  *
  * @author <a href="mailto:bombe@pterodactylus.net">David ‘Bombe’ Roden</a>
  */
@@ -53,6 +115,65 @@ public class SoneDownloader extends AbstractService {
 	/** The logger. */
 	private static final Logger logger = Logging.getLogger(SoneDownloader.class);
 
+	/** The delay between two checks of the subscriptions (in milliseconds). */
+	private static final long SUBSCRIPTION_CHECK_DELAY = 5 * 60 * 1000;
+
+	/** How long a parked Sone is subscribed to check it for updates. */
+	private static final long RECHECK_DURATION = 15 * 60 * 1000;
+
+	/** The delay between two discoveries of Sones (in milliseconds). */
+	private static final long DISCOVERY_DELAY = 60 * 1000;
+
+	/** The maximum number of recorded Sones waiting to be discovered. */
+	private static final int MAXIMUM_DISCOVERED_SONES = 10000;
+
+	/** Comparator that sorts section entries by their values. */
+	private static final Comparator<String[]> entryComparator = new Comparator<String[]>() {
+
+		/**
+		 * {@inheritDoc}
+		 */
+		@Override
+		public int compare(String[] leftEntry, String[] rightEntry) {
+			for (int index = 0; index < Math.min(leftEntry.length, rightEntry.length); ++index) {
+				String leftValue = (leftEntry[index] != null) ? leftEntry[index] : "";
+				String rightValue = (rightEntry[index] != null) ? rightEntry[index] : "";
+				int difference = leftValue.compareTo(rightValue);
+				if (difference != 0) {
+					return difference;
+				}
+			}
+			return leftEntry.length - rightEntry.length;
+		}
+
+	};
+
+	/**
+	 * The document builders used to parse Sones. Document builders are not
+	 * thread-safe so every thread gets its own.
+	 */
+	private static final ThreadLocal<DocumentBuilder> documentBuilders = new ThreadLocal<DocumentBuilder>() {
+
+		@Override
+		protected DocumentBuilder initialValue() {
+			try {
+				return DocumentBuilderFactory.newInstance().newDocumentBuilder();
+			} catch (ParserConfigurationException pce1) {
+				logger.log(Level.SEVERE, "Could not create document builder!", pce1);
+				return null;
+			}
+		}
+	};
+
+	/** The factory for streaming XML readers. */
+	private static final XMLInputFactory xmlInputFactory = XMLInputFactory.newInstance();
+
+	static {
+		xmlInputFactory.setProperty(XMLInputFactory.SUPPORT_DTD, false);
+		xmlInputFactory.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, false);
+		xmlInputFactory.setProperty(XMLInputFactory.IS_COALESCING, true);
+	}
+
 	/** The core. */
 	private final Core core;
 
@@ -60,7 +181,121 @@ public class SoneDownloader extends AbstractService {
 	private final FreenetInterface freenetInterface;
 
 	/** The sones to update. */
-	private final Set<Sone> sones = new HashSet<Sone>();
+	private final Set<Sone> sones = Collections.synchronizedSet(new HashSet<Sone>());
+
+	/** The priorities of the Sones to update. */
+	private final Map<Sone, SonePriority> priorities = new HashMap<Sone, SonePriority>();
+
+	/** The sequence number for fetch tasks, to keep their order stable. */
+	private final AtomicLong fetchSequence = new AtomicLong();
+
+	/** The Sones whose USKs are not permanently subscribed. */
+	private final Set<Sone> parkedSones = new HashSet<Sone>();
+
+	/** The parked Sones that are currently being checked, with end times. */
+	private final Map<Sone, Long> recheckEnds = new HashMap<Sone, Long>();
+
+	/** The times of the last check of every parked Sone. */
+	private final Map<Sone, Long> lastRechecks = new HashMap<Sone, Long>();
+
+	/** The time after which a Sone is considered dormant (in milliseconds). */
+	private volatile long dormancyPeriod = 30L * 24 * 60 * 60 * 1000;
+
+	/** The maximum number of subscribed Sones. */
+	private volatile int maximumSubscriptions = 1000;
+
+	/** The time between two checks of a parked Sone (in milliseconds). */
+	private volatile long recheckInterval = 24L * 60 * 60 * 1000;
+
+	/** The recorded Sones that are not watched yet, by ID. */
+	private final Map<String, DiscoveredSone> discoveredSones = new LinkedHashMap<String, DiscoveredSone>();
+
+	/** The distances of the watched Sones from the local Sones. */
+	private final Map<Sone, Integer> distances = new HashMap<Sone, Integer>();
+
+	/** The number of Sones that were added from the recorded Sones. */
+	private int addedDiscoveredSones;
+
+	/** The maximum distance of a discovered Sone from the local Sones. */
+	private volatile int maximumDistance = 2;
+
+	/** The maximum number of discovered Sones to add per hour. */
+	private volatile int discoveryRate = 60;
+
+	/** The number of discovered Sones that may currently be added. */
+	private double discoveryAllowance;
+
+	/** The time of the last discovery. */
+	private long lastDiscoveryTime = System.currentTimeMillis();
+
+	/** The executor for all fetches. */
+	private final ThreadPoolExecutor fetchExecutor;
+
+	/**
+	 * The fetches of Sones that are not friends that wait until they may be
+	 * handed to the executor.
+	 */
+	private final PriorityQueue<FetchTask> waitingFetches = new PriorityQueue<FetchTask>();
+
+	/**
+	 * The number of fetches of Sones that are not friends that have been
+	 * handed to the executor and have not finished yet.
+	 */
+	private int lowerPriorityFetches;
+
+	/** The Sones that are waiting to be fetched. */
+	private final Set<Sone> queuedSones = new HashSet<Sone>();
+
+	/** The Sones that are currently being fetched. */
+	private final Set<Sone> fetchingSones = new HashSet<Sone>();
+
+	/** The Sones that were updated while they were being fetched. */
+	private final Set<Sone> refetchSones = new HashSet<Sone>();
+
+	/**
+	 * The Sones whose last fetch failed because an archive could not be
+	 * fetched.
+	 */
+	private final Set<Sone> retrySones = new HashSet<Sone>();
+
+	/** Whether to use the streaming parser instead of the DOM parser. */
+	private volatile boolean useStreamingParser = true;
+
+	/** The maximum size of a Sone document (in bytes). */
+	private volatile long maximumSoneSize = 4096 * 1024;
+
+	/** The maximum number of posts per Sone. */
+	private volatile int maximumPosts = 5000;
+
+	/** The maximum number of replies per Sone. */
+	private volatile int maximumReplies = 10000;
+
+	/** The maximum length of any text in a Sone document. */
+	private volatile int maximumTextLength = 65536;
+
+	/** The maximum number of known Sones per Sone. */
+	private volatile int maximumKnownSones = 10000;
+
+	/** The digests of the sections of every Sone at its last import. */
+	private final Map<Sone, Map<String, byte[]>> sectionDigests = Collections.synchronizedMap(new HashMap<Sone, Map<String, byte[]>>());
+
+	/** The store for downloaded Sones (may be {@code null}). */
+	private volatile SoneStore soneStore;
+
+	/**
+	 * The latest editions of Sones that could not be parsed, by the request
+	 * URI of the Sone without edition.
+	 */
+	private final Map<String, Long> badSoneEditions = Collections.synchronizedMap(new HashMap<String, Long>());
+
+	/** The archives of every Sone at its last import, by key. */
+	private final Map<Sone, Map<String, Archive>> soneArchives = new HashMap<Sone, Map<String, Archive>>();
+
+	/** The number of bytes of archives that were downloaded. */
+	private long fetchedArchiveBytes;
+
+	/** The number of bytes of archives that did not have to be downloaded. */
+	private long savedArchiveBytes;
 
 	/**
 	 * Creates a new Sone downloader.
@@ -74,195 +309,836 @@ public class SoneDownloader extends AbstractService {
 		super("Sone Downloader", false);
 		this.core = core;
 		this.freenetInterface = freenetInterface;
+		fetchExecutor = new ThreadPoolExecutor(4, 4, 1, TimeUnit.MINUTES, new PriorityBlockingQueue<Runnable>(), new ThreadFactory() {
+
+			@Override
+			public Thread newThread(Runnable runnable) {
+				Thread thread = new Thread(runnable, "Sone Downloader");
+				thread.setDaemon(true);
+				return thread;
+			}
+		});
+		fetchExecutor.allowCoreThreadTimeOut(true);
 	}
 
 	//
-	// ACTIONS
+	// ACCESSORS
 	//
 
 	/**
-	 * Adds the given Sone to the set of Sones that will be watched for updates.
+	 * Sets the maximum number of Sones that are fetched concurrently.
 	 *
-	 * @param sone
-	 *            The Sone to add
+	 * @param concurrentDownloads
+	 *            The maximum number of concurrent fetches
 	 */
-	public void addSone(Sone sone) {
-		if (sones.add(sone)) {
-			freenetInterface.registerUsk(sone, this);
+	public void setConcurrentDownloads(int concurrentDownloads) {
+		int threads = Math.max(1, concurrentDownloads);
+		if (threads > fetchExecutor.getMaximumPoolSize()) {
+			fetchExecutor.setMaximumPoolSize(threads);
+			fetchExecutor.setCorePoolSize(threads);
+		} else {
+			fetchExecutor.setCorePoolSize(threads);
+			fetchExecutor.setMaximumPoolSize(threads);
 		}
+		startWaitingFetches();
 	}
 
 	/**
-	 * Removes the given Sone from the downloader.
+	 * Sets whether Sones are parsed using the streaming parser or by building
+	 * a DOM of the complete document.
+	 *
+	 * @param useStreamingParser
+	 *            {@code true} to use the streaming parser, {@code false} to
+	 *            use the DOM parser
+	 */
+	public void setUseStreamingParser(boolean useStreamingParser) {
+		this.useStreamingParser = useStreamingParser;
+	}
+
+	/**
+	 * Sets the store that downloaded Sones are stored in and restored from.
+	 *
+	 * @param soneStore
+	 *            The Sone store, or {@code null} to not store Sones
+	 */
+	public void setSoneStore(SoneStore soneStore) {
+		this.soneStore = soneStore;
+	}
+
+	/**
+	 * Sets the maximum size of a Sone document. Larger documents are not
+	 * parsed.
+	 *
+	 * @param maximumSoneSize
+	 *            The maximum size of a Sone document (in bytes)
+	 */
+	public void setMaximumSoneSize(long maximumSoneSize) {
+		this.maximumSoneSize = maximumSoneSize;
+	}
+
+	/**
+	 * Sets the maximum number of posts a Sone may have.
+	 *
+	 * @param maximumPosts
+	 *            The maximum number of posts per Sone
+	 */
+	public void setMaximumPosts(int maximumPosts) {
+		this.maximumPosts = maximumPosts;
+	}
+
+	/**
+	 * Sets the maximum number of replies a Sone may have.
+	 *
+	 * @param maximumReplies
+	 *            The maximum number of replies per Sone
+	 */
+	public void setMaximumReplies(int maximumReplies) {
+		this.maximumReplies = maximumReplies;
+	}
+
+	/**
+	 * Sets the maximum length of any text (e.g. the text of a post) in a Sone
+	 * document.
+	 *
+	 * @param maximumTextLength
+	 *            The maximum text length (in characters)
+	 */
+	public void setMaximumTextLength(int maximumTextLength) {
+		this.maximumTextLength = maximumTextLength;
+	}
+
+	/**
+	 * Sets the maximum number of known Sones a Sone may list.
+	 *
+	 * @param maximumKnownSones
+	 *            The maximum number of known Sones per Sone
+	 */
+	public void setMaximumKnownSones(int maximumKnownSones) {
+		this.maximumKnownSones = maximumKnownSones;
+	}
+
+	/**
+	 * Sets the time after which a Sone that has not been updated is
+	 * considered dormant.
+	 *
+	 * @param dormancyPeriod
+	 *            The dormancy period (in milliseconds)
+	 */
+	public void setDormancyPeriod(long dormancyPeriod) {
+		this.dormancyPeriod = Math.max(0, dormancyPeriod);
+	}
+
+	/**
+	 * Sets the maximum number of Sones whose USKs are subscribed. Friends of
+	 * local Sones are always subscribed, even if this limit is exceeded.
+	 *
+	 * @param maximumSubscriptions
+	 *            The maximum number of subscriptions
+	 */
+	public void setMaximumSubscriptions(int maximumSubscriptions) {
+		this.maximumSubscriptions = Math.max(0, maximumSubscriptions);
+	}
+
+	/**
+	 * Sets the time between two checks of a parked Sone for updates.
+	 *
+	 * @param recheckInterval
+	 *            The recheck interval (in milliseconds)
+	 */
+	public void setRecheckInterval(long recheckInterval) {
+		this.recheckInterval = Math.max(0, recheckInterval);
+	}
+
+	/**
+	 * Sets the maximum distance from the local Sones up to which Sones listed
+	 * as known Sones are added. A distance of 1 only adds friends of local
+	 * Sones, 2 also adds the Sones they list, and so on.
+	 *
+	 * @param maximumDistance
+	 *            The maximum distance of a discovered Sone
+	 */
+	public void setMaximumDistance(int maximumDistance) {
+		this.maximumDistance = Math.max(1, maximumDistance);
+	}
+
+	/**
+	 * Sets the distance of the given Sone from the local Sones. This is used
+	 * for Sones that were added by the user, and to restore the distances of
+	 * the Sones from the configuration before they are added.
 	 *
 	 * @param sone
-	 *            The Sone to stop watching
+	 *            The Sone to set the distance for
+	 * @param distance
+	 *            The distance of the Sone
 	 */
-	public void removeSone(Sone sone) {
-		if (sones.remove(sone)) {
-			freenetInterface.unregisterUsk(sone);
+	public void setDistance(Sone sone, int distance) {
+		synchronized (discoveredSones) {
+			distances.put(sone, Math.max(1, distance));
 		}
 	}
 
 	/**
-	 * Fetches the updated Sone. This method is a callback method for
-	 * {@link FreenetInterface#registerUsk(Sone, SoneDownloader)}.
+	 * Sets the maximum number of discovered Sones that are added per hour.
+	 *
+	 * @param discoveryRate
+	 *            The maximum number of discovered Sones per hour
+	 */
+	public void setDiscoveryRate(int discoveryRate) {
+		this.discoveryRate = Math.max(0, discoveryRate);
+	}
+
+	/**
+	 * Returns whether the current edition of the given Sone could not be
+	 * parsed, e.g. because it exceeded one of the limits.
 	 *
 	 * @param sone
-	 *            The Sone to fetch
+	 *            The Sone to check
+	 * @return {@code true} if the current edition of the Sone is bad,
+	 *         {@code false} otherwise
 	 */
-	public void fetchSone(Sone sone) {
-		if (core.getSoneStatus(sone) == SoneStatus.downloading) {
-			return;
-		}
-		logger.log(Level.FINE, "Starting fetch for Sone “%s” from %s…", new Object[] { sone, sone.getRequestUri().setMetaString(new String[] { "sone.xml" }) });
-		FreenetURI requestUri = sone.getRequestUri().setMetaString(new String[] { "sone.xml" });
-		core.setSoneStatus(sone, SoneStatus.downloading);
-		try {
-			FetchResult fetchResult = freenetInterface.fetchUri(requestUri);
-			if (fetchResult == null) {
-				/* TODO - mark Sone as bad. */
-				return;
-			}
-			logger.log(Level.FINEST, "Got %d bytes back.", fetchResult.size());
-			Sone parsedSone = parseSone(sone, fetchResult, requestUri);
-			if (parsedSone != null) {
-				core.addSone(parsedSone);
-			}
-		} finally {
-			core.setSoneStatus(sone, (sone.getTime() == 0) ? SoneStatus.unknown : SoneStatus.idle);
-		}
+	public boolean isBadSone(Sone sone) {
+		return isBadEdition(sone.getRequestUri());
 	}
 
 	/**
-	 * Parses a Sone from a fetch result.
+	 * Returns whether the edition of the given request URI could not be
+	 * parsed. This also works for Sones that are not yet known, e.g. Sones
+	 * that are loaded by their request URI.
 	 *
-	 * @param originalSone
-	 *            The sone to parse, or {@code null} if the Sone is yet unknown
-	 * @param fetchResult
-	 *            The fetch result
 	 * @param requestUri
-	 *            The requested URI
-	 * @return The parsed Sone, or {@code null} if the Sone could not be parsed
+	 *            The request URI to check
+	 * @return {@code true} if the edition of the request URI is bad,
+	 *         {@code false} otherwise
 	 */
-	public Sone parseSone(Sone originalSone, FetchResult fetchResult, FreenetURI requestUri) {
-		logger.log(Level.FINEST, "Persing FetchResult (%d bytes, %s) for %s…", new Object[] { fetchResult.size(), fetchResult.getMimeType(), originalSone });
-		Bucket soneBucket = fetchResult.asBucket();
-		InputStream soneInputStream = null;
-		try {
-			soneInputStream = soneBucket.getInputStream();
-			Sone parsedSone = parseSone(originalSone, soneInputStream);
-			if (parsedSone != null) {
-				parsedSone.setRequestUri(requestUri.setMetaString(new String[0]));
-			}
-			return parsedSone;
-		} catch (IOException ioe1) {
-			logger.log(Level.WARNING, "Could not parse Sone from " + requestUri + "!", ioe1);
-		} finally {
-			Closer.close(soneInputStream);
-			soneBucket.free();
+	public boolean isBadEdition(FreenetURI requestUri) {
+		Long badEdition = badSoneEditions.get(getEditionlessUri(requestUri));
+		return (badEdition != null) && (badEdition >= requestUri.getEdition());
+	}
+
+	/**
+	 * Returns the number of Sones that are waiting to be fetched.
+	 *
+	 * @return The number of queued Sones
+	 */
+	public int getQueuedCount() {
+		synchronized (queuedSones) {
+			return queuedSones.size();
 		}
-		return null;
 	}
 
 	/**
-	 * Parses a Sone from the given input stream.
+	 * Returns the number of Sones that are currently being fetched.
 	 *
-	 * @param soneInputStream
-	 *            The input stream to parse the Sone from
-	 * @return The parsed Sone
+	 * @return The number of Sones being fetched
 	 */
-	public Sone parseSone(InputStream soneInputStream) {
-		return parseSone(null, soneInputStream);
+	public int getFetchingCount() {
+		synchronized (queuedSones) {
+			return fetchingSones.size();
+		}
 	}
 
 	/**
-	 * Parses a Sone from the given input stream and updates the given Sone, or
-	 * creates a new Sone.
+	 * Returns the number of watched Sones that have the given priority.
 	 *
-	 * @param originalSone
-	 *            The Sone to update (may be {@code null})
-	 * @param soneInputStream
-	 *            The input stream to parse the Sone from
-	 * @return The parsed Sone
+	 * @param priority
+	 *            The priority to count the Sones for
+	 * @return The number of Sones with the given priority
 	 */
-	public Sone parseSone(Sone originalSone, InputStream soneInputStream) {
-		/* TODO - impose a size limit? */
-		Sone sone;
+	public int getSoneCount(SonePriority priority) {
+		int count = 0;
+		synchronized (priorities) {
+			for (SonePriority sonePriority : priorities.values()) {
+				if (sonePriority == priority) {
+					++count;
+				}
+			}
+		}
+		return count;
+	}
 
-		Document document;
-		/* XML parsing is not thread-safe. */
-		synchronized (this) {
-			document = XML.transformToDocument(soneInputStream);
+	/**
+	 * Returns the number of Sones whose USKs are currently subscribed,
+	 * including parked Sones that are currently being checked.
+	 *
+	 * @return The number of subscribed Sones
+	 */
+	public int getSubscribedCount() {
+		int soneCount = sones.size();
+		synchronized (parkedSones) {
+			return soneCount - parkedSones.size() + recheckEnds.size();
 		}
-		if (document == null) {
-			/* TODO - mark Sone as bad. */
-			logger.log(Level.WARNING, "Could not parse XML for Sone %s!", new Object[] { originalSone });
-			return null;
+	}
+
+	/**
+	 * Returns the number of parked Sones, i.e. Sones whose USKs are only
+	 * subscribed periodically to check for updates.
+	 *
+	 * @return The number of parked Sones
+	 */
+	public int getParkedCount() {
+		synchronized (parkedSones) {
+			return parkedSones.size();
 		}
-		SimpleXML soneXml;
-		try {
-			soneXml = SimpleXML.fromDocument(document);
-		} catch (NullPointerException npe1) {
-			/* for some reason, invalid XML can cause NPEs. */
-			logger.log(Level.WARNING, "XML for Sone " + originalSone + " can not be parsed!", npe1);
-			return null;
+	}
+
+	/**
+	 * Returns the number of Sones that were listed as known Sones and are
+	 * waiting to be discovered.
+	 *
+	 * @return The number of recorded Sones
+	 */
+	public int getDiscoveredCount() {
+		synchronized (discoveredSones) {
+			return discoveredSones.size();
 		}
+	}
 
-		/* check ID. */
-		String soneId = soneXml.getValue("id", null);
-		if ((originalSone != null) && !originalSone.getId().equals(soneId)) {
-			/* TODO - mark Sone as bad. */
-			logger.log(Level.WARNING, "Downloaded ID for Sone %s (%s) does not match known ID (%s)!", new Object[] { originalSone, originalSone.getId(), soneId });
-			return null;
+	/**
+	 * Returns the number of recorded Sones that have been added.
+	 *
+	 * @return The number of added Sones
+	 */
+	public int getAddedDiscoveredCount() {
+		synchronized (discoveredSones) {
+			return addedDiscoveredSones;
 		}
+	}
 
-		/* load Sone from core. */
-		sone = originalSone;
-		if (sone == null) {
-			sone = core.getSone(soneId);
+	/**
+	 * Returns the distance of the given Sone from the local Sones.
+	 *
+	 * @param sone
+	 *            The Sone to get the distance for
+	 * @return The distance of the Sone, or {@code null} if the distance of the
+	 *         Sone is not known
+	 */
+	public Integer getDistance(Sone sone) {
+		synchronized (discoveredSones) {
+			return distances.get(sone);
 		}
+	}
 
-		String soneName = soneXml.getValue("name", null);
-		if (soneName == null) {
-			/* TODO - mark Sone as bad. */
-			logger.log(Level.WARNING, "Downloaded name for Sone %s was null!", new Object[] { sone });
-			return null;
+	/**
+	 * Returns the number of bytes of archives that have been downloaded.
+	 *
+	 * @return The number of downloaded archive bytes
+	 */
+	public long getFetchedArchiveBytes() {
+		synchronized (soneArchives) {
+			return fetchedArchiveBytes;
 		}
-		sone.setName(soneName);
+	}
 
-		String soneTime = soneXml.getValue("time", null);
-		if (soneTime == null) {
-			/* TODO - mark Sone as bad. */
+	/**
+	 * Returns the number of bytes of archives that did not have to be
+	 * downloaded again because they were already known.
+	 *
+	 * @return The number of saved archive bytes
+	 */
+	public long getSavedArchiveBytes() {
+		synchronized (soneArchives) {
+			return savedArchiveBytes;
+		}
+	}
+
+	//
+	// ACTIONS
+	//
+
+	/**
+	 * Adds the given Sone to the set of Sones that will be watched for updates.
+	 * If the distance of the Sone is not known yet, friends of local Sones get
+	 * a distance of 1, and all other Sones get the maximum distance, so that
+	 * the Sones they list are not discovered.
+	 *
+	 * @param sone
+	 *            The Sone to add
+	 */
+	public void addSone(Sone sone) {
+		if (sones.add(sone)) {
+			SonePriority priority = core.getSonePriority(sone);
+			synchronized (discoveredSones) {
+				discoveredSones.remove(sone.getId());
+				if (!distances.containsKey(sone)) {
+					distances.put(sone, (priority == SonePriority.friend) ? 1 : maximumDistance);
+				}
+			}
+			synchronized (priorities) {
+				priorities.put(sone, priority);
+			}
+			freenetInterface.registerUsk(sone, priority, this);
+		} else {
+			updatePriority(sone);
+		}
+	}
+
+	/**
+	 * Determines the priority of the given Sone again, and subscribes its USK
+	 * again using the new priority if it has changed. Nothing happens if the
+	 * Sone is not watched for updates.
+	 *
+	 * @param sone
+	 *            The Sone to update the priority for
+	 */
+	public void updatePriority(Sone sone) {
+		if (!sones.contains(sone)) {
+			return;
+		}
+		SonePriority priority = core.getSonePriority(sone);
+		synchronized (priorities) {
+			if (!priorities.containsKey(sone) || (priorities.get(sone) == priority)) {
+				return;
+			}
+			priorities.put(sone, priority);
+		}
+		logger.log(Level.FINE, "Priority of Sone %s changed to %s.", new Object[] { sone, priority });
+		synchronized (parkedSones) {
+			if (parkedSones.contains(sone)) {
+				if (priority != SonePriority.friend) {
+					if (!recheckEnds.containsKey(sone)) {
+						return;
+					}
+				} else {
+					/* friends are never parked. */
+					parkedSones.remove(sone);
+					recheckEnds.remove(sone);
+					lastRechecks.remove(sone);
+				}
+			}
+		}
+		freenetInterface.unregisterUsk(sone);
+		freenetInterface.registerUsk(sone, priority, this);
+	}
+
+	/**
+	 * Returns the priority of the given Sone.
+	 *
+	 * @param sone
+	 *            The Sone to get the priority for
+	 * @return The priority of the Sone, or {@link SonePriority#other} if the
+	 *         Sone is not watched for updates
+	 */
+	private SonePriority getPriority(Sone sone) {
+		synchronized (priorities) {
+			SonePriority priority = priorities.get(sone);
+			return (priority != null) ? priority : SonePriority.other;
+		}
+	}
+
+	/**
+	 * Returns whether the given Sone is watched for updates.
+	 *
+	 * @param sone
+	 *            The Sone to check for
+	 * @return {@code true} if the Sone is watched for updates, {@code false}
+	 *         otherwise
+	 */
+	public boolean hasSone(Sone sone) {
+		return sones.contains(sone);
+	}
+
+	/**
+	 * Removes the given Sone from the downloader.
+	 *
+	 * @param sone
+	 *            The Sone to stop watching
+	 */
+	public void removeSone(Sone sone) {
+		if (sones.remove(sone)) {
+			freenetInterface.unregisterUsk(sone);
+		}
+		synchronized (priorities) {
+			priorities.remove(sone);
+		}
+		synchronized (parkedSones) {
+			parkedSones.remove(sone);
+			recheckEnds.remove(sone);
+			lastRechecks.remove(sone);
+		}
+		synchronized (discoveredSones) {
+			distances.remove(sone);
+		}
+		synchronized (retrySones) {
+			retrySones.remove(sone);
+		}
+		sectionDigests.remove(sone);
+		synchronized (soneArchives) {
+			soneArchives.remove(sone);
+		}
+		SoneStore soneStore = this.soneStore;
+		if (soneStore != null) {
+			soneStore.removeSone(sone);
+		}
+	}
+
+	/**
+	 * Schedules a fetch of the updated Sone. This method is a callback method
+	 * for {@link FreenetInterface#registerUsk(Sone, SonePriority, SoneDownloader)}
+	 * and returns immediately. If the Sone is already waiting to be fetched,
+	 * nothing happens; if it is currently being fetched, it will be fetched
+	 * again once the current fetch has finished. Queued fetches are started in
+	 * order of the priority of their Sones.
+	 *
+	 * @param sone
+	 *            The Sone to fetch
+	 */
+	public void fetchSone(final Sone sone) {
+		synchronized (queuedSones) {
+			if (queuedSones.contains(sone)) {
+				return;
+			}
+			if (fetchingSones.contains(sone)) {
+				refetchSones.add(sone);
+				return;
+			}
+			queuedSones.add(sone);
+		}
+		executeFetch(new FetchTask(getPriority(sone), new Runnable() {
+
+			@Override
+			@SuppressWarnings("synthetic-access")
+			public void run() {
+				synchronized (queuedSones) {
+					queuedSones.remove(sone);
+					fetchingSones.add(sone);
+				}
+				try {
+					fetchSoneNow(sone);
+				} finally {
+					boolean refetch;
+					synchronized (queuedSones) {
+						fetchingSones.remove(sone);
+						refetch = refetchSones.remove(sone);
+					}
+					if (refetch) {
+						fetchSone(sone);
+					}
+				}
+			}
+		}));
+	}
+
+	/**
+	 * Executes the given task using the worker threads of this downloader.
+	 * This can be used for fetches that are not bound to a known Sone. Such
+	 * tasks are usually started by the user and are executed with the highest
+	 * priority.
+	 *
+	 * @param task
+	 *            The task to execute
+	 */
+	public void execute(Runnable task) {
+		fetchExecutor.execute(new FetchTask(SonePriority.friend, task));
+	}
+
+	/**
+	 * Restores the given Sone from the Sone store, including the archives of
+	 * the Sone. Only stored archives are used; nothing is fetched from the
+	 * network so that startup is not blocked. If the stored Sone can not be
+	 * parsed, its edition is marked as bad and it is removed from the store.
+	 * If an archive of the Sone is not stored, the stored Sone is kept and
+	 * the Sone has to be fetched normally.
+	 *
+	 * @param sone
+	 *            The Sone to restore
+	 * @return {@code true} if the Sone was restored, {@code false} otherwise
+	 */
+	public boolean restoreSone(Sone sone) {
+		SoneStore soneStore = this.soneStore;
+		if (soneStore == null) {
+			return false;
+		}
+		InputStream soneInputStream = null;
+		try {
+			soneInputStream = soneStore.getInputStream(sone);
+			if (soneInputStream == null) {
+				return false;
+			}
+			long edition = soneStore.getEdition(sone);
+			if (parseSone(sone, soneInputStream, false) == null) {
+				logger.log(Level.WARNING, "Could not restore Sone “%s”, removing it from the store.", new Object[] { sone });
+				Closer.close(soneInputStream);
+				soneStore.removeSone(sone);
+				markBadEdition(sone.getRequestUri().setSuggestedEdition(edition), sone);
+				return false;
+			}
+			sone.setRequestUri(sone.getRequestUri().setSuggestedEdition(edition));
+			core.setSoneStatus(sone, SoneStatus.idle);
+			logger.log(Level.FINE, "Restored edition %d of Sone “%s”.", new Object[] { edition, sone });
+			return true;
+		} catch (IOException ioe1) {
+			logger.log(Level.WARNING, "Could not restore Sone “" + sone + "”!", ioe1);
+			return false;
+		} catch (SoneException se1) {
+			logger.log(Level.INFO, "Could not restore Sone “" + sone + "”, an archive is not stored.", se1);
+			return false;
+		} finally {
+			Closer.close(soneInputStream);
+		}
+	}
+
+	/**
+	 * Parses a Sone from a fetch result. If the Sone can not be parsed, the
+	 * edition of the request URI is marked as bad and will not be fetched
+	 * again. If an archive of the Sone can not be fetched, the edition is not
+	 * marked as bad, and the Sone is fetched again later.
+	 *
+	 * @param originalSone
+	 *            The sone to parse, or {@code null} if the Sone is yet unknown
+	 * @param fetchResult
+	 *            The fetch result
+	 * @param requestUri
+	 *            The requested URI
+	 * @return The parsed Sone, or {@code null} if the Sone could not be parsed
+	 */
+	public Sone parseSone(Sone originalSone, FetchResult fetchResult, FreenetURI requestUri) {
+		logger.log(Level.FINEST, "Persing FetchResult (%d bytes, %s) for %s…", new Object[] { fetchResult.size(), fetchResult.getMimeType(), originalSone });
+		Bucket soneBucket = fetchResult.asBucket();
+		if (fetchResult.size() > maximumSoneSize) {
+			logger.log(Level.WARNING, "Sone %s is too large (%d bytes, limit is %d bytes)!", new Object[] { originalSone, fetchResult.size(), maximumSoneSize });
+			soneBucket.free();
+			markBadEdition(requestUri, originalSone);
+			return null;
+		}
+		InputStream soneInputStream = null;
+		try {
+			soneInputStream = soneBucket.getInputStream();
+			Sone parsedSone;
+			try {
+				parsedSone = parseSone(originalSone, soneInputStream, true);
+			} catch (SoneException se1) {
+				logger.log(Level.INFO, "Could not load the archives of edition " + requestUri.getEdition() + " of Sone " + originalSone + ", will try again.", se1);
+				if (originalSone != null) {
+					synchronized (retrySones) {
+						retrySones.add(originalSone);
+					}
+				}
+				return null;
+			}
+			if (parsedSone == null) {
+				markBadEdition(requestUri, originalSone);
+			} else {
+				badSoneEditions.remove(getEditionlessUri(requestUri));
+				parsedSone.setRequestUri(requestUri.setMetaString(new String[0]));
+				SoneStore soneStore = this.soneStore;
+				if (soneStore != null) {
+					soneStore.storeSone(parsedSone, requestUri.getEdition(), soneBucket);
+					soneStore.retainArchives(parsedSone, getArchiveKeys(parsedSone));
+				}
+			}
+			return parsedSone;
+		} catch (IOException ioe1) {
+			logger.log(Level.WARNING, "Could not parse Sone from " + requestUri + "!", ioe1);
+		} finally {
+			Closer.close(soneInputStream);
+			soneBucket.free();
+		}
+		return null;
+	}
+
+	/**
+	 * Parses a Sone from the given input stream.
+	 *
+	 * @param soneInputStream
+	 *            The input stream to parse the Sone from
+	 * @return The parsed Sone
+	 */
+	public Sone parseSone(InputStream soneInputStream) {
+		return parseSone(null, soneInputStream);
+	}
+
+	/**
+	 * Parses a Sone from the given input stream and updates the given Sone, or
+	 * creates a new Sone.
+	 *
+	 * @param originalSone
+	 *            The Sone to update (may be {@code null})
+	 * @param soneInputStream
+	 *            The input stream to parse the Sone from
+	 * @return The parsed Sone
+	 */
+	public Sone parseSone(Sone originalSone, InputStream soneInputStream) {
+		try {
+			return parseSone(originalSone, soneInputStream, true);
+		} catch (SoneException se1) {
+			logger.log(Level.WARNING, "Could not load the archives of Sone " + originalSone + "!", se1);
+			return null;
+		}
+	}
+
+	//
+	// PRIVATE METHODS
+	//
+
+	/**
+	 * Parses a Sone from the given input stream and updates the given Sone, or
+	 * creates a new Sone.
+	 *
+	 * @param originalSone
+	 *            The Sone to update (may be {@code null})
+	 * @param soneInputStream
+	 *            The input stream to parse the Sone from
+	 * @param fetchArchives
+	 *            {@code true} to fetch archives that are not known and not
+	 *            stored, {@code false} to only use known and stored archives
+	 * @return The parsed Sone, or {@code null} if the Sone could not be parsed
+	 * @throws SoneException
+	 *             if an archive of the Sone is not available
+	 */
+	private Sone parseSone(Sone originalSone, InputStream soneInputStream, boolean fetchArchives) throws SoneException {
+		LimitedInputStream limitedInputStream = new LimitedInputStream(soneInputStream, maximumSoneSize);
+		Sone parsedSone;
+		if (useStreamingParser) {
+			parsedSone = parseSoneStreaming(originalSone, limitedInputStream, fetchArchives);
+		} else {
+			parsedSone = parseSoneDom(originalSone, limitedInputStream, fetchArchives);
+		}
+		if (limitedInputStream.isLimitExceeded()) {
+			logger.log(Level.WARNING, "Sone %s is larger than %d bytes!", new Object[] { originalSone, maximumSoneSize });
+			return null;
+		}
+		return parsedSone;
+	}
+
+	/**
+	 * Executes the given fetch. Fetches of friends are handed to the executor
+	 * immediately; all other fetches wait until fewer of them are running
+	 * than there are workers, so that one worker is always left for friends.
+	 *
+	 * @param fetchTask
+	 *            The fetch to execute
+	 */
+	private void executeFetch(FetchTask fetchTask) {
+		if (fetchTask.isFriendFetch()) {
+			fetchExecutor.execute(fetchTask);
+			return;
+		}
+		synchronized (waitingFetches) {
+			waitingFetches.add(fetchTask);
+		}
+		startWaitingFetches();
+	}
+
+	/**
+	 * Hands waiting fetches of Sones that are not friends to the executor as
+	 * long as they leave a worker for friends. If there is only a single
+	 * worker, one such fetch may run at a time.
+	 */
+	private void startWaitingFetches() {
+		List<FetchTask> startedFetches = new ArrayList<FetchTask>();
+		synchronized (waitingFetches) {
+			int maximumFetches = Math.max(1, fetchExecutor.getMaximumPoolSize() - 1);
+			while ((lowerPriorityFetches < maximumFetches) && !waitingFetches.isEmpty()) {
+				startedFetches.add(waitingFetches.poll());
+				++lowerPriorityFetches;
+			}
+		}
+		for (FetchTask startedFetch : startedFetches) {
+			fetchExecutor.execute(startedFetch);
+		}
+	}
+
+	/**
+	 * Parses a Sone from the given input stream by building a DOM of the
+	 * complete document first.
+	 *
+	 * @param originalSone
+	 *            The Sone to update (may be {@code null})
+	 * @param soneInputStream
+	 *            The input stream to parse the Sone from
+	 * @param fetchArchives
+	 *            {@code true} to fetch archives that are not known and not
+	 *            stored, {@code false} to only use known and stored archives
+	 * @return The parsed Sone, or {@code null} if the Sone could not be parsed
+	 * @throws SoneException
+	 *             if an archive of the Sone is not available
+	 */
+	private Sone parseSoneDom(Sone originalSone, InputStream soneInputStream, boolean fetchArchives) throws SoneException {
+		Sone sone;
+
+		Document document = parseDocument(soneInputStream);
+		if (document == null) {
+			logger.log(Level.WARNING, "Could not parse XML for Sone %s!", new Object[] { originalSone });
+			return null;
+		}
+		SimpleXML soneXml;
+		try {
+			soneXml = SimpleXML.fromDocument(document);
+		} catch (NullPointerException npe1) {
+			/* for some reason, invalid XML can cause NPEs. */
+			logger.log(Level.WARNING, "XML for Sone " + originalSone + " can not be parsed!", npe1);
+			return null;
+		}
+
+		/* check ID. */
+		String soneId = soneXml.getValue("id", null);
+		if ((originalSone != null) && !originalSone.getId().equals(soneId)) {
+			logger.log(Level.WARNING, "Downloaded ID for Sone %s (%s) does not match known ID (%s)!", new Object[] { originalSone, originalSone.getId(), soneId });
+			return null;
+		}
+		if (soneId == null) {
+			logger.log(Level.WARNING, "Downloaded Sone %s has no ID!", new Object[] { originalSone });
+			return null;
+		}
+
+		/* load Sone from core. */
+		sone = originalSone;
+		if (sone == null) {
+			sone = core.getSone(soneId);
+		}
+
+		/* load archives before anything of the Sone is changed. */
+		SimpleXML archivesXml = soneXml.getNode("archives");
+		Map<String, Archive> archives = null;
+		List<String[]> archivedPosts = new ArrayList<String[]>();
+		List<String[]> archivedReplies = new ArrayList<String[]>();
+		if (archivesXml != null) {
+			Set<String> archiveKeys = new HashSet<String>();
+			for (SimpleXML archiveXml : archivesXml.getNodes("archive")) {
+				archiveKeys.add(archiveXml.getValue());
+			}
+			archives = loadArchives(sone, archiveKeys, archivedPosts, archivedReplies, fetchArchives);
+			if (archives == null) {
+				return null;
+			}
+		}
+
+		String soneName = soneXml.getValue("name", null);
+		if (soneName == null) {
+			logger.log(Level.WARNING, "Downloaded name for Sone %s was null!", new Object[] { sone });
+			return null;
+		}
+
+		String soneTime = soneXml.getValue("time", null);
+		if (soneTime == null) {
 			logger.log(Level.WARNING, "Downloaded time for Sone %s was null!", new Object[] { sone });
 			return null;
 		}
+		long time;
 		try {
-			sone.setTime(Long.parseLong(soneTime));
+			time = Long.parseLong(soneTime);
 		} catch (NumberFormatException nfe1) {
-			/* TODO - mark Sone as bad. */
 			logger.log(Level.WARNING, "Downloaded Sone %s with invalid time: %s", new Object[] { sone, soneTime });
 			return null;
 		}
 
 		String soneRequestUri = soneXml.getValue("request-uri", null);
+		FreenetURI requestUri = null;
 		if (soneRequestUri != null) {
 			try {
-				sone.setRequestUri(new FreenetURI(soneRequestUri));
+				requestUri = new FreenetURI(soneRequestUri);
 			} catch (MalformedURLException mue1) {
-				/* TODO - mark Sone as bad. */
 				logger.log(Level.WARNING, "Downloaded Sone " + sone + " has invalid request URI: " + soneRequestUri, mue1);
 				return null;
 			}
 		}
 
 		String soneInsertUri = soneXml.getValue("insert-uri", null);
+		FreenetURI insertUri = null;
 		if ((soneInsertUri != null) && (sone.getInsertUri() == null)) {
 			try {
-				sone.setInsertUri(new FreenetURI(soneInsertUri));
-				sone.updateUris(Math.max(sone.getRequestUri().getSuggestedEdition(), sone.getInsertUri().getSuggestedEdition()));
+				insertUri = new FreenetURI(soneInsertUri);
 			} catch (MalformedURLException mue1) {
-				/* TODO - mark Sone as bad. */
 				logger.log(Level.WARNING, "Downloaded Sone " + sone + " has invalid insert URI: " + soneInsertUri, mue1);
 				return null;
 			}
@@ -270,7 +1146,6 @@ public class SoneDownloader extends AbstractService {
 
 		SimpleXML profileXml = soneXml.getNode("profile");
 		if (profileXml == null) {
-			/* TODO - mark Sone as bad. */
 			logger.log(Level.WARNING, "Downloaded Sone %s has no profile!", new Object[] { sone });
 			return null;
 		}
@@ -287,54 +1162,64 @@ public class SoneDownloader extends AbstractService {
 
 		/* parse posts. */
 		SimpleXML postsXml = soneXml.getNode("posts");
-		Set<Post> posts = new HashSet<Post>();
+		List<String[]> rawPosts = new ArrayList<String[]>();
 		if (postsXml == null) {
-			/* TODO - mark Sone as bad. */
 			logger.log(Level.WARNING, "Downloaded Sone %s has no posts!", new Object[] { sone });
 		} else {
-			for (SimpleXML postXml : postsXml.getNodes("post")) {
-				String postId = postXml.getValue("id", null);
+			List<SimpleXML> postXmls = postsXml.getNodes("post");
+			if (postXmls.size() > maximumPosts) {
+				logger.log(Level.WARNING, "Downloaded Sone %s has more than %d posts!", new Object[] { sone, maximumPosts });
+				return null;
+			}
+			for (SimpleXML postXml : postXmls) {
+				String postId = postXml.getValue("id", null);
 				String postTime = postXml.getValue("time", null);
 				String postText = postXml.getValue("text", null);
 				if ((postId == null) || (postTime == null) || (postText == null)) {
-					/* TODO - mark Sone as bad. */
 					logger.log(Level.WARNING, "Downloaded post for Sone %s with missing data! ID: %s, Time: %s, Text: %s", new Object[] { sone, postId, postTime, postText });
 					return null;
 				}
-				try {
-					posts.add(core.getPost(postId).setSone(sone).setTime(Long.parseLong(postTime)).setText(postText));
-				} catch (NumberFormatException nfe1) {
-					/* TODO - mark Sone as bad. */
+				if (postText.length() > maximumTextLength) {
+					logger.log(Level.WARNING, "Downloaded post for Sone %s is longer than %d characters!", new Object[] { sone, maximumTextLength });
+					return null;
+				}
+				if (!isValidTime(postTime)) {
 					logger.log(Level.WARNING, "Downloaded post for Sone %s with invalid time: %s", new Object[] { sone, postTime });
 					return null;
 				}
+				rawPosts.add(new String[] { postId, postTime, postText });
 			}
 		}
 
 		/* parse replies. */
 		SimpleXML repliesXml = soneXml.getNode("replies");
-		Set<Reply> replies = new HashSet<Reply>();
+		List<String[]> rawReplies = new ArrayList<String[]>();
 		if (repliesXml == null) {
-			/* TODO - mark Sone as bad. */
 			logger.log(Level.WARNING, "Downloaded Sone %s has no replies!", new Object[] { sone });
 		} else {
-			for (SimpleXML replyXml : repliesXml.getNodes("reply")) {
+			List<SimpleXML> replyXmls = repliesXml.getNodes("reply");
+			if (replyXmls.size() > maximumReplies) {
+				logger.log(Level.WARNING, "Downloaded Sone %s has more than %d replies!", new Object[] { sone, maximumReplies });
+				return null;
+			}
+			for (SimpleXML replyXml : replyXmls) {
 				String replyId = replyXml.getValue("id", null);
 				String replyPostId = replyXml.getValue("post-id", null);
 				String replyTime = replyXml.getValue("time", null);
 				String replyText = replyXml.getValue("text", null);
 				if ((replyId == null) || (replyPostId == null) || (replyTime == null) || (replyText == null)) {
-					/* TODO - mark Sone as bad. */
 					logger.log(Level.WARNING, "Downloaded reply for Sone %s with missing data! ID: %s, Post: %s, Time: %s, Text: %s", new Object[] { sone, replyId, replyPostId, replyTime, replyText });
 					return null;
 				}
-				try {
-					replies.add(core.getReply(replyId).setSone(sone).setPost(core.getPost(replyPostId)).setTime(Long.parseLong(replyTime)).setText(replyText));
-				} catch (NumberFormatException nfe1) {
-					/* TODO - mark Sone as bad. */
+				if (replyText.length() > maximumTextLength) {
+					logger.log(Level.WARNING, "Downloaded reply for Sone %s is longer than %d characters!", new Object[] { sone, maximumTextLength });
+					return null;
+				}
+				if (!isValidTime(replyTime)) {
 					logger.log(Level.WARNING, "Downloaded reply for Sone %s with invalid time: %s", new Object[] { sone, replyTime });
 					return null;
 				}
+				rawReplies.add(new String[] { replyId, replyPostId, replyTime, replyText });
 			}
 		}
 
@@ -342,7 +1227,6 @@ public class SoneDownloader extends AbstractService {
 		SimpleXML likePostIdsXml = soneXml.getNode("post-likes");
 		Set<String> likedPostIds = new HashSet<String>();
 		if (likePostIdsXml == null) {
-			/* TODO - mark Sone as bad. */
 			logger.log(Level.WARNING, "Downloaded Sone %s has no post likes!", new Object[] { sone });
 		} else {
 			for (SimpleXML likedPostIdXml : likePostIdsXml.getNodes("post-like")) {
@@ -355,7 +1239,6 @@ public class SoneDownloader extends AbstractService {
 		SimpleXML likeReplyIdsXml = soneXml.getNode("reply-likes");
 		Set<String> likedReplyIds = new HashSet<String>();
 		if (likeReplyIdsXml == null) {
-			/* TODO - mark Sone as bad. */
 			logger.log(Level.WARNING, "Downloaded Sone %s has no reply likes!", new Object[] { sone });
 		} else {
 			for (SimpleXML likedReplyIdXml : likeReplyIdsXml.getNodes("reply-like")) {
@@ -366,59 +1249,1828 @@ public class SoneDownloader extends AbstractService {
 
 		/* parse known Sones. */
 		SimpleXML knownSonesXml = soneXml.getNode("known-sones");
-		Set<Sone> knownSones = new HashSet<Sone>();
+		List<String[]> knownSones = new ArrayList<String[]>();
 		if (knownSonesXml == null) {
-			/* TODO - mark Sone as bad. */
 			logger.log(Level.WARNING, "Downloaded Sone %s has no known Sones!", new Object[] { sone });
 		} else {
-			for (SimpleXML knownSoneXml : knownSonesXml.getNodes("known-sone")) {
+			List<SimpleXML> knownSoneXmls = knownSonesXml.getNodes("known-sone");
+			if (knownSoneXmls.size() > maximumKnownSones) {
+				logger.log(Level.WARNING, "Downloaded Sone %s has more than %d known Sones!", new Object[] { sone, maximumKnownSones });
+				return null;
+			}
+			for (SimpleXML knownSoneXml : knownSoneXmls) {
 				String knownSoneId = knownSoneXml.getValue("sone-id", null);
 				String knownSoneKey = knownSoneXml.getValue("sone-key", null);
 				String knownSoneName = knownSoneXml.getValue("sone-name", null);
 				if ((knownSoneId == null) || (knownSoneKey == null) || (knownSoneName == null)) {
-					/* TODO - mark Sone as bad. */
 					logger.log(Level.WARNING, "Downloaded known Sone for Sone %s with missing data! ID: %s, Key: %s, Name: %s", new Object[] { sone, knownSoneId, knownSoneKey, knownSoneName });
 					return null;
 				}
-				try {
-					knownSones.add(core.getSone(knownSoneId).setRequestUri(new FreenetURI(knownSoneKey)).setName(knownSoneName));
-				} catch (MalformedURLException mue1) {
-					/* TODO - mark Sone as bad. */
-					logger.log(Level.WARNING, "Downloaded known Sone for Sone %s with invalid key: %s", new Object[] { sone, knownSoneKey });
+				knownSones.add(new String[] { knownSoneId, knownSoneKey, knownSoneName });
+			}
+			if (!checkKnownSones(sone, knownSones)) {
+				return null;
+			}
+		}
+
+		/* add the posts and replies from the archives. */
+		if (archives != null) {
+			rawPosts.addAll(archivedPosts);
+			rawReplies.addAll(archivedReplies);
+			if (rawPosts.size() > maximumPosts) {
+				logger.log(Level.WARNING, "Downloaded Sone %s has more than %d posts!", new Object[] { sone, maximumPosts });
+				return null;
+			}
+			if (rawReplies.size() > maximumReplies) {
+				logger.log(Level.WARNING, "Downloaded Sone %s has more than %d replies!", new Object[] { sone, maximumReplies });
+				return null;
+			}
+		}
+
+		/* okay, apparently everything was parsed correctly. Now import. */
+		updateSone(sone, soneName, time, requestUri, insertUri);
+		sectionDigests.remove(sone);
+		importSone(sone, profile, rawPosts, rawReplies, likedPostIds, likedReplyIds, knownSones);
+		synchronized (soneArchives) {
+			soneArchives.put(sone, (archives != null) ? archives : new HashMap<String, Archive>());
+		}
+		return sone;
+	}
+
+	/**
+	 * Parses a Sone from the given input stream without building a DOM of the
+	 * document. The values of every section of the document (profile, posts,
+	 * replies, likes, and known Sones) are collected while reading, and a
+	 * digest is calculated for each section. Posts, replies and known Sones are
+	 * only created and imported for those sections whose digest differs from
+	 * the digest of the last import.
+	 *
+	 * @param originalSone
+	 *            The Sone to update (may be {@code null})
+	 * @param soneInputStream
+	 *            The input stream to parse the Sone from
+	 * @param fetchArchives
+	 *            {@code true} to fetch archives that are not known and not
+	 *            stored, {@code false} to only use known and stored archives
+	 * @return The parsed Sone, or {@code null} if the Sone could not be parsed
+	 * @throws SoneException
+	 *             if an archive of the Sone is not available
+	 */
+	private Sone parseSoneStreaming(Sone originalSone, InputStream soneInputStream, boolean fetchArchives) throws SoneException {
+		Sone sone = null;
+		String soneName = null;
+		String soneTime = null;
+		String soneRequestUri = null;
+		String soneInsertUri = null;
+		String[] rawProfile = null;
+		List<String[]> rawPosts = null;
+		List<String[]> rawReplies = null;
+		Set<String> likedPostIds = null;
+		Set<String> likedReplyIds = null;
+		List<String[]> rawKnownSones = null;
+		Set<String> archiveKeys = null;
+
+		XMLStreamReader xmlReader = null;
+		try {
+			xmlReader = xmlInputFactory.createXMLStreamReader(soneInputStream);
+			if (!nextChildElement(xmlReader) || !"sone".equals(xmlReader.getLocalName())) {
+				logger.log(Level.WARNING, "XML for Sone %s has no “sone” root element!", new Object[] { originalSone });
+				return null;
+			}
+			while (nextChildElement(xmlReader)) {
+				String elementName = xmlReader.getLocalName();
+				if ("id".equals(elementName)) {
+					String soneId = readText(xmlReader);
+					if ((originalSone != null) && !originalSone.getId().equals(soneId)) {
+						logger.log(Level.WARNING, "Downloaded ID for Sone %s (%s) does not match known ID (%s)!", new Object[] { originalSone, originalSone.getId(), soneId });
+						return null;
+					}
+					if (soneId == null) {
+						logger.log(Level.WARNING, "Downloaded Sone %s has no ID!", new Object[] { originalSone });
+						return null;
+					}
+					/* load Sone from core. */
+					sone = (originalSone != null) ? originalSone : core.getSone(soneId);
+				} else if ("name".equals(elementName)) {
+					soneName = readText(xmlReader);
+				} else if ("time".equals(elementName)) {
+					soneTime = readText(xmlReader);
+				} else if ("request-uri".equals(elementName)) {
+					soneRequestUri = readText(xmlReader);
+				} else if ("insert-uri".equals(elementName)) {
+					soneInsertUri = readText(xmlReader);
+				} else if ("profile".equals(elementName)) {
+					rawProfile = parseProfile(xmlReader);
+				} else if (sone == null) {
+					/* all other elements need the Sone. */
+					logger.log(Level.WARNING, "Downloaded Sone %s has “%s” before its ID!", new Object[] { originalSone, elementName });
 					return null;
+				} else if ("posts".equals(elementName)) {
+					rawPosts = parsePosts(xmlReader, sone);
+					if (rawPosts == null) {
+						return null;
+					}
+				} else if ("replies".equals(elementName)) {
+					rawReplies = parseReplies(xmlReader, sone);
+					if (rawReplies == null) {
+						return null;
+					}
+				} else if ("post-likes".equals(elementName)) {
+					likedPostIds = parseIds(xmlReader, "post-like");
+				} else if ("reply-likes".equals(elementName)) {
+					likedReplyIds = parseIds(xmlReader, "reply-like");
+				} else if ("known-sones".equals(elementName)) {
+					rawKnownSones = parseKnownSones(xmlReader, sone);
+					if (rawKnownSones == null) {
+						return null;
+					}
+				} else if ("archives".equals(elementName)) {
+					archiveKeys = parseIds(xmlReader, "archive");
+				} else {
+					skipElement(xmlReader);
 				}
 			}
+		} catch (XMLStreamException xmlse1) {
+			logger.log(Level.WARNING, "XML for Sone " + originalSone + " can not be parsed!", xmlse1);
+			return null;
+		} finally {
+			close(xmlReader);
 		}
 
-		/* okay, apparently everything was parsed correctly. Now import. */
-		/* atomic setter operation on the Sone. */
-		synchronized (sone) {
-			sone.setProfile(profile);
-			sone.setPosts(posts);
-			sone.setReplies(replies);
-			sone.setLikePostIds(likedPostIds);
-			sone.setModificationCounter(0);
+		if (sone == null) {
+			logger.log(Level.WARNING, "Downloaded Sone %s has no ID!", new Object[] { originalSone });
+			return null;
+		}
+		if (rawPosts == null) {
+			logger.log(Level.WARNING, "Downloaded Sone %s has no posts!", new Object[] { sone });
+			rawPosts = new ArrayList<String[]>();
+		}
+		if (rawReplies == null) {
+			logger.log(Level.WARNING, "Downloaded Sone %s has no replies!", new Object[] { sone });
+			rawReplies = new ArrayList<String[]>();
+		}
+
+		/* add the posts and replies from the archives before anything of the Sone is changed. */
+		Map<String, Archive> archives = new HashMap<String, Archive>();
+		if (archiveKeys != null) {
+			archives = loadArchives(sone, archiveKeys, rawPosts, rawReplies, fetchArchives);
+			if (archives == null) {
+				return null;
+			}
+			if (rawPosts.size() > maximumPosts) {
+				logger.log(Level.WARNING, "Downloaded Sone %s has more than %d posts!", new Object[] { sone, maximumPosts });
+				return null;
+			}
+			if (rawReplies.size() > maximumReplies) {
+				logger.log(Level.WARNING, "Downloaded Sone %s has more than %d replies!", new Object[] { sone, maximumReplies });
+				return null;
+			}
+		}
+
+		if (soneName == null) {
+			logger.log(Level.WARNING, "Downloaded name for Sone %s was null!", new Object[] { sone });
+			return null;
+		}
+
+		if (soneTime == null) {
+			logger.log(Level.WARNING, "Downloaded time for Sone %s was null!", new Object[] { sone });
+			return null;
+		}
+		long time;
+		try {
+			time = Long.parseLong(soneTime);
+		} catch (NumberFormatException nfe1) {
+			logger.log(Level.WARNING, "Downloaded Sone %s with invalid time: %s", new Object[] { sone, soneTime });
+			return null;
+		}
+
+		FreenetURI requestUri = null;
+		if (soneRequestUri != null) {
+			try {
+				requestUri = new FreenetURI(soneRequestUri);
+			} catch (MalformedURLException mue1) {
+				logger.log(Level.WARNING, "Downloaded Sone " + sone + " has invalid request URI: " + soneRequestUri, mue1);
+				return null;
+			}
+		}
+
+		FreenetURI insertUri = null;
+		if ((soneInsertUri != null) && (sone.getInsertUri() == null)) {
+			try {
+				insertUri = new FreenetURI(soneInsertUri);
+			} catch (MalformedURLException mue1) {
+				logger.log(Level.WARNING, "Downloaded Sone " + sone + " has invalid insert URI: " + soneInsertUri, mue1);
+				return null;
+			}
+		}
+
+		if (rawProfile == null) {
+			logger.log(Level.WARNING, "Downloaded Sone %s has no profile!", new Object[] { sone });
+			return null;
+		}
+		if (likedPostIds == null) {
+			logger.log(Level.WARNING, "Downloaded Sone %s has no post likes!", new Object[] { sone });
+			likedPostIds = new HashSet<String>();
+		}
+		if (likedReplyIds == null) {
+			logger.log(Level.WARNING, "Downloaded Sone %s has no reply likes!", new Object[] { sone });
+			likedReplyIds = new HashSet<String>();
+		}
+		if (rawKnownSones == null) {
+			logger.log(Level.WARNING, "Downloaded Sone %s has no known Sones!", new Object[] { sone });
+			rawKnownSones = new ArrayList<String[]>();
+		}
+
+		/* only create the sections that have changed since the last import. */
+		Map<String, byte[]> digests = new HashMap<String, byte[]>();
+		Profile profile = null;
+		if (isSectionChanged(sone, "profile", Collections.singletonList(rawProfile), digests)) {
+			profile = createProfile(rawProfile);
+		}
+		if (!isSectionChanged(sone, "posts", rawPosts, digests)) {
+			rawPosts = null;
+		}
+		if (!isSectionChanged(sone, "replies", rawReplies, digests)) {
+			rawReplies = null;
+		}
+		if (!isSectionChanged(sone, "post-likes", toEntries(likedPostIds), digests)) {
+			likedPostIds = null;
+		}
+		if (!isSectionChanged(sone, "reply-likes", toEntries(likedReplyIds), digests)) {
+			likedReplyIds = null;
+		}
+		List<String[]> knownSones = null;
+		if (isSectionChanged(sone, "known-sones", rawKnownSones, digests)) {
+			if (!checkKnownSones(sone, rawKnownSones)) {
+				return null;
+			}
+			knownSones = rawKnownSones;
 		}
+		logger.log(Level.FINEST, "Changed sections of Sone %s: profile: %s, posts: %s, replies: %s, post likes: %s, reply likes: %s, known Sones: %s", new Object[] { sone, profile != null, rawPosts != null, rawReplies != null, likedPostIds != null, likedReplyIds != null, knownSones != null });
 
-		/* add all known Sones to core for downloading. */
-		for (Sone knownSone : knownSones) {
-			core.addSone(knownSone);
+		/* okay, apparently everything was parsed correctly. Now import. */
+		updateSone(sone, soneName, time, requestUri, insertUri);
+		importSone(sone, profile, rawPosts, rawReplies, likedPostIds, likedReplyIds, knownSones);
+		sectionDigests.put(sone, digests);
+		synchronized (soneArchives) {
+			soneArchives.put(sone, archives);
 		}
 		return sone;
 	}
 
-	//
-	// SERVICE METHODS
-	//
+	/**
+	 * Adds the posts and replies of the archives with the given keys to the
+	 * given lists. Archives that were already part of the last imported
+	 * edition of the Sone are not fetched again; their posts and replies are
+	 * taken from the core. Archives that are stored in the Sone store, e.g.
+	 * when a Sone is restored after a restart, are read from the store.
+	 *
+	 * @param sone
+	 *            The Sone being parsed
+	 * @param archiveKeys
+	 *            The keys of the archives
+	 * @param rawPosts
+	 *            The list to add the values of the archived posts to
+	 * @param rawReplies
+	 *            The list to add the values of the archived replies to
+	 * @param fetchArchives
+	 *            {@code true} to fetch archives that are not known and not
+	 *            stored, {@code false} to only use known and stored archives
+	 * @return The archives of the Sone, or {@code null} if an archive is
+	 *         invalid
+	 * @throws SoneException
+	 *             if an archive is not available
+	 */
+	private Map<String, Archive> loadArchives(Sone sone, Set<String> archiveKeys, List<String[]> rawPosts, List<String[]> rawReplies, boolean fetchArchives) throws SoneException {
+		if (archiveKeys.size() > maximumPosts) {
+			logger.log(Level.WARNING, "Downloaded Sone %s has more than %d archives!", new Object[] { sone, maximumPosts });
+			return null;
+		}
+		Map<String, Archive> oldArchives;
+		synchronized (soneArchives) {
+			oldArchives = soneArchives.get(sone);
+		}
+		Map<String, Archive> archives = new HashMap<String, Archive>();
+		for (String archiveKey : archiveKeys) {
+			Archive archive = (oldArchives != null) ? oldArchives.get(archiveKey) : null;
+			if ((archive != null) && restoreArchive(sone, archive, rawPosts, rawReplies)) {
+				logger.log(Level.FINEST, "Archive %s of Sone %s is already known.", new Object[] { archiveKey, sone });
+				synchronized (soneArchives) {
+					savedArchiveBytes += archive.getSize();
+				}
+			} else if ((archive = restoreStoredArchive(sone, archiveKey, rawPosts, rawReplies)) != null) {
+				logger.log(Level.FINEST, "Archive %s of Sone %s was restored from the store.", new Object[] { archiveKey, sone });
+				synchronized (soneArchives) {
+					savedArchiveBytes += archive.getSize();
+				}
+			} else if (!fetchArchives) {
+				throw new SoneException(Type.ARCHIVE_NOT_AVAILABLE, "Archive " + archiveKey + " of Sone " + sone + " is not stored.");
+			} else {
+				archive = fetchArchive(sone, archiveKey, rawPosts, rawReplies);
+				if (archive == null) {
+					return null;
+				}
+				synchronized (soneArchives) {
+					fetchedArchiveBytes += archive.getSize();
+				}
+			}
+			archives.put(archiveKey, archive);
+		}
+		return archives;
+	}
 
 	/**
-	 * {@inheritDoc}
+	 * Adds the values of the posts and replies of the given archive to the
+	 * given lists, using the posts and replies that are stored in the core.
+	 *
+	 * @param sone
+	 *            The Sone being parsed
+	 * @param archive
+	 *            The archive to restore
+	 * @param rawPosts
+	 *            The list to add the values of the archived posts to
+	 * @param rawReplies
+	 *            The list to add the values of the archived replies to
+	 * @return {@code true} if the archive was restored, {@code false} if the
+	 *         core does not contain all posts and replies of the archive
 	 */
-	@Override
-	protected void serviceStop() {
-		for (Sone sone : sones) {
-			freenetInterface.unregisterUsk(sone);
+	private boolean restoreArchive(Sone sone, Archive archive, List<String[]> rawPosts, List<String[]> rawReplies) {
+		List<String[]> archivedPosts = new ArrayList<String[]>(archive.getPostIds().length);
+		for (String postId : archive.getPostIds()) {
+			Post post = core.getPost(postId, false);
+			if ((post == null) || !sone.equals(post.getSone()) || (post.getText() == null)) {
+				return false;
+			}
+			archivedPosts.add(new String[] { postId, String.valueOf(post.getTime()), post.getText() });
+		}
+		List<String[]> archivedReplies = new ArrayList<String[]>(archive.getReplyIds().length);
+		for (String replyId : archive.getReplyIds()) {
+			Reply reply = core.getReply(replyId, false);
+			if ((reply == null) || !sone.equals(reply.getSone()) || (reply.getPost() == null) || (reply.getText() == null)) {
+				return false;
+			}
+			archivedReplies.add(new String[] { replyId, reply.getPost().getId(), String.valueOf(reply.getTime()), reply.getText() });
+		}
+		rawPosts.addAll(archivedPosts);
+		rawReplies.addAll(archivedReplies);
+		return true;
+	}
+
+	/**
+	 * Fetches and parses the archive with the given key, and adds the values
+	 * of its posts and replies to the given lists.
+	 *
+	 * @param sone
+	 *            The Sone being parsed
+	 * @param archiveKey
+	 *            The key of the archive
+	 * @param rawPosts
+	 *            The list to add the values of the archived posts to
+	 * @param rawReplies
+	 *            The list to add the values of the archived replies to
+	 * @return The fetched archive, or {@code null} if the archive is invalid
+	 * @throws SoneException
+	 *             if the archive could not be fetched
+	 */
+	private Archive fetchArchive(Sone sone, String archiveKey, List<String[]> rawPosts, List<String[]> rawReplies) throws SoneException {
+		FreenetURI archiveUri;
+		try {
+			archiveUri = new FreenetURI(archiveKey);
+		} catch (MalformedURLException mue1) {
+			logger.log(Level.WARNING, "Downloaded Sone " + sone + " has invalid archive key: " + archiveKey, mue1);
+			return null;
+		}
+		if (!"CHK".equals(archiveUri.getKeyType())) {
+			logger.log(Level.WARNING, "Downloaded Sone %s has an archive that is not a CHK: %s", new Object[] { sone, archiveKey });
+			return null;
+		}
+		logger.log(Level.FINE, "Fetching archive %s of Sone “%s”…", new Object[] { archiveKey, sone });
+		FetchResult fetchResult = freenetInterface.fetchUri(archiveUri);
+		if (fetchResult == null) {
+			throw new SoneException(Type.ARCHIVE_NOT_AVAILABLE, "Could not fetch archive " + archiveKey + " of Sone " + sone + ".");
+		}
+		Bucket archiveBucket = fetchResult.asBucket();
+		if (fetchResult.size() > maximumSoneSize) {
+			logger.log(Level.WARNING, "Archive of Sone %s is too large (%d bytes, limit is %d bytes)!", new Object[] { sone, fetchResult.size(), maximumSoneSize });
+			archiveBucket.free();
+			return null;
+		}
+		InputStream archiveInputStream = null;
+		try {
+			archiveInputStream = archiveBucket.getInputStream();
+			Archive archive = parseArchive(sone, archiveInputStream, fetchResult.size(), rawPosts, rawReplies);
+			SoneStore soneStore = this.soneStore;
+			if ((archive != null) && (soneStore != null)) {
+				soneStore.storeArchive(sone, archiveKey, archiveBucket);
+			}
+			return archive;
+		} catch (IOException ioe1) {
+			throw new SoneException(Type.ARCHIVE_NOT_AVAILABLE, "Could not read archive " + archiveKey + " of Sone " + sone + ".", ioe1);
+		} finally {
+			Closer.close(archiveInputStream);
+			archiveBucket.free();
+		}
+	}
+
+	/**
+	 * Restores the archive with the given key from the Sone store, and adds
+	 * the values of its posts and replies to the given lists.
+	 *
+	 * @param sone
+	 *            The Sone being parsed
+	 * @param archiveKey
+	 *            The key of the archive
+	 * @param rawPosts
+	 *            The list to add the values of the archived posts to
+	 * @param rawReplies
+	 *            The list to add the values of the archived replies to
+	 * @return The restored archive, or {@code null} if the archive is not
+	 *         stored or could not be parsed
+	 */
+	private Archive restoreStoredArchive(Sone sone, String archiveKey, List<String[]> rawPosts, List<String[]> rawReplies) {
+		SoneStore soneStore = this.soneStore;
+		if (soneStore == null) {
+			return null;
+		}
+		InputStream archiveInputStream = soneStore.getArchiveInputStream(sone, archiveKey);
+		if (archiveInputStream == null) {
+			return null;
+		}
+		try {
+			return parseArchive(sone, new LimitedInputStream(archiveInputStream, maximumSoneSize), soneStore.getArchiveSize(sone, archiveKey), rawPosts, rawReplies);
+		} finally {
+			Closer.close(archiveInputStream);
+		}
+	}
+
+	/**
+	 * Parses an archive from the given input stream, and adds the values of
+	 * its posts and replies to the given lists.
+	 *
+	 * @param sone
+	 *            The Sone being parsed
+	 * @param archiveInputStream
+	 *            The input stream to parse the archive from
+	 * @param size
+	 *            The size of the archive (in bytes)
+	 * @param rawPosts
+	 *            The list to add the values of the archived posts to
+	 * @param rawReplies
+	 *            The list to add the values of the archived replies to
+	 * @return The parsed archive, or {@code null} if the archive could not be
+	 *         parsed
+	 */
+	private Archive parseArchive(Sone sone, InputStream archiveInputStream, long size, List<String[]> rawPosts, List<String[]> rawReplies) {
+		List<String[]> archivedPosts = null;
+		List<String[]> archivedReplies = null;
+		XMLStreamReader xmlReader = null;
+		try {
+			xmlReader = xmlInputFactory.createXMLStreamReader(archiveInputStream);
+			if (!nextChildElement(xmlReader) || !"sone-archive".equals(xmlReader.getLocalName())) {
+				logger.log(Level.WARNING, "Archive of Sone %s has no “sone-archive” root element!", new Object[] { sone });
+				return null;
+			}
+			while (nextChildElement(xmlReader)) {
+				String elementName = xmlReader.getLocalName();
+				if ("id".equals(elementName)) {
+					String soneId = readText(xmlReader);
+					if (!sone.getId().equals(soneId)) {
+						logger.log(Level.WARNING, "Archive of Sone %s belongs to a different Sone (%s)!", new Object[] { sone, soneId });
+						return null;
+					}
+				} else if ("posts".equals(elementName)) {
+					archivedPosts = parsePosts(xmlReader, sone);
+					if (archivedPosts == null) {
+						return null;
+					}
+				} else if ("replies".equals(elementName)) {
+					archivedReplies = parseReplies(xmlReader, sone);
+					if (archivedReplies == null) {
+						return null;
+					}
+				} else {
+					skipElement(xmlReader);
+				}
+			}
+		} catch (XMLStreamException xmlse1) {
+			logger.log(Level.WARNING, "Archive of Sone " + sone + " can not be parsed!", xmlse1);
+			return null;
+		} finally {
+			close(xmlReader);
+		}
+		if (archivedPosts == null) {
+			archivedPosts = new ArrayList<String[]>();
+		}
+		if (archivedReplies == null) {
+			archivedReplies = new ArrayList<String[]>();
+		}
+		String[] postIds = new String[archivedPosts.size()];
+		for (int index = 0; index < postIds.length; ++index) {
+			postIds[index] = archivedPosts.get(index)[0];
+		}
+		String[] replyIds = new String[archivedReplies.size()];
+		for (int index = 0; index < replyIds.length; ++index) {
+			replyIds[index] = archivedReplies.get(index)[0];
+		}
+		rawPosts.addAll(archivedPosts);
+		rawReplies.addAll(archivedReplies);
+		return new Archive(postIds, replyIds, size);
+	}
+
+	/**
+	 * Parses the profile of a Sone. The reader has to be positioned on the
+	 * start of the “profile” element.
+	 *
+	 * @param xmlReader
+	 *            The XML reader
+	 * @return The first name, middle name, last name, birth day, birth month,
+	 *         and birth year of the profile
+	 * @throws XMLStreamException
+	 *             if an XML error occurs
+	 */
+	private String[] parseProfile(XMLStreamReader xmlReader) throws XMLStreamException {
+		String[] rawProfile = new String[6];
+		while (nextChildElement(xmlReader)) {
+			String elementName = xmlReader.getLocalName();
+			if ("first-name".equals(elementName)) {
+				rawProfile[0] = readText(xmlReader);
+			} else if ("middle-name".equals(elementName)) {
+				rawProfile[1] = readText(xmlReader);
+			} else if ("last-name".equals(elementName)) {
+				rawProfile[2] = readText(xmlReader);
+			} else if ("birth-day".equals(elementName)) {
+				rawProfile[3] = readText(xmlReader);
+			} else if ("birth-month".equals(elementName)) {
+				rawProfile[4] = readText(xmlReader);
+			} else if ("birth-year".equals(elementName)) {
+				rawProfile[5] = readText(xmlReader);
+			} else {
+				skipElement(xmlReader);
+			}
+		}
+		return rawProfile;
+	}
+
+	/**
+	 * Creates a profile from the values returned by
+	 * {@link #parseProfile(XMLStreamReader)}.
+	 *
+	 * @param rawProfile
+	 *            The values of the profile
+	 * @return The created profile
+	 */
+	private Profile createProfile(String[] rawProfile) {
+		Profile profile = new Profile().setFirstName(rawProfile[0]).setMiddleName(rawProfile[1]).setLastName(rawProfile[2]);
+		profile.setBirthDay(Numbers.safeParseInteger(rawProfile[3])).setBirthMonth(Numbers.safeParseInteger(rawProfile[4])).setBirthYear(Numbers.safeParseInteger(rawProfile[5]));
+		return profile;
+	}
+
+	/**
+	 * Parses the posts of a Sone. The reader has to be positioned on the start
+	 * of the “posts” element.
+	 *
+	 * @param xmlReader
+	 *            The XML reader
+	 * @param sone
+	 *            The Sone being parsed
+	 * @return The ID, time, and text of every post, or {@code null} if a post
+	 *         is invalid
+	 * @throws XMLStreamException
+	 *             if an XML error occurs
+	 */
+	private List<String[]> parsePosts(XMLStreamReader xmlReader, Sone sone) throws XMLStreamException {
+		List<String[]> rawPosts = new ArrayList<String[]>();
+		while (nextChildElement(xmlReader)) {
+			if (!"post".equals(xmlReader.getLocalName())) {
+				skipElement(xmlReader);
+				continue;
+			}
+			if (rawPosts.size() >= maximumPosts) {
+				logger.log(Level.WARNING, "Downloaded Sone %s has more than %d posts!", new Object[] { sone, maximumPosts });
+				return null;
+			}
+			String postId = null;
+			String postTime = null;
+			String postText = null;
+			while (nextChildElement(xmlReader)) {
+				String elementName = xmlReader.getLocalName();
+				if ("id".equals(elementName)) {
+					postId = readText(xmlReader);
+				} else if ("time".equals(elementName)) {
+					postTime = readText(xmlReader);
+				} else if ("text".equals(elementName)) {
+					postText = readText(xmlReader);
+				} else {
+					skipElement(xmlReader);
+				}
+			}
+			if ((postId == null) || (postTime == null) || (postText == null)) {
+				logger.log(Level.WARNING, "Downloaded post for Sone %s with missing data! ID: %s, Time: %s, Text: %s", new Object[] { sone, postId, postTime, postText });
+				return null;
+			}
+			if (!isValidTime(postTime)) {
+				logger.log(Level.WARNING, "Downloaded post for Sone %s with invalid time: %s", new Object[] { sone, postTime });
+				return null;
+			}
+			rawPosts.add(new String[] { postId, postTime, postText });
+		}
+		return rawPosts;
+	}
+
+	/**
+	 * Creates the posts from the values returned by
+	 * {@link #parsePosts(XMLStreamReader, Sone)}. Posts that already belong to
+	 * the Sone are only modified if their time or text differs; those posts
+	 * are added to the given set of changed posts. Because the posts are
+	 * shared with the rest of the core, this must only be called once the
+	 * whole Sone has been parsed successfully.
+	 *
+	 * @param sone
+	 *            The Sone being imported
+	 * @param rawPosts
+	 *            The values of the posts
+	 * @param changedPosts
+	 *            The set to add changed posts to
+	 * @return The created posts
+	 */
+	private Set<Post> createPosts(Sone sone, List<String[]> rawPosts, Set<Post> changedPosts) {
+		Set<Post> posts = new HashSet<Post>(rawPosts.size() * 2);
+		for (String[] rawPost : rawPosts) {
+			long postTime = Long.parseLong(rawPost[1]);
+			Post post = core.getPost(rawPost[0]);
+			if (sone.equals(post.getSone())) {
+				if ((post.getTime() == postTime) && rawPost[2].equals(post.getText())) {
+					posts.add(post);
+					continue;
+				}
+				changedPosts.add(post);
+			}
+			posts.add(post.setSone(sone).setTime(postTime).setText(rawPost[2]));
+		}
+		return posts;
+	}
+
+	/**
+	 * Parses the replies of a Sone. The reader has to be positioned on the
+	 * start of the “replies” element.
+	 *
+	 * @param xmlReader
+	 *            The XML reader
+	 * @param sone
+	 *            The Sone being parsed
+	 * @return The ID, post ID, time, and text of every reply, or {@code null}
+	 *         if a reply is invalid
+	 * @throws XMLStreamException
+	 *             if an XML error occurs
+	 */
+	private List<String[]> parseReplies(XMLStreamReader xmlReader, Sone sone) throws XMLStreamException {
+		List<String[]> rawReplies = new ArrayList<String[]>();
+		while (nextChildElement(xmlReader)) {
+			if (!"reply".equals(xmlReader.getLocalName())) {
+				skipElement(xmlReader);
+				continue;
+			}
+			if (rawReplies.size() >= maximumReplies) {
+				logger.log(Level.WARNING, "Downloaded Sone %s has more than %d replies!", new Object[] { sone, maximumReplies });
+				return null;
+			}
+			String replyId = null;
+			String replyPostId = null;
+			String replyTime = null;
+			String replyText = null;
+			while (nextChildElement(xmlReader)) {
+				String elementName = xmlReader.getLocalName();
+				if ("id".equals(elementName)) {
+					replyId = readText(xmlReader);
+				} else if ("post-id".equals(elementName)) {
+					replyPostId = readText(xmlReader);
+				} else if ("time".equals(elementName)) {
+					replyTime = readText(xmlReader);
+				} else if ("text".equals(elementName)) {
+					replyText = readText(xmlReader);
+				} else {
+					skipElement(xmlReader);
+				}
+			}
+			if ((replyId == null) || (replyPostId == null) || (replyTime == null) || (replyText == null)) {
+				logger.log(Level.WARNING, "Downloaded reply for Sone %s with missing data! ID: %s, Post: %s, Time: %s, Text: %s", new Object[] { sone, replyId, replyPostId, replyTime, replyText });
+				return null;
+			}
+			if (!isValidTime(replyTime)) {
+				logger.log(Level.WARNING, "Downloaded reply for Sone %s with invalid time: %s", new Object[] { sone, replyTime });
+				return null;
+			}
+			rawReplies.add(new String[] { replyId, replyPostId, replyTime, replyText });
+		}
+		return rawReplies;
+	}
+
+	/**
+	 * Creates the replies from the values returned by
+	 * {@link #parseReplies(XMLStreamReader, Sone)}. Replies that already belong
+	 * to the Sone are only modified if their post, time, or text differs;
+	 * those replies are added to the given set of changed replies. Because the
+	 * replies are shared with the rest of the core, this must only be called
+	 * once the whole Sone has been parsed successfully.
+	 *
+	 * @param sone
+	 *            The Sone being imported
+	 * @param rawReplies
+	 *            The values of the replies
+	 * @param changedReplies
+	 *            The set to add changed replies to
+	 * @return The created replies
+	 */
+	private Set<Reply> createReplies(Sone sone, List<String[]> rawReplies, Set<Reply> changedReplies) {
+		Set<Reply> replies = new HashSet<Reply>(rawReplies.size() * 2);
+		for (String[] rawReply : rawReplies) {
+			long replyTime = Long.parseLong(rawReply[2]);
+			Reply reply = core.getReply(rawReply[0]);
+			if (sone.equals(reply.getSone())) {
+				if ((reply.getTime() == replyTime) && rawReply[3].equals(reply.getText()) && (reply.getPost() != null) && rawReply[1].equals(reply.getPost().getId())) {
+					replies.add(reply);
+					continue;
+				}
+				changedReplies.add(reply);
+			}
+			replies.add(reply.setSone(sone).setPost(core.getPost(rawReply[1])).setTime(replyTime).setText(rawReply[3]));
 		}
+		return replies;
+	}
+
+	/**
+	 * Parses a list of IDs, e.g. the IDs of liked posts. The reader has to be
+	 * positioned on the start of the element containing the IDs.
+	 *
+	 * @param xmlReader
+	 *            The XML reader
+	 * @param idElementName
+	 *            The name of the elements containing the IDs
+	 * @return The parsed IDs
+	 * @throws XMLStreamException
+	 *             if an XML error occurs
+	 */
+	private Set<String> parseIds(XMLStreamReader xmlReader, String idElementName) throws XMLStreamException {
+		Set<String> ids = new HashSet<String>();
+		while (nextChildElement(xmlReader)) {
+			if (!idElementName.equals(xmlReader.getLocalName())) {
+				skipElement(xmlReader);
+				continue;
+			}
+			String id = readText(xmlReader);
+			if (id != null) {
+				ids.add(id);
+			}
+		}
+		return ids;
+	}
+
+	/**
+	 * Parses the known Sones of a Sone. The reader has to be positioned on the
+	 * start of the “known-sones” element.
+	 *
+	 * @param xmlReader
+	 *            The XML reader
+	 * @param sone
+	 *            The Sone being parsed
+	 * @return The ID, key, and name of every known Sone, or {@code null} if a
+	 *         known Sone is invalid
+	 * @throws XMLStreamException
+	 *             if an XML error occurs
+	 */
+	private List<String[]> parseKnownSones(XMLStreamReader xmlReader, Sone sone) throws XMLStreamException {
+		List<String[]> rawKnownSones = new ArrayList<String[]>();
+		while (nextChildElement(xmlReader)) {
+			if (!"known-sone".equals(xmlReader.getLocalName())) {
+				skipElement(xmlReader);
+				continue;
+			}
+			if (rawKnownSones.size() >= maximumKnownSones) {
+				logger.log(Level.WARNING, "Downloaded Sone %s has more than %d known Sones!", new Object[] { sone, maximumKnownSones });
+				return null;
+			}
+			String knownSoneId = null;
+			String knownSoneKey = null;
+			String knownSoneName = null;
+			while (nextChildElement(xmlReader)) {
+				String elementName = xmlReader.getLocalName();
+				if ("sone-id".equals(elementName)) {
+					knownSoneId = readText(xmlReader);
+				} else if ("sone-key".equals(elementName)) {
+					knownSoneKey = readText(xmlReader);
+				} else if ("sone-name".equals(elementName)) {
+					knownSoneName = readText(xmlReader);
+				} else {
+					skipElement(xmlReader);
+				}
+			}
+			if ((knownSoneId == null) || (knownSoneKey == null) || (knownSoneName == null)) {
+				logger.log(Level.WARNING, "Downloaded known Sone for Sone %s with missing data! ID: %s, Key: %s, Name: %s", new Object[] { sone, knownSoneId, knownSoneKey, knownSoneName });
+				return null;
+			}
+			rawKnownSones.add(new String[] { knownSoneId, knownSoneKey, knownSoneName });
+		}
+		return rawKnownSones;
+	}
+
+	/**
+	 * Checks the keys of the known Sones, as returned by
+	 * {@link #parseKnownSones(XMLStreamReader, Sone)}.
+	 *
+	 * @param sone
+	 *            The Sone being parsed
+	 * @param rawKnownSones
+	 *            The values of the known Sones
+	 * @return {@code true} if all known Sones are valid, {@code false} if a
+	 *         known Sone has an invalid key
+	 */
+	private boolean checkKnownSones(Sone sone, List<String[]> rawKnownSones) {
+		for (String[] rawKnownSone : rawKnownSones) {
+			try {
+				new FreenetURI(rawKnownSone[1]);
+			} catch (MalformedURLException mue1) {
+				logger.log(Level.WARNING, "Downloaded known Sone for Sone %s with invalid key: %s", new Object[] { sone, rawKnownSone[1] });
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Calculates the digest of a section of a Sone and compares it to the
+	 * digest of the same section at the last import. The new digest is stored
+	 * in the given map.
+	 *
+	 * @param sone
+	 *            The Sone being parsed
+	 * @param section
+	 *            The name of the section
+	 * @param entries
+	 *            The values of the section
+	 * @param digests
+	 *            The map to store the new digest in
+	 * @return {@code true} if the section has changed (or if no digest was
+	 *         stored for it), {@code false} if it is unchanged
+	 */
+	private boolean isSectionChanged(Sone sone, String section, List<String[]> entries, Map<String, byte[]> digests) {
+		byte[] digest = calculateDigest(entries);
+		if (digest == null) {
+			return true;
+		}
+		digests.put(section, digest);
+		Map<String, byte[]> oldDigests = sectionDigests.get(sone);
+		return (oldDigests == null) || !Arrays.equals(oldDigests.get(section), digest);
+	}
+
+	/**
+	 * Returns whether the given string is a valid time.
+	 *
+	 * @param time
+	 *            The time to check
+	 * @return {@code true} if the time can be parsed, {@code false} otherwise
+	 */
+	private static boolean isValidTime(String time) {
+		try {
+			Long.parseLong(time);
+			return true;
+		} catch (NumberFormatException nfe1) {
+			return false;
+		}
+	}
+
+	/**
+	 * Updates the name, the time, and the URIs of the given Sone. This must
+	 * only be called once the whole Sone has been parsed successfully.
+	 *
+	 * @param sone
+	 *            The Sone to update
+	 * @param name
+	 *            The parsed name
+	 * @param time
+	 *            The parsed time
+	 * @param requestUri
+	 *            The parsed request URI (may be {@code null})
+	 * @param insertUri
+	 *            The parsed insert URI (may be {@code null})
+	 */
+	private void updateSone(Sone sone, String name, long time, FreenetURI requestUri, FreenetURI insertUri) {
+		sone.setName(name);
+		sone.setTime(time);
+		if (requestUri != null) {
+			sone.setRequestUri(requestUri);
+		}
+		if ((insertUri != null) && (sone.getInsertUri() == null)) {
+			sone.setInsertUri(insertUri);
+			sone.updateUris(Math.max(sone.getRequestUri().getSuggestedEdition(), sone.getInsertUri().getSuggestedEdition()));
+		}
+	}
+
+	/**
+	 * Imports the parsed data into the given Sone. Any of the parameters
+	 * except the Sone may be {@code null} to indicate that the corresponding
+	 * part of the Sone has not changed.
+	 *
+	 * @param sone
+	 *            The Sone to import the data into
+	 * @param profile
+	 *            The parsed profile
+	 * @param rawPosts
+	 *            The ID, time, and text of every post
+	 * @param rawReplies
+	 *            The ID, post ID, time, and text of every reply
+	 * @param likedPostIds
+	 *            The IDs of the liked posts
+	 * @param likedReplyIds
+	 *            The IDs of the liked replies
+	 * @param knownSones
+	 *            The ID, key, and name of every known Sone
+	 */
+	private void importSone(Sone sone, Profile profile, List<String[]> rawPosts, List<String[]> rawReplies, Set<String> likedPostIds, Set<String> likedReplyIds, List<String[]> knownSones) {
+		/* atomic setter operation on the Sone. */
+		synchronized (sone) {
+			if (profile != null) {
+				sone.setProfile(profile);
+			}
+			if (rawPosts != null) {
+				Set<Post> changedPosts = new HashSet<Post>();
+				Set<Post> posts = createPosts(sone, rawPosts, changedPosts);
+				core.setPosts(sone, posts, changedPosts);
+			}
+			if (rawReplies != null) {
+				Set<Reply> changedReplies = new HashSet<Reply>();
+				Set<Reply> replies = createReplies(sone, rawReplies, changedReplies);
+				core.setReplies(sone, replies, changedReplies);
+			}
+			if ((likedPostIds != null) || (likedReplyIds != null)) {
+				core.setLikes(sone, (likedPostIds != null) ? likedPostIds : new HashSet<String>(sone.getLikedPostIds()), (likedReplyIds != null) ? likedReplyIds : new HashSet<String>(sone.getLikedReplyIds()));
+			}
+			sone.setModificationCounter(0);
+		}
+
+		/* record all known Sones for discovery. */
+		if (knownSones != null) {
+			recordKnownSones(sone, knownSones);
+		}
+	}
+
+	/**
+	 * Records the known Sones of the given Sone. Known Sones that are already
+	 * watched only get their distance updated; all other Sones are stored,
+	 * but not added, until they are picked up by {@link #discoverSones()}.
+	 * Sones that are farther away than the maximum distance are not stored.
+	 * If the maximum number of Sones is already stored, the farthest Sone is
+	 * replaced by a closer one.
+	 *
+	 * @param sone
+	 *            The Sone that lists the known Sones
+	 * @param knownSones
+	 *            The ID, key, and name of every known Sone
+	 */
+	private void recordKnownSones(Sone sone, List<String[]> knownSones) {
+		int maximumDistance = this.maximumDistance;
+		synchronized (discoveredSones) {
+			Integer soneDistance = distances.get(sone);
+			int distance = ((soneDistance != null) && (getPriority(sone) != SonePriority.friend)) ? (soneDistance + 1) : 2;
+			boolean hasFartherSones = true;
+			for (String[] knownSone : knownSones) {
+				if (knownSone[0].equals(sone.getId())) {
+					continue;
+				}
+				if (core.hasSone(knownSone[0])) {
+					Sone existingSone = core.getSone(knownSone[0]);
+					Integer existingDistance = distances.get(existingSone);
+					if ((existingDistance != null) && (existingDistance > distance)) {
+						distances.put(existingSone, distance);
+					}
+					continue;
+				}
+				if (distance > maximumDistance) {
+					continue;
+				}
+				DiscoveredSone discoveredSone = discoveredSones.get(knownSone[0]);
+				if (discoveredSone != null) {
+					discoveredSone.update(knownSone[1], knownSone[2], distance);
+					continue;
+				}
+				if (discoveredSones.size() >= MAXIMUM_DISCOVERED_SONES) {
+					if (!hasFartherSones) {
+						continue;
+					}
+					String fartherSoneId = findFartherDiscoveredSone(distance, maximumDistance);
+					if (fartherSoneId == null) {
+						/* no recorded Sone is farther away, so none can be replaced. */
+						hasFartherSones = false;
+						continue;
+					}
+					discoveredSones.remove(fartherSoneId);
+				}
+				discoveredSones.put(knownSone[0], new DiscoveredSone(knownSone[1], knownSone[2], distance));
+			}
+		}
+	}
+
+	/**
+	 * Returns the ID of the recorded Sone that is farthest away from the local
+	 * Sones, if it is farther away than the given distance. The caller needs
+	 * to synchronize on {@link #discoveredSones}.
+	 *
+	 * @param distance
+	 *            The distance the Sone has to be farther away than
+	 * @param maximumDistance
+	 *            The maximum distance of a recorded Sone
+	 * @return The ID of the farthest recorded Sone, or {@code null} if no
+	 *         recorded Sone is farther away than the given distance
+	 */
+	private String findFartherDiscoveredSone(int distance, int maximumDistance) {
+		String fartherSoneId = null;
+		int fartherDistance = distance;
+		for (Map.Entry<String, DiscoveredSone> discoveredSoneEntry : discoveredSones.entrySet()) {
+			int discoveredDistance = discoveredSoneEntry.getValue().getDistance();
+			if (discoveredDistance > fartherDistance) {
+				fartherSoneId = discoveredSoneEntry.getKey();
+				fartherDistance = discoveredDistance;
+				if (fartherDistance >= maximumDistance) {
+					/* no recorded Sone can be farther away. */
+					break;
+				}
+			}
+		}
+		return fartherSoneId;
+	}
+
+	/**
+	 * Adds as many of the recorded Sones as the discovery rate allows. Sones
+	 * that are closer to the local Sones are added first; Sones that are
+	 * farther away than the maximum distance are not added at all, and are
+	 * removed, e.g. after the maximum distance has been lowered.
+	 */
+	private void discoverSones() {
+		long now = System.currentTimeMillis();
+		int discoveryRate = this.discoveryRate;
+		discoveryAllowance = Math.min(discoveryAllowance + (now - lastDiscoveryTime) * discoveryRate / (60.0 * 60 * 1000), Math.max(1.0, discoveryRate * DISCOVERY_DELAY / (60.0 * 60 * 1000)));
+		lastDiscoveryTime = now;
+		int maximumDistance = this.maximumDistance;
+		Map<String, DiscoveredSone> newSones = new LinkedHashMap<String, DiscoveredSone>();
+		synchronized (discoveredSones) {
+			Iterator<DiscoveredSone> discoveredSoneIterator = discoveredSones.values().iterator();
+			while (discoveredSoneIterator.hasNext()) {
+				if (discoveredSoneIterator.next().getDistance() > maximumDistance) {
+					discoveredSoneIterator.remove();
+				}
+			}
+			for (int distance = 1; (distance <= maximumDistance) && (discoveryAllowance >= 1); ++distance) {
+				Iterator<Map.Entry<String, DiscoveredSone>> discoveredSoneEntries = discoveredSones.entrySet().iterator();
+				while (discoveredSoneEntries.hasNext() && (discoveryAllowance >= 1)) {
+					Map.Entry<String, DiscoveredSone> discoveredSoneEntry = discoveredSoneEntries.next();
+					if (discoveredSoneEntry.getValue().getDistance() != distance) {
+						continue;
+					}
+					newSones.put(discoveredSoneEntry.getKey(), discoveredSoneEntry.getValue());
+					discoveredSoneEntries.remove();
+					--discoveryAllowance;
+				}
+			}
+		}
+		for (Map.Entry<String, DiscoveredSone> newSoneEntry : newSones.entrySet()) {
+			DiscoveredSone discoveredSone = newSoneEntry.getValue();
+			Sone sone = core.getSone(newSoneEntry.getKey());
+			if (core.isBlacklistedSone(sone)) {
+				continue;
+			}
+			try {
+				if (sone.getRequestUri() == null) {
+					sone.setRequestUri(new FreenetURI(discoveredSone.getRequestUri()));
+				}
+			} catch (MalformedURLException mue1) {
+				logger.log(Level.WARNING, "Could not create URI for discovered Sone “" + discoveredSone.getRequestUri() + "”!", mue1);
+				continue;
+			}
+			if (sone.getName() == null) {
+				sone.setName(discoveredSone.getName());
+			}
+			synchronized (discoveredSones) {
+				distances.put(sone, discoveredSone.getDistance());
+				++addedDiscoveredSones;
+			}
+			logger.log(Level.FINE, "Adding discovered Sone %s at distance %d.", new Object[] { sone, discoveredSone.getDistance() });
+			core.addSone(sone);
+		}
+	}
+
+	/**
+	 * Advances the given reader to the start of the next child element of the
+	 * current element.
+	 *
+	 * @param xmlReader
+	 *            The XML reader
+	 * @return {@code true} if the reader is positioned on the start of a child
+	 *         element, {@code false} if the end of the current element (or the
+	 *         document) has been reached
+	 * @throws XMLStreamException
+	 *             if an XML error occurs
+	 */
+	private static boolean nextChildElement(XMLStreamReader xmlReader) throws XMLStreamException {
+		while (xmlReader.hasNext()) {
+			int event = xmlReader.next();
+			if (event == XMLStreamConstants.START_ELEMENT) {
+				return true;
+			}
+			if (event == XMLStreamConstants.END_ELEMENT) {
+				return false;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Reads the text of the current element and advances the reader to the
+	 * end of the element. Text of nested elements is ignored.
+	 *
+	 * @param xmlReader
+	 *            The XML reader
+	 * @return The text of the element, or {@code null} if the element does not
+	 *         contain any text
+	 * @throws XMLStreamException
+	 *             if an XML error occurs, or if the text is longer than the
+	 *             maximum text length
+	 */
+	private String readText(XMLStreamReader xmlReader) throws XMLStreamException {
+		StringBuilder text = new StringBuilder();
+		int depth = 1;
+		while (xmlReader.hasNext()) {
+			int event = xmlReader.next();
+			if (event == XMLStreamConstants.START_ELEMENT) {
+				++depth;
+			} else if (event == XMLStreamConstants.END_ELEMENT) {
+				if (--depth == 0) {
+					break;
+				}
+			} else if ((depth == 1) && ((event == XMLStreamConstants.CHARACTERS) || (event == XMLStreamConstants.CDATA))) {
+				if ((text.length() + xmlReader.getTextLength()) > maximumTextLength) {
+					throw new XMLStreamException("Text is longer than " + maximumTextLength + " characters!", xmlReader.getLocation());
+				}
+				text.append(xmlReader.getTextCharacters(), xmlReader.getTextStart(), xmlReader.getTextLength());
+			}
+		}
+		return (text.length() == 0) ? null : text.toString();
+	}
+
+	/**
+	 * Skips the current element, including all of its children.
+	 *
+	 * @param xmlReader
+	 *            The XML reader
+	 * @throws XMLStreamException
+	 *             if an XML error occurs
+	 */
+	private static void skipElement(XMLStreamReader xmlReader) throws XMLStreamException {
+		int depth = 1;
+		while ((depth > 0) && xmlReader.hasNext()) {
+			int event = xmlReader.next();
+			if (event == XMLStreamConstants.START_ELEMENT) {
+				++depth;
+			} else if (event == XMLStreamConstants.END_ELEMENT) {
+				--depth;
+			}
+		}
+	}
+
+	/**
+	 * Closes the given XML reader, ignoring all exceptions.
+	 *
+	 * @param xmlReader
+	 *            The XML reader to close (may be {@code null})
+	 */
+	private static void close(XMLStreamReader xmlReader) {
+		if (xmlReader == null) {
+			return;
+		}
+		try {
+			xmlReader.close();
+		} catch (XMLStreamException xmlse1) {
+			/* ignore. */
+		}
+	}
+
+	/**
+	 * Converts the given IDs into section entries.
+	 *
+	 * @param ids
+	 *            The IDs to convert
+	 * @return The section entries
+	 */
+	private static List<String[]> toEntries(Set<String> ids) {
+		List<String[]> entries = new ArrayList<String[]>(ids.size());
+		for (String id : ids) {
+			entries.add(new String[] { id });
+		}
+		return entries;
+	}
+
+	/**
+	 * Calculates a digest over the given section entries. The order of the
+	 * entries does not influence the digest.
+	 *
+	 * @param entries
+	 *            The entries of the section
+	 * @return The digest of the entries, or {@code null} if the digest could
+	 *         not be calculated
+	 */
+	private static byte[] calculateDigest(List<String[]> entries) {
+		try {
+			MessageDigest messageDigest = MessageDigest.getInstance("SHA-256");
+			List<String[]> sortedEntries = new ArrayList<String[]>(entries);
+			Collections.sort(sortedEntries, entryComparator);
+			for (String[] entry : sortedEntries) {
+				for (String value : entry) {
+					if (value == null) {
+						messageDigest.update((byte) 1);
+					} else {
+						messageDigest.update((byte) 0);
+						messageDigest.update(value.getBytes("UTF-8"));
+						messageDigest.update((byte) 0);
+					}
+				}
+				messageDigest.update((byte) 2);
+			}
+			return messageDigest.digest();
+		} catch (NoSuchAlgorithmException nsae1) {
+			logger.log(Level.SEVERE, "Could not create SHA-256 digest!", nsae1);
+		} catch (UnsupportedEncodingException uee1) {
+			logger.log(Level.SEVERE, "JVM does not support UTF-8!", uee1);
+		}
+		return null;
+	}
+
+	/**
+	 * Returns the keys of the archives of the given Sone at its last import.
+	 *
+	 * @param sone
+	 *            The Sone to get the archive keys for
+	 * @return The keys of the archives of the Sone
+	 */
+	private Set<String> getArchiveKeys(Sone sone) {
+		synchronized (soneArchives) {
+			Map<String, Archive> archives = soneArchives.get(sone);
+			return (archives != null) ? new HashSet<String>(archives.keySet()) : Collections.<String> emptySet();
+		}
+	}
+
+	/**
+	 * Marks the edition of the given request URI as bad so that it is not
+	 * fetched again.
+	 *
+	 * @param requestUri
+	 *            The request URI of the bad edition
+	 * @param sone
+	 *            The Sone of the request URI (may be {@code null})
+	 */
+	private void markBadEdition(FreenetURI requestUri, Sone sone) {
+		logger.log(Level.INFO, "Marking edition %d of Sone “%s” (%s) as bad.", new Object[] { requestUri.getEdition(), sone, requestUri });
+		String editionlessUri = getEditionlessUri(requestUri);
+		synchronized (badSoneEditions) {
+			Long badEdition = badSoneEditions.get(editionlessUri);
+			if ((badEdition == null) || (badEdition < requestUri.getEdition())) {
+				badSoneEditions.put(editionlessUri, requestUri.getEdition());
+			}
+		}
+	}
+
+	/**
+	 * Returns the given request URI without edition and meta strings, so that
+	 * all editions of a Sone share the same key.
+	 *
+	 * @param requestUri
+	 *            The request URI
+	 * @return The request URI without edition
+	 */
+	private static String getEditionlessUri(FreenetURI requestUri) {
+		return requestUri.setMetaString(new String[0]).setSuggestedEdition(0).toString();
+	}
+
+	/**
+	 * Parses an XML document from the given input stream, using the document
+	 * builder of the current thread. This method can be called by any number
+	 * of threads concurrently.
+	 *
+	 * @param inputStream
+	 *            The input stream to parse
+	 * @return The parsed document, or {@code null} if the document could not
+	 *         be parsed
+	 */
+	private Document parseDocument(InputStream inputStream) {
+		DocumentBuilder documentBuilder = documentBuilders.get();
+		if (documentBuilder == null) {
+			return null;
+		}
+		try {
+			return documentBuilder.parse(inputStream);
+		} catch (SAXException saxe1) {
+			logger.log(Level.WARNING, "Could not parse XML document!", saxe1);
+		} catch (IOException ioe1) {
+			logger.log(Level.WARNING, "Could not read XML document!", ioe1);
+		} finally {
+			documentBuilder.reset();
+		}
+		return null;
+	}
+
+	/**
+	 * Fetches the given Sone in the current thread.
+	 *
+	 * @param sone
+	 *            The Sone to fetch
+	 */
+	private void fetchSoneNow(Sone sone) {
+		if (isBadSone(sone)) {
+			logger.log(Level.FINE, "Not fetching bad edition %d of Sone “%s”.", new Object[] { sone.getRequestUri().getEdition(), sone });
+			return;
+		}
+		SoneStore soneStore = this.soneStore;
+		if ((soneStore != null) && (sone.getTime() != 0) && (soneStore.getEdition(sone) >= sone.getRequestUri().getEdition())) {
+			logger.log(Level.FINE, "Not fetching edition %d of Sone “%s”, it is already stored.", new Object[] { sone.getRequestUri().getEdition(), sone });
+			return;
+		}
+		logger.log(Level.FINE, "Starting fetch for Sone “%s” from %s…", new Object[] { sone, sone.getRequestUri().setMetaString(new String[] { "sone.xml" }) });
+		FreenetURI requestUri = sone.getRequestUri().setMetaString(new String[] { "sone.xml" });
+		core.setSoneStatus(sone, SoneStatus.downloading);
+		try {
+			FetchResult fetchResult = freenetInterface.fetchUri(requestUri);
+			if (fetchResult == null) {
+				logger.log(Level.FINE, "Could not fetch edition %d of Sone “%s”.", new Object[] { requestUri.getEdition(), sone });
+				return;
+			}
+			logger.log(Level.FINEST, "Got %d bytes back.", fetchResult.size());
+			Sone parsedSone = parseSone(sone, fetchResult, requestUri);
+			if (parsedSone != null) {
+				core.addSone(parsedSone);
+			}
+		} finally {
+			core.setSoneStatus(sone, (sone.getTime() == 0) ? SoneStatus.unknown : SoneStatus.idle);
+		}
+	}
+
+	/**
+	 * Fetches all Sones again whose last fetch failed because an archive could
+	 * not be fetched.
+	 */
+	private void retryFetches() {
+		List<Sone> retriedSones;
+		synchronized (retrySones) {
+			retriedSones = new ArrayList<Sone>(retrySones);
+			retrySones.clear();
+		}
+		for (Sone sone : retriedSones) {
+			if (sones.contains(sone)) {
+				logger.log(Level.FINE, "Fetching Sone “%s” again.", new Object[] { sone });
+				fetchSone(sone);
+			}
+		}
+	}
+
+	/**
+	 * Checks the subscriptions of all Sones. Dormant Sones that are not
+	 * friends of a local Sone are parked, and if there are more Sones than
+	 * allowed subscriptions, the Sones with the lowest priority and the
+	 * oldest updates are parked as well. Parked Sones whose last check is
+	 * older than the recheck interval are subscribed for a short time, as
+	 * long as there are free subscriptions left.
+	 */
+	private void checkSubscriptions() {
+		long now = System.currentTimeMillis();
+		final Map<Sone, SonePriority> currentPriorities;
+		synchronized (priorities) {
+			currentPriorities = new HashMap<Sone, SonePriority>(priorities);
+		}
+		List<Sone> activeSones = new ArrayList<Sone>();
+		List<Sone> dormantSones = new ArrayList<Sone>();
+		for (Sone sone : new ArrayList<Sone>(sones)) {
+			SonePriority priority = currentPriorities.get(sone);
+			if ((priority == null) || (priority == SonePriority.friend) || (sone.getTime() == 0) || ((now - sone.getTime()) < dormancyPeriod)) {
+				activeSones.add(sone);
+			} else {
+				dormantSones.add(sone);
+			}
+		}
+		Collections.sort(activeSones, new Comparator<Sone>() {
+
+			@Override
+			public int compare(Sone leftSone, Sone rightSone) {
+				SonePriority leftPriority = currentPriorities.get(leftSone);
+				SonePriority rightPriority = currentPriorities.get(rightSone);
+				int leftOrdinal = (leftPriority != null) ? leftPriority.ordinal() : 0;
+				int rightOrdinal = (rightPriority != null) ? rightPriority.ordinal() : 0;
+				if (leftOrdinal != rightOrdinal) {
+					return leftOrdinal - rightOrdinal;
+				}
+				long timeDifference = rightSone.getTime() - leftSone.getTime();
+				return (timeDifference < 0) ? -1 : ((timeDifference > 0) ? 1 : 0);
+			}
+		});
+		int maximumSubscriptions = this.maximumSubscriptions;
+		Set<Sone> subscribedSones = new HashSet<Sone>();
+		for (Sone sone : activeSones) {
+			if ((subscribedSones.size() >= maximumSubscriptions) && (currentPriorities.get(sone) != SonePriority.friend)) {
+				dormantSones.add(sone);
+				continue;
+			}
+			subscribedSones.add(sone);
+		}
+		List<Sone> subscribe = new ArrayList<Sone>();
+		List<Sone> unsubscribe = new ArrayList<Sone>();
+		synchronized (parkedSones) {
+			for (Sone sone : subscribedSones) {
+				if (parkedSones.remove(sone)) {
+					lastRechecks.remove(sone);
+					if (recheckEnds.remove(sone) == null) {
+						subscribe.add(sone);
+					}
+				}
+			}
+			int freeSubscriptions = maximumSubscriptions - subscribedSones.size();
+			for (Sone sone : dormantSones) {
+				if (parkedSones.add(sone)) {
+					lastRechecks.put(sone, now);
+					unsubscribe.add(sone);
+					continue;
+				}
+				Long recheckEnd = recheckEnds.get(sone);
+				if (recheckEnd != null) {
+					if (recheckEnd <= now) {
+						recheckEnds.remove(sone);
+						lastRechecks.put(sone, now);
+						unsubscribe.add(sone);
+					} else {
+						--freeSubscriptions;
+					}
+				}
+			}
+			for (Sone sone : dormantSones) {
+				if (freeSubscriptions <= 0) {
+					break;
+				}
+				if (recheckEnds.containsKey(sone)) {
+					continue;
+				}
+				Long lastRecheck = lastRechecks.get(sone);
+				if ((lastRecheck == null) || ((now - lastRecheck) >= recheckInterval)) {
+					recheckEnds.put(sone, now + RECHECK_DURATION);
+					subscribe.add(sone);
+					--freeSubscriptions;
+				}
+			}
+		}
+		for (Sone sone : unsubscribe) {
+			freenetInterface.unregisterUsk(sone);
+		}
+		for (Sone sone : subscribe) {
+			if (!sones.contains(sone)) {
+				/* the Sone was removed in the meantime. */
+				continue;
+			}
+			SonePriority priority = currentPriorities.get(sone);
+			freenetInterface.registerUsk(sone, (priority != null) ? priority : SonePriority.other, this);
+		}
+		logger.log(Level.FINE, "Checked subscriptions in %d ms: %d Sones subscribed, %d Sones parked (%d unsubscribed, %d subscribed).", new Object[] { System.currentTimeMillis() - now, getSubscribedCount(), getParkedCount(), unsubscribe.size(), subscribe.size() });
+	}
+
+	//
+	// SERVICE METHODS
+	//
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	protected void serviceRun() {
+		long lastSubscriptionCheck = System.currentTimeMillis();
+		while (!shouldStop()) {
+			sleep(DISCOVERY_DELAY);
+			if (shouldStop()) {
+				break;
+			}
+			discoverSones();
+			if ((System.currentTimeMillis() - lastSubscriptionCheck) >= SUBSCRIPTION_CHECK_DELAY) {
+				retryFetches();
+				checkSubscriptions();
+				lastSubscriptionCheck = System.currentTimeMillis();
+			}
+		}
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	protected void serviceStop() {
+		for (Sone sone : sones) {
+			freenetInterface.unregisterUsk(sone);
+		}
+		fetchExecutor.shutdownNow();
+	}
+
+	/**
+	 * Wrapper for tasks of the fetch executor that orders the tasks by the
+	 * priority of their Sones and, within the same priority, by the order in
+	 * which they were queued.
+	 *
+	 * @author <a href="mailto:bombe@pterodactylus.net">David ‘Bombe’ Roden</a>
+	 */
+	private class FetchTask implements Runnable, Comparable<FetchTask> {
+
+		/** The priority of the task. */
+		private final SonePriority priority;
+
+		/** The sequence number of the task. */
+		private final long sequence;
+
+		/** The task to execute. */
+		private final Runnable task;
+
+		/**
+		 * Creates a new fetch task.
+		 *
+		 * @param priority
+		 *            The priority of the task
+		 * @param task
+		 *            The task to execute
+		 */
+		@SuppressWarnings("synthetic-access")
+		public FetchTask(SonePriority priority, Runnable task) {
+			this.priority = priority;
+			this.sequence = fetchSequence.getAndIncrement();
+			this.task = task;
+		}
+
+		/**
+		 * Returns whether this task fetches a friend and may therefore use
+		 * every worker.
+		 *
+		 * @return {@code true} if this task fetches a friend, {@code false}
+		 *         otherwise
+		 */
+		public boolean isFriendFetch() {
+			return priority == SonePriority.friend;
+		}
+
+		/**
+		 * {@inheritDoc}
+		 */
+		@Override
+		@SuppressWarnings("synthetic-access")
+		public void run() {
+			try {
+				task.run();
+			} finally {
+				if (!isFriendFetch()) {
+					synchronized (waitingFetches) {
+						--lowerPriorityFetches;
+					}
+					if (!fetchExecutor.isShutdown()) {
+						startWaitingFetches();
+					}
+				}
+			}
+		}
+
+		/**
+		 * {@inheritDoc}
+		 */
+		@Override
+		public int compareTo(FetchTask fetchTask) {
+			if (priority != fetchTask.priority) {
+				return priority.ordinal() - fetchTask.priority.ordinal();
+			}
+			return (sequence < fetchTask.sequence) ? -1 : ((sequence > fetchTask.sequence) ? 1 : 0);
+		}
+
+	}
+
+	/**
+	 * Container for a Sone that was listed as known Sone by a downloaded Sone
+	 * but is not watched yet.
+	 *
+	 * @author <a href="mailto:bombe@pterodactylus.net">David ‘Bombe’ Roden</a>
+	 */
+	private static class DiscoveredSone {
+
+		/** The request URI of the Sone. */
+		private String requestUri;
+
+		/** The name of the Sone. */
+		private String name;
+
+		/** The smallest known distance from the local Sones. */
+		private int distance;
+
+		/**
+		 * Creates a new discovered Sone.
+		 *
+		 * @param requestUri
+		 *            The request URI of the Sone
+		 * @param name
+		 *            The name of the Sone
+		 * @param distance
+		 *            The distance from the local Sones
+		 */
+		public DiscoveredSone(String requestUri, String name, int distance) {
+			this.requestUri = requestUri;
+			this.name = name;
+			this.distance = distance;
+		}
+
+		/**
+		 * Returns the request URI of the Sone.
+		 *
+		 * @return The request URI of the Sone
+		 */
+		public String getRequestUri() {
+			return requestUri;
+		}
+
+		/**
+		 * Returns the name of the Sone.
+		 *
+		 * @return The name of the Sone
+		 */
+		public String getName() {
+			return name;
+		}
+
+		/**
+		 * Returns the smallest known distance from the local Sones.
+		 *
+		 * @return The distance of the Sone
+		 */
+		public int getDistance() {
+			return distance;
+		}
+
+		/**
+		 * Updates this Sone with the values of another listing of it. The
+		 * request URI and the name are replaced, the distance is only
+		 * replaced if it is smaller.
+		 *
+		 * @param requestUri
+		 *            The request URI of the Sone
+		 * @param name
+		 *            The name of the Sone
+		 * @param distance
+		 *            The distance from the local Sones
+		 */
+		public void update(String requestUri, String name, int distance) {
+			this.requestUri = requestUri;
+			this.name = name;
+			this.distance = Math.min(this.distance, distance);
+		}
+
+	}
+
+	/**
+	 * Container for the IDs of the posts and replies of an archive.
+	 *
+	 * @author <a href="mailto:bombe@pterodactylus.net">David ‘Bombe’ Roden</a>
+	 */
+	private static class Archive {
+
+		/** The IDs of the posts of the archive. */
+		private final String[] postIds;
+
+		/** The IDs of the replies of the archive. */
+		private final String[] replyIds;
+
+		/** The size of the archive (in bytes). */
+		private final long size;
+
+		/**
+		 * Creates a new archive.
+		 *
+		 * @param postIds
+		 *            The IDs of the posts of the archive
+		 * @param replyIds
+		 *            The IDs of the replies of the archive
+		 * @param size
+		 *            The size of the archive (in bytes)
+		 */
+		public Archive(String[] postIds, String[] replyIds, long size) {
+			this.postIds = postIds;
+			this.replyIds = replyIds;
+			this.size = size;
+		}
+
+		/**
+		 * Returns the IDs of the posts of the archive.
+		 *
+		 * @return The IDs of the posts
+		 */
+		public String[] getPostIds() {
+			return postIds;
+		}
+
+		/**
+		 * Returns the IDs of the replies of the archive.
+		 *
+		 * @return The IDs of the replies
+		 */
+		public String[] getReplyIds() {
+			return replyIds;
+		}
+
+		/**
+		 * Returns the size of the archive.
+		 *
+		 * @return The size of the archive (in bytes)
+		 */
+		public long getSize() {
+			return size;
+		}
+
+	}
+
+	/**
+	 * {@link FilterInputStream} that stops delivering data once a given
+	 * number of bytes has been read.
+	 *
+	 * @author <a href="mailto:bombe@pterodactylus.net">David ‘Bombe’ Roden</a>
+	 */
+	private static class LimitedInputStream extends FilterInputStream {
+
+		/** The number of bytes that may still be read. */
+		private long remaining;
+
+		/** Whether an attempt was made to read past the limit. */
+		private boolean limitExceeded;
+
+		/**
+		 * Creates a new limited input stream.
+		 *
+		 * @param inputStream
+		 *            The input stream to read from
+		 * @param limit
+		 *            The maximum number of bytes to read
+		 */
+		public LimitedInputStream(InputStream inputStream, long limit) {
+			super(inputStream);
+			this.remaining = limit;
+		}
+
+		/**
+		 * Returns whether an attempt was made to read more bytes than allowed.
+		 *
+		 * @return {@code true} if the limit was exceeded, {@code false}
+		 *         otherwise
+		 */
+		public boolean isLimitExceeded() {
+			return limitExceeded;
+		}
+
+		/**
+		 * {@inheritDoc}
+		 */
+		@Override
+		public int read() throws IOException {
+			byte[] buffer = new byte[1];
+			int read = read(buffer, 0, 1);
+			return (read == -1) ? -1 : (buffer[0] & 0xff);
+		}
+
+		/**
+		 * {@inheritDoc}
+		 */
+		@Override
+		public int read(byte[] buffer, int offset, int length) throws IOException {
+			if (remaining <= 0) {
+				if (super.read() != -1) {
+					limitExceeded = true;
+					throw new IOException("Input is larger than the allowed size!");
+				}
+				return -1;
+			}
+			int read = super.read(buffer, offset, (int) Math.min(length, remaining));
+			if (read > 0) {
+				remaining -= read;
+			}
+			return read;
+		}
+
+		/**
+		 * {@inheritDoc}
+		 */
+		@Override
+		public long skip(long count) throws IOException {
+			long skipped = super.skip(Math.min(count, Math.max(0, remaining)));
+			remaining -= skipped;
+			return skipped;
+		}
+
+		/**
+		 * {@inheritDoc}
+		 */
+		@Override
+		public boolean markSupported() {
+			return false;
+		}
+
 	}
 
 }
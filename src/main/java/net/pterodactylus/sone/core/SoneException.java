@@ -37,6 +37,9 @@ public class SoneException extends Exception {
 		/** An invalid URI was specified. */
 		INVALID_URI,
 
+		/** An archive of a Sone could not be loaded. */
+		ARCHIVE_NOT_AVAILABLE,
+
 	}
 
 	/** The type of the exception. */
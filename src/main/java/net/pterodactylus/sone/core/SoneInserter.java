@@ -20,22 +20,37 @@ package net.pterodactylus.sone.core;
 import java.io.InputStreamReader;
 import java.io.StringWriter;
 import java.nio.charset.Charset;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.Map.Entry;
 import java.util.Set;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
 import net.pterodactylus.sone.core.Core.SoneStatus;
 import net.pterodactylus.sone.data.Post;
+import net.pterodactylus.sone.data.Profile;
 import net.pterodactylus.sone.data.Reply;
 import net.pterodactylus.sone.data.Sone;
+import net.pterodactylus.sone.freenet.ByteArrayBucket;
 import net.pterodactylus.sone.freenet.StringBucket;
-import net.pterodactylus.util.filter.Filter;
-import net.pterodactylus.util.filter.Filters;
 import net.pterodactylus.util.io.Closer;
 import net.pterodactylus.util.logging.Logging;
 import net.pterodactylus.util.service.AbstractService;
@@ -46,9 +61,32 @@ import net.pterodactylus.util.template.TemplateException;
 import net.pterodactylus.util.template.XmlFilter;
 import freenet.client.async.ManifestElement;
 import freenet.keys.FreenetURI;
+import freenet.support.Base64;
 
 /**
- * A Sone inserter is responsible for inserting a Sone if it has changed.
+ * The Sone inserter is responsible for inserting local Sones once they have
+ * changed. Every modification of a local Sone (re)schedules an insert of the
+ * Sone so that a burst of modifications results in a single insert. The insert
+ * starts once the Sone has not been modified for the insertion delay, but no
+ * later than the maximum insertion delay after the first modification that
+ * has not been inserted yet. Two inserts of the same Sone are at least the
+ * minimum insert interval apart. The inserts run on a thread pool whose size
+ * limits the number of concurrent inserts; nothing runs while no Sone has been
+ * modified.
+ * <p>
+ * The inserter remembers a digest of the last document it has successfully
+ * inserted for every Sone. If a Sone’s document has not changed since then
+ * (apart from its time), the insert is skipped.
+ * <p>
+ * If archives are used, posts and replies that are older than the current and
+ * the previous archive period are moved into one archive per period. Archives
+ * are inserted as CHKs and referenced from the Sone document and the manifest;
+ * an archive is only inserted if its content has not been inserted before.
+ * <p>
+ * The known Sones section of every Sone document is limited to a maximum
+ * number of known Sones, friends first, then the most recently active Sones.
+ * The section is cached for every local Sone and only rebuilt periodically or
+ * when the friends or blocked Sones of the local Sone change.
  *
  * @author <a href="mailto:bombe@pterodactylus.net">David ‘Bombe’ Roden</a>
  */
@@ -57,9 +95,6 @@ public class SoneInserter extends AbstractService {
 	/** The logger. */
 	private static final Logger logger = Logging.getLogger(SoneInserter.class);
 
-	/** The insertion delay (in seconds). */
-	private static volatile int insertionDelay = 60;
-
 	/** The template factory used to create the templates. */
 	private static final DefaultTemplateFactory templateFactory = new DefaultTemplateFactory();
 
@@ -71,14 +106,131 @@ public class SoneInserter extends AbstractService {
 	/** The UTF-8 charset. */
 	private static final Charset utf8Charset = Charset.forName("UTF-8");
 
+	/** The time after which a known Sones section is rebuilt (in milliseconds). */
+	private static final long KNOWN_SONES_REBUILD_INTERVAL = 60 * 60 * 1000;
+
+	/** Comparator that sorts Sones by their last update, newest first. */
+	private static final Comparator<Sone> activityComparator = new Comparator<Sone>() {
+
+		/**
+		 * {@inheritDoc}
+		 */
+		@Override
+		public int compare(Sone leftSone, Sone rightSone) {
+			if (leftSone.getTime() != rightSone.getTime()) {
+				return (leftSone.getTime() > rightSone.getTime()) ? -1 : 1;
+			}
+			return leftSone.getId().compareTo(rightSone.getId());
+		}
+
+	};
+
+	/** The length of an archive period (in milliseconds). */
+	static final long ARCHIVE_PERIOD = 30L * 24 * 60 * 60 * 1000;
+
+	/** Comparator that sorts posts by time and ID, oldest first. */
+	private static final Comparator<Post> postComparator = new Comparator<Post>() {
+
+		/**
+		 * {@inheritDoc}
+		 */
+		@Override
+		public int compare(Post leftPost, Post rightPost) {
+			if (leftPost.getTime() != rightPost.getTime()) {
+				return (leftPost.getTime() < rightPost.getTime()) ? -1 : 1;
+			}
+			return leftPost.getId().compareTo(rightPost.getId());
+		}
+
+	};
+
+	/** Comparator that sorts replies by time and ID, oldest first. */
+	private static final Comparator<Reply> replyComparator = new Comparator<Reply>() {
+
+		/**
+		 * {@inheritDoc}
+		 */
+		@Override
+		public int compare(Reply leftReply, Reply rightReply) {
+			if (leftReply.getTime() != rightReply.getTime()) {
+				return (leftReply.getTime() < rightReply.getTime()) ? -1 : 1;
+			}
+			return leftReply.getId().compareTo(rightReply.getId());
+		}
+
+	};
+
 	/** The core. */
 	private final Core core;
 
 	/** The Freenet interface. */
 	private final FreenetInterface freenetInterface;
 
-	/** The Sone to insert. */
-	private final Sone sone;
+	/** The time a Sone has to be unmodified before it is inserted (in seconds). */
+	private volatile int insertionDelay = 20;
+
+	/** The maximum time a modification waits for its insert (in seconds). */
+	private volatile int maximumInsertionDelay = 600;
+
+	/** The minimum time between two inserts of the same Sone (in seconds). */
+	private volatile int minimumInsertInterval = 120;
+
+	/** The executor for all inserts. */
+	private final ScheduledThreadPoolExecutor insertExecutor;
+
+	/** The Sones to insert. */
+	private final Set<Sone> sones = Collections.synchronizedSet(new HashSet<Sone>());
+
+	/** The scheduled inserts. */
+	private final Map<Sone, ScheduledFuture<?>> scheduledInserts = new HashMap<Sone, ScheduledFuture<?>>();
+
+	/** The Sones that are currently being inserted. */
+	private final Set<Sone> insertingSones = new HashSet<Sone>();
+
+	/** The Sones that were modified while they were being inserted. */
+	private final Set<Sone> reinsertSones = new HashSet<Sone>();
+
+	/** The times of the first modifications that have not been inserted. */
+	private final Map<Sone, Long> firstModificationTimes = new HashMap<Sone, Long>();
+
+	/** The number of modifications that have not been inserted. */
+	private final Map<Sone, Integer> modificationCounts = new HashMap<Sone, Integer>();
+
+	/** The times of the last insert of every Sone. */
+	private final Map<Sone, Long> lastInsertTimes = new HashMap<Sone, Long>();
+
+	/** The number of started inserts. */
+	private int startedInserts;
+
+	/** The number of modifications that were inserted with an earlier one. */
+	private int coalescedModifications;
+
+	/** The sum of the delays of all started inserts (in milliseconds). */
+	private long totalInsertDelay;
+
+	/** The digests of the last successfully inserted Sone documents. */
+	private final Map<Sone, byte[]> insertedDigests = new HashMap<Sone, byte[]>();
+
+	/** The number of performed inserts. */
+	private int performedInserts;
+
+	/** The number of inserts that were skipped because nothing changed. */
+	private int skippedInserts;
+
+	/** Whether older posts and replies are moved into archives. */
+	private volatile boolean useArchives = false;
+
+	/** The keys of the archives of every Sone, by Sone ID and archive digest. */
+	private final Map<String, Map<String, FreenetURI>> archiveKeys = new HashMap<String, Map<String, FreenetURI>>();
+
+	/** The number of inserted archives. */
+	private int insertedArchives;
+
+	/** The maximum number of known Sones in a Sone document. */
+	private volatile int maximumKnownSones = 100;
+
+	/** The cached known Sones sections, by Sone ID. */
+	private final Map<String, KnownSonesSection> knownSonesSections = new HashMap<String, KnownSonesSection>();
 
 	/**
 	 * Creates a new Sone inserter.
@@ -87,14 +239,20 @@ public class SoneInserter extends AbstractService {
 	 *            The core
 	 * @param freenetInterface
 	 *            The freenet interface
-	 * @param sone
-	 *            The Sone to insert
 	 */
-	public SoneInserter(Core core, FreenetInterface freenetInterface, Sone sone) {
-		super("Sone Inserter for “" + sone.getName() + "”", false);
+	public SoneInserter(Core core, FreenetInterface freenetInterface) {
+		super("Sone Inserter", false);
 		this.core = core;
 		this.freenetInterface = freenetInterface;
-		this.sone = sone;
+		insertExecutor = new ScheduledThreadPoolExecutor(2, new ThreadFactory() {
+
+			@Override
+			public Thread newThread(Runnable runnable) {
+				Thread thread = new Thread(runnable, "Sone Inserter");
+				thread.setDaemon(true);
+				return thread;
+			}
+		});
 	}
 
 	//
@@ -103,13 +261,245 @@ public class SoneInserter extends AbstractService {
 
 	/**
 	 * Changes the insertion delay, i.e. the time the Sone inserter waits after
-	 * it has noticed a Sone modification before it starts the insert.
+	 * the last modification of a Sone before it starts the insert.
 	 *
 	 * @param insertionDelay
 	 *            The insertion delay (in seconds)
 	 */
-	public static void setInsertionDelay(int insertionDelay) {
-		SoneInserter.insertionDelay = insertionDelay;
+	public void setInsertionDelay(int insertionDelay) {
+		this.insertionDelay = Math.max(0, insertionDelay);
+	}
+
+	/**
+	 * Changes the maximum insertion delay, i.e. the longest time the Sone
+	 * inserter waits after the first modification of a Sone that has not been
+	 * inserted yet, even if the Sone keeps being modified.
+	 *
+	 * @param maximumInsertionDelay
+	 *            The maximum insertion delay (in seconds)
+	 */
+	public void setMaximumInsertionDelay(int maximumInsertionDelay) {
+		this.maximumInsertionDelay = Math.max(0, maximumInsertionDelay);
+	}
+
+	/**
+	 * Changes the minimum time between two inserts of the same Sone.
+	 *
+	 * @param minimumInsertInterval
+	 *            The minimum insert interval (in seconds)
+	 */
+	public void setMinimumInsertInterval(int minimumInsertInterval) {
+		this.minimumInsertInterval = Math.max(0, minimumInsertInterval);
+	}
+
+	/**
+	 * Returns the number of modifications that did not cause an insert of
+	 * their own because they were inserted together with an earlier
+	 * modification.
+	 *
+	 * @return The number of coalesced modifications
+	 */
+	public int getCoalescedModifications() {
+		synchronized (scheduledInserts) {
+			return coalescedModifications;
+		}
+	}
+
+	/**
+	 * Returns the average time between the first modification of a Sone and
+	 * the start of the insert that contains it.
+	 *
+	 * @return The average insert delay (in seconds)
+	 */
+	public long getAverageInsertDelay() {
+		synchronized (scheduledInserts) {
+			return (startedInserts == 0) ? 0 : (totalInsertDelay / startedInserts / 1000);
+		}
+	}
+
+	/**
+	 * Sets the maximum number of Sones that are inserted concurrently.
+	 *
+	 * @param concurrentInserts
+	 *            The maximum number of concurrent inserts
+	 */
+	public void setConcurrentInserts(int concurrentInserts) {
+		insertExecutor.setCorePoolSize(Math.max(1, concurrentInserts));
+	}
+
+	/**
+	 * Sets the maximum number of known Sones that are listed in a Sone
+	 * document.
+	 *
+	 * @param maximumKnownSones
+	 *            The maximum number of known Sones
+	 */
+	public void setMaximumKnownSones(int maximumKnownSones) {
+		this.maximumKnownSones = Math.max(0, maximumKnownSones);
+	}
+
+	/**
+	 * Sets whether older posts and replies are moved into archives that are
+	 * inserted separately.
+	 *
+	 * @param useArchives
+	 *            {@code true} to use archives, {@code false} to insert all
+	 *            posts and replies in the Sone document
+	 */
+	public void setUseArchives(boolean useArchives) {
+		this.useArchives = useArchives;
+	}
+
+	/**
+	 * Returns the keys of all known archives.
+	 *
+	 * @return The Sone ID, the digest, and the key of every archive
+	 */
+	public List<String[]> getArchiveKeys() {
+		List<String[]> archives = new ArrayList<String[]>();
+		synchronized (archiveKeys) {
+			for (Entry<String, Map<String, FreenetURI>> soneArchiveKeys : archiveKeys.entrySet()) {
+				for (Entry<String, FreenetURI> archiveKey : soneArchiveKeys.getValue().entrySet()) {
+					archives.add(new String[] { soneArchiveKeys.getKey(), archiveKey.getKey(), archiveKey.getValue().toString() });
+				}
+			}
+		}
+		return archives;
+	}
+
+	/**
+	 * Adds the key of an archive that has already been inserted, so that the
+	 * archive is not inserted again.
+	 *
+	 * @param soneId
+	 *            The ID of the Sone the archive belongs to
+	 * @param digest
+	 *            The digest of the archive
+	 * @param key
+	 *            The key of the archive
+	 */
+	public void addArchiveKey(String soneId, String digest, FreenetURI key) {
+		synchronized (archiveKeys) {
+			Map<String, FreenetURI> soneArchiveKeys = archiveKeys.get(soneId);
+			if (soneArchiveKeys == null) {
+				soneArchiveKeys = new HashMap<String, FreenetURI>();
+				archiveKeys.put(soneId, soneArchiveKeys);
+			}
+			soneArchiveKeys.put(digest, key);
+		}
+	}
+
+	/**
+	 * Returns the number of archives that have been inserted.
+	 *
+	 * @return The number of inserted archives
+	 */
+	public int getInsertedArchives() {
+		synchronized (archiveKeys) {
+			return insertedArchives;
+		}
+	}
+
+	/**
+	 * Returns the number of inserts that have been performed.
+	 *
+	 * @return The number of performed inserts
+	 */
+	public int getPerformedInserts() {
+		synchronized (insertedDigests) {
+			return performedInserts;
+		}
+	}
+
+	/**
+	 * Returns the number of inserts that have been skipped because the
+	 * document of the Sone did not change since its last insert.
+	 *
+	 * @return The number of skipped inserts
+	 */
+	public int getSkippedInserts() {
+		synchronized (insertedDigests) {
+			return skippedInserts;
+		}
+	}
+
+	//
+	// ACTIONS
+	//
+
+	/**
+	 * Adds the given local Sone to the Sones to insert. If the Sone has been
+	 * modified since its last insert, an insert is scheduled.
+	 *
+	 * @param sone
+	 *            The Sone to add
+	 */
+	public void addSone(Sone sone) {
+		if (sones.add(sone) && (sone.getModificationCounter() > 0)) {
+			scheduleInsert(sone);
+		}
+	}
+
+	/**
+	 * Removes the given Sone from the Sones to insert, cancelling its
+	 * scheduled insert. An insert that is already running is not interrupted.
+	 *
+	 * @param sone
+	 *            The Sone to remove
+	 */
+	public void removeSone(Sone sone) {
+		sones.remove(sone);
+		synchronized (scheduledInserts) {
+			ScheduledFuture<?> scheduledInsert = scheduledInserts.remove(sone);
+			if (scheduledInsert != null) {
+				scheduledInsert.cancel(false);
+			}
+			reinsertSones.remove(sone);
+			firstModificationTimes.remove(sone);
+			modificationCounts.remove(sone);
+			lastInsertTimes.remove(sone);
+		}
+		synchronized (insertedDigests) {
+			insertedDigests.remove(sone);
+		}
+		synchronized (archiveKeys) {
+			archiveKeys.remove(sone.getId());
+		}
+		synchronized (knownSonesSections) {
+			knownSonesSections.remove(sone.getId());
+		}
+	}
+
+	/**
+	 * Notifies the inserter that the given Sone has been modified. The insert
+	 * of the Sone is (re)scheduled according to the insertion delays; if the
+	 * Sone is currently being inserted, it is inserted again once the current
+	 * insert has finished. Nothing is scheduled if the modification counter of
+	 * the Sone shows no modifications since its last insert.
+	 *
+	 * @param sone
+	 *            The modified Sone
+	 */
+	public void scheduleInsert(Sone sone) {
+		if (!sones.contains(sone) || (sone.getModificationCounter() == 0)) {
+			return;
+		}
+		long now = System.currentTimeMillis();
+		synchronized (sone) {
+			sone.setTime(now);
+		}
+		synchronized (scheduledInserts) {
+			if (!firstModificationTimes.containsKey(sone)) {
+				firstModificationTimes.put(sone, now);
+			}
+			Integer modificationCount = modificationCounts.get(sone);
+			modificationCounts.put(sone, (modificationCount == null) ? 1 : (modificationCount + 1));
+			if (insertingSones.contains(sone)) {
+				reinsertSones.add(sone);
+				return;
+			}
+			scheduleInsertNow(sone);
+		}
 	}
 
 	//
@@ -120,58 +510,437 @@ public class SoneInserter extends AbstractService {
 	 * {@inheritDoc}
 	 */
 	@Override
-	protected void serviceRun() {
-		long modificationCounter = 0;
-		long lastModificationTime = 0;
-		while (!shouldStop()) {
-			/* check every seconds. */
-			sleep(1000);
-
-			InsertInformation insertInformation = null;
-			synchronized (sone) {
-				if (sone.getModificationCounter() > modificationCounter) {
-					modificationCounter = sone.getModificationCounter();
-					lastModificationTime = System.currentTimeMillis();
-					sone.setTime(lastModificationTime);
-					logger.log(Level.FINE, "Sone %s has been modified, waiting %d seconds before inserting.", new Object[] { sone.getName(), insertionDelay });
+	protected void serviceStop() {
+		insertExecutor.shutdownNow();
+	}
+
+	//
+	// PRIVATE METHODS
+	//
+
+	/**
+	 * (Re)schedules the insert of the given Sone. The insert starts once the
+	 * Sone has not been modified for the insertion delay, or once the first
+	 * modification that has not been inserted is older than the maximum
+	 * insertion delay, whichever comes first, but not before the minimum
+	 * insert interval has passed since the last insert of the Sone. This
+	 * method has to be called with the lock on {@link #scheduledInserts}
+	 * held.
+	 *
+	 * @param sone
+	 *            The Sone to insert
+	 */
+	private void scheduleInsertNow(final Sone sone) {
+		long now = System.currentTimeMillis();
+		Long firstModificationTime = firstModificationTimes.get(sone);
+		if (firstModificationTime == null) {
+			firstModificationTime = now;
+			firstModificationTimes.put(sone, now);
+		}
+		long insertTime = Math.min(now + insertionDelay * 1000L, firstModificationTime + maximumInsertionDelay * 1000L);
+		Long lastInsertTime = lastInsertTimes.get(sone);
+		if (lastInsertTime != null) {
+			insertTime = Math.max(insertTime, lastInsertTime + minimumInsertInterval * 1000L);
+		}
+		long delay = Math.max(0, insertTime - now);
+
+		ScheduledFuture<?> scheduledInsert = scheduledInserts.get(sone);
+		if (scheduledInsert != null) {
+			scheduledInsert.cancel(false);
+		}
+		logger.log(Level.FINE, "Sone %s has been modified, waiting %d seconds before inserting.", new Object[] { sone.getName(), delay / 1000 });
+		try {
+			scheduledInserts.put(sone, insertExecutor.schedule(new Runnable() {
+
+				@Override
+				@SuppressWarnings("synthetic-access")
+				public void run() {
+					Long pendingSince;
+					synchronized (scheduledInserts) {
+						scheduledInserts.remove(sone);
+						if (!sones.contains(sone)) {
+							return;
+						}
+						insertingSones.add(sone);
+						long startTime = System.currentTimeMillis();
+						pendingSince = firstModificationTimes.remove(sone);
+						Integer modificationCount = modificationCounts.remove(sone);
+						lastInsertTimes.put(sone, startTime);
+						++startedInserts;
+						if (pendingSince != null) {
+							totalInsertDelay += startTime - pendingSince;
+						}
+						if ((modificationCount != null) && (modificationCount > 1)) {
+							coalescedModifications += modificationCount - 1;
+						}
+					}
+					boolean inserted = false;
+					try {
+						inserted = insertSone(sone);
+					} finally {
+						synchronized (scheduledInserts) {
+							insertingSones.remove(sone);
+							boolean reinsert = reinsertSones.remove(sone);
+							if (!inserted) {
+								/* try again later, the modifications are still pending. */
+								if ((pendingSince != null) && (!firstModificationTimes.containsKey(sone) || (firstModificationTimes.get(sone) > pendingSince))) {
+									firstModificationTimes.put(sone, pendingSince);
+								}
+								reinsert = true;
+							}
+							if (reinsert && sones.contains(sone)) {
+								scheduleInsertNow(sone);
+							}
+						}
+					}
 				}
-				if ((lastModificationTime > 0) && ((System.currentTimeMillis() - lastModificationTime) > (insertionDelay * 1000))) {
-					insertInformation = new InsertInformation(sone);
+			}, delay, TimeUnit.MILLISECONDS));
+		} catch (RejectedExecutionException ree1) {
+			logger.log(Level.FINE, "Not scheduling insert of Sone “%s”, inserter is stopped.", new Object[] { sone });
+		}
+	}
+
+	/**
+	 * Inserts the given Sone. If the document of the Sone did not change since
+	 * its last insert, the insert is skipped. If the Sone was not modified
+	 * during the insert, its modification counter is reset.
+	 *
+	 * @param sone
+	 *            The Sone to insert
+	 * @return {@code true} if the Sone was inserted or did not have to be
+	 *         inserted, {@code false} if the insert failed
+	 */
+	private boolean insertSone(Sone sone) {
+		InsertInformation insertInformation;
+		long modificationCounter;
+		synchronized (sone) {
+			modificationCounter = sone.getModificationCounter();
+			insertInformation = new InsertInformation(sone);
+		}
+
+		Map<String, FreenetURI> archives = new LinkedHashMap<String, FreenetURI>();
+		byte[] soneXml;
+		try {
+			soneXml = createSoneXml(sone, insertInformation, archives);
+		} catch (SoneException se1) {
+			logger.log(Level.WARNING, "Could not insert archives of Sone “" + sone.getName() + "”!", se1);
+			return false;
+		}
+		byte[] digest = calculateDigest(soneXml);
+		boolean unchanged;
+		synchronized (insertedDigests) {
+			unchanged = Arrays.equals(digest, insertedDigests.get(sone));
+			if (unchanged) {
+				++skippedInserts;
+			}
+		}
+		if (unchanged) {
+			logger.log(Level.FINE, "Sone “%s” has not changed since its last insert, skipping insert.", new Object[] { sone.getName() });
+			resetModificationCounter(sone, modificationCounter);
+			return true;
+		}
+
+		logger.log(Level.INFO, "Inserting Sone “%s”…", new Object[] { sone.getName() });
+
+		boolean success = false;
+		try {
+			core.setSoneStatus(sone, SoneStatus.inserting);
+			FreenetURI finalUri = freenetInterface.insertDirectory(insertInformation.getInsertUri().setKeyType("USK").setSuggestedEdition(0), insertInformation.generateManifestEntries(soneXml, archives), "index.html");
+			sone.updateUris(finalUri.getEdition());
+			success = true;
+			logger.log(Level.INFO, "Inserted Sone “%s” at %s.", new Object[] { sone.getName(), finalUri });
+		} catch (SoneException se1) {
+			logger.log(Level.WARNING, "Could not insert Sone “" + sone.getName() + "”!", se1);
+		} finally {
+			core.setSoneStatus(sone, SoneStatus.idle);
+		}
+
+		if (success) {
+			synchronized (insertedDigests) {
+				++performedInserts;
+				if (sones.contains(sone)) {
+					insertedDigests.put(sone, digest);
 				}
 			}
+			resetModificationCounter(sone, modificationCounter);
+		}
+		return success;
+	}
+
+	/**
+	 * Creates the Sone document for the given Sone. If archives are used, the
+	 * older posts and replies are moved into archives, and all archives that
+	 * have not been inserted yet are inserted.
+	 *
+	 * @param sone
+	 *            The Sone to create the document for
+	 * @param insertInformation
+	 *            The data of the Sone
+	 * @param archives
+	 *            The map to store the manifest names and keys of the archives
+	 *            in
+	 * @return The UTF-8 encoded Sone document
+	 * @throws SoneException
+	 *             if an archive can not be inserted
+	 */
+	private byte[] createSoneXml(Sone sone, InsertInformation insertInformation, Map<String, FreenetURI> archives) throws SoneException {
+		if (!useArchives) {
+			return insertInformation.createSoneXml(insertInformation.getPosts(), insertInformation.getReplies(), Collections.<String> emptyList());
+		}
 
-			if (insertInformation != null) {
-				logger.log(Level.INFO, "Inserting Sone “%s”…", new Object[] { sone.getName() });
-
-				boolean success = false;
-				try {
-					core.setSoneStatus(sone, SoneStatus.inserting);
-					FreenetURI finalUri = freenetInterface.insertDirectory(insertInformation.getInsertUri().setKeyType("USK").setSuggestedEdition(0), insertInformation.generateManifestEntries(), "index.html");
-					sone.updateUris(finalUri.getEdition());
-					success = true;
-					logger.log(Level.INFO, "Inserted Sone “%s” at %s.", new Object[] { sone.getName(), finalUri });
-				} catch (SoneException se1) {
-					logger.log(Level.WARNING, "Could not insert Sone “" + sone.getName() + "”!", se1);
-				} finally {
-					core.setSoneStatus(sone, SoneStatus.idle);
+		/* sort posts and replies into the archive periods. */
+		List<Post> recentPosts = new ArrayList<Post>();
+		List<Reply> recentReplies = new ArrayList<Reply>();
+		SortedMap<Long, List<Post>> archivedPosts = new TreeMap<Long, List<Post>>();
+		SortedMap<Long, List<Reply>> archivedReplies = new TreeMap<Long, List<Reply>>();
+		sortIntoPeriods(System.currentTimeMillis(), insertInformation.getPosts(), insertInformation.getReplies(), recentPosts, recentReplies, archivedPosts, archivedReplies);
+
+		/* insert the archives that have not been inserted yet. */
+		Map<String, FreenetURI> oldArchiveKeys;
+		synchronized (archiveKeys) {
+			oldArchiveKeys = archiveKeys.containsKey(sone.getId()) ? new HashMap<String, FreenetURI>(archiveKeys.get(sone.getId())) : new HashMap<String, FreenetURI>();
+		}
+		Map<String, FreenetURI> newArchiveKeys = new HashMap<String, FreenetURI>();
+		for (long period : archivedPosts.keySet()) {
+			List<Post> posts = archivedPosts.get(period);
+			List<Reply> replies = archivedReplies.get(period);
+			Collections.sort(posts, postComparator);
+			Collections.sort(replies, replyComparator);
+			byte[] archive = SoneXmlSerializer.serializeArchive(sone.getId(), posts, replies);
+			MessageDigest messageDigest = createMessageDigest();
+			String digest = Base64.encode(messageDigest.digest(archive));
+			FreenetURI archiveKey = oldArchiveKeys.get(digest);
+			if (archiveKey == null) {
+				archiveKey = insertArchive(sone, archive);
+				synchronized (archiveKeys) {
+					++insertedArchives;
 				}
+			}
+			newArchiveKeys.put(digest, archiveKey);
+			archives.put("archive-" + period + ".xml", archiveKey);
+		}
+		synchronized (archiveKeys) {
+			if (sones.contains(sone)) {
+				archiveKeys.put(sone.getId(), newArchiveKeys);
+			}
+		}
 
-				/*
-				 * reset modification counter if Sone has not been modified
-				 * while it was inserted.
-				 */
-				if (success) {
-					synchronized (sone) {
-						if (sone.getModificationCounter() == modificationCounter) {
-							logger.log(Level.FINE, "Sone “%s” was not modified further, resetting counter…", new Object[] { sone });
-							sone.setModificationCounter(0);
-							modificationCounter = 0;
-							lastModificationTime = 0;
-						}
-					}
+		List<String> archiveKeyStrings = new ArrayList<String>();
+		for (FreenetURI archiveKey : archives.values()) {
+			archiveKeyStrings.add(archiveKey.toString());
+		}
+		return insertInformation.createSoneXml(recentPosts, recentReplies, archiveKeyStrings);
+	}
+
+	/**
+	 * Returns the known Sones section for the Sone with the given ID. The
+	 * cached section is returned unless it is outdated or the friends or
+	 * blocked Sones of the Sone have changed since it was created.
+	 *
+	 * @param soneId
+	 *            The ID of the Sone
+	 * @param friendIds
+	 *            The IDs of the friends of the Sone
+	 * @param blockedSoneIds
+	 *            The IDs of the Sones blocked by the Sone
+	 * @return The known Sones section
+	 */
+	private String getKnownSonesSection(String soneId, Set<String> friendIds, Set<String> blockedSoneIds) {
+		int maximumKnownSones = this.maximumKnownSones;
+		long now = System.currentTimeMillis();
+		synchronized (knownSonesSections) {
+			KnownSonesSection knownSonesSection = knownSonesSections.get(soneId);
+			if ((knownSonesSection != null) && knownSonesSection.isValid(friendIds, blockedSoneIds, maximumKnownSones, now)) {
+				return knownSonesSection.getSection();
+			}
+		}
+
+		/* select friends first, then the most recently active Sones. */
+		List<Sone> friends = new ArrayList<Sone>();
+		List<Sone> otherSones = new ArrayList<Sone>();
+		for (Sone knownSone : core.getKnownSones()) {
+			if (knownSone.getId().equals(soneId) || blockedSoneIds.contains(knownSone.getId()) || (knownSone.getRequestUri() == null)) {
+				continue;
+			}
+			if (friendIds.contains(knownSone.getId())) {
+				friends.add(knownSone);
+			} else {
+				otherSones.add(knownSone);
+			}
+		}
+		Collections.sort(friends, activityComparator);
+		Collections.sort(otherSones, activityComparator);
+		List<Sone> candidates = new ArrayList<Sone>(friends);
+		candidates.addAll(otherSones);
+		List<String[]> knownSones = new ArrayList<String[]>();
+		for (Sone knownSone : candidates) {
+			if (knownSones.size() >= maximumKnownSones) {
+				break;
+			}
+			knownSones.add(new String[] { knownSone.getId(), knownSone.getRequestUri().toString(), knownSone.getName() });
+		}
+		logger.log(Level.FINE, "Selected %d of %d known Sones for Sone %s.", new Object[] { knownSones.size(), friends.size() + otherSones.size(), soneId });
+
+		String section = SoneXmlSerializer.serializeKnownSones(knownSones);
+		synchronized (knownSonesSections) {
+			knownSonesSections.put(soneId, new KnownSonesSection(friendIds, blockedSoneIds, maximumKnownSones, now, section));
+		}
+		return section;
+	}
+
+	/**
+	 * Inserts the given archive of the given Sone.
+	 *
+	 * @param sone
+	 *            The Sone the archive belongs to
+	 * @param archive
+	 *            The archive document
+	 * @return The key of the archive
+	 * @throws SoneException
+	 *             if the archive can not be inserted
+	 */
+	private FreenetURI insertArchive(Sone sone, byte[] archive) throws SoneException {
+		logger.log(Level.FINE, "Inserting archive of Sone “%s” (%d bytes)…", new Object[] { sone.getName(), archive.length });
+		ByteArrayBucket bucket = new ByteArrayBucket(archive);
+		try {
+			core.setSoneStatus(sone, SoneStatus.inserting);
+			FreenetURI archiveKey = freenetInterface.insertData(bucket, "text/xml; charset=utf-8");
+			logger.log(Level.FINE, "Inserted archive of Sone “%s” at %s.", new Object[] { sone.getName(), archiveKey });
+			return archiveKey;
+		} finally {
+			core.setSoneStatus(sone, SoneStatus.idle);
+			bucket.free();
+		}
+	}
+
+	/**
+	 * Resets the modification counter of the given Sone if the Sone has not
+	 * been modified since the given modification counter was read.
+	 *
+	 * @param sone
+	 *            The Sone to reset the modification counter of
+	 * @param modificationCounter
+	 *            The modification counter the document was created with
+	 */
+	private void resetModificationCounter(Sone sone, long modificationCounter) {
+		synchronized (sone) {
+			if (sone.getModificationCounter() == modificationCounter) {
+				logger.log(Level.FINE, "Sone “%s” was not modified further, resetting counter…", new Object[] { sone });
+				sone.setModificationCounter(0);
+			}
+		}
+	}
+
+	/**
+	 * Calculates the digest of the given Sone document. The time of the Sone
+	 * changes with every modification and is therefore left out of the
+	 * digest; the times of posts and replies are included.
+	 *
+	 * @param soneXml
+	 *            The UTF-8 encoded Sone document
+	 * @return The digest of the document
+	 */
+	static byte[] calculateDigest(byte[] soneXml) {
+		MessageDigest messageDigest = createMessageDigest();
+		/* the first time element is the time of the Sone. */
+		int timeStart = indexOf(soneXml, "<time>".getBytes(utf8Charset), 0);
+		int timeEnd = (timeStart == -1) ? -1 : indexOf(soneXml, "</time>".getBytes(utf8Charset), timeStart);
+		if (timeEnd == -1) {
+			messageDigest.update(soneXml);
+		} else {
+			messageDigest.update(soneXml, 0, timeStart);
+			messageDigest.update(soneXml, timeEnd, soneXml.length - timeEnd);
+		}
+		return messageDigest.digest();
+	}
+
+	/**
+	 * Sorts the given posts and replies into archive periods. Posts and
+	 * replies from the current and the previous period are recent and stay in
+	 * the Sone document; all older posts and replies are sorted into the
+	 * period they belong to. Every archived period has a list of posts and a
+	 * list of replies, even if one of them is empty.
+	 *
+	 * @param now
+	 *            The current time
+	 * @param posts
+	 *            The posts to sort
+	 * @param replies
+	 *            The replies to sort
+	 * @param recentPosts
+	 *            The list to store the recent posts in
+	 * @param recentReplies
+	 *            The list to store the recent replies in
+	 * @param archivedPosts
+	 *            The map to store the archived posts in, by period
+	 * @param archivedReplies
+	 *            The map to store the archived replies in, by period
+	 */
+	static void sortIntoPeriods(long now, Collection<Post> posts, Collection<Reply> replies, List<Post> recentPosts, List<Reply> recentReplies, Map<Long, List<Post>> archivedPosts, Map<Long, List<Reply>> archivedReplies) {
+		long lastArchivedPeriod = now / ARCHIVE_PERIOD - 2;
+		for (Post post : posts) {
+			long period = post.getTime() / ARCHIVE_PERIOD;
+			if (period > lastArchivedPeriod) {
+				recentPosts.add(post);
+				continue;
+			}
+			if (!archivedPosts.containsKey(period)) {
+				archivedPosts.put(period, new ArrayList<Post>());
+				archivedReplies.put(period, new ArrayList<Reply>());
+			}
+			archivedPosts.get(period).add(post);
+		}
+		for (Reply reply : replies) {
+			long period = reply.getTime() / ARCHIVE_PERIOD;
+			if (period > lastArchivedPeriod) {
+				recentReplies.add(reply);
+				continue;
+			}
+			if (!archivedReplies.containsKey(period)) {
+				archivedPosts.put(period, new ArrayList<Post>());
+				archivedReplies.put(period, new ArrayList<Reply>());
+			}
+			archivedReplies.get(period).add(reply);
+		}
+	}
+
+	/**
+	 * Creates a new SHA-256 message digest.
+	 *
+	 * @return The message digest
+	 */
+	private static MessageDigest createMessageDigest() {
+		try {
+			return MessageDigest.getInstance("SHA-256");
+		} catch (NoSuchAlgorithmException nsae1) {
+			/* every Java platform has to support SHA-256. */
+			throw new RuntimeException("SHA-256 is not available!", nsae1);
+		}
+	}
+
+	/**
+	 * Returns the index of the first occurence of the given pattern in the
+	 * given data.
+	 *
+	 * @param data
+	 *            The data to search
+	 * @param pattern
+	 *            The pattern to search for
+	 * @param start
+	 *            The index to start searching at
+	 * @return The index of the pattern, or {@code -1} if the pattern does not
+	 *         occur in the data
+	 */
+	private static int indexOf(byte[] data, byte[] pattern, int start) {
+		outer: for (int index = start; index <= data.length - pattern.length; ++index) {
+			for (int patternIndex = 0; patternIndex < pattern.length; ++patternIndex) {
+				if (data[index + patternIndex] != pattern[patternIndex]) {
+					continue outer;
 				}
 			}
+			return index;
 		}
+		return -1;
 	}
 
 	/**
@@ -202,8 +971,13 @@ public class SoneInserter extends AbstractService {
 			soneProperties.put("posts", new ArrayList<Post>(sone.getPosts()));
 			soneProperties.put("replies", new HashSet<Reply>(sone.getReplies()));
 			soneProperties.put("blockedSoneIds", new HashSet<String>(sone.getBlockedSoneIds()));
+			Set<String> friendIds = new HashSet<String>();
+			for (Sone friend : sone.getFriends()) {
+				friendIds.add(friend.getId());
+			}
+			soneProperties.put("friendIds", friendIds);
 			soneProperties.put("likedPostIds", new HashSet<String>(sone.getLikedPostIds()));
-			soneProperties.put("likeReplyIds", new HashSet<String>(sone.getLikedReplyIds()));
+			soneProperties.put("likedReplyIds", new HashSet<String>(sone.getLikedReplyIds()));
 		}
 
 		//
@@ -219,23 +993,69 @@ public class SoneInserter extends AbstractService {
 			return (FreenetURI) soneProperties.get("insertUri");
 		}
 
+		/**
+		 * Returns the posts of the Sone.
+		 *
+		 * @return The posts of the Sone
+		 */
+		@SuppressWarnings("unchecked")
+		public List<Post> getPosts() {
+			return (List<Post>) soneProperties.get("posts");
+		}
+
+		/**
+		 * Returns the replies of the Sone.
+		 *
+		 * @return The replies of the Sone
+		 */
+		@SuppressWarnings("unchecked")
+		public Set<Reply> getReplies() {
+			return (Set<Reply>) soneProperties.get("replies");
+		}
+
 		//
 		// ACTIONS
 		//
 
+		/**
+		 * Creates the Sone document for this Sone.
+		 *
+		 * @param posts
+		 *            The posts to include in the document
+		 * @param replies
+		 *            The replies to include in the document
+		 * @param archiveKeys
+		 *            The keys of the archives of the Sone
+		 * @return The UTF-8 encoded Sone document
+		 */
+		@SuppressWarnings({ "unchecked", "synthetic-access" })
+		public byte[] createSoneXml(Collection<Post> posts, Collection<Reply> replies, Collection<String> archiveKeys) {
+			String knownSonesSection = getKnownSonesSection((String) soneProperties.get("id"), (Set<String>) soneProperties.get("friendIds"), (Set<String>) soneProperties.get("blockedSoneIds"));
+			return SoneXmlSerializer.serialize((String) soneProperties.get("id"), (String) soneProperties.get("name"), (Long) soneProperties.get("time"), (Profile) soneProperties.get("profile"), posts, replies, (Set<String>) soneProperties.get("likedPostIds"), (Set<String>) soneProperties.get("likedReplyIds"), knownSonesSection, archiveKeys);
+		}
+
 		/**
 		 * Generates all manifest entries required to insert this Sone.
 		 *
+		 * @param soneXml
+		 *            The Sone document
+		 * @param archives
+		 *            The manifest names and keys of the archives
 		 * @return The manifest entries for the Sone insert
 		 */
-		public HashMap<String, Object> generateManifestEntries() {
+		public HashMap<String, Object> generateManifestEntries(byte[] soneXml, Map<String, FreenetURI> archives) {
 			HashMap<String, Object> manifestEntries = new HashMap<String, Object>();
 
 			/* first, create an index.html. */
 			manifestEntries.put("index.html", createManifestElement("index.html", "text/html; charset=utf-8", "/templates/insert/index.html"));
 
 			/* now, store the sone. */
-			manifestEntries.put("sone.xml", createManifestElement("sone.xml", "text/xml; charset=utf-8", "/templates/insert/sone.xml"));
+			manifestEntries.put("sone.xml", createSoneXmlManifestElement(soneXml));
+
+			/* link the archives, they have already been inserted. */
+			for (Entry<String, FreenetURI> archive : archives.entrySet()) {
+				manifestEntries.put(archive.getKey(), new ManifestElement(archive.getKey(), archive.getValue(), "text/xml; charset=utf-8"));
+			}
 
 			return manifestEntries;
 		}
@@ -244,6 +1064,18 @@ public class SoneInserter extends AbstractService {
 		// PRIVATE METHODS
 		//
 
+		/**
+		 * Creates the manifest element for the Sone document.
+		 *
+		 * @param soneXml
+		 *            The Sone document
+		 * @return The manifest element
+		 */
+		private ManifestElement createSoneXmlManifestElement(byte[] soneXml) {
+			ByteArrayBucket bucket = new ByteArrayBucket(soneXml);
+			return new ManifestElement("sone.xml", bucket, "text/xml; charset=utf-8", bucket.size());
+		}
+
 		/**
 		 * Creates a new manifest element.
 		 *
@@ -267,21 +1099,7 @@ public class SoneInserter extends AbstractService {
 			} finally {
 				Closer.close(templateInputStreamReader);
 			}
-			@SuppressWarnings("unchecked")
-			final Set<String> blockedSoneIds = (Set<String>) soneProperties.get("blockedSoneIds");
-			Collection<Sone> knownSones = Filters.filteredCollection(core.getKnownSones(), new Filter<Sone>() {
-
-				/**
-				 * {@inheritDoc}
-				 */
-				@Override
-				public boolean filterObject(Sone object) {
-					return !blockedSoneIds.contains(object.getId()) && !object.getId().equals(soneProperties.get("id"));
-				}
-			});
-
 			template.set("currentSone", soneProperties);
-			template.set("knownSones", knownSones);
 			StringWriter writer = new StringWriter();
 			StringBucket bucket = null;
 			try {
@@ -301,4 +1119,79 @@ public class SoneInserter extends AbstractService {
 
 	}
 
+	/**
+	 * A cached known Sones section, together with the data it was created
+	 * from.
+	 *
+	 * @author <a href="mailto:bombe@pterodactylus.net">David ‘Bombe’ Roden</a>
+	 */
+	private static class KnownSonesSection {
+
+		/** The IDs of the friends of the Sone. */
+		private final Set<String> friendIds;
+
+		/** The IDs of the Sones blocked by the Sone. */
+		private final Set<String> blockedSoneIds;
+
+		/** The maximum number of known Sones. */
+		private final int maximumKnownSones;
+
+		/** The time the section was created. */
+		private final long creationTime;
+
+		/** The section. */
+		private final String section;
+
+		/**
+		 * Creates a new known Sones section.
+		 *
+		 * @param friendIds
+		 *            The IDs of the friends of the Sone
+		 * @param blockedSoneIds
+		 *            The IDs of the Sones blocked by the Sone
+		 * @param maximumKnownSones
+		 *            The maximum number of known Sones
+		 * @param creationTime
+		 *            The time the section was created
+		 * @param section
+		 *            The section
+		 */
+		public KnownSonesSection(Set<String> friendIds, Set<String> blockedSoneIds, int maximumKnownSones, long creationTime, String section) {
+			this.friendIds = new HashSet<String>(friendIds);
+			this.blockedSoneIds = new HashSet<String>(blockedSoneIds);
+			this.maximumKnownSones = maximumKnownSones;
+			this.creationTime = creationTime;
+			this.section = section;
+		}
+
+		/**
+		 * Returns the section.
+		 *
+		 * @return The section
+		 */
+		public String getSection() {
+			return section;
+		}
+
+		/**
+		 * Returns whether this section can still be used for a Sone with the
+		 * given friends and blocked Sones.
+		 *
+		 * @param friendIds
+		 *            The IDs of the friends of the Sone
+		 * @param blockedSoneIds
+		 *            The IDs of the Sones blocked by the Sone
+		 * @param maximumKnownSones
+		 *            The maximum number of known Sones
+		 * @param now
+		 *            The current time
+		 * @return {@code true} if the section can be used, {@code false} if it
+		 *         has to be rebuilt
+		 */
+		public boolean isValid(Set<String> friendIds, Set<String> blockedSoneIds, int maximumKnownSones, long now) {
+			return (now - creationTime < KNOWN_SONES_REBUILD_INTERVAL) && (this.maximumKnownSones == maximumKnownSones) && this.friendIds.equals(friendIds) && this.blockedSoneIds.equals(blockedSoneIds);
+		}
+
+	}
+
 }
@@ -0,0 +1,606 @@
+/*
+ * Sone - SoneJournal.java - Copyright © 2010 David Roden
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package net.pterodactylus.sone.core;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import net.pterodactylus.util.io.Closer;
+import net.pterodactylus.util.logging.Logging;
+
+/**
+ * Append-only journal of the changes made to local Sones. Every change is
+ * appended to the journal file as soon as it is made, so that no change is
+ * lost if the node is killed. From time to time the journal is compacted into
+ * a checkpoint that contains a {@link SoneSnapshot snapshot} of every local
+ * Sone, after which the journal is truncated. On startup the local Sones are
+ * restored from the checkpoint, and the entries of the journal are replayed
+ * on top of it.
+ * <p>
+ * Replaying the journal must be idempotent: an entry may be contained both in
+ * the checkpoint and in the journal if it was appended while a checkpoint was
+ * written.
+ *
+ * @author <a href="mailto:bombe@pterodactylus.net">David ‘Bombe’ Roden</a>
+ */
+public class SoneJournal {
+
+	/**
+	 * The types of journal entries.
+	 *
+	 * @author <a href="mailto:bombe@pterodactylus.net">David ‘Bombe’ Roden</a>
+	 */
+	public enum Type {
+
+		/** A local Sone was added. The value is its snapshot. */
+		SONE_ADDED,
+
+		/** A local Sone was deleted. */
+		SONE_REMOVED,
+
+		/** A post was created. The values are the ID and the text. */
+		POST_CREATED,
+
+		/** A post was deleted. The value is the ID of the post. */
+		POST_DELETED,
+
+		/**
+		 * A reply was created. The values are the ID, the ID of the post, and
+		 * the text.
+		 */
+		REPLY_CREATED,
+
+		/** A reply was deleted. The value is the ID of the reply. */
+		REPLY_DELETED,
+
+		/** A post was liked. The value is the ID of the post. */
+		POST_LIKED,
+
+		/** A post was unliked. The value is the ID of the post. */
+		POST_UNLIKED,
+
+		/** A reply was liked. The value is the ID of the reply. */
+		REPLY_LIKED,
+
+		/** A reply was unliked. The value is the ID of the reply. */
+		REPLY_UNLIKED,
+
+		/**
+		 * A Sone was followed. The values are the ID, the request URI, and the
+		 * name of the followed Sone.
+		 */
+		SONE_FOLLOWED,
+
+		/** A Sone was unfollowed. The value is the ID of the Sone. */
+		SONE_UNFOLLOWED,
+
+		/** A Sone was blocked. The value is the ID of the Sone. */
+		SONE_BLOCKED,
+
+		/** A Sone was unblocked. The value is the ID of the Sone. */
+		SONE_UNBLOCKED,
+
+		/**
+		 * The profile was changed. The values are the first, middle, and last
+		 * name, and the day, month, and year of birth.
+		 */
+		PROFILE_CHANGED,
+
+	}
+
+	/**
+	 * A single entry of the journal.
+	 *
+	 * @author <a href="mailto:bombe@pterodactylus.net">David ‘Bombe’ Roden</a>
+	 */
+	public static class Entry {
+
+		/** The type of the entry. */
+		private final Type type;
+
+		/** The ID of the local Sone the entry belongs to. */
+		private final String soneId;
+
+		/** The time of the entry. */
+		private final long time;
+
+		/** The values of the entry. */
+		private final String[] values;
+
+		/**
+		 * Creates a new journal entry.
+		 *
+		 * @param type
+		 *            The type of the entry
+		 * @param soneId
+		 *            The ID of the local Sone the entry belongs to
+		 * @param time
+		 *            The time of the entry
+		 * @param values
+		 *            The values of the entry
+		 */
+		public Entry(Type type, String soneId, long time, String... values) {
+			this.type = type;
+			this.soneId = soneId;
+			this.time = time;
+			this.values = values;
+		}
+
+		/**
+		 * Returns the type of the entry.
+		 *
+		 * @return The type of the entry
+		 */
+		public Type getType() {
+			return type;
+		}
+
+		/**
+		 * Returns the ID of the local Sone the entry belongs to.
+		 *
+		 * @return The ID of the Sone
+		 */
+		public String getSoneId() {
+			return soneId;
+		}
+
+		/**
+		 * Returns the time of the entry. For created posts and replies this is
+		 * the time of the post or reply.
+		 *
+		 * @return The time of the entry
+		 */
+		public long getTime() {
+			return time;
+		}
+
+		/**
+		 * Returns the value with the given index.
+		 *
+		 * @param index
+		 *            The index of the value
+		 * @return The value, or {@code null} if there is no value with the
+		 *         given index
+		 */
+		public String getValue(int index) {
+			return (index < values.length) ? values[index] : null;
+		}
+
+	}
+
+	/** The logger. */
+	private static final Logger logger = Logging.getLogger(SoneJournal.class);
+
+	/** The magic number at the start of the journal and checkpoint files. */
+	private static final int MAGIC = 0x536f4a6c;
+
+	/** The current version of the journal format. */
+	private static final int VERSION = 1;
+
+	/** The length of the header of the journal and checkpoint files. */
+	private static final int HEADER_LENGTH = 8;
+
+	/** The journal file. */
+	private final File journalFile;
+
+	/** The checkpoint file. */
+	private final File checkpointFile;
+
+	/** The file output stream of the journal, used to sync the journal. */
+	private FileOutputStream journalFileOutputStream;
+
+	/** The output stream of the journal, {@code null} if it is not open. */
+	private DataOutputStream journalOutputStream;
+
+	/** The number of entries in the journal. */
+	private int journalEntries;
+
+	/**
+	 * The length of the complete part of the journal as determined by the
+	 * last {@link #readEntries()}, or {@code -1} if it is not known.
+	 */
+	private long completeLength = -1;
+
+	/**
+	 * Creates a new journal that stores its files in the given directory. The
+	 * directory is created if it does not exist yet.
+	 *
+	 * @param directory
+	 *            The directory to store the journal in
+	 */
+	public SoneJournal(File directory) {
+		if (!directory.exists() && !directory.mkdirs()) {
+			logger.log(Level.WARNING, "Could not create journal directory “%s”!", new Object[] { directory });
+		}
+		journalFile = new File(directory, "journal.dat");
+		checkpointFile = new File(directory, "checkpoint.dat");
+	}
+
+	//
+	// ACCESSORS
+	//
+
+	/**
+	 * Returns the number of entries that have been appended to the journal
+	 * since the last checkpoint.
+	 *
+	 * @return The number of entries in the journal
+	 */
+	public synchronized int getEntryCount() {
+		return journalEntries;
+	}
+
+	//
+	// ACTIONS
+	//
+
+	/**
+	 * Reads the snapshots of the local Sones from the checkpoint.
+	 *
+	 * @return The snapshots of the local Sones, or {@code null} if there is no
+	 *         checkpoint or it can not be read
+	 */
+	public synchronized List<String> readCheckpoint() {
+		File file = checkpointFile;
+		File temporaryFile = getTemporaryCheckpointFile();
+		if (!file.exists() && temporaryFile.exists()) {
+			/* the node was killed while the checkpoint was renamed. */
+			file = temporaryFile;
+		}
+		DataInputStream checkpointInputStream = null;
+		try {
+			checkpointInputStream = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+			if (!readHeader(checkpointInputStream)) {
+				return null;
+			}
+			int count = checkpointInputStream.readInt();
+			List<String> snapshots = new ArrayList<String>(count);
+			for (int index = 0; index < count; ++index) {
+				snapshots.add(readString(checkpointInputStream));
+			}
+			return snapshots;
+		} catch (FileNotFoundException fnfe1) {
+			return null;
+		} catch (IOException ioe1) {
+			logger.log(Level.WARNING, "Could not read checkpoint!", ioe1);
+			return null;
+		} finally {
+			Closer.close(checkpointInputStream);
+		}
+	}
+
+	/**
+	 * Reads all entries from the journal. Reading stops at the first entry
+	 * that is incomplete, e.g. because the node was killed while it was
+	 * written. The incomplete rest of the journal is removed when the journal
+	 * is {@link #open() opened} the next time.
+	 *
+	 * @return The entries of the journal
+	 */
+	public synchronized List<Entry> readEntries() {
+		List<Entry> entries = new ArrayList<Entry>();
+		completeLength = 0;
+		DataInputStream journalInputStream = null;
+		try {
+			journalInputStream = new DataInputStream(new BufferedInputStream(new FileInputStream(journalFile)));
+			if (!readHeader(journalInputStream)) {
+				return entries;
+			}
+			completeLength = HEADER_LENGTH;
+			Type[] types = Type.values();
+			while (true) {
+				int typeIndex = journalInputStream.readInt();
+				if ((typeIndex < 0) || (typeIndex >= types.length)) {
+					logger.log(Level.WARNING, "Journal contains invalid entry type %d, ignoring rest of journal.", new Object[] { typeIndex });
+					break;
+				}
+				String soneId = readString(journalInputStream);
+				long time = journalInputStream.readLong();
+				int valueCount = journalInputStream.readInt();
+				long entryLength = 4 + getStringLength(soneId) + 8 + 4;
+				String[] values = new String[valueCount];
+				for (int valueIndex = 0; valueIndex < valueCount; ++valueIndex) {
+					values[valueIndex] = readString(journalInputStream);
+					entryLength += getStringLength(values[valueIndex]);
+				}
+				entries.add(new Entry(types[typeIndex], soneId, time, values));
+				completeLength += entryLength;
+			}
+		} catch (FileNotFoundException fnfe1) {
+			/* no journal, no entries. */
+		} catch (EOFException eofe1) {
+			/* end of journal reached. */
+		} catch (IOException ioe1) {
+			logger.log(Level.WARNING, "Could not read journal!", ioe1);
+		} finally {
+			Closer.close(journalInputStream);
+		}
+		journalEntries = entries.size();
+		return entries;
+	}
+
+	/**
+	 * Opens the journal for appending. Entries that are appended while the
+	 * journal is not open (e.g. while it is being replayed) are discarded. If
+	 * {@link #readEntries()} found an incomplete entry, the journal is
+	 * truncated to its complete part first so that new entries are not
+	 * appended behind the incomplete entry.
+	 */
+	public synchronized void open() {
+		if (journalOutputStream != null) {
+			return;
+		}
+		try {
+			if ((completeLength >= 0) && (journalFile.length() > completeLength)) {
+				logger.log(Level.WARNING, "Truncating journal from %d to %d bytes.", new Object[] { journalFile.length(), completeLength });
+				RandomAccessFile journalRandomAccessFile = new RandomAccessFile(journalFile, "rw");
+				try {
+					journalRandomAccessFile.setLength(completeLength);
+					journalRandomAccessFile.getFD().sync();
+				} finally {
+					journalRandomAccessFile.close();
+				}
+			}
+			completeLength = -1;
+			boolean newJournal = !journalFile.exists() || (journalFile.length() == 0);
+			journalFileOutputStream = new FileOutputStream(journalFile, true);
+			journalOutputStream = new DataOutputStream(new BufferedOutputStream(journalFileOutputStream));
+			if (newJournal) {
+				writeHeader(journalOutputStream);
+				journalOutputStream.flush();
+				journalFileOutputStream.getFD().sync();
+			}
+		} catch (IOException ioe1) {
+			logger.log(Level.WARNING, "Could not open journal!", ioe1);
+			close();
+		}
+	}
+
+	/**
+	 * Appends the given entry to the journal. The entry is written and synced
+	 * to disk before this method returns. If the journal is not open, the
+	 * entry is discarded.
+	 *
+	 * @param entry
+	 *            The entry to append
+	 */
+	public synchronized void append(Entry entry) {
+		if (journalOutputStream == null) {
+			return;
+		}
+		try {
+			journalOutputStream.writeInt(entry.getType().ordinal());
+			writeString(journalOutputStream, entry.getSoneId());
+			journalOutputStream.writeLong(entry.getTime());
+			journalOutputStream.writeInt(entry.values.length);
+			for (String value : entry.values) {
+				writeString(journalOutputStream, value);
+			}
+			journalOutputStream.flush();
+			journalFileOutputStream.getFD().sync();
+			++journalEntries;
+		} catch (IOException ioe1) {
+			logger.log(Level.WARNING, "Could not append " + entry.getType() + " to journal!", ioe1);
+		}
+	}
+
+	/**
+	 * Writes the given snapshots as new checkpoint and truncates the journal.
+	 * The caller needs to synchronize on this journal while creating the
+	 * snapshots so that no entry is appended between the creation of the
+	 * snapshots and the truncation of the journal.
+	 *
+	 * @param snapshots
+	 *            The snapshots of all local Sones
+	 * @return {@code true} if the checkpoint was written, {@code false}
+	 *         otherwise
+	 */
+	public synchronized boolean checkpoint(Collection<String> snapshots) {
+		File temporaryFile = getTemporaryCheckpointFile();
+		FileOutputStream fileOutputStream = null;
+		try {
+			fileOutputStream = new FileOutputStream(temporaryFile);
+			DataOutputStream checkpointOutputStream = new DataOutputStream(new BufferedOutputStream(fileOutputStream));
+			writeHeader(checkpointOutputStream);
+			checkpointOutputStream.writeInt(snapshots.size());
+			for (String snapshot : snapshots) {
+				writeString(checkpointOutputStream, snapshot);
+			}
+			checkpointOutputStream.flush();
+			fileOutputStream.getFD().sync();
+			fileOutputStream.close();
+			fileOutputStream = null;
+			if (!temporaryFile.renameTo(checkpointFile)) {
+				/*
+				 * some platforms can not rename over an existing file. the
+				 * complete temporary file is kept, readCheckpoint() falls
+				 * back to it if the node is killed right here.
+				 */
+				checkpointFile.delete();
+				if (!temporaryFile.renameTo(checkpointFile)) {
+					logger.log(Level.WARNING, "Could not rename “%s” to “%s”!", new Object[] { temporaryFile, checkpointFile });
+					return false;
+				}
+			}
+		} catch (IOException ioe1) {
+			logger.log(Level.WARNING, "Could not write checkpoint!", ioe1);
+			Closer.close(fileOutputStream);
+			temporaryFile.delete();
+			return false;
+		}
+		boolean open = journalOutputStream != null;
+		close();
+		journalFile.delete();
+		journalEntries = 0;
+		completeLength = -1;
+		if (open) {
+			open();
+		}
+		logger.log(Level.FINE, "Wrote checkpoint with %d Sones.", new Object[] { snapshots.size() });
+		return true;
+	}
+
+	/**
+	 * Removes the checkpoint and the journal.
+	 */
+	public synchronized void clear() {
+		boolean open = journalOutputStream != null;
+		close();
+		checkpointFile.delete();
+		getTemporaryCheckpointFile().delete();
+		journalFile.delete();
+		journalEntries = 0;
+		completeLength = -1;
+		if (open) {
+			open();
+		}
+	}
+
+	/**
+	 * Closes the journal. Entries that are appended after the journal has
+	 * been closed are discarded.
+	 */
+	public synchronized void close() {
+		Closer.close(journalOutputStream);
+		Closer.close(journalFileOutputStream);
+		journalOutputStream = null;
+		journalFileOutputStream = null;
+	}
+
+	//
+	// PRIVATE METHODS
+	//
+
+	/**
+	 * Returns the temporary file a new checkpoint is written to before it
+	 * replaces the current checkpoint.
+	 *
+	 * @return The temporary checkpoint file
+	 */
+	private File getTemporaryCheckpointFile() {
+		return new File(checkpointFile.getParentFile(), checkpointFile.getName() + ".tmp");
+	}
+
+	/**
+	 * Writes the magic number and the version.
+	 *
+	 * @param dataOutputStream
+	 *            The output stream to write to
+	 * @throws IOException
+	 *             if an I/O error occurs
+	 */
+	private static void writeHeader(DataOutputStream dataOutputStream) throws IOException {
+		dataOutputStream.writeInt(MAGIC);
+		dataOutputStream.writeInt(VERSION);
+	}
+
+	/**
+	 * Reads and verifies the magic number and the version.
+	 *
+	 * @param dataInputStream
+	 *            The input stream to read from
+	 * @return {@code true} if the header is valid, {@code false} otherwise
+	 * @throws IOException
+	 *             if an I/O error occurs
+	 */
+	private static boolean readHeader(DataInputStream dataInputStream) throws IOException {
+		if (dataInputStream.readInt() != MAGIC) {
+			logger.log(Level.WARNING, "Journal file has invalid magic number!");
+			return false;
+		}
+		int version = dataInputStream.readInt();
+		if (version != VERSION) {
+			logger.log(Level.WARNING, "Journal file has unsupported version %d!", new Object[] { version });
+			return false;
+		}
+		return true;
+	}
+
+	/**
+	 * Writes a string that may be {@code null} as the length of its UTF-8
+	 * representation followed by the UTF-8 bytes.
+	 *
+	 * @param dataOutputStream
+	 *            The output stream to write to
+	 * @param string
+	 *            The string to write (may be {@code null})
+	 * @throws IOException
+	 *             if an I/O error occurs
+	 */
+	private static void writeString(DataOutputStream dataOutputStream, String string) throws IOException {
+		if (string == null) {
+			dataOutputStream.writeInt(-1);
+			return;
+		}
+		byte[] bytes = string.getBytes("UTF-8");
+		dataOutputStream.writeInt(bytes.length);
+		dataOutputStream.write(bytes);
+	}
+
+	/**
+	 * Returns the number of bytes
+	 * {@link #writeString(DataOutputStream, String)} writes for the given
+	 * string.
+	 *
+	 * @param string
+	 *            The string (may be {@code null})
+	 * @return The number of bytes written for the string
+	 * @throws IOException
+	 *             if an I/O error occurs
+	 */
+	private static int getStringLength(String string) throws IOException {
+		return 4 + ((string == null) ? 0 : string.getBytes("UTF-8").length);
+	}
+
+	/**
+	 * Reads a string written by {@link #writeString(DataOutputStream, String)}.
+	 *
+	 * @param dataInputStream
+	 *            The input stream to read from
+	 * @return The read string (may be {@code null})
+	 * @throws IOException
+	 *             if an I/O error occurs
+	 */
+	private static String readString(DataInputStream dataInputStream) throws IOException {
+		int length = dataInputStream.readInt();
+		if (length == -1) {
+			return null;
+		}
+		if (length < 0) {
+			throw new IOException("Invalid string length: " + length);
+		}
+		byte[] bytes = new byte[length];
+		dataInputStream.readFully(bytes);
+		return new String(bytes, "UTF-8");
+	}
+
+}
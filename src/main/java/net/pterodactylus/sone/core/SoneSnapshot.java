@@ -0,0 +1,376 @@
+/*
+ * Sone - SoneSnapshot.java - Copyright © 2010 David Roden
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package net.pterodactylus.sone.core;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.MalformedURLException;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import net.pterodactylus.sone.data.Post;
+import net.pterodactylus.sone.data.Profile;
+import net.pterodactylus.sone.data.Reply;
+import net.pterodactylus.sone.data.Sone;
+import net.pterodactylus.util.logging.Logging;
+import freenet.keys.FreenetURI;
+import freenet.support.Base64;
+import freenet.support.IllegalBase64Exception;
+
+/**
+ * Converts a local Sone into a compact snapshot and back. A snapshot contains
+ * everything that is stored about a local Sone — its URIs, its profile, its
+ * posts and replies, its friends, its blocked Sones, and its likes — in a
+ * single length-prefixed binary record that is written and read in one
+ * sequential pass. The record is Base64-encoded so that it can be stored as a
+ * single string in the configuration.
+ *
+ * @author <a href="mailto:bombe@pterodactylus.net">David ‘Bombe’ Roden</a>
+ */
+public class SoneSnapshot {
+
+	/** The logger. */
+	private static final Logger logger = Logging.getLogger(SoneSnapshot.class);
+
+	/** The magic number at the start of every snapshot. */
+	private static final int MAGIC = 0x536f6e65;
+
+	/** The current version of the snapshot format. */
+	private static final int VERSION = 1;
+
+	/**
+	 * Creates a snapshot of the given Sone.
+	 *
+	 * @param sone
+	 *            The Sone to create a snapshot of
+	 * @return The Base64-encoded snapshot
+	 */
+	public static String createSnapshot(Sone sone) {
+		ByteArrayOutputStream byteArrayOutputStream = new ByteArrayOutputStream();
+		DataOutputStream snapshotOutputStream = new DataOutputStream(byteArrayOutputStream);
+		try {
+			snapshotOutputStream.writeInt(MAGIC);
+			snapshotOutputStream.writeInt(VERSION);
+			synchronized (sone) {
+				writeString(snapshotOutputStream, sone.getId());
+				writeString(snapshotOutputStream, sone.getName());
+				snapshotOutputStream.writeLong(sone.getTime());
+				writeString(snapshotOutputStream, sone.getRequestUri().toString());
+				writeString(snapshotOutputStream, sone.getInsertUri().toString());
+				snapshotOutputStream.writeLong(sone.getModificationCounter());
+
+				Profile profile = sone.getProfile();
+				writeString(snapshotOutputStream, profile.getFirstName());
+				writeString(snapshotOutputStream, profile.getMiddleName());
+				writeString(snapshotOutputStream, profile.getLastName());
+				writeInteger(snapshotOutputStream, profile.getBirthDay());
+				writeInteger(snapshotOutputStream, profile.getBirthMonth());
+				writeInteger(snapshotOutputStream, profile.getBirthYear());
+
+				List<Post> posts = sone.getPosts();
+				snapshotOutputStream.writeInt(posts.size());
+				for (Post post : posts) {
+					writeString(snapshotOutputStream, post.getId());
+					snapshotOutputStream.writeLong(post.getTime());
+					writeString(snapshotOutputStream, post.getText());
+				}
+
+				List<Reply> replies = new ArrayList<Reply>(sone.getReplies());
+				snapshotOutputStream.writeInt(replies.size());
+				for (Reply reply : replies) {
+					writeString(snapshotOutputStream, reply.getId());
+					writeString(snapshotOutputStream, reply.getPost().getId());
+					snapshotOutputStream.writeLong(reply.getTime());
+					writeString(snapshotOutputStream, reply.getText());
+				}
+
+				List<Sone> friends = sone.getFriends();
+				snapshotOutputStream.writeInt(friends.size());
+				for (Sone friend : friends) {
+					writeString(snapshotOutputStream, friend.getId());
+					writeString(snapshotOutputStream, friend.getRequestUri().toString());
+					writeString(snapshotOutputStream, friend.getName());
+				}
+
+				writeStrings(snapshotOutputStream, new ArrayList<String>(sone.getBlockedSoneIds()));
+				writeStrings(snapshotOutputStream, new ArrayList<String>(sone.getLikedPostIds()));
+				writeStrings(snapshotOutputStream, new ArrayList<String>(sone.getLikedReplyIds()));
+			}
+			snapshotOutputStream.flush();
+		} catch (IOException ioe1) {
+			/* a ByteArrayOutputStream does not throw. */
+			throw new RuntimeException("Could not write snapshot!", ioe1);
+		}
+		return Base64.encode(byteArrayOutputStream.toByteArray());
+	}
+
+	/**
+	 * Restores a Sone from the given snapshot. The Sone, its posts, its
+	 * replies, and its friends are created using the given core; the Sone is
+	 * not added to the core, and neither its replies nor its likes are
+	 * indexed.
+	 *
+	 * @param core
+	 *            The core to create the Sone, posts, and replies with
+	 * @param snapshot
+	 *            The Base64-encoded snapshot
+	 * @return The restored Sone, or {@code null} if the snapshot could not be
+	 *         restored
+	 */
+	public static Sone restoreSnapshot(Core core, String snapshot) {
+		try {
+			DataInputStream snapshotInputStream = new DataInputStream(new ByteArrayInputStream(Base64.decode(snapshot)));
+			if (snapshotInputStream.readInt() != MAGIC) {
+				logger.log(Level.WARNING, "Snapshot has invalid magic number!");
+				return null;
+			}
+			int version = snapshotInputStream.readInt();
+			if (version != VERSION) {
+				logger.log(Level.WARNING, "Snapshot has unsupported version %d!", new Object[] { version });
+				return null;
+			}
+			String soneId = readString(snapshotInputStream);
+			if (soneId == null) {
+				logger.log(Level.WARNING, "Snapshot has no Sone ID!");
+				return null;
+			}
+			String name = readString(snapshotInputStream);
+			long time = snapshotInputStream.readLong();
+			FreenetURI requestUri = new FreenetURI(readString(snapshotInputStream));
+			FreenetURI insertUri = new FreenetURI(readString(snapshotInputStream));
+			long modificationCounter = snapshotInputStream.readLong();
+
+			Profile profile = new Profile();
+			profile.setFirstName(readString(snapshotInputStream));
+			profile.setMiddleName(readString(snapshotInputStream));
+			profile.setLastName(readString(snapshotInputStream));
+			profile.setBirthDay(readInteger(snapshotInputStream)).setBirthMonth(readInteger(snapshotInputStream)).setBirthYear(readInteger(snapshotInputStream));
+
+			int postCount = readCount(snapshotInputStream);
+			String[] postIds = new String[postCount];
+			long[] postTimes = new long[postCount];
+			String[] postTexts = new String[postCount];
+			for (int postIndex = 0; postIndex < postCount; ++postIndex) {
+				postIds[postIndex] = readString(snapshotInputStream);
+				postTimes[postIndex] = snapshotInputStream.readLong();
+				postTexts[postIndex] = readString(snapshotInputStream);
+			}
+
+			int replyCount = readCount(snapshotInputStream);
+			String[] replyIds = new String[replyCount];
+			String[] replyPostIds = new String[replyCount];
+			long[] replyTimes = new long[replyCount];
+			String[] replyTexts = new String[replyCount];
+			for (int replyIndex = 0; replyIndex < replyCount; ++replyIndex) {
+				replyIds[replyIndex] = readString(snapshotInputStream);
+				replyPostIds[replyIndex] = readString(snapshotInputStream);
+				replyTimes[replyIndex] = snapshotInputStream.readLong();
+				replyTexts[replyIndex] = readString(snapshotInputStream);
+			}
+
+			int friendCount = readCount(snapshotInputStream);
+			String[] friendIds = new String[friendCount];
+			FreenetURI[] friendUris = new FreenetURI[friendCount];
+			String[] friendNames = new String[friendCount];
+			for (int friendIndex = 0; friendIndex < friendCount; ++friendIndex) {
+				friendIds[friendIndex] = readString(snapshotInputStream);
+				friendUris[friendIndex] = new FreenetURI(readString(snapshotInputStream));
+				friendNames[friendIndex] = readString(snapshotInputStream);
+			}
+
+			Set<String> blockedSoneIds = readStrings(snapshotInputStream);
+			Set<String> likedPostIds = readStrings(snapshotInputStream);
+			Set<String> likedReplyIds = readStrings(snapshotInputStream);
+
+			/* the snapshot was decoded completely, now create the Sone. */
+			Sone sone = core.getSone(soneId).setName(name).setTime(time).setRequestUri(requestUri).setInsertUri(insertUri);
+			sone.setProfile(profile);
+			List<Post> posts = new ArrayList<Post>(postCount);
+			for (int postIndex = 0; postIndex < postCount; ++postIndex) {
+				posts.add(core.getPost(postIds[postIndex]).setSone(sone).setTime(postTimes[postIndex]).setText(postTexts[postIndex]));
+			}
+			sone.setPosts(posts);
+			List<Reply> replies = new ArrayList<Reply>(replyCount);
+			for (int replyIndex = 0; replyIndex < replyCount; ++replyIndex) {
+				replies.add(core.getReply(replyIds[replyIndex]).setSone(sone).setPost(core.getPost(replyPostIds[replyIndex])).setTime(replyTimes[replyIndex]).setText(replyTexts[replyIndex]));
+			}
+			sone.setReplies(replies);
+			for (int friendIndex = 0; friendIndex < friendCount; ++friendIndex) {
+				sone.addFriend(core.getSone(friendIds[friendIndex]).setRequestUri(friendUris[friendIndex]).setName(friendNames[friendIndex]));
+			}
+			for (String blockedSoneId : blockedSoneIds) {
+				sone.addBlockedSoneId(blockedSoneId);
+			}
+			sone.setLikePostIds(likedPostIds);
+			sone.setLikeReplyIds(likedReplyIds);
+			sone.setModificationCounter(modificationCounter);
+			return sone;
+		} catch (IllegalBase64Exception ibe1) {
+			logger.log(Level.WARNING, "Snapshot is not valid Base64!", ibe1);
+		} catch (MalformedURLException mue1) {
+			logger.log(Level.WARNING, "Snapshot contains invalid URI!", mue1);
+		} catch (IOException ioe1) {
+			logger.log(Level.WARNING, "Snapshot is truncated!", ioe1);
+		}
+		return null;
+	}
+
+	//
+	// PRIVATE METHODS
+	//
+
+	/**
+	 * Writes a string that may be {@code null}. The string is written as the
+	 * length of its UTF-8 representation followed by the UTF-8 bytes; a
+	 * {@code null} string is written as a length of {@code -1}.
+	 *
+	 * @param dataOutputStream
+	 *            The output stream to write to
+	 * @param string
+	 *            The string to write (may be {@code null})
+	 * @throws IOException
+	 *             if an I/O error occurs
+	 */
+	private static void writeString(DataOutputStream dataOutputStream, String string) throws IOException {
+		if (string == null) {
+			dataOutputStream.writeInt(-1);
+			return;
+		}
+		byte[] bytes = string.getBytes("UTF-8");
+		dataOutputStream.writeInt(bytes.length);
+		dataOutputStream.write(bytes);
+	}
+
+	/**
+	 * Reads a string written by {@link #writeString(DataOutputStream, String)}.
+	 *
+	 * @param dataInputStream
+	 *            The input stream to read from
+	 * @return The read string (may be {@code null})
+	 * @throws IOException
+	 *             if an I/O error occurs
+	 */
+	private static String readString(DataInputStream dataInputStream) throws IOException {
+		int length = dataInputStream.readInt();
+		if (length == -1) {
+			return null;
+		}
+		if ((length < 0) || (length > dataInputStream.available())) {
+			throw new IOException("Invalid string length: " + length);
+		}
+		byte[] bytes = new byte[length];
+		dataInputStream.readFully(bytes);
+		return new String(bytes, "UTF-8");
+	}
+
+	/**
+	 * Reads the number of the following elements. As every element takes at
+	 * least one byte, a count that is larger than the number of remaining
+	 * bytes can only be read from a corrupt snapshot.
+	 *
+	 * @param dataInputStream
+	 *            The input stream to read from
+	 * @return The read count
+	 * @throws IOException
+	 *             if an I/O error occurs, or the count is invalid
+	 */
+	private static int readCount(DataInputStream dataInputStream) throws IOException {
+		int count = dataInputStream.readInt();
+		if ((count < 0) || (count > dataInputStream.available())) {
+			throw new IOException("Invalid count: " + count);
+		}
+		return count;
+	}
+
+	/**
+	 * Writes an integer that may be {@code null}.
+	 *
+	 * @param dataOutputStream
+	 *            The output stream to write to
+	 * @param integer
+	 *            The integer to write (may be {@code null})
+	 * @throws IOException
+	 *             if an I/O error occurs
+	 */
+	private static void writeInteger(DataOutputStream dataOutputStream, Integer integer) throws IOException {
+		dataOutputStream.writeBoolean(integer != null);
+		if (integer != null) {
+			dataOutputStream.writeInt(integer);
+		}
+	}
+
+	/**
+	 * Reads an integer written by
+	 * {@link #writeInteger(DataOutputStream, Integer)}.
+	 *
+	 * @param dataInputStream
+	 *            The input stream to read from
+	 * @return The read integer (may be {@code null})
+	 * @throws IOException
+	 *             if an I/O error occurs
+	 */
+	private static Integer readInteger(DataInputStream dataInputStream) throws IOException {
+		if (!dataInputStream.readBoolean()) {
+			return null;
+		}
+		return dataInputStream.readInt();
+	}
+
+	/**
+	 * Writes the number of strings followed by the strings.
+	 *
+	 * @param dataOutputStream
+	 *            The output stream to write to
+	 * @param strings
+	 *            The strings to write
+	 * @throws IOException
+	 *             if an I/O error occurs
+	 */
+	private static void writeStrings(DataOutputStream dataOutputStream, List<String> strings) throws IOException {
+		dataOutputStream.writeInt(strings.size());
+		for (String string : strings) {
+			writeString(dataOutputStream, string);
+		}
+	}
+
+	/**
+	 * Reads strings written by {@link #writeStrings(DataOutputStream, List)}.
+	 *
+	 * @param dataInputStream
+	 *            The input stream to read from
+	 * @return The read strings
+	 * @throws IOException
+	 *             if an I/O error occurs
+	 */
+	private static Set<String> readStrings(DataInputStream dataInputStream) throws IOException {
+		int count = readCount(dataInputStream);
+		Set<String> strings = new HashSet<String>();
+		for (int index = 0; index < count; ++index) {
+			strings.add(readString(dataInputStream));
+		}
+		return strings;
+	}
+
+}
@@ -0,0 +1,377 @@
+/*
+ * Sone - SoneStore.java - Copyright © 2010 David Roden
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package net.pterodactylus.sone.core;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UnsupportedEncodingException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import net.pterodactylus.sone.data.Sone;
+import net.pterodactylus.util.io.Closer;
+import net.pterodactylus.util.logging.Logging;
+import freenet.support.api.Bucket;
+
+/**
+ * Stores the last downloaded document of remote Sones on disk so that they can
+ * be restored after a restart without having to fetch them from Freenet
+ * again. Every Sone is stored in a file named after its ID and the edition
+ * the document was fetched from, e.g. “ID.123.xml”. The archives of a Sone are
+ * stored next to it, in files named after the ID of the Sone and a hash of
+ * the key of the archive, e.g. “ID.0123abcd….archive”, so that a restored Sone
+ * does not have to fetch its archives again.
+ *
+ * @author <a href="mailto:bombe@pterodactylus.net">David ‘Bombe’ Roden</a>
+ */
+public class SoneStore {
+
+	/** The logger. */
+	private static final Logger logger = Logging.getLogger(SoneStore.class);
+
+	/** The directory the Sones are stored in. */
+	private final File directory;
+
+	/** The stored editions, indexed by Sone ID. */
+	private final Map<String, Long> editions = Collections.synchronizedMap(new HashMap<String, Long>());
+
+	/**
+	 * Creates a new Sone store that stores its files in the given directory.
+	 * The directory is created if it does not exist yet.
+	 *
+	 * @param directory
+	 *            The directory to store the Sones in
+	 */
+	public SoneStore(File directory) {
+		this.directory = directory;
+		if (!directory.exists() && !directory.mkdirs()) {
+			logger.log(Level.WARNING, "Could not create Sone store directory “%s”!", new Object[] { directory });
+		}
+		scanDirectory();
+	}
+
+	//
+	// ACCESSORS
+	//
+
+	/**
+	 * Returns the edition of the given Sone that is stored.
+	 *
+	 * @param sone
+	 *            The Sone to get the stored edition for
+	 * @return The stored edition, or {@code -1} if the Sone is not stored
+	 */
+	public long getEdition(Sone sone) {
+		Long edition = editions.get(sone.getId());
+		return (edition == null) ? -1 : edition;
+	}
+
+	/**
+	 * Returns an input stream for the stored document of the given Sone.
+	 *
+	 * @param sone
+	 *            The Sone to get the document for
+	 * @return An input stream for the stored document, or {@code null} if the
+	 *         Sone is not stored
+	 * @throws IOException
+	 *             if the document can not be opened
+	 */
+	public InputStream getInputStream(Sone sone) throws IOException {
+		long edition = getEdition(sone);
+		if (edition < 0) {
+			return null;
+		}
+		try {
+			return new FileInputStream(getFile(sone.getId(), edition));
+		} catch (FileNotFoundException fnfe1) {
+			editions.remove(sone.getId());
+			return null;
+		}
+	}
+
+	/**
+	 * Returns an input stream for the stored archive with the given key of
+	 * the given Sone.
+	 *
+	 * @param sone
+	 *            The Sone the archive belongs to
+	 * @param archiveKey
+	 *            The key of the archive
+	 * @return An input stream for the stored archive, or {@code null} if the
+	 *         archive is not stored
+	 */
+	public InputStream getArchiveInputStream(Sone sone, String archiveKey) {
+		try {
+			return new FileInputStream(getArchiveFile(sone.getId(), archiveKey));
+		} catch (FileNotFoundException fnfe1) {
+			return null;
+		}
+	}
+
+	/**
+	 * Returns the size of the stored archive with the given key of the given
+	 * Sone.
+	 *
+	 * @param sone
+	 *            The Sone the archive belongs to
+	 * @param archiveKey
+	 *            The key of the archive
+	 * @return The size of the archive (in bytes), or {@code 0} if the archive
+	 *         is not stored
+	 */
+	public long getArchiveSize(Sone sone, String archiveKey) {
+		return getArchiveFile(sone.getId(), archiveKey).length();
+	}
+
+	//
+	// ACTIONS
+	//
+
+	/**
+	 * Stores the given document as the given edition of the given Sone,
+	 * replacing any previously stored edition.
+	 *
+	 * @param sone
+	 *            The Sone to store
+	 * @param edition
+	 *            The edition of the document
+	 * @param soneBucket
+	 *            The bucket containing the document
+	 */
+	public void storeSone(Sone sone, long edition, Bucket soneBucket) {
+		File temporaryFile = new File(directory, sone.getId() + ".tmp");
+		try {
+			writeFile(soneBucket, temporaryFile);
+			synchronized (editions) {
+				long oldEdition = getEdition(sone);
+				if (oldEdition > edition) {
+					return;
+				}
+				File soneFile = getFile(sone.getId(), edition);
+				soneFile.delete();
+				if (!temporaryFile.renameTo(soneFile)) {
+					logger.log(Level.WARNING, "Could not rename “%s” to “%s”!", new Object[] { temporaryFile, soneFile });
+					return;
+				}
+				if ((oldEdition > -1) && (oldEdition != edition)) {
+					getFile(sone.getId(), oldEdition).delete();
+				}
+				editions.put(sone.getId(), edition);
+			}
+			logger.log(Level.FINEST, "Stored edition %d of Sone “%s”.", new Object[] { edition, sone });
+		} catch (IOException ioe1) {
+			logger.log(Level.WARNING, "Could not store Sone “" + sone + "”!", ioe1);
+		} finally {
+			temporaryFile.delete();
+		}
+	}
+
+	/**
+	 * Stores the given archive of the given Sone.
+	 *
+	 * @param sone
+	 *            The Sone the archive belongs to
+	 * @param archiveKey
+	 *            The key of the archive
+	 * @param archiveBucket
+	 *            The bucket containing the archive
+	 */
+	public void storeArchive(Sone sone, String archiveKey, Bucket archiveBucket) {
+		File archiveFile = getArchiveFile(sone.getId(), archiveKey);
+		File temporaryFile = new File(directory, archiveFile.getName() + ".tmp");
+		try {
+			writeFile(archiveBucket, temporaryFile);
+			archiveFile.delete();
+			if (!temporaryFile.renameTo(archiveFile)) {
+				logger.log(Level.WARNING, "Could not rename “%s” to “%s”!", new Object[] { temporaryFile, archiveFile });
+			}
+		} catch (IOException ioe1) {
+			logger.log(Level.WARNING, "Could not store archive of Sone “" + sone + "”!", ioe1);
+		} finally {
+			temporaryFile.delete();
+		}
+	}
+
+	/**
+	 * Removes all stored archives of the given Sone whose keys are not
+	 * contained in the given set of keys.
+	 *
+	 * @param sone
+	 *            The Sone whose archives to remove
+	 * @param archiveKeys
+	 *            The keys of the archives to keep
+	 */
+	public void retainArchives(Sone sone, Set<String> archiveKeys) {
+		Set<String> retainedFilenames = new HashSet<String>();
+		for (String archiveKey : archiveKeys) {
+			retainedFilenames.add(getArchiveFile(sone.getId(), archiveKey).getName());
+		}
+		String prefix = sone.getId() + ".";
+		File[] files = directory.listFiles();
+		if (files == null) {
+			return;
+		}
+		for (File file : files) {
+			String filename = file.getName();
+			if (filename.startsWith(prefix) && filename.endsWith(".archive") && !retainedFilenames.contains(filename)) {
+				file.delete();
+			}
+		}
+	}
+
+	/**
+	 * Removes the stored document and all stored archives of the given Sone.
+	 *
+	 * @param sone
+	 *            The Sone to remove
+	 */
+	public void removeSone(Sone sone) {
+		synchronized (editions) {
+			Long edition = editions.remove(sone.getId());
+			if (edition != null) {
+				getFile(sone.getId(), edition).delete();
+			}
+		}
+		retainArchives(sone, Collections.<String> emptySet());
+	}
+
+	//
+	// PRIVATE METHODS
+	//
+
+	/**
+	 * Returns the file for the given edition of the Sone with the given ID.
+	 *
+	 * @param soneId
+	 *            The ID of the Sone
+	 * @param edition
+	 *            The edition of the Sone
+	 * @return The file for the Sone
+	 */
+	private File getFile(String soneId, long edition) {
+		return new File(directory, soneId + "." + edition + ".xml");
+	}
+
+	/**
+	 * Returns the file for the archive with the given key of the Sone with
+	 * the given ID. As archive keys can contain characters that are not
+	 * allowed in file names, the file is named after the SHA-256 hash of the
+	 * key.
+	 *
+	 * @param soneId
+	 *            The ID of the Sone
+	 * @param archiveKey
+	 *            The key of the archive
+	 * @return The file for the archive
+	 */
+	private File getArchiveFile(String soneId, String archiveKey) {
+		StringBuilder archiveName = new StringBuilder(soneId).append('.');
+		try {
+			for (byte digestByte : MessageDigest.getInstance("SHA-256").digest(archiveKey.getBytes("UTF-8"))) {
+				archiveName.append(Character.forDigit((digestByte >> 4) & 0x0f, 16)).append(Character.forDigit(digestByte & 0x0f, 16));
+			}
+		} catch (NoSuchAlgorithmException nsae1) {
+			/* every Java platform has to support SHA-256. */
+			throw new RuntimeException("SHA-256 is not available!", nsae1);
+		} catch (UnsupportedEncodingException uee1) {
+			/* every Java platform has to support UTF-8. */
+			throw new RuntimeException("UTF-8 is not available!", uee1);
+		}
+		return new File(directory, archiveName.append(".archive").toString());
+	}
+
+	/**
+	 * Writes the contents of the given bucket to the given file.
+	 *
+	 * @param bucket
+	 *            The bucket to write
+	 * @param file
+	 *            The file to write to
+	 * @throws IOException
+	 *             if an I/O error occurs
+	 */
+	private static void writeFile(Bucket bucket, File file) throws IOException {
+		InputStream bucketInputStream = null;
+		OutputStream fileOutputStream = null;
+		try {
+			bucketInputStream = bucket.getInputStream();
+			fileOutputStream = new FileOutputStream(file);
+			byte[] buffer = new byte[65536];
+			int read;
+			while ((read = bucketInputStream.read(buffer)) != -1) {
+				fileOutputStream.write(buffer, 0, read);
+			}
+			fileOutputStream.close();
+			fileOutputStream = null;
+		} finally {
+			Closer.close(bucketInputStream);
+			Closer.close(fileOutputStream);
+		}
+	}
+
+	/**
+	 * Scans the store directory for stored Sones. If there is more than one
+	 * file for a Sone, only the one with the highest edition is kept.
+	 */
+	private void scanDirectory() {
+		File[] files = directory.listFiles();
+		if (files == null) {
+			return;
+		}
+		for (File file : files) {
+			String filename = file.getName();
+			if (!filename.endsWith(".xml")) {
+				continue;
+			}
+			int editionStart = filename.lastIndexOf('.', filename.length() - 5);
+			if (editionStart < 1) {
+				continue;
+			}
+			String soneId = filename.substring(0, editionStart);
+			long edition;
+			try {
+				edition = Long.parseLong(filename.substring(editionStart + 1, filename.length() - 4));
+			} catch (NumberFormatException nfe1) {
+				continue;
+			}
+			Long oldEdition = editions.get(soneId);
+			if ((oldEdition != null) && (oldEdition >= edition)) {
+				file.delete();
+				continue;
+			}
+			if (oldEdition != null) {
+				getFile(soneId, oldEdition).delete();
+			}
+			editions.put(soneId, edition);
+		}
+		logger.log(Level.INFO, "Found %d stored Sones in “%s”.", new Object[] { editions.size(), directory });
+	}
+
+}
@@ -0,0 +1,308 @@
+/*
+ * Sone - SoneXmlSerializer.java - Copyright © 2010 David Roden
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package net.pterodactylus.sone.core;
+
+import java.io.BufferedWriter;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.StringWriter;
+import java.io.Writer;
+import java.nio.charset.Charset;
+import java.util.Collection;
+import java.util.List;
+
+import net.pterodactylus.sone.data.Post;
+import net.pterodactylus.sone.data.Profile;
+import net.pterodactylus.sone.data.Reply;
+
+/**
+ * Writes the “sone.xml” document of a Sone. The document is written directly
+ * as UTF-8 in a single pass; its layout, including all whitespace, is the same
+ * as that of the “sone.xml” template the document used to be rendered from.
+ * <p>
+ * Older posts and replies of a Sone can be moved into archive documents that
+ * are inserted separately; the “sone.xml” document then lists the keys of the
+ * archives in an “archives” section.
+ *
+ * @author <a href="mailto:bombe@pterodactylus.net">David ‘Bombe’ Roden</a>
+ */
+public class SoneXmlSerializer {
+
+	/** The UTF-8 charset. */
+	private static final Charset utf8Charset = Charset.forName("UTF-8");
+
+	/**
+	 * Creates the “sone.xml” document for the given data.
+	 *
+	 * @param soneId
+	 *            The ID of the Sone
+	 * @param name
+	 *            The name of the Sone
+	 * @param time
+	 *            The time of the Sone
+	 * @param profile
+	 *            The profile of the Sone
+	 * @param posts
+	 *            The posts of the Sone
+	 * @param replies
+	 *            The replies of the Sone
+	 * @param likedPostIds
+	 *            The IDs of the posts the Sone likes
+	 * @param likedReplyIds
+	 *            The IDs of the replies the Sone likes
+	 * @param knownSonesSection
+	 *            The known Sones section, as created by
+	 *            {@link #serializeKnownSones(List)}
+	 * @param archiveKeys
+	 *            The keys of the archives that contain the older posts and
+	 *            replies of the Sone (may be empty)
+	 * @return The UTF-8 encoded document
+	 */
+	public static byte[] serialize(String soneId, String name, long time, Profile profile, Collection<Post> posts, Collection<Reply> replies, Collection<String> likedPostIds, Collection<String> likedReplyIds, String knownSonesSection, Collection<String> archiveKeys) {
+		ByteArrayOutputStream byteArrayOutputStream = new ByteArrayOutputStream(4096 + posts.size() * 256 + replies.size() * 256);
+		Writer writer = new BufferedWriter(new OutputStreamWriter(byteArrayOutputStream, utf8Charset), 8192);
+		try {
+			writer.write("<?xml version=\"1.0\" encoding=\"utf-8\" ?>\n<sone>\n\n");
+			writer.write("\t<id>");
+			writer.write(String.valueOf(soneId));
+			writer.write("</id>\n\t<name>");
+			writeXml(writer, name);
+			writer.write("</name>\n\t<time>");
+			writer.write(String.valueOf(time));
+			writer.write("</time>\n\n");
+
+			writer.write("\t<profile>\n\t\t<first-name>");
+			writeXml(writer, profile.getFirstName());
+			writer.write("</first-name>\n\t\t<middle-name>");
+			writeXml(writer, profile.getMiddleName());
+			writer.write("</middle-name>\n\t\t<last-name>");
+			writeXml(writer, profile.getLastName());
+			writer.write("</last-name>\n\t\t<birth-day>");
+			writeXml(writer, profile.getBirthDay());
+			writer.write("</birth-day>\n\t\t<birth-month>");
+			writeXml(writer, profile.getBirthMonth());
+			writer.write("</birth-month>\n\t\t<birth-year>");
+			writeXml(writer, profile.getBirthYear());
+			writer.write("</birth-year>\n\t</profile>\n\n");
+
+			writer.write("\t<posts>\n\t\t");
+			for (Post post : posts) {
+				writePost(writer, post);
+			}
+			writer.write("\n\t</posts>\n\n");
+
+			writer.write("\t<replies>\n\t\t");
+			for (Reply reply : replies) {
+				writeReply(writer, reply);
+			}
+			writer.write("\n\t</replies>\n\n");
+
+			writer.write("\t<post-likes>\n\t\t");
+			for (String likedPostId : likedPostIds) {
+				writer.write("\n\t\t<post-like>");
+				writeXml(writer, likedPostId);
+				writer.write("</post-like>\n\t\t");
+			}
+			writer.write("\n\t</post-likes>\n\n");
+
+			writer.write("\t<reply-likes>\n\t\t");
+			for (String likedReplyId : likedReplyIds) {
+				writer.write("\n\t\t<reply-like>");
+				writeXml(writer, likedReplyId);
+				writer.write("</reply-like>\n\t\t");
+			}
+			writer.write("\n\t</reply-likes>\n\n");
+
+			writer.write(knownSonesSection);
+
+			if (!archiveKeys.isEmpty()) {
+				writer.write("\t<archives>\n\t\t");
+				for (String archiveKey : archiveKeys) {
+					writer.write("\n\t\t<archive>");
+					writeXml(writer, archiveKey);
+					writer.write("</archive>\n\t\t");
+				}
+				writer.write("\n\t</archives>\n\n");
+			}
+			writer.write("</sone>\n");
+			writer.flush();
+		} catch (IOException ioe1) {
+			/* a ByteArrayOutputStream does not throw. */
+			throw new RuntimeException("Could not write Sone document!", ioe1);
+		}
+		return byteArrayOutputStream.toByteArray();
+	}
+
+	/**
+	 * Creates the known Sones section of a Sone document. The section can be
+	 * created once and then be reused for every document that lists the same
+	 * known Sones.
+	 *
+	 * @param knownSones
+	 *            The ID, request URI, and name of every known Sone
+	 * @return The known Sones section
+	 */
+	public static String serializeKnownSones(List<String[]> knownSones) {
+		StringWriter writer = new StringWriter(64 + knownSones.size() * 256);
+		try {
+			writer.write("\t<known-sones>\n\t\t");
+			for (String[] knownSone : knownSones) {
+				writer.write("\n\t\t<known-sone>\n\t\t\t<sone-id>");
+				writeXml(writer, knownSone[0]);
+				writer.write("</sone-id>\n\t\t\t<sone-key>");
+				writeXml(writer, knownSone[1]);
+				writer.write("</sone-key>\n\t\t\t<sone-name>");
+				writeXml(writer, knownSone[2]);
+				writer.write("</sone-name>\n\t\t</known-sone>\n\t\t");
+			}
+			writer.write("\n\t</known-sones>\n\n");
+		} catch (IOException ioe1) {
+			/* a StringWriter does not throw. */
+			throw new RuntimeException("Could not write known Sones!", ioe1);
+		}
+		return writer.toString();
+	}
+
+	/**
+	 * Creates an archive document that contains the given posts and replies.
+	 * The document only depends on the given data so that the same posts and
+	 * replies always result in the same document.
+	 *
+	 * @param soneId
+	 *            The ID of the Sone
+	 * @param posts
+	 *            The posts to archive
+	 * @param replies
+	 *            The replies to archive
+	 * @return The UTF-8 encoded archive document
+	 */
+	public static byte[] serializeArchive(String soneId, Collection<Post> posts, Collection<Reply> replies) {
+		ByteArrayOutputStream byteArrayOutputStream = new ByteArrayOutputStream(1024 + posts.size() * 256 + replies.size() * 256);
+		Writer writer = new BufferedWriter(new OutputStreamWriter(byteArrayOutputStream, utf8Charset), 8192);
+		try {
+			writer.write("<?xml version=\"1.0\" encoding=\"utf-8\" ?>\n<sone-archive>\n\n");
+			writer.write("\t<id>");
+			writeXml(writer, soneId);
+			writer.write("</id>\n\n");
+
+			writer.write("\t<posts>\n\t\t");
+			for (Post post : posts) {
+				writePost(writer, post);
+			}
+			writer.write("\n\t</posts>\n\n");
+
+			writer.write("\t<replies>\n\t\t");
+			for (Reply reply : replies) {
+				writeReply(writer, reply);
+			}
+			writer.write("\n\t</replies>\n\n</sone-archive>\n");
+			writer.flush();
+		} catch (IOException ioe1) {
+			/* a ByteArrayOutputStream does not throw. */
+			throw new RuntimeException("Could not write archive document!", ioe1);
+		}
+		return byteArrayOutputStream.toByteArray();
+	}
+
+	//
+	// PRIVATE METHODS
+	//
+
+	/**
+	 * Writes the given post.
+	 *
+	 * @param writer
+	 *            The writer to write to
+	 * @param post
+	 *            The post to write
+	 * @throws IOException
+	 *             if an I/O error occurs
+	 */
+	private static void writePost(Writer writer, Post post) throws IOException {
+		writer.write("\n\t\t<post>\n\t\t\t<id>");
+		writeXml(writer, post.getId());
+		writer.write("</id>\n\t\t\t<time>");
+		writer.write(String.valueOf(post.getTime()));
+		writer.write("</time>\n\t\t\t<text>");
+		writeXml(writer, post.getText());
+		writer.write("</text>\n\t\t</post>\n\t\t");
+	}
+
+	/**
+	 * Writes the given reply.
+	 *
+	 * @param writer
+	 *            The writer to write to
+	 * @param reply
+	 *            The reply to write
+	 * @throws IOException
+	 *             if an I/O error occurs
+	 */
+	private static void writeReply(Writer writer, Reply reply) throws IOException {
+		writer.write("\n\t\t<reply>\n\t\t\t<id>");
+		writer.write(String.valueOf(reply.getId()));
+		writer.write("</id>\n\t\t\t<post-id>");
+		writeXml(writer, reply.getPost().getId());
+		writer.write("</post-id>\n\t\t\t<time>");
+		writer.write(String.valueOf(reply.getTime()));
+		writer.write("</time>\n\t\t\t<text>");
+		writeXml(writer, reply.getText());
+		writer.write("</text>\n\t\t</reply>\n\t\t");
+	}
+
+	/**
+	 * Writes the given value with the characters that have a special meaning
+	 * in XML replaced by entities, the same way the “xml” template filter
+	 * does.
+	 *
+	 * @param writer
+	 *            The writer to write to
+	 * @param value
+	 *            The value to write
+	 * @throws IOException
+	 *             if an I/O error occurs
+	 */
+	private static void writeXml(Writer writer, Object value) throws IOException {
+		String string = String.valueOf(value);
+		int length = string.length();
+		for (int index = 0; index < length; ++index) {
+			char character = string.charAt(index);
+			switch (character) {
+			case '&':
+				writer.write("&amp;");
+				break;
+			case '<':
+				writer.write("&lt;");
+				break;
+			case '>':
+				writer.write("&gt;");
+				break;
+			case '"':
+				writer.write("&quot;");
+				break;
+			case '\'':
+				writer.write("&apos;");
+				break;
+			default:
+				writer.write(character);
+			}
+		}
+	}
+
+}
@@ -0,0 +1,177 @@
+/*
+ * Sone - Timeline.java - Copyright © 2010 David Roden
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package net.pterodactylus.sone.core;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.TreeMap;
+
+import net.pterodactylus.sone.data.Post;
+
+/**
+ * A timeline contains the posts of a local Sone and all of its friends,
+ * sorted by time, newest first. The posts are kept in a sorted map so that
+ * adding or removing a post only costs O(log n). Readers get an immutable
+ * snapshot of the sorted posts; the snapshot is created on the first read
+ * after a modification, so a burst of modifications (e.g. when a downloaded
+ * Sone is imported) only costs a single copy of the list.
+ *
+ * @author <a href="mailto:bombe@pterodactylus.net">David ‘Bombe’ Roden</a>
+ */
+public class Timeline {
+
+	/**
+	 * The keys of the contained posts. A post is sorted by the time it had
+	 * when it was added; a post whose time changes has to be removed and
+	 * added again.
+	 */
+	private final Map<Post, PostKey> containedPosts = new HashMap<Post, PostKey>();
+
+	/** The posts, sorted by time, newest first. */
+	private final SortedMap<PostKey, Post> sortedPosts = new TreeMap<PostKey, Post>();
+
+	/** The snapshot of the sorted posts, or {@code null} if it is outdated. */
+	private volatile List<Post> posts = Collections.emptyList();
+
+	//
+	// ACCESSORS
+	//
+
+	/**
+	 * Returns all posts of this timeline, sorted by time, newest first. The
+	 * returned list is not modifiable and will not reflect later changes.
+	 *
+	 * @return All posts of this timeline
+	 */
+	public List<Post> getPosts() {
+		List<Post> posts = this.posts;
+		if (posts != null) {
+			return posts;
+		}
+		synchronized (this) {
+			if (this.posts == null) {
+				this.posts = Collections.unmodifiableList(new ArrayList<Post>(sortedPosts.values()));
+			}
+			return this.posts;
+		}
+	}
+
+	//
+	// ACTIONS
+	//
+
+	/**
+	 * Adds the given posts to this timeline. Posts that are already contained
+	 * in this timeline are ignored.
+	 *
+	 * @param newPosts
+	 *            The posts to add
+	 */
+	public synchronized void addPosts(Collection<Post> newPosts) {
+		for (Post post : newPosts) {
+			if (containedPosts.containsKey(post)) {
+				continue;
+			}
+			PostKey postKey = new PostKey(post);
+			containedPosts.put(post, postKey);
+			sortedPosts.put(postKey, post);
+			posts = null;
+		}
+	}
+
+	/**
+	 * Removes the given posts from this timeline.
+	 *
+	 * @param oldPosts
+	 *            The posts to remove
+	 */
+	public synchronized void removePosts(Collection<Post> oldPosts) {
+		for (Post post : oldPosts) {
+			PostKey postKey = containedPosts.remove(post);
+			if (postKey != null) {
+				sortedPosts.remove(postKey);
+				posts = null;
+			}
+		}
+	}
+
+	/**
+	 * The sort key of a post in the timeline. It stores the time of the post
+	 * at the time it was added so that the post can be found again even if
+	 * its time has changed in the meantime.
+	 *
+	 * @author <a href="mailto:bombe@pterodactylus.net">David ‘Bombe’ Roden</a>
+	 */
+	private static class PostKey implements Comparable<PostKey> {
+
+		/** The time of the post. */
+		private final long time;
+
+		/** The ID of the post. */
+		private final String id;
+
+		/**
+		 * Creates a new sort key for the given post.
+		 *
+		 * @param post
+		 *            The post to create the sort key for
+		 */
+		public PostKey(Post post) {
+			this.time = post.getTime();
+			this.id = post.getId();
+		}
+
+		/**
+		 * {@inheritDoc}
+		 */
+		@Override
+		public int compareTo(PostKey postKey) {
+			if (time != postKey.time) {
+				return (time > postKey.time) ? -1 : 1;
+			}
+			return id.compareTo(postKey.id);
+		}
+
+		/**
+		 * {@inheritDoc}
+		 */
+		@Override
+		public int hashCode() {
+			return id.hashCode() ^ (int) time;
+		}
+
+		/**
+		 * {@inheritDoc}
+		 */
+		@Override
+		public boolean equals(Object object) {
+			if (!(object instanceof PostKey)) {
+				return false;
+			}
+			PostKey postKey = (PostKey) object;
+			return (time == postKey.time) && id.equals(postKey.id);
+		}
+
+	}
+
+}
@@ -45,6 +45,29 @@ public class Sone {
 	/** The logger. */
 	private static final Logger logger = Logging.getLogger(Sone.class);
 
+	/** Comparator that sorts Sones by their nice name. */
+	private static final Comparator<Sone> niceNameComparator = new Comparator<Sone>() {
+
+		@Override
+		public int compare(Sone leftSone, Sone rightSone) {
+			int diff = SoneAccessor.getNiceName(leftSone).compareToIgnoreCase(SoneAccessor.getNiceName(rightSone));
+			if (diff != 0) {
+				return diff;
+			}
+			return (int) Math.max(Integer.MIN_VALUE, Math.min(Integer.MAX_VALUE, rightSone.getTime() - leftSone.getTime()));
+		}
+	};
+
+	/** Comparator that sorts posts by time, newest first. */
+	private static final Comparator<Post> postTimeComparator = new Comparator<Post>() {
+
+		@Override
+		public int compare(Post leftPost, Post rightPost) {
+			return (int) Math.max(Integer.MIN_VALUE, Math.min(Integer.MAX_VALUE, rightPost.getTime() - leftPost.getTime()));
+		}
+
+	};
+
 	/** A GUID for this Sone. */
 	private final UUID id;
 
@@ -67,9 +90,15 @@ public class Sone {
 	/** All friend Sones. */
 	private final Set<Sone> friendSones = Collections.synchronizedSet(new HashSet<Sone>());
 
+	/** The sorted friend Sones, or {@code null} if the friends have changed. */
+	private volatile List<Sone> sortedFriendSones;
+
 	/** All posts. */
 	private final Set<Post> posts = Collections.synchronizedSet(new HashSet<Post>());
 
+	/** The sorted posts, or {@code null} if the posts have changed. */
+	private volatile List<Post> sortedPosts;
+
 	/** All replies. */
 	private final Set<Reply> replies = Collections.synchronizedSet(new HashSet<Reply>());
 
@@ -241,23 +270,24 @@ public class Sone {
 	}
 
 	/**
-	 * Returns all friend Sones of this Sone.
+	 * Returns all friend Sones of this Sone, sorted by their nice name. The
+	 * returned list is not modifiable.
+	 * <p>
+	 * The sorted list is cached until the friends of this Sone change. As the
+	 * names of the friends can change at any time the cached list is checked
+	 * for the correct order and only sorted again if necessary.
 	 *
 	 * @return The friend Sones of this Sone
 	 */
 	public List<Sone> getFriends() {
-		List<Sone> friends = new ArrayList<Sone>(friendSones);
-		Collections.sort(friends, new Comparator<Sone>() {
-
-			@Override
-			public int compare(Sone leftSone, Sone rightSone) {
-				int diff = SoneAccessor.getNiceName(leftSone).compareToIgnoreCase(SoneAccessor.getNiceName(rightSone));
-				if (diff != 0) {
-					return diff;
-				}
-				return (int) Math.max(Integer.MIN_VALUE, Math.min(Integer.MAX_VALUE, rightSone.getTime() - leftSone.getTime()));
-			}
-		});
+		List<Sone> friends = sortedFriendSones;
+		if ((friends != null) && isSorted(friends, niceNameComparator)) {
+			return friends;
+		}
+		List<Sone> newFriends = new ArrayList<Sone>(friendSones);
+		Collections.sort(newFriends, niceNameComparator);
+		friends = Collections.unmodifiableList(newFriends);
+		sortedFriendSones = friends;
 		return friends;
 	}
 
@@ -271,6 +301,7 @@ public class Sone {
 	public Sone setFriends(Collection<Sone> friends) {
 		friendSones.clear();
 		friendSones.addAll(friends);
+		sortedFriendSones = null;
 		return this;
 	}
 
@@ -294,8 +325,8 @@ public class Sone {
 	 * @return This Sone (for method chaining)
 	 */
 	public Sone addFriend(Sone friendSone) {
-		if (!friendSone.equals(this)) {
-			friendSones.add(friendSone);
+		if (!friendSone.equals(this) && friendSones.add(friendSone)) {
+			sortedFriendSones = null;
 		}
 		return this;
 	}
@@ -308,26 +339,32 @@ public class Sone {
 	 * @return This Sone (for method chaining)
 	 */
 	public Sone removeFriend(Sone friendSone) {
-		friendSones.remove(friendSone);
+		if (friendSones.remove(friendSone)) {
+			sortedFriendSones = null;
+		}
 		return this;
 	}
 
 	/**
 	 * Returns the list of posts of this Sone, sorted by time, newest first.
+	 * The returned list is not modifiable; it is cached until the posts of
+	 * this Sone change.
 	 *
 	 * @return All posts of this Sone
 	 */
 	public List<Post> getPosts() {
-		List<Post> sortedPosts = new ArrayList<Post>(posts);
-		Collections.sort(sortedPosts, new Comparator<Post>() {
-
-			@Override
-			public int compare(Post leftPost, Post rightPost) {
-				return (int) Math.max(Integer.MIN_VALUE, Math.min(Integer.MAX_VALUE, rightPost.getTime() - leftPost.getTime()));
+		List<Post> posts = sortedPosts;
+		if (posts != null) {
+			return posts;
+		}
+		synchronized (this) {
+			if (sortedPosts == null) {
+				List<Post> newPosts = new ArrayList<Post>(this.posts);
+				Collections.sort(newPosts, postTimeComparator);
+				sortedPosts = Collections.unmodifiableList(newPosts);
 			}
-
-		});
-		return sortedPosts;
+			return sortedPosts;
+		}
 	}
 
 	/**
@@ -340,6 +377,7 @@ public class Sone {
 	public synchronized Sone setPosts(Collection<Post> posts) {
 		this.posts.clear();
 		this.posts.addAll(posts);
+		sortedPosts = null;
 		modificationCounter++;
 		return this;
 	}
@@ -354,6 +392,7 @@ public class Sone {
 	public synchronized void addPost(Post post) {
 		if (post.getSone().equals(this) && posts.add(post)) {
 			logger.log(Level.FINEST, "Adding %s to “%s”.", new Object[] { post, getName() });
+			sortedPosts = null;
 			modificationCounter++;
 		}
 	}
@@ -366,10 +405,23 @@ public class Sone {
 	 */
 	public synchronized void removePost(Post post) {
 		if (post.getSone().equals(this) && posts.remove(post)) {
+			sortedPosts = null;
 			modificationCounter++;
 		}
 	}
 
+	/**
+	 * Returns whether this Sone contains the given post.
+	 *
+	 * @param post
+	 *            The post to check for
+	 * @return {@code true} if this Sone contains the given post, {@code false}
+	 *         otherwise
+	 */
+	public boolean hasPost(Post post) {
+		return posts.contains(post);
+	}
+
 	/**
 	 * Returns all replies this Sone made.
 	 *
@@ -419,6 +471,18 @@ public class Sone {
 		}
 	}
 
+	/**
+	 * Returns whether this Sone contains the given reply.
+	 *
+	 * @param reply
+	 *            The reply to check for
+	 * @return {@code true} if this Sone contains the given reply,
+	 *         {@code false} otherwise
+	 */
+	public boolean hasReply(Reply reply) {
+		return replies.contains(reply);
+	}
+
 	/**
 	 * Returns the IDs of all blocked Sones. These Sones will not propagated
 	 * using the “known Sones” mechanism.
@@ -629,6 +693,27 @@ public class Sone {
 	// PRIVATE METHODS
 	//
 
+	/**
+	 * Checks whether the given list is sorted according to the given
+	 * comparator.
+	 *
+	 * @param <T>
+	 *            The type of the list elements
+	 * @param list
+	 *            The list to check
+	 * @param comparator
+	 *            The comparator that defines the order
+	 * @return {@code true} if the list is sorted, {@code false} otherwise
+	 */
+	private static <T> boolean isSorted(List<T> list, Comparator<T> comparator) {
+		for (int index = 1; index < list.size(); ++index) {
+			if (comparator.compare(list.get(index - 1), list.get(index)) > 0) {
+				return false;
+			}
+		}
+		return true;
+	}
+
 	/**
 	 * Updates the editions of the request URI and the insert URI (if latter is
 	 * not {@code null}) with the greater edition of either one.
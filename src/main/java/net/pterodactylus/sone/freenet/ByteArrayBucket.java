@@ -0,0 +1,130 @@
+/*
+ * Sone - ByteArrayBucket.java - Copyright © 2010 David Roden
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package net.pterodactylus.sone.freenet;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+import com.db4o.ObjectContainer;
+
+import freenet.support.api.Bucket;
+
+/**
+ * {@link Bucket} implementation wrapped around a byte array. The size of the
+ * bucket is known up front, and reading it does not copy the data.
+ *
+ * @author <a href="mailto:bombe@pterodactylus.net">David ‘Bombe’ Roden</a>
+ */
+public class ByteArrayBucket implements Bucket {
+
+	/** The data to deliver. */
+	private final byte[] data;
+
+	/**
+	 * Creates a new byte array bucket.
+	 *
+	 * @param data
+	 *            The data to wrap
+	 */
+	public ByteArrayBucket(byte[] data) {
+		this.data = data;
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public Bucket createShadow() throws IOException {
+		return new ByteArrayBucket(data);
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public void free() {
+		/* ignore. */
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public InputStream getInputStream() throws IOException {
+		return new ByteArrayInputStream(data);
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public String getName() {
+		return getClass().getName() + "@" + hashCode();
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public OutputStream getOutputStream() throws IOException {
+		return null;
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public boolean isReadOnly() {
+		return true;
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public void removeFrom(ObjectContainer objectContainer) {
+		/* ignore. */
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public void setReadOnly() {
+		/* ignore, it is already read-only. */
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public long size() {
+		return data.length;
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public void storeTo(ObjectContainer objectContainer) {
+		/* ignore. */
+	}
+
+}
@@ -25,6 +25,8 @@ import java.util.logging.Logger;
 
 import net.pterodactylus.sone.core.Core;
 import net.pterodactylus.sone.core.FreenetInterface;
+import net.pterodactylus.sone.core.SoneJournal;
+import net.pterodactylus.sone.core.SoneStore;
 import net.pterodactylus.sone.freenet.PluginStoreConfigurationBackend;
 import net.pterodactylus.sone.web.WebInterface;
 import net.pterodactylus.util.config.Configuration;
@@ -165,6 +167,8 @@ public class SonePlugin implements FredPlugin, FredPluginL10n, FredPluginBaseL10
 		core = new Core();
 		core.configuration(configuration);
 		core.freenetInterface(freenetInterface);
+		core.soneStore(new SoneStore(new File("sone-store")));
+		core.soneJournal(new SoneJournal(new File("sone-journal")));
 
 		/* start core! */
 		boolean startupFailed = true;
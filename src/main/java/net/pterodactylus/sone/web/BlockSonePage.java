@@ -52,7 +52,7 @@ public class BlockSonePage extends SoneTemplatePage {
 		if (request.getMethod() == Method.POST) {
 			String soneId = request.getHttpRequest().getPartAsStringFailsafe("sone", 36);
 			String returnPage = request.getHttpRequest().getPartAsStringFailsafe("returnPage", 64);
-			getCurrentSone(request.getToadletContext()).addBlockedSoneId(soneId);
+			webInterface.core().blockSone(getCurrentSone(request.getToadletContext()), soneId);
 			throw new RedirectException(returnPage);
 		}
 	}
@@ -55,7 +55,10 @@ public class CreateReplyPage extends SoneTemplatePage {
 		String text = request.getHttpRequest().getPartAsStringFailsafe("text", 65536).trim();
 		String returnPage = request.getHttpRequest().getPartAsStringFailsafe("returnPage", 64);
 		if (request.getMethod() == Method.POST) {
-			Post post = webInterface.core().getPost(postId);
+			Post post = webInterface.core().getPost(postId, false);
+			if ((post == null) || (post.getSone() == null)) {
+				throw new RedirectException("index.html");
+			}
 			if (text.length() > 0) {
 				Sone currentSone = getCurrentSone(request.getToadletContext());
 				webInterface.core().createReply(currentSone, post, text);
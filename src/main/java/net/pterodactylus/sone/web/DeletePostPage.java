@@ -54,20 +54,23 @@ public class DeletePostPage extends SoneTemplatePage {
 		if (request.getMethod() == Method.GET) {
 			String postId = request.getHttpRequest().getParam("post");
 			String returnPage = request.getHttpRequest().getParam("returnPage");
-			Post post = webInterface.core().getPost(postId);
+			Post post = webInterface.core().getPost(postId, false);
+			if ((post == null) || (post.getSone() == null)) {
+				throw new RedirectException("noPermission.html");
+			}
 			template.set("post", post);
 			template.set("returnPage", returnPage);
 			return;
 		} else if (request.getMethod() == Method.POST) {
 			String postId = request.getHttpRequest().getPartAsStringFailsafe("post", 36);
 			String returnPage = request.getHttpRequest().getPartAsStringFailsafe("returnPage", 64);
-			Post post = webInterface.core().getPost(postId);
+			Post post = webInterface.core().getPost(postId, false);
 			Sone currentSone = getCurrentSone(request.getToadletContext());
-			if (!post.getSone().equals(currentSone)) {
+			if ((post == null) || !currentSone.equals(post.getSone())) {
 				throw new RedirectException("noPermission.html");
 			}
 			if (request.getHttpRequest().isPartSet("confirmDelete")) {
-				currentSone.removePost(post);
+				webInterface.core().deletePost(post);
 				throw new RedirectException(returnPage);
 			} else if (request.getHttpRequest().isPartSet("abortDelete")) {
 				throw new RedirectException(returnPage);
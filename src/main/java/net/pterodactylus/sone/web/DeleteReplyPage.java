@@ -52,7 +52,10 @@ public class DeleteReplyPage extends SoneTemplatePage {
 	protected void processTemplate(Request request, Template template) throws RedirectException {
 		super.processTemplate(request, template);
 		String replyId = request.getHttpRequest().getPartAsStringFailsafe("reply", 36);
-		Reply reply = webInterface.core().getReply(replyId);
+		Reply reply = webInterface.core().getReply(replyId, false);
+		if (reply == null) {
+			throw new RedirectException("noPermission.html");
+		}
 		String returnPage = request.getHttpRequest().getPartAsStringFailsafe("returnPage", 64);
 		if (request.getMethod() == Method.POST) {
 			Sone currentSone = getCurrentSone(request.getToadletContext());
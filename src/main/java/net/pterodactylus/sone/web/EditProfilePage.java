@@ -74,7 +74,7 @@ public class EditProfilePage extends SoneTemplatePage {
 			profile.setLastName(lastName.length() > 0 ? lastName : null);
 			profile.setBirthDay(birthDay).setBirthMonth(birthMonth).setBirthYear(birthYear);
 			if (profile.isModified()) {
-				currentSone.setProfile(profile);
+				webInterface.core().setProfile(currentSone, profile);
 			}
 			throw new RedirectException("index.html");
 		}
@@ -54,7 +54,7 @@ public class FollowSonePage extends SoneTemplatePage {
 			Sone currentSone = getCurrentSone(request.getToadletContext());
 			Sone sone = webInterface.core().getSone(soneId);
 			if (!sone.equals(currentSone)) {
-				currentSone.addFriend(sone);
+				webInterface.core().followSone(currentSone, sone);
 			}
 			throw new RedirectException(returnPage);
 		}
@@ -57,9 +57,9 @@ public class LikePage extends SoneTemplatePage {
 			String returnPage = request.getHttpRequest().getPartAsStringFailsafe("returnPage", 64);
 			Sone currentSone = getCurrentSone(request.getToadletContext());
 			if ("post".equals(type)) {
-				currentSone.addLikedPostId(id);
+				webInterface.core().likePost(currentSone, id);
 			} else if ("reply".equals(type)) {
-				currentSone.addLikedReplyId(id);
+				webInterface.core().likeReply(currentSone, id);
 			}
 			throw new RedirectException(returnPage);
 		}
@@ -17,6 +17,7 @@
 
 package net.pterodactylus.sone.web;
 
+import net.pterodactylus.sone.core.Core.SonePriority;
 import net.pterodactylus.sone.core.Options;
 import net.pterodactylus.sone.web.page.Page.Request.Method;
 import net.pterodactylus.util.number.Numbers;
@@ -55,6 +56,40 @@ public class OptionsPage extends SoneTemplatePage {
 		if (request.getMethod() == Method.POST) {
 			Integer insertionDelay = Numbers.safeParseInteger(request.getHttpRequest().getPartAsStringFailsafe("insertion-delay", 16));
 			options.getIntegerOption("InsertionDelay").set(insertionDelay);
+			Integer maximumInsertionDelay = Numbers.safeParseInteger(request.getHttpRequest().getPartAsStringFailsafe("maximum-insertion-delay", 16));
+			options.getIntegerOption("MaxInsertionDelay").set(maximumInsertionDelay);
+			Integer minimumInsertInterval = Numbers.safeParseInteger(request.getHttpRequest().getPartAsStringFailsafe("minimum-insert-interval", 16));
+			options.getIntegerOption("MinInsertInterval").set(minimumInsertInterval);
+			Integer concurrentInserts = Numbers.safeParseInteger(request.getHttpRequest().getPartAsStringFailsafe("concurrent-inserts", 16));
+			options.getIntegerOption("ConcurrentInserts").set(concurrentInserts);
+			boolean useArchives = Boolean.parseBoolean(request.getHttpRequest().getPartAsStringFailsafe("use-archives", 5));
+			options.getBooleanOption("UseArchives").set(useArchives);
+			Integer maximumInsertedKnownSones = Numbers.safeParseInteger(request.getHttpRequest().getPartAsStringFailsafe("maximum-inserted-known-sones", 16));
+			options.getIntegerOption("MaxInsertedKnownSones").set(maximumInsertedKnownSones);
+			Integer concurrentDownloads = Numbers.safeParseInteger(request.getHttpRequest().getPartAsStringFailsafe("concurrent-downloads", 16));
+			options.getIntegerOption("ConcurrentDownloads").set(concurrentDownloads);
+			boolean useStreamingParser = Boolean.parseBoolean(request.getHttpRequest().getPartAsStringFailsafe("use-streaming-parser", 5));
+			options.getBooleanOption("UseStreamingParser").set(useStreamingParser);
+			Integer maximumSoneSize = Numbers.safeParseInteger(request.getHttpRequest().getPartAsStringFailsafe("maximum-sone-size", 16));
+			options.getIntegerOption("MaxSoneSize").set(maximumSoneSize);
+			Integer maximumPostsPerSone = Numbers.safeParseInteger(request.getHttpRequest().getPartAsStringFailsafe("maximum-posts-per-sone", 16));
+			options.getIntegerOption("MaxPostsPerSone").set(maximumPostsPerSone);
+			Integer maximumRepliesPerSone = Numbers.safeParseInteger(request.getHttpRequest().getPartAsStringFailsafe("maximum-replies-per-sone", 16));
+			options.getIntegerOption("MaxRepliesPerSone").set(maximumRepliesPerSone);
+			Integer maximumTextLength = Numbers.safeParseInteger(request.getHttpRequest().getPartAsStringFailsafe("maximum-text-length", 16));
+			options.getIntegerOption("MaxTextLength").set(maximumTextLength);
+			Integer maximumKnownSones = Numbers.safeParseInteger(request.getHttpRequest().getPartAsStringFailsafe("maximum-known-sones", 16));
+			options.getIntegerOption("MaxKnownSones").set(maximumKnownSones);
+			Integer dormancyPeriod = Numbers.safeParseInteger(request.getHttpRequest().getPartAsStringFailsafe("dormancy-period", 16));
+			options.getIntegerOption("DormancyPeriod").set(dormancyPeriod);
+			Integer maximumSubscriptions = Numbers.safeParseInteger(request.getHttpRequest().getPartAsStringFailsafe("maximum-subscriptions", 16));
+			options.getIntegerOption("MaxSubscriptions").set(maximumSubscriptions);
+			Integer dormantRecheckInterval = Numbers.safeParseInteger(request.getHttpRequest().getPartAsStringFailsafe("dormant-recheck-interval", 16));
+			options.getIntegerOption("DormantRecheckInterval").set(dormantRecheckInterval);
+			Integer maximumDiscoveryDistance = Numbers.safeParseInteger(request.getHttpRequest().getPartAsStringFailsafe("maximum-discovery-distance", 16));
+			options.getIntegerOption("MaxDiscoveryDistance").set(maximumDiscoveryDistance);
+			Integer discoveryRate = Numbers.safeParseInteger(request.getHttpRequest().getPartAsStringFailsafe("discovery-rate", 16));
+			options.getIntegerOption("DiscoveryRate").set(discoveryRate);
 			boolean clearOnNextRestart = Boolean.parseBoolean(request.getHttpRequest().getPartAsStringFailsafe("clear-on-next-restart", 5));
 			options.getBooleanOption("ClearOnNextRestart").set(clearOnNextRestart);
 			boolean reallyClearOnNextRestart = Boolean.parseBoolean(request.getHttpRequest().getPartAsStringFailsafe("really-clear-on-next-restart", 5));
@@ -62,8 +97,39 @@ public class OptionsPage extends SoneTemplatePage {
 			throw new RedirectException(getPath());
 		}
 		template.set("insertion-delay", options.getIntegerOption("InsertionDelay").get());
+		template.set("maximum-insertion-delay", options.getIntegerOption("MaxInsertionDelay").get());
+		template.set("minimum-insert-interval", options.getIntegerOption("MinInsertInterval").get());
+		template.set("concurrent-inserts", options.getIntegerOption("ConcurrentInserts").get());
+		template.set("use-archives", options.getBooleanOption("UseArchives").get());
+		template.set("maximum-inserted-known-sones", options.getIntegerOption("MaxInsertedKnownSones").get());
+		template.set("concurrent-downloads", options.getIntegerOption("ConcurrentDownloads").get());
+		template.set("use-streaming-parser", options.getBooleanOption("UseStreamingParser").get());
+		template.set("maximum-sone-size", options.getIntegerOption("MaxSoneSize").get());
+		template.set("maximum-posts-per-sone", options.getIntegerOption("MaxPostsPerSone").get());
+		template.set("maximum-replies-per-sone", options.getIntegerOption("MaxRepliesPerSone").get());
+		template.set("maximum-text-length", options.getIntegerOption("MaxTextLength").get());
+		template.set("maximum-known-sones", options.getIntegerOption("MaxKnownSones").get());
+		template.set("dormancy-period", options.getIntegerOption("DormancyPeriod").get());
+		template.set("maximum-subscriptions", options.getIntegerOption("MaxSubscriptions").get());
+		template.set("dormant-recheck-interval", options.getIntegerOption("DormantRecheckInterval").get());
+		template.set("maximum-discovery-distance", options.getIntegerOption("MaxDiscoveryDistance").get());
+		template.set("discovery-rate", options.getIntegerOption("DiscoveryRate").get());
 		template.set("clear-on-next-restart", options.getBooleanOption("ClearOnNextRestart").get());
 		template.set("really-clear-on-next-restart", options.getBooleanOption("ReallyClearOnNextRestart").get());
+		template.set("performed-inserts", webInterface.core().getSoneInserter().getPerformedInserts());
+		template.set("skipped-inserts", webInterface.core().getSoneInserter().getSkippedInserts());
+		template.set("coalesced-modifications", webInterface.core().getSoneInserter().getCoalescedModifications());
+		template.set("average-insert-delay", webInterface.core().getSoneInserter().getAverageInsertDelay());
+		template.set("inserted-archives", webInterface.core().getSoneInserter().getInsertedArchives());
+		template.set("fetched-archive-bytes", webInterface.core().getSoneDownloader().getFetchedArchiveBytes());
+		template.set("saved-archive-bytes", webInterface.core().getSoneDownloader().getSavedArchiveBytes());
+		template.set("friend-sones", webInterface.core().getSoneDownloader().getSoneCount(SonePriority.friend));
+		template.set("interacted-sones", webInterface.core().getSoneDownloader().getSoneCount(SonePriority.interacted));
+		template.set("other-sones", webInterface.core().getSoneDownloader().getSoneCount(SonePriority.other));
+		template.set("subscribed-sones", webInterface.core().getSoneDownloader().getSubscribedCount());
+		template.set("parked-sones", webInterface.core().getSoneDownloader().getParkedCount());
+		template.set("discovered-sones", webInterface.core().getSoneDownloader().getDiscoveredCount());
+		template.set("added-discovered-sones", webInterface.core().getSoneDownloader().getAddedDiscoveredCount());
 	}
 
 }
@@ -53,7 +53,7 @@ public class UnblockSonePage extends SoneTemplatePage {
 			String soneId = request.getHttpRequest().getPartAsStringFailsafe("sone", 36);
 			String returnPage = request.getHttpRequest().getPartAsStringFailsafe("returnPage", 64);
 			if (request.getMethod() == Method.POST) {
-				getCurrentSone(request.getToadletContext()).removeBlockedSoneId(soneId);
+				webInterface.core().unblockSone(getCurrentSone(request.getToadletContext()), soneId);
 			}
 			throw new RedirectException(returnPage);
 		}
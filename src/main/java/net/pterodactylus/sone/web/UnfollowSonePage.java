@@ -54,7 +54,7 @@ public class UnfollowSonePage extends SoneTemplatePage {
 			Sone currentSone = getCurrentSone(request.getToadletContext());
 			Sone sone = webInterface.core().getSone(soneId);
 			if (!sone.equals(currentSone)) {
-				currentSone.removeFriend(sone);
+				webInterface.core().unfollowSone(currentSone, sone);
 			}
 			throw new RedirectException(returnPage);
 		}
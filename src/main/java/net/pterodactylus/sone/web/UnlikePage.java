@@ -57,9 +57,9 @@ public class UnlikePage extends SoneTemplatePage {
 			String returnPage = request.getHttpRequest().getPartAsStringFailsafe("returnPage", 64);
 			Sone currentSone = getCurrentSone(request.getToadletContext());
 			if ("post".equals(type)) {
-				currentSone.removeLikedPostId(id);
+				webInterface.core().unlikePost(currentSone, id);
 			} else if ("reply".equals(type)) {
-				currentSone.removeLikedReplyId(id);
+				webInterface.core().unlikeReply(currentSone, id);
 			}
 			throw new RedirectException(returnPage);
 		}
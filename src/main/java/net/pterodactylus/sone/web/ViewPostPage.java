@@ -50,7 +50,10 @@ public class ViewPostPage extends SoneTemplatePage {
 	protected void processTemplate(Request request, Template template) throws RedirectException {
 		super.processTemplate(request, template);
 		String postId = request.getHttpRequest().getParam("post");
-		Post post = webInterface.core().getPost(postId);
+		Post post = webInterface.core().getPost(postId, false);
+		if ((post == null) || (post.getSone() == null)) {
+			throw new RedirectException("index.html");
+		}
 		template.set("post", post);
 	}
 
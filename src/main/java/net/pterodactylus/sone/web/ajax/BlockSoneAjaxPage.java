@@ -51,7 +51,7 @@ public class BlockSoneAjaxPage extends JsonPage {
 		if (currentSone == null) {
 			return new JsonObject().put("success", false).put("error", "auth-required");
 		}
-		currentSone.addBlockedSoneId(soneId);
+		webInterface.core().blockSone(currentSone, soneId);
 		return new JsonObject().put("success", true);
 	}
 
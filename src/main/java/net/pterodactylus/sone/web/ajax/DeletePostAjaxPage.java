@@ -49,7 +49,7 @@ public class DeletePostAjaxPage extends JsonPage {
 	@Override
 	protected JsonObject createJsonObject(Request request) {
 		String postId = request.getHttpRequest().getParam("post");
-		Post post = webInterface.core().getPost(postId);
+		Post post = webInterface.core().getPost(postId, false);
 		Sone currentSone = getCurrentSone(request.getToadletContext());
 		if (post == null) {
 			return new JsonObject().put("success", false).put("error", "invalid-post-id");
@@ -57,10 +57,10 @@ public class DeletePostAjaxPage extends JsonPage {
 		if (currentSone == null) {
 			return new JsonObject().put("success", false).put("error", "auth-required");
 		}
-		if (!post.getSone().equals(currentSone)) {
+		if (!currentSone.equals(post.getSone())) {
 			return new JsonObject().put("success", false).put("error", "not-authorized");
 		}
-		currentSone.removePost(post);
+		webInterface.core().deletePost(post);
 		return new JsonObject().put("success", true);
 	}
 
@@ -49,7 +49,7 @@ public class DeleteReplyAjaxPage extends JsonPage {
 	@Override
 	protected JsonObject createJsonObject(Request request) {
 		String replyId = request.getHttpRequest().getParam("reply");
-		Reply reply = webInterface.core().getReply(replyId);
+		Reply reply = webInterface.core().getReply(replyId, false);
 		Sone currentSone = getCurrentSone(request.getToadletContext());
 		if (reply == null) {
 			return new JsonObject().put("success", false).put("error", "invalid-reply-id");
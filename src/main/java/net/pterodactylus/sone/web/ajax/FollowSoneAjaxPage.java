@@ -52,7 +52,7 @@ public class FollowSoneAjaxPage extends JsonPage {
 		if (currentSone == null) {
 			return new JsonObject().put("success", false).put("error", "auth-required");
 		}
-		currentSone.addFriend(sone);
+		webInterface.core().followSone(currentSone, sone);
 		return new JsonObject().put("success", true);
 	}
 
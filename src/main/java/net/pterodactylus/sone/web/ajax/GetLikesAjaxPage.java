@@ -54,10 +54,16 @@ public class GetLikesAjaxPage extends JsonPage {
 			return new JsonObject().put("success", false).put("error", "invalid-" + type + "-id");
 		}
 		if ("post".equals(type)) {
-			Post post = webInterface.core().getPost(id);
+			Post post = webInterface.core().getPost(id, false);
+			if (post == null) {
+				return new JsonObject().put("success", false).put("error", "invalid-post-id");
+			}
 			return new JsonObject().put("success", true).put("likes", webInterface.core().getLikes(post).size());
 		} else if ("reply".equals(type)) {
-			Reply reply = webInterface.core().getReply(id);
+			Reply reply = webInterface.core().getReply(id, false);
+			if (reply == null) {
+				return new JsonObject().put("success", false).put("error", "invalid-reply-id");
+			}
 			return new JsonObject().put("success", true).put("likes", webInterface.core().getLikes(reply).size());
 		}
 		return new JsonObject().put("success", false).put("error", "invalid-type");
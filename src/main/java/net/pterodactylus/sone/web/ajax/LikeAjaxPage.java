@@ -54,9 +54,9 @@ public class LikeAjaxPage extends JsonPage {
 			return new JsonObject().put("success", false).put("error", "auth-required");
 		}
 		if ("post".equals(type)) {
-			currentSone.addLikedPostId(id);
+			webInterface.core().likePost(currentSone, id);
 		} else if ("reply".equals(type)) {
-			currentSone.addLikedReplyId(id);
+			webInterface.core().likeReply(currentSone, id);
 		} else {
 			return new JsonObject().put("success", false).put("error", "invalid-type");
 		}
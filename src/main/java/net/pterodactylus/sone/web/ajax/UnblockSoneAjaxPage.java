@@ -51,7 +51,7 @@ public class UnblockSoneAjaxPage extends JsonPage {
 		if (currentSone == null) {
 			return new JsonObject().put("success", false).put("error", "auth-required");
 		}
-		currentSone.removeBlockedSoneId(soneId);
+		webInterface.core().unblockSone(currentSone, soneId);
 		return new JsonObject().put("success", true);
 	}
 
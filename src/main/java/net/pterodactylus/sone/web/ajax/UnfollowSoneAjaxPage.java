@@ -52,7 +52,7 @@ public class UnfollowSoneAjaxPage extends JsonPage {
 		if (currentSone == null) {
 			return new JsonObject().put("success", false).put("error", "auth-required");
 		}
-		currentSone.removeFriend(sone);
+		webInterface.core().unfollowSone(currentSone, sone);
 		return new JsonObject().put("success", true);
 	}
 
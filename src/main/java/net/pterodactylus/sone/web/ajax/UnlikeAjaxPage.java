@@ -54,9 +54,9 @@ public class UnlikeAjaxPage extends JsonPage {
 			return new JsonObject().put("success", false).put("error", "auth-required");
 		}
 		if ("post".equals(type)) {
-			currentSone.removeLikedPostId(id);
+			webInterface.core().unlikePost(currentSone, id);
 		} else if ("reply".equals(type)) {
-			currentSone.removeLikedReplyId(id);
+			webInterface.core().unlikeReply(currentSone, id);
 		} else {
 			return new JsonObject().put("success", false).put("error", "invalid-type");
 		}
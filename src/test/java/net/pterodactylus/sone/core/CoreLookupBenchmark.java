@@ -0,0 +1,171 @@
+/*
+ * Sone - CoreLookupBenchmark.java - Copyright © 2010 David Roden
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package net.pterodactylus.sone.core;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Stress benchmark for the get-or-create lookups of {@link Core}
+ * ({@link Core#getSone(String)}, {@link Core#getPost(String)}, and
+ * {@link Core#getReply(String)}) with 1, 2, 4, and 8 threads. All threads
+ * look up the same IDs, starting at different offsets, so that they race to
+ * create the same objects; the benchmark counts every lookup that returns a
+ * different object than an earlier lookup of the same ID.
+ * <p>
+ * The benchmark is not run as part of the tests; run it with the test
+ * classpath, optionally giving the number of IDs per type and the number of
+ * lookups per thread as arguments:
+ *
+ * <pre>
+ * java -cp target/classes:target/test-classes:&lt;dependencies&gt; net.pterodactylus.sone.core.CoreLookupBenchmark 10000 1000000
+ * </pre>
+ *
+ * @author <a href="mailto:bombe@pterodactylus.net">David ‘Bombe’ Roden</a>
+ */
+public class CoreLookupBenchmark {
+
+	/** The thread counts to measure. */
+	private static final int[] THREAD_COUNTS = { 1, 2, 4, 8 };
+
+	/**
+	 * Runs the benchmark.
+	 *
+	 * @param arguments
+	 *            The number of IDs per type and the number of lookups per
+	 *            thread (both optional)
+	 * @throws Exception
+	 *             if a lookup thread fails
+	 */
+	public static void main(String[] arguments) throws Exception {
+		int idCount = (arguments.length > 0) ? Integer.parseInt(arguments[0]) : 10000;
+		int lookupCount = (arguments.length > 1) ? Integer.parseInt(arguments[1]) : 1000000;
+		List<String> ids = new ArrayList<String>(idCount);
+		for (int idIndex = 0; idIndex < idCount; ++idIndex) {
+			ids.add(UUID.randomUUID().toString());
+		}
+		System.out.printf("%d IDs per type, %d lookups per thread.%n", idCount, lookupCount);
+		/* warm up. */
+		lookUp(ids, 4, lookupCount);
+		int mismatches = 0;
+		for (int threadCount : THREAD_COUNTS) {
+			long startTime = System.nanoTime();
+			int threadMismatches = lookUp(ids, threadCount, lookupCount);
+			long duration = System.nanoTime() - startTime;
+			mismatches += threadMismatches;
+			System.out.printf("%d thread(s): %12.1f lookups/sec (%d mismatches)%n", threadCount, (double) threadCount * lookupCount * 1e9 / duration, threadMismatches);
+		}
+		if (mismatches > 0) {
+			System.out.printf("%d lookups returned a different object for the same ID!%n", mismatches);
+			System.exit(1);
+		}
+	}
+
+	//
+	// PRIVATE METHODS
+	//
+
+	/**
+	 * Looks up Sones, posts, and replies with the given IDs from a new core
+	 * using the given number of threads.
+	 *
+	 * @param ids
+	 *            The IDs to look up
+	 * @param threadCount
+	 *            The number of threads
+	 * @param lookupCount
+	 *            The number of lookups per thread
+	 * @return The number of lookups that returned a different object than an
+	 *         earlier lookup of the same ID
+	 * @throws Exception
+	 *             if a lookup thread fails
+	 */
+	private static int lookUp(final List<String> ids, int threadCount, final int lookupCount) throws Exception {
+		final Core core = new Core();
+		final AtomicReferenceArray<Object> sones = new AtomicReferenceArray<Object>(ids.size());
+		final AtomicReferenceArray<Object> posts = new AtomicReferenceArray<Object>(ids.size());
+		final AtomicReferenceArray<Object> replies = new AtomicReferenceArray<Object>(ids.size());
+		final AtomicInteger mismatches = new AtomicInteger();
+		final CountDownLatch startSignal = new CountDownLatch(1);
+		ExecutorService executorService = Executors.newFixedThreadPool(threadCount);
+		try {
+			List<Future<Void>> futures = new ArrayList<Future<Void>>();
+			for (int thread = 0; thread < threadCount; ++thread) {
+				final int offset = thread * ids.size() / threadCount;
+				futures.add(executorService.submit(new Callable<Void>() {
+
+					@Override
+					public Void call() throws InterruptedException {
+						startSignal.await();
+						for (int lookup = 0; lookup < lookupCount; ++lookup) {
+							int idIndex = (offset + lookup) % ids.size();
+							String id = ids.get(idIndex);
+							switch (lookup % 3) {
+							case 0:
+								check(sones, idIndex, core.getSone(id), mismatches);
+								break;
+							case 1:
+								check(posts, idIndex, core.getPost(id), mismatches);
+								break;
+							default:
+								check(replies, idIndex, core.getReply(id), mismatches);
+								break;
+							}
+						}
+						return null;
+					}
+				}));
+			}
+			startSignal.countDown();
+			for (Future<Void> future : futures) {
+				future.get();
+			}
+		} finally {
+			executorService.shutdown();
+		}
+		return mismatches.get();
+	}
+
+	/**
+	 * Stores the given object as the first object seen for the given index,
+	 * or counts a mismatch if a different object has been seen for it before.
+	 *
+	 * @param seenObjects
+	 *            The first objects seen per index
+	 * @param index
+	 *            The index of the ID
+	 * @param object
+	 *            The object returned by the lookup
+	 * @param mismatches
+	 *            The counter for mismatches
+	 */
+	private static void check(AtomicReferenceArray<Object> seenObjects, int index, Object object, AtomicInteger mismatches) {
+		if (!seenObjects.compareAndSet(index, null, object) && (seenObjects.get(index) != object)) {
+			mismatches.incrementAndGet();
+		}
+	}
+
+}
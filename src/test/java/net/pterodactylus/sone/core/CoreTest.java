@@ -0,0 +1,110 @@
+/*
+ * Sone - CoreTest.java - Copyright © 2010 David Roden
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package net.pterodactylus.sone.core;
+
+import java.util.Arrays;
+import java.util.UUID;
+
+import junit.framework.TestCase;
+import net.pterodactylus.sone.core.Core.SonePriority;
+import net.pterodactylus.sone.data.Post;
+import net.pterodactylus.sone.data.Reply;
+import net.pterodactylus.sone.data.Sone;
+
+/**
+ * Tests for {@link Core}.
+ *
+ * @author <a href="mailto:bombe@pterodactylus.net">David ‘Bombe’ Roden</a>
+ */
+public class CoreTest extends TestCase {
+
+	/** The core under test. */
+	private Core core;
+
+	/** The local Sone. */
+	private Sone localSone;
+
+	/** The remote Sone. */
+	private Sone sone;
+
+	/** The post of the remote Sone. */
+	private Post post;
+
+	/** The reply of the remote Sone. */
+	private Reply reply;
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	protected void setUp() {
+		core = new Core().freenetInterface(null);
+		localSone = core.getSone(UUID.randomUUID().toString());
+		core.addLocalSone(localSone);
+		sone = core.getSone(UUID.randomUUID().toString());
+		post = core.getPost(UUID.randomUUID().toString()).setSone(sone).setTime(1000).setText("Post");
+		reply = core.getReply(UUID.randomUUID().toString()).setSone(sone).setPost(post).setTime(2000).setText("Reply");
+		sone.setPosts(Arrays.asList(post));
+		sone.setReplies(Arrays.asList(reply));
+	}
+
+	/**
+	 * Tests that local Sones and their friends have the highest priority.
+	 */
+	public void testPriorityOfFriends() {
+		assertEquals(SonePriority.friend, core.getSonePriority(localSone));
+		localSone.addFriend(sone);
+		assertEquals(SonePriority.friend, core.getSonePriority(sone));
+	}
+
+	/**
+	 * Tests that a Sone no local Sone interacted with has the lowest
+	 * priority.
+	 */
+	public void testPriorityWithoutInteraction() {
+		assertEquals(SonePriority.other, core.getSonePriority(sone));
+	}
+
+	/**
+	 * Tests that liking a post of a Sone raises its priority, and unliking it
+	 * lowers it again.
+	 */
+	public void testPriorityAfterLikingPost() {
+		core.likePost(localSone, post.getId());
+		assertEquals(SonePriority.interacted, core.getSonePriority(sone));
+		core.unlikePost(localSone, post.getId());
+		assertEquals(SonePriority.other, core.getSonePriority(sone));
+	}
+
+	/**
+	 * Tests that liking a reply of a Sone raises its priority.
+	 */
+	public void testPriorityAfterLikingReply() {
+		core.likeReply(localSone, reply.getId());
+		assertEquals(SonePriority.interacted, core.getSonePriority(sone));
+	}
+
+	/**
+	 * Tests that replying to a post of a Sone raises its priority.
+	 */
+	public void testPriorityAfterReplying() {
+		core.createReply(localSone, post, 3000, "Local reply");
+		assertEquals(SonePriority.interacted, core.getSonePriority(sone));
+	}
+
+}
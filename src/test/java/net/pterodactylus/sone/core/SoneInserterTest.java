@@ -0,0 +1,177 @@
+/*
+ * Sone - SoneInserterTest.java - Copyright © 2010 David Roden
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package net.pterodactylus.sone.core;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.UUID;
+
+import junit.framework.TestCase;
+import net.pterodactylus.sone.data.Post;
+import net.pterodactylus.sone.data.Profile;
+import net.pterodactylus.sone.data.Reply;
+
+/**
+ * Tests for {@link SoneInserter}.
+ *
+ * @author <a href="mailto:bombe@pterodactylus.net">David ‘Bombe’ Roden</a>
+ */
+public class SoneInserterTest extends TestCase {
+
+	/** The ID of the test Sone. */
+	private static final String SONE_ID = "e5f4b09a-17f7-4c8e-8d8f-6b0e5b4d0b3a";
+
+	/** The ID of the test post. */
+	private static final String POST_ID = "0ad1a64f-0dd7-4b44-9d35-2bd3a4a6e2e6";
+
+	/** The ID of the test reply. */
+	private static final String REPLY_ID = "6d9a61c6-8d5e-4bb2-a0bd-7d4cba0a6e46";
+
+	/**
+	 * Tests that documents that only differ in the time of the Sone have the
+	 * same digest.
+	 */
+	public void testDigestIgnoresSoneTime() {
+		assertTrue(Arrays.equals(SoneInserter.calculateDigest(createDocument(1000, 2000, "Text")), SoneInserter.calculateDigest(createDocument(5000, 2000, "Text"))));
+	}
+
+	/**
+	 * Tests that documents with posts and replies at different times have
+	 * different digests.
+	 */
+	public void testDigestIncludesPostTime() {
+		assertFalse(Arrays.equals(SoneInserter.calculateDigest(createDocument(1000, 2000, "Text")), SoneInserter.calculateDigest(createDocument(1000, 3000, "Text"))));
+	}
+
+	/**
+	 * Tests that documents with different content have different digests.
+	 */
+	public void testDigestIncludesContent() {
+		assertFalse(Arrays.equals(SoneInserter.calculateDigest(createDocument(1000, 2000, "Text")), SoneInserter.calculateDigest(createDocument(1000, 2000, "Other text"))));
+	}
+
+	/**
+	 * Tests that a document without a time element is digested completely.
+	 */
+	public void testDigestWithoutTime() {
+		byte[] document = "<sone><id>id</id></sone>".getBytes();
+		assertTrue(Arrays.equals(SoneInserter.calculateDigest(document), SoneInserter.calculateDigest(document.clone())));
+		assertFalse(Arrays.equals(SoneInserter.calculateDigest(document), SoneInserter.calculateDigest("<sone><id>other</id></sone>".getBytes())));
+	}
+
+	/**
+	 * Tests that posts and replies from the current and the previous period
+	 * stay recent while older posts and replies are sorted into their
+	 * periods.
+	 */
+	public void testSortIntoPeriods() {
+		long now = 10 * SoneInserter.ARCHIVE_PERIOD + 1000;
+		Post currentPost = createPost(now - 500);
+		Post previousPost = createPost(9 * SoneInserter.ARCHIVE_PERIOD);
+		Post archivedPost = createPost(9 * SoneInserter.ARCHIVE_PERIOD - 1);
+		Post otherArchivedPost = createPost(8 * SoneInserter.ARCHIVE_PERIOD);
+		Post oldPost = createPost(2 * SoneInserter.ARCHIVE_PERIOD + 5);
+		Reply currentReply = createReply(oldPost, now);
+		Reply archivedReply = createReply(currentPost, 8 * SoneInserter.ARCHIVE_PERIOD + 5);
+
+		List<Post> recentPosts = new ArrayList<Post>();
+		List<Reply> recentReplies = new ArrayList<Reply>();
+		SortedMap<Long, List<Post>> archivedPosts = new TreeMap<Long, List<Post>>();
+		SortedMap<Long, List<Reply>> archivedReplies = new TreeMap<Long, List<Reply>>();
+		SoneInserter.sortIntoPeriods(now, Arrays.asList(currentPost, previousPost, archivedPost, otherArchivedPost, oldPost), Arrays.asList(currentReply, archivedReply), recentPosts, recentReplies, archivedPosts, archivedReplies);
+
+		assertEquals(Arrays.asList(currentPost, previousPost), recentPosts);
+		assertEquals(Arrays.asList(currentReply), recentReplies);
+		assertEquals(Arrays.asList(2L, 8L), new ArrayList<Long>(archivedPosts.keySet()));
+		assertEquals(archivedPosts.keySet(), archivedReplies.keySet());
+		assertEquals(Arrays.asList(oldPost), archivedPosts.get(2L));
+		assertEquals(Arrays.asList(archivedPost, otherArchivedPost), archivedPosts.get(8L));
+		assertTrue(archivedReplies.get(2L).isEmpty());
+		assertEquals(Arrays.asList(archivedReply), archivedReplies.get(8L));
+	}
+
+	/**
+	 * Tests that a period that only contains replies gets an empty list of
+	 * posts.
+	 */
+	public void testSortIntoPeriodsWithOnlyReplies() {
+		long now = 10 * SoneInserter.ARCHIVE_PERIOD;
+		Reply reply = createReply(createPost(now), 3 * SoneInserter.ARCHIVE_PERIOD);
+
+		List<Post> recentPosts = new ArrayList<Post>();
+		List<Reply> recentReplies = new ArrayList<Reply>();
+		SortedMap<Long, List<Post>> archivedPosts = new TreeMap<Long, List<Post>>();
+		SortedMap<Long, List<Reply>> archivedReplies = new TreeMap<Long, List<Reply>>();
+		SoneInserter.sortIntoPeriods(now, Collections.<Post> emptyList(), Arrays.asList(reply), recentPosts, recentReplies, archivedPosts, archivedReplies);
+
+		assertTrue(recentPosts.isEmpty());
+		assertTrue(recentReplies.isEmpty());
+		assertTrue(archivedPosts.get(3L).isEmpty());
+		assertEquals(Arrays.asList(reply), archivedReplies.get(3L));
+	}
+
+	//
+	// PRIVATE METHODS
+	//
+
+	/**
+	 * Creates a Sone document with a single post and a single reply.
+	 *
+	 * @param soneTime
+	 *            The time of the Sone
+	 * @param postTime
+	 *            The time of the post and the reply
+	 * @param text
+	 *            The text of the post and the reply
+	 * @return The Sone document
+	 */
+	private static byte[] createDocument(long soneTime, long postTime, String text) {
+		Post post = new Post(POST_ID, null, postTime, text);
+		Reply reply = new Reply(REPLY_ID, null, post, postTime, text);
+		return SoneXmlSerializer.serialize(SONE_ID, "Test", soneTime, new Profile(), Arrays.asList(post), Arrays.asList(reply), Collections.<String> emptyList(), Collections.<String> emptyList(), SoneXmlSerializer.serializeKnownSones(Collections.<String[]> emptyList()), Collections.<String> emptyList());
+	}
+
+	/**
+	 * Creates a post with a random ID and the given time.
+	 *
+	 * @param time
+	 *            The time of the post
+	 * @return The created post
+	 */
+	private static Post createPost(long time) {
+		return new Post(UUID.randomUUID().toString(), null, time, "Post at " + time);
+	}
+
+	/**
+	 * Creates a reply with a random ID to the given post.
+	 *
+	 * @param post
+	 *            The post the reply refers to
+	 * @param time
+	 *            The time of the reply
+	 * @return The created reply
+	 */
+	private static Reply createReply(Post post, long time) {
+		return new Reply(UUID.randomUUID().toString(), null, post, time, "Reply at " + time);
+	}
+
+}
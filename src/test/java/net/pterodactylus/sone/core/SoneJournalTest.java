@@ -0,0 +1,254 @@
+/*
+ * Sone - SoneJournalTest.java - Copyright © 2010 David Roden
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package net.pterodactylus.sone.core;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.Arrays;
+import java.util.List;
+
+import junit.framework.TestCase;
+import net.pterodactylus.sone.core.SoneJournal.Entry;
+import net.pterodactylus.sone.core.SoneJournal.Type;
+
+/**
+ * Tests for {@link SoneJournal}.
+ *
+ * @author <a href="mailto:bombe@pterodactylus.net">David ‘Bombe’ Roden</a>
+ */
+public class SoneJournalTest extends TestCase {
+
+	/** The directory of the journal. */
+	private File directory;
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	protected void setUp() throws IOException {
+		directory = File.createTempFile("sone-journal-", "");
+		directory.delete();
+		directory.mkdirs();
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	protected void tearDown() {
+		File[] files = directory.listFiles();
+		if (files != null) {
+			for (File file : files) {
+				file.delete();
+			}
+		}
+		directory.delete();
+	}
+
+	/**
+	 * Tests that appended entries are read back unchanged by a new journal.
+	 */
+	public void testEntriesRoundTrip() {
+		SoneJournal journal = new SoneJournal(directory);
+		journal.open();
+		journal.append(new Entry(Type.POST_CREATED, "sone-id", 1000, "post-id", "Text with “Unicode” ♥"));
+		journal.append(new Entry(Type.PROFILE_CHANGED, "sone-id", 2000, "First", null, "Last", "24", null, null));
+		journal.append(new Entry(Type.SONE_REMOVED, "other-sone-id", 3000));
+		assertEquals(3, journal.getEntryCount());
+		journal.close();
+
+		List<Entry> entries = new SoneJournal(directory).readEntries();
+		assertEquals(3, entries.size());
+		assertEntry(entries.get(0), Type.POST_CREATED, "sone-id", 1000, "post-id", "Text with “Unicode” ♥");
+		assertEntry(entries.get(1), Type.PROFILE_CHANGED, "sone-id", 2000, "First", null, "Last", "24", null, null);
+		assertEntry(entries.get(2), Type.SONE_REMOVED, "other-sone-id", 3000);
+	}
+
+	/**
+	 * Tests that reopening a journal appends to the existing entries.
+	 */
+	public void testReopenedJournalAppends() {
+		SoneJournal journal = new SoneJournal(directory);
+		journal.open();
+		journal.append(new Entry(Type.POST_LIKED, "sone-id", 1000, "post-id"));
+		journal.close();
+		journal.open();
+		journal.append(new Entry(Type.POST_UNLIKED, "sone-id", 2000, "post-id"));
+		journal.close();
+
+		List<Entry> entries = new SoneJournal(directory).readEntries();
+		assertEquals(2, entries.size());
+		assertEntry(entries.get(0), Type.POST_LIKED, "sone-id", 1000, "post-id");
+		assertEntry(entries.get(1), Type.POST_UNLIKED, "sone-id", 2000, "post-id");
+	}
+
+	/**
+	 * Tests that entries are discarded while the journal is not open.
+	 */
+	public void testClosedJournalDiscardsEntries() {
+		SoneJournal journal = new SoneJournal(directory);
+		journal.append(new Entry(Type.POST_LIKED, "sone-id", 1000, "post-id"));
+		assertEquals(0, journal.getEntryCount());
+		assertTrue(new SoneJournal(directory).readEntries().isEmpty());
+	}
+
+	/**
+	 * Tests that a checkpoint stores the snapshots and truncates the journal,
+	 * and that entries appended after the checkpoint are kept.
+	 */
+	public void testCheckpoint() {
+		SoneJournal journal = new SoneJournal(directory);
+		assertNull(journal.readCheckpoint());
+		journal.open();
+		journal.append(new Entry(Type.POST_CREATED, "sone-id", 1000, "post-id", "Text"));
+		assertTrue(journal.checkpoint(Arrays.asList("snapshot-1", "snapshot-2")));
+		assertEquals(0, journal.getEntryCount());
+		journal.append(new Entry(Type.POST_DELETED, "sone-id", 2000, "post-id"));
+		journal.close();
+
+		SoneJournal readJournal = new SoneJournal(directory);
+		assertEquals(Arrays.asList("snapshot-1", "snapshot-2"), readJournal.readCheckpoint());
+		List<Entry> entries = readJournal.readEntries();
+		assertEquals(1, entries.size());
+		assertEntry(entries.get(0), Type.POST_DELETED, "sone-id", 2000, "post-id");
+	}
+
+	/**
+	 * Tests that a newer checkpoint replaces an older one.
+	 */
+	public void testCheckpointReplacesCheckpoint() {
+		SoneJournal journal = new SoneJournal(directory);
+		assertTrue(journal.checkpoint(Arrays.asList("snapshot-1")));
+		assertTrue(journal.checkpoint(Arrays.asList("snapshot-2")));
+		assertEquals(Arrays.asList("snapshot-2"), new SoneJournal(directory).readCheckpoint());
+	}
+
+	/**
+	 * Tests that an incomplete last entry is ignored while all complete
+	 * entries are read.
+	 *
+	 * @throws IOException
+	 *             if the journal can not be truncated
+	 */
+	public void testIncompleteEntryIsIgnored() throws IOException {
+		SoneJournal journal = new SoneJournal(directory);
+		journal.open();
+		journal.append(new Entry(Type.POST_LIKED, "sone-id", 1000, "post-id"));
+		journal.append(new Entry(Type.POST_UNLIKED, "sone-id", 2000, "post-id"));
+		journal.close();
+		RandomAccessFile journalFile = new RandomAccessFile(new File(directory, "journal.dat"), "rw");
+		try {
+			journalFile.setLength(journalFile.length() - 3);
+		} finally {
+			journalFile.close();
+		}
+
+		List<Entry> entries = new SoneJournal(directory).readEntries();
+		assertEquals(1, entries.size());
+		assertEntry(entries.get(0), Type.POST_LIKED, "sone-id", 1000, "post-id");
+	}
+
+	/**
+	 * Tests that entries appended after an incomplete entry are not lost
+	 * behind the incomplete entry.
+	 *
+	 * @throws IOException
+	 *             if the journal can not be truncated
+	 */
+	public void testAppendAfterIncompleteEntry() throws IOException {
+		SoneJournal journal = new SoneJournal(directory);
+		journal.open();
+		journal.append(new Entry(Type.POST_LIKED, "sone-id", 1000, "post-id"));
+		journal.append(new Entry(Type.POST_UNLIKED, "sone-id", 2000, "post-id"));
+		journal.close();
+		RandomAccessFile journalFile = new RandomAccessFile(new File(directory, "journal.dat"), "rw");
+		try {
+			journalFile.setLength(journalFile.length() - 3);
+		} finally {
+			journalFile.close();
+		}
+
+		SoneJournal reopenedJournal = new SoneJournal(directory);
+		assertEquals(1, reopenedJournal.readEntries().size());
+		reopenedJournal.open();
+		reopenedJournal.append(new Entry(Type.REPLY_LIKED, "sone-id", 3000, "reply-id"));
+		reopenedJournal.close();
+
+		List<Entry> entries = new SoneJournal(directory).readEntries();
+		assertEquals(2, entries.size());
+		assertEntry(entries.get(0), Type.POST_LIKED, "sone-id", 1000, "post-id");
+		assertEntry(entries.get(1), Type.REPLY_LIKED, "sone-id", 3000, "reply-id");
+	}
+
+	/**
+	 * Tests that the temporary checkpoint is read if the node was killed after
+	 * the old checkpoint was removed but before the new one was renamed.
+	 */
+	public void testTemporaryCheckpointIsRead() {
+		SoneJournal journal = new SoneJournal(directory);
+		assertTrue(journal.checkpoint(Arrays.asList("snapshot")));
+		assertTrue(new File(directory, "checkpoint.dat").renameTo(new File(directory, "checkpoint.dat.tmp")));
+
+		assertEquals(Arrays.asList("snapshot"), new SoneJournal(directory).readCheckpoint());
+	}
+
+	/**
+	 * Tests that clearing the journal removes the checkpoint and all entries.
+	 */
+	public void testClear() {
+		SoneJournal journal = new SoneJournal(directory);
+		journal.open();
+		assertTrue(journal.checkpoint(Arrays.asList("snapshot")));
+		journal.append(new Entry(Type.POST_LIKED, "sone-id", 1000, "post-id"));
+		journal.clear();
+		journal.close();
+
+		SoneJournal readJournal = new SoneJournal(directory);
+		assertNull(readJournal.readCheckpoint());
+		assertTrue(readJournal.readEntries().isEmpty());
+	}
+
+	//
+	// PRIVATE METHODS
+	//
+
+	/**
+	 * Asserts that the given entry has the given values.
+	 *
+	 * @param entry
+	 *            The entry to check
+	 * @param type
+	 *            The expected type
+	 * @param soneId
+	 *            The expected Sone ID
+	 * @param time
+	 *            The expected time
+	 * @param values
+	 *            The expected values
+	 */
+	private static void assertEntry(Entry entry, Type type, String soneId, long time, String... values) {
+		assertEquals(type, entry.getType());
+		assertEquals(soneId, entry.getSoneId());
+		assertEquals(time, entry.getTime());
+		for (int index = 0; index < values.length; ++index) {
+			assertEquals(values[index], entry.getValue(index));
+		}
+	}
+
+}
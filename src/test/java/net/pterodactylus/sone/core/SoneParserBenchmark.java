@@ -0,0 +1,165 @@
+/*
+ * Sone - SoneParserBenchmark.java - Copyright © 2010 David Roden
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package net.pterodactylus.sone.core;
+
+import java.io.ByteArrayInputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import net.pterodactylus.sone.data.Post;
+import net.pterodactylus.sone.data.Profile;
+import net.pterodactylus.sone.data.Reply;
+
+/**
+ * Benchmark for the throughput of
+ * {@link SoneDownloader#parseSone(net.pterodactylus.sone.data.Sone, java.io.InputStream)}
+ * with 1, 2, 4, and 8 threads, for both the DOM parser and the streaming
+ * parser. Every run parses the same set of generated Sone
+ * documents with a new core and downloader, so no run profits from the
+ * section digests of an earlier run.
+ * <p>
+ * The benchmark is not run as part of the tests; run it with the test
+ * classpath, optionally giving the number of documents and the number of
+ * posts per document as arguments:
+ *
+ * <pre>
+ * java -cp target/classes:target/test-classes:&lt;dependencies&gt; net.pterodactylus.sone.core.SoneParserBenchmark 2000 50
+ * </pre>
+ *
+ * @author <a href="mailto:bombe@pterodactylus.net">David ‘Bombe’ Roden</a>
+ */
+public class SoneParserBenchmark {
+
+	/** The thread counts to measure. */
+	private static final int[] THREAD_COUNTS = { 1, 2, 4, 8 };
+
+	/**
+	 * Runs the benchmark.
+	 *
+	 * @param arguments
+	 *            The number of documents and the number of posts per document
+	 *            (both optional)
+	 * @throws Exception
+	 *             if a parser thread fails
+	 */
+	public static void main(String[] arguments) throws Exception {
+		int documentCount = (arguments.length > 0) ? Integer.parseInt(arguments[0]) : 2000;
+		int postCount = (arguments.length > 1) ? Integer.parseInt(arguments[1]) : 50;
+		List<byte[]> documents = createDocuments(documentCount, postCount);
+		System.out.printf("%d documents with %d posts and %d replies each.%n", documentCount, postCount, postCount * 2);
+		for (boolean useStreamingParser : new boolean[] { false, true }) {
+			/* warm up. */
+			parseDocuments(documents, 4, useStreamingParser);
+			for (int threadCount : THREAD_COUNTS) {
+				long startTime = System.nanoTime();
+				int parsedDocuments = parseDocuments(documents, threadCount, useStreamingParser);
+				long duration = System.nanoTime() - startTime;
+				System.out.printf("%-9s parser, %d thread(s): %8.1f docs/sec (%d of %d parsed)%n", useStreamingParser ? "streaming" : "DOM", threadCount, parsedDocuments * 1e9 / duration, parsedDocuments, documents.size());
+			}
+		}
+	}
+
+	//
+	// PRIVATE METHODS
+	//
+
+	/**
+	 * Parses all given documents using the given number of threads.
+	 *
+	 * @param documents
+	 *            The documents to parse
+	 * @param threadCount
+	 *            The number of threads
+	 * @param useStreamingParser
+	 *            {@code true} to use the streaming parser, {@code false} to
+	 *            use the DOM parser
+	 * @return The number of successfully parsed documents
+	 * @throws Exception
+	 *             if a parser thread fails
+	 */
+	private static int parseDocuments(final List<byte[]> documents, int threadCount, boolean useStreamingParser) throws Exception {
+		final SoneDownloader soneDownloader = new SoneDownloader(new Core(), null);
+		soneDownloader.setUseStreamingParser(useStreamingParser);
+		final AtomicInteger nextDocument = new AtomicInteger();
+		final AtomicInteger parsedDocuments = new AtomicInteger();
+		ExecutorService executorService = Executors.newFixedThreadPool(threadCount);
+		try {
+			List<Future<Void>> futures = new ArrayList<Future<Void>>();
+			for (int thread = 0; thread < threadCount; ++thread) {
+				futures.add(executorService.submit(new Callable<Void>() {
+
+					@Override
+					public Void call() {
+						int documentIndex;
+						while ((documentIndex = nextDocument.getAndIncrement()) < documents.size()) {
+							if (soneDownloader.parseSone(null, new ByteArrayInputStream(documents.get(documentIndex))) != null) {
+								parsedDocuments.incrementAndGet();
+							}
+						}
+						return null;
+					}
+				}));
+			}
+			for (Future<Void> future : futures) {
+				future.get();
+			}
+		} finally {
+			executorService.shutdown();
+		}
+		return parsedDocuments.get();
+	}
+
+	/**
+	 * Creates the given number of Sone documents.
+	 *
+	 * @param documentCount
+	 *            The number of documents to create
+	 * @param postCount
+	 *            The number of posts per document
+	 * @return The created documents
+	 */
+	private static List<byte[]> createDocuments(int documentCount, int postCount) {
+		List<byte[]> documents = new ArrayList<byte[]>(documentCount);
+		long now = System.currentTimeMillis();
+		for (int documentIndex = 0; documentIndex < documentCount; ++documentIndex) {
+			String soneId = UUID.randomUUID().toString();
+			List<Post> posts = new ArrayList<Post>(postCount);
+			List<Reply> replies = new ArrayList<Reply>(postCount * 2);
+			List<String> likedPostIds = new ArrayList<String>();
+			for (int postIndex = 0; postIndex < postCount; ++postIndex) {
+				Post post = new Post(UUID.randomUUID().toString(), null, now - postIndex * 60000L, "Post " + postIndex + " of Sone " + documentIndex + ", with some text & some <markup>.");
+				posts.add(post);
+				likedPostIds.add(post.getId());
+				for (int replyIndex = 0; replyIndex < 2; ++replyIndex) {
+					replies.add(new Reply(UUID.randomUUID().toString(), null, post, post.getTime() + replyIndex * 1000L, "Reply " + replyIndex + " to post " + postIndex + "."));
+				}
+			}
+			Profile profile = new Profile().setFirstName("First " + documentIndex).setLastName("Last " + documentIndex);
+			documents.add(SoneXmlSerializer.serialize(soneId, "Sone " + documentIndex, now, profile, posts, replies, likedPostIds, Collections.<String> emptyList(), SoneXmlSerializer.serializeKnownSones(Collections.<String[]> emptyList()), Collections.<String> emptyList()));
+		}
+		return documents;
+	}
+
+}
@@ -0,0 +1,152 @@
+/*
+ * Sone - SoneSnapshotTest.java - Copyright © 2010 David Roden
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package net.pterodactylus.sone.core;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.UUID;
+
+import junit.framework.TestCase;
+import net.pterodactylus.sone.data.Post;
+import net.pterodactylus.sone.data.Profile;
+import net.pterodactylus.sone.data.Reply;
+import net.pterodactylus.sone.data.Sone;
+import freenet.keys.FreenetURI;
+import freenet.support.Base64;
+
+/**
+ * Tests for {@link SoneSnapshot}.
+ *
+ * @author <a href="mailto:bombe@pterodactylus.net">David ‘Bombe’ Roden</a>
+ */
+public class SoneSnapshotTest extends TestCase {
+
+	/** The request URI of the test Sone. */
+	private static final String REQUEST_URI = "USK@eRHt0ceFsHjRZ11j6dd68RSdIvfd8f9YjJLZ9lnhEyo,iJWjIWh6TkMZm1NY8qBranKTIuwsCPkVPG6T6c6ft-I,AQACAAE/Sone/4";
+
+	/** The insert URI of the test Sone. */
+	private static final String INSERT_URI = "USK@eRHt0ceFsHjRZ11j6dd68RSdIvfd8f9YjJLZ9lnhEyo,iJWjIWh6TkMZm1NY8qBranKTIuwsCPkVPG6T6c6ft-I,AQECAAE/Sone/4";
+
+	/** The request URI of the friend of the test Sone. */
+	private static final String FRIEND_URI = "USK@RuW~uAO35Ipne896-1OmaVJNPuYE4ZIB5oZ5ziaU57A,7rV3uiyztXBDt03DCoRiNwiGjgFCJuznM9Okc1opURU,AQACAAE/Sone/29";
+
+	/**
+	 * Tests that a restored Sone contains everything the snapshot was created
+	 * from.
+	 *
+	 * @throws Exception
+	 *             if an error occurs
+	 */
+	public void testRoundTrip() throws Exception {
+		Sone friend = new Sone(UUID.randomUUID().toString()).setName("Friend").setRequestUri(new FreenetURI(FRIEND_URI));
+		Post friendPost = new Post(UUID.randomUUID().toString(), friend, 1000, "Friend’s post");
+		Sone sone = new Sone(UUID.randomUUID().toString()).setName("Test").setTime(5000).setRequestUri(new FreenetURI(REQUEST_URI)).setInsertUri(new FreenetURI(INSERT_URI));
+		Profile profile = new Profile().setFirstName("First").setMiddleName(null).setLastName("Last");
+		profile.setBirthDay(24).setBirthMonth(12).setBirthYear(null);
+		sone.setProfile(profile);
+		Post post = new Post(UUID.randomUUID().toString(), sone, 2000, "First post\nwith “Unicode” ♥");
+		Post emptyPost = new Post(UUID.randomUUID().toString(), sone, 3000, "");
+		sone.setPosts(Arrays.asList(post, emptyPost));
+		Reply ownReply = new Reply(UUID.randomUUID().toString(), sone, post, 2500, "Own reply");
+		Reply friendReply = new Reply(UUID.randomUUID().toString(), sone, friendPost, 4000, "Reply to friend");
+		sone.setReplies(Arrays.asList(ownReply, friendReply));
+		sone.addFriend(friend);
+		String blockedSoneId = UUID.randomUUID().toString();
+		sone.addBlockedSoneId(blockedSoneId);
+		sone.setLikePostIds(new HashSet<String>(Arrays.asList(friendPost.getId())));
+		sone.setLikeReplyIds(new HashSet<String>(Arrays.asList(friendReply.getId(), ownReply.getId())));
+		sone.setModificationCounter(7);
+
+		Core core = new Core();
+		Sone restoredSone = SoneSnapshot.restoreSnapshot(core, SoneSnapshot.createSnapshot(sone));
+
+		assertNotNull(restoredSone);
+		assertNotSame(sone, restoredSone);
+		assertSame(restoredSone, core.getSone(sone.getId()));
+		assertEquals(sone.getId(), restoredSone.getId());
+		assertEquals("Test", restoredSone.getName());
+		assertEquals(5000, restoredSone.getTime());
+		assertEquals(sone.getRequestUri().toString(), restoredSone.getRequestUri().toString());
+		assertEquals(sone.getInsertUri().toString(), restoredSone.getInsertUri().toString());
+		assertEquals(7, restoredSone.getModificationCounter());
+
+		Profile restoredProfile = restoredSone.getProfile();
+		assertEquals("First", restoredProfile.getFirstName());
+		assertNull(restoredProfile.getMiddleName());
+		assertEquals("Last", restoredProfile.getLastName());
+		assertEquals(Integer.valueOf(24), restoredProfile.getBirthDay());
+		assertEquals(Integer.valueOf(12), restoredProfile.getBirthMonth());
+		assertNull(restoredProfile.getBirthYear());
+
+		assertEquals(2, restoredSone.getPosts().size());
+		Post restoredPost = core.getPost(post.getId(), false);
+		assertNotNull(restoredPost);
+		assertTrue(restoredSone.hasPost(restoredPost));
+		assertSame(restoredSone, restoredPost.getSone());
+		assertEquals(2000, restoredPost.getTime());
+		assertEquals(post.getText(), restoredPost.getText());
+		assertEquals("", core.getPost(emptyPost.getId(), false).getText());
+
+		assertEquals(2, restoredSone.getReplies().size());
+		Reply restoredFriendReply = core.getReply(friendReply.getId(), false);
+		assertNotNull(restoredFriendReply);
+		assertTrue(restoredSone.hasReply(restoredFriendReply));
+		assertSame(restoredSone, restoredFriendReply.getSone());
+		assertEquals(friendPost.getId(), restoredFriendReply.getPost().getId());
+		assertEquals(4000, restoredFriendReply.getTime());
+		assertEquals("Reply to friend", restoredFriendReply.getText());
+		assertSame(restoredPost, core.getReply(ownReply.getId(), false).getPost());
+
+		assertEquals(1, restoredSone.getFriends().size());
+		Sone restoredFriend = restoredSone.getFriends().get(0);
+		assertSame(core.getSone(friend.getId()), restoredFriend);
+		assertEquals("Friend", restoredFriend.getName());
+		assertEquals(FRIEND_URI, restoredFriend.getRequestUri().toString());
+
+		assertEquals(sone.getBlockedSoneIds(), restoredSone.getBlockedSoneIds());
+		assertEquals(sone.getLikedPostIds(), restoredSone.getLikedPostIds());
+		assertEquals(sone.getLikedReplyIds(), restoredSone.getLikedReplyIds());
+	}
+
+	/**
+	 * Tests that a snapshot that is not a snapshot is not restored.
+	 */
+	public void testInvalidSnapshot() {
+		assertNull(SoneSnapshot.restoreSnapshot(new Core(), "AAAAAAAAAAA="));
+	}
+
+	/**
+	 * Tests that a truncated snapshot is not restored, and that neither the
+	 * Sone nor its posts are created in the core.
+	 *
+	 * @throws Exception
+	 *             if an error occurs
+	 */
+	public void testTruncatedSnapshot() throws Exception {
+		Sone sone = new Sone(UUID.randomUUID().toString()).setName("Test").setRequestUri(new FreenetURI(REQUEST_URI)).setInsertUri(new FreenetURI(INSERT_URI));
+		Post post = new Post(UUID.randomUUID().toString(), sone, 1000, "Post");
+		sone.setPosts(Arrays.asList(post));
+		byte[] snapshot = Base64.decode(SoneSnapshot.createSnapshot(sone));
+		byte[] truncatedSnapshot = Arrays.copyOf(snapshot, snapshot.length - 10);
+		Core core = new Core();
+		assertNull(SoneSnapshot.restoreSnapshot(core, Base64.encode(truncatedSnapshot)));
+		assertFalse(core.hasSone(sone.getId()));
+		assertNull(core.getPost(post.getId(), false));
+	}
+
+}
@@ -0,0 +1,159 @@
+/*
+ * Sone - SoneXmlSerializerTest.java - Copyright © 2010 David Roden
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package net.pterodactylus.sone.core;
+
+import java.io.InputStreamReader;
+import java.io.StringWriter;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+
+import junit.framework.TestCase;
+import net.pterodactylus.sone.data.Post;
+import net.pterodactylus.sone.data.Profile;
+import net.pterodactylus.sone.data.Reply;
+import net.pterodactylus.sone.data.Sone;
+import net.pterodactylus.util.template.DefaultTemplateFactory;
+import net.pterodactylus.util.template.ReflectionAccessor;
+import net.pterodactylus.util.template.Template;
+import net.pterodactylus.util.template.XmlFilter;
+import freenet.keys.FreenetURI;
+
+/**
+ * Tests that {@link SoneXmlSerializer} writes the same “sone.xml” document as
+ * the “sone.xml” template.
+ *
+ * @author <a href="mailto:bombe@pterodactylus.net">David ‘Bombe’ Roden</a>
+ */
+public class SoneXmlSerializerTest extends TestCase {
+
+	/** The request URI of the known Sone. */
+	private static final String KNOWN_SONE_URI = "USK@RuW~uAO35Ipne896-1OmaVJNPuYE4ZIB5oZ5ziaU57A,7rV3uiyztXBDt03DCoRiNwiGjgFCJuznM9Okc1opURU,AQACAAE/Sone/29";
+
+	/**
+	 * Tests that a Sone with a complete profile, posts, replies, likes, and
+	 * known Sones is written exactly like the template renders it.
+	 *
+	 * @throws Exception
+	 *             if an error occurs
+	 */
+	public void testDocumentMatchesTemplate() throws Exception {
+		Profile profile = new Profile().setFirstName("First & <Only>").setMiddleName("“Middle”").setLastName("Last's");
+		profile.setBirthDay(24).setBirthMonth(12).setBirthYear(1980);
+		Post post = new Post(UUID.randomUUID().toString(), null, 1000, "A post\nwith <markup> & \"quotes\" ♥");
+		Post otherPost = new Post(UUID.randomUUID().toString(), null, 2000, "");
+		Reply reply = new Reply(UUID.randomUUID().toString(), null, post, 1500, "A reply & more");
+		Sone knownSone = new Sone(UUID.randomUUID().toString()).setName("Known <Sone>").setRequestUri(new FreenetURI(KNOWN_SONE_URI));
+		assertDocumentMatchesTemplate(UUID.randomUUID().toString(), "Test & Sone", 5000, profile, Arrays.asList(post, otherPost), Arrays.asList(reply), Arrays.asList(UUID.randomUUID().toString(), post.getId()), Arrays.asList(reply.getId()), Arrays.asList(knownSone));
+	}
+
+	/**
+	 * Tests that a Sone without profile values, posts, replies, likes, and
+	 * known Sones is written exactly like the template renders it.
+	 *
+	 * @throws Exception
+	 *             if an error occurs
+	 */
+	public void testEmptyDocumentMatchesTemplate() throws Exception {
+		assertDocumentMatchesTemplate(UUID.randomUUID().toString(), null, 0, new Profile(), Collections.<Post> emptyList(), Collections.<Reply> emptyList(), Collections.<String> emptyList(), Collections.<String> emptyList(), Collections.<Sone> emptyList());
+	}
+
+	//
+	// PRIVATE METHODS
+	//
+
+	/**
+	 * Asserts that the serializer writes the same document for the given data
+	 * as the “sone.xml” template.
+	 *
+	 * @param soneId
+	 *            The ID of the Sone
+	 * @param name
+	 *            The name of the Sone
+	 * @param time
+	 *            The time of the Sone
+	 * @param profile
+	 *            The profile of the Sone
+	 * @param posts
+	 *            The posts of the Sone
+	 * @param replies
+	 *            The replies of the Sone
+	 * @param likedPostIds
+	 *            The IDs of the liked posts
+	 * @param likedReplyIds
+	 *            The IDs of the liked replies
+	 * @param knownSones
+	 *            The known Sones
+	 * @throws Exception
+	 *             if the template can not be rendered
+	 */
+	private static void assertDocumentMatchesTemplate(String soneId, String name, long time, Profile profile, List<Post> posts, List<Reply> replies, List<String> likedPostIds, List<String> likedReplyIds, List<Sone> knownSones) throws Exception {
+		List<String[]> knownSoneValues = new ArrayList<String[]>();
+		for (Sone knownSone : knownSones) {
+			knownSoneValues.add(new String[] { knownSone.getId(), knownSone.getRequestUri().toString(), knownSone.getName() });
+		}
+		byte[] document = SoneXmlSerializer.serialize(soneId, name, time, profile, posts, replies, likedPostIds, likedReplyIds, SoneXmlSerializer.serializeKnownSones(knownSoneValues), Collections.<String> emptyList());
+
+		Map<String, Object> soneProperties = new HashMap<String, Object>();
+		soneProperties.put("id", soneId);
+		soneProperties.put("name", name);
+		soneProperties.put("time", time);
+		soneProperties.put("profile", profile);
+		soneProperties.put("posts", posts);
+		soneProperties.put("replies", replies);
+		soneProperties.put("likedPostIds", likedPostIds);
+		soneProperties.put("likedReplyIds", likedReplyIds);
+		assertEquals(renderTemplate(soneProperties, knownSones), new String(document, "UTF-8"));
+	}
+
+	/**
+	 * Renders the “sone.xml” template the same way the Sone inserter used to.
+	 *
+	 * @param soneProperties
+	 *            The properties of the Sone
+	 * @param knownSones
+	 *            The known Sones
+	 * @return The rendered template
+	 * @throws Exception
+	 *             if the template can not be rendered
+	 */
+	private static String renderTemplate(Map<String, Object> soneProperties, Collection<Sone> knownSones) throws Exception {
+		DefaultTemplateFactory templateFactory = new DefaultTemplateFactory();
+		templateFactory.addAccessor(Object.class, new ReflectionAccessor());
+		templateFactory.addFilter("xml", new XmlFilter());
+		InputStreamReader templateInputStreamReader = new InputStreamReader(SoneXmlSerializerTest.class.getResourceAsStream("/templates/insert/sone.xml"), "UTF-8");
+		Template template;
+		try {
+			template = templateFactory.createTemplate(templateInputStreamReader);
+			template.parse();
+		} finally {
+			templateInputStreamReader.close();
+		}
+		template.set("currentSone", soneProperties);
+		template.set("knownSones", knownSones);
+		StringWriter writer = new StringWriter();
+		template.render(writer);
+		return writer.toString();
+	}
+
+}
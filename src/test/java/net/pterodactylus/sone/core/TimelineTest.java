@@ -0,0 +1,129 @@
+/*
+ * Sone - TimelineTest.java - Copyright © 2010 David Roden
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package net.pterodactylus.sone.core;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.UUID;
+
+import junit.framework.TestCase;
+import net.pterodactylus.sone.data.Post;
+
+/**
+ * Tests for {@link Timeline}.
+ *
+ * @author <a href="mailto:bombe@pterodactylus.net">David ‘Bombe’ Roden</a>
+ */
+public class TimelineTest extends TestCase {
+
+	/**
+	 * Tests that posts added in several batches are merged into one list,
+	 * newest first.
+	 */
+	public void testAddPostsMergesNewestFirst() {
+		Post first = createPost(1000);
+		Post second = createPost(2000);
+		Post third = createPost(3000);
+		Post fourth = createPost(4000);
+		Timeline timeline = new Timeline();
+		timeline.addPosts(Arrays.asList(first, third));
+		timeline.addPosts(Arrays.asList(fourth, second));
+		assertEquals(Arrays.asList(fourth, third, second, first), timeline.getPosts());
+	}
+
+	/**
+	 * Tests that adding a post twice does not duplicate it.
+	 */
+	public void testAddPostsIgnoresContainedPosts() {
+		Post post = createPost(1000);
+		Timeline timeline = new Timeline();
+		timeline.addPosts(Collections.singleton(post));
+		timeline.addPosts(Collections.singleton(post));
+		assertEquals(Collections.singletonList(post), timeline.getPosts());
+	}
+
+	/**
+	 * Tests that posts with the same time are all kept.
+	 */
+	public void testPostsWithSameTimeAreKept() {
+		Post first = createPost(1000);
+		Post second = createPost(1000);
+		Timeline timeline = new Timeline();
+		timeline.addPosts(Arrays.asList(first, second));
+		assertEquals(2, timeline.getPosts().size());
+		assertTrue(timeline.getPosts().containsAll(Arrays.asList(first, second)));
+	}
+
+	/**
+	 * Tests that removed posts disappear from the timeline.
+	 */
+	public void testRemovePosts() {
+		Post first = createPost(1000);
+		Post second = createPost(2000);
+		Post third = createPost(3000);
+		Timeline timeline = new Timeline();
+		timeline.addPosts(Arrays.asList(first, second, third));
+		timeline.removePosts(Collections.singleton(second));
+		assertEquals(Arrays.asList(third, first), timeline.getPosts());
+	}
+
+	/**
+	 * Tests that a post whose time has changed can be removed and is sorted
+	 * by its new time when it is added again.
+	 */
+	public void testChangedPostIsResorted() {
+		Post first = createPost(1000);
+		Post second = createPost(2000);
+		Timeline timeline = new Timeline();
+		timeline.addPosts(Arrays.asList(first, second));
+		first.setTime(3000);
+		timeline.removePosts(Collections.singleton(first));
+		timeline.addPosts(Collections.singleton(first));
+		assertEquals(Arrays.asList(first, second), timeline.getPosts());
+	}
+
+	/**
+	 * Tests that a returned list is not changed by later modifications.
+	 */
+	public void testReturnedListIsSnapshot() {
+		Post first = createPost(1000);
+		Timeline timeline = new Timeline();
+		timeline.addPosts(Collections.singleton(first));
+		List<Post> posts = timeline.getPosts();
+		timeline.addPosts(Collections.singleton(createPost(2000)));
+		assertEquals(Collections.singletonList(first), posts);
+		assertEquals(2, timeline.getPosts().size());
+	}
+
+	//
+	// PRIVATE METHODS
+	//
+
+	/**
+	 * Creates a post with a random ID and the given time.
+	 *
+	 * @param time
+	 *            The time of the post
+	 * @return The created post
+	 */
+	private static Post createPost(long time) {
+		return new Post(UUID.randomUUID().toString(), null, time, "Post at " + time);
+	}
+
+}